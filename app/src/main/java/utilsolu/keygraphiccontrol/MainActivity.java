@@ -7,59 +7,195 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.BroadcastReceiver;
+import android.content.pm.PackageManager;
 import android.os.BatteryManager;
-import android.util.Log;
+import android.os.Build;
+import android.os.Process;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.widget.ImageView;
 import android.widget.FrameLayout;
 import android.widget.LinearLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import androidx.core.splashscreen.SplashScreen;
 
+import utilsolu.keygraphiccontrol.input.AnalogStreamer;
+import utilsolu.keygraphiccontrol.input.JoystickInputThread;
+import utilsolu.keygraphiccontrol.input.JoystickSampleProcessor;
+import utilsolu.keygraphiccontrol.input.ZoomEngine;
+import utilsolu.keygraphiccontrol.keymap.Keymap;
+import utilsolu.keygraphiccontrol.keymap.KeymapProfile;
+import utilsolu.keygraphiccontrol.keymap.KeymapRouter;
+import utilsolu.keygraphiccontrol.metrics.ConnectionMetrics;
+import utilsolu.keygraphiccontrol.metrics.InputMetrics;
+import utilsolu.keygraphiccontrol.metrics.LatencyTracker;
+import utilsolu.keygraphiccontrol.metrics.StartupMetrics;
+import utilsolu.keygraphiccontrol.net.ClockEstimator;
+import utilsolu.keygraphiccontrol.net.CommandRing;
+import utilsolu.keygraphiccontrol.net.CommandWriter;
+import utilsolu.keygraphiccontrol.net.ConnectionManager;
+import utilsolu.keygraphiccontrol.net.DatagramStateSender;
+import utilsolu.keygraphiccontrol.net.HeartbeatMonitor;
+import utilsolu.keygraphiccontrol.net.MacroTable;
+import utilsolu.keygraphiccontrol.net.NioSocketTransport;
+import utilsolu.keygraphiccontrol.net.OutboundQueue;
+import utilsolu.keygraphiccontrol.net.ReconnectBackoff;
+import utilsolu.keygraphiccontrol.net.ReliableWindow;
+import utilsolu.keygraphiccontrol.net.SendRateController;
+import utilsolu.keygraphiccontrol.net.StateCoalescer;
+import utilsolu.keygraphiccontrol.protocol.Frame;
+import utilsolu.keygraphiccontrol.protocol.ProtocolNegotiator;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+import utilsolu.keygraphiccontrol.replay.SessionRecorder;
+import utilsolu.keygraphiccontrol.trace.TraceEvent;
+import utilsolu.keygraphiccontrol.trace.TraceRing;
+
 
 public class MainActivity extends AppCompatActivity {
 
-    private static final String TAG = "MainActivity";
     private static final long LONG_PRESS_DURATION = 3000;
 
+    // --- TRAZA: eventos con argumentos enteros en memoria, sin formatear; solo se convierten a
+    // texto al volcarlos (overlay de depuración y exportación) ---
+    private final TraceRing trace = new TraceRing(TraceRing.DEFAULT_CAPACITY);
+    private static final int TRACE_OVERLAY_LINES = 12;
+
     // --- CONFIGURACIÓN DE RED ---
     private static final String SERVER_IP = "127.0.0.1";
     private static final int SERVER_PORT = 8090;
-    private Socket clientSocket;
-    private PrintWriter printwriter;
+    private static final int HANDSHAKE_TIMEOUT_MS = 300;
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final int WRITE_TIMEOUT_MS = 2000;
+    // Buffer de envío pequeño: preferimos notar pronto que el PC no lee a acumular segundos
+    // de comandos viejos en el kernel.
+    private static final int SEND_BUFFER_BYTES = 8 * 1024;
+    private volatile NioSocketTransport transport;
+    // Estado continuo (dirección, zoom, analógico) por UDP, sin el bloqueo de cabeza de línea de
+    // TCP; los botones siguen por TCP. adb reverse solo reenvía TCP: activarlo únicamente cuando
+    // SERVER_IP sea la IP de la PC alcanzable directamente (Wi-Fi, anclaje USB).
+    private static final boolean STATE_OVER_UDP = false;
+    private volatile DatagramStateSender datagramSender;
     private ExecutorService networkExecutor = Executors.newSingleThreadExecutor();
     private volatile boolean isConnected = false;
+    private final AtomicBoolean connectInFlight = new AtomicBoolean();
+
+    // --- PROTOCOLO (binario si el listener lo acepta, texto heredado si no) ---
+    private int protocolVersion = ProtocolNegotiator.TEXT_PROTOCOL;
+    // Token de la sesión reanudable del listener (0 = ninguna). Con él, al reconectar el PC
+    // confirma qué botones llegó a entregar y el escritor reenvía solo el resto.
+    private volatile int resumeToken;
+
+    // --- CAMINO DE ENVÍO SIN RESERVAS DE MEMORIA ---
+    // Cola de salida acotada: botones en una cola circular preasignada (nunca se descartan,
+    // salen primero); dirección/zoom/vector analógico, solo el último valor pendiente.
+    // Un único hilo escritor la vacía y reutiliza sus buffers de salida.
+    private static final int COMMAND_RING_CAPACITY = 256;
+    private final StateCoalescer stateCoalescer = new StateCoalescer(StateCoalescer.CHANNEL_COUNT);
+    private final OutboundQueue outboundQueue =
+            new OutboundQueue(new CommandRing(COMMAND_RING_CAPACITY), stateCoalescer);
+    private final LatencyTracker latencyTracker = new LatencyTracker();
+    // Reloj del PC estimado con los latidos: cada lote lleva su hora de envío en ese reloj y el
+    // receptor mide la latencia de ida.
+    private final ClockEstimator clockEstimator = new ClockEstimator();
+    // Ritmo del estado continuo según el enlace (RTT de los latidos, escrituras, cola de botones):
+    // fija la ventana de agrupado del escritor y limita el tick del modo analógico.
+    private final SendRateController sendRateController = new SendRateController(new SendRateController.Listener() {
+        @Override
+        public void onRateChanged(int rateHz, int cause) {
+            analogStreamer.setRateLimitHz(rateHz);
+            if (cause != SendRateController.CAUSE_NONE) {
+                trace.record(TraceEvent.SEND_RATE_DOWN, rateHz, cause);
+            }
+        }
+    });
+    private final CommandWriter commandWriter = new CommandWriter(outboundQueue,
+            new ReliableWindow(ReliableWindow.DEFAULT_CAPACITY), clockEstimator, sendRateController,
+            latencyTracker, error -> {
+        trace.record(TraceEvent.WRITE_FAILED, trace.note(error.getMessage()));
+        closeAndReconnect();
+    });
+
+    // --- MODO ANALÓGICO: vector (x, y) a frecuencia fija desde su propio hilo ---
+    private final AnalogStreamer analogStreamer =
+            new AnalogStreamer(AnalogStreamer.DEFAULT_TICK_HZ, this::queueAnalogVector);
+
+    // --- LATIDOS: PC caído detectado en ~HEARTBEAT_INTERVAL_MS * (HEARTBEAT_MISS_THRESHOLD + 1) ---
+    private static final int HEARTBEAT_INTERVAL_MS = 100;
+    private static final int HEARTBEAT_MISS_THRESHOLD = 3;
+    private final ConnectionMetrics connectionMetrics = new ConnectionMetrics();
+    private final HeartbeatMonitor heartbeatMonitor = new HeartbeatMonitor(
+            HEARTBEAT_INTERVAL_MS, HEARTBEAT_MISS_THRESHOLD, commandWriter::publishPing, connectionMetrics,
+            clockEstimator, sendRateController, reason -> {
+        trace.record(TraceEvent.PEER_DEAD, trace.note(reason));
+        closeAndReconnect();
+    });
+
+    // --- CONEXIÓN DE RESERVA ---
+    // Con HOT_STANDBY se mantiene un segundo enlace ya negociado: tras una caída se reanuda la
+    // sesión en él (una ida y vuelta) sin esperar al backoff. Para conmutar entre varios listeners
+    // del PC (p. ej. uno de respaldo en otro puerto, con su propio adb reverse), añadirlos aquí.
+    // Con un solo listener la reserva caería junto con el activo: solo se activa con varios.
+    private static final ConnectionManager.Endpoint[] SERVER_ENDPOINTS = {
+            new ConnectionManager.Endpoint(SERVER_IP, SERVER_PORT),
+    };
+    private static final boolean HOT_STANDBY = SERVER_ENDPOINTS.length > 1;
+    private final ConnectionManager connectionManager = new ConnectionManager(Arrays.asList(SERVER_ENDPOINTS),
+            HOT_STANDBY, CONNECT_TIMEOUT_MS, HANDSHAKE_TIMEOUT_MS, SEND_BUFFER_BYTES, WRITE_TIMEOUT_MS,
+            connectionMetrics, () -> {
+        // Reserva lista sin conexión activa: el listener ha vuelto, no se espera al reintento.
+        if (!isConnected) {
+            connectToServer();
+        }
+    });
 
     // --- VARIABLES DE RECONEXIÓN AUTOMÁTICA ---
+    // Backoff exponencial con jitter: el primer reintento sale casi al instante y los
+    // siguientes se espacian hasta RECONNECT_MAX_MS mientras el PC siga caído.
     private Handler reconnectHandler = new Handler();
-    private static final int RECONNECT_INTERVAL_MS = 5000;
+    private static final long RECONNECT_BASE_MS = 100;
+    private static final long RECONNECT_MAX_MS = 5000;
+    private final ReconnectBackoff reconnectBackoff = new ReconnectBackoff(RECONNECT_BASE_MS, RECONNECT_MAX_MS);
     private volatile boolean reconnectScheduled = false;
+    // Instante (nanoTime) en que se perdió la conexión; 0 si no hay caída pendiente de medir.
+    private volatile long disconnectedAtNanos;
 
     private Runnable reconnectRunnable = new Runnable() {
         @Override
         public void run() {
+            reconnectScheduled = false;
             if (!isConnected) {
-                Log.d(TAG, "Reintento de conexión programado...");
                 connectToServer();
-                reconnectHandler.postDelayed(this, RECONNECT_INTERVAL_MS);
-            } else {
-                reconnectScheduled = false;
             }
         }
     };
 
+    // --- MAPEO DE CONTROLES POR MODO ---
+    // Perfiles del usuario en Android/data/<paquete>/files/perfiles/modo<N>.txt (ver KeymapProfile);
+    // se compilan a tablas fuera del hilo de UI. Sin perfil, cada modo usa el mapeo de siempre.
+    private final KeymapRouter keymapRouter = new KeymapRouter(this::sendToPC);
+
     // --- VARIABLES DE ESTADO Y COMPONENTES UI ---
-    private int currentMode = 1;
+    private static final int MODE_DIGITAL = 1;
+    private static final int MODE_ANALOG = 2;
+    private int currentMode = MODE_DIGITAL;
     private boolean isZoomActive = false;
     private BroadcastReceiver powerConnectionReceiver;
 
@@ -73,6 +209,83 @@ public class MainActivity extends AppCompatActivity {
     private int joystickCenterY;
     private int joystickRadius;
     private static final int JOYSTICK_MOVEMENT_THRESHOLD = 20;
+    // Umbral de cancelación de la pulsación larga, al cuadrado: el hilo de UI no calcula raíces.
+    private static final int LONG_PRESS_CANCEL_SQ = (JOYSTICK_MOVEMENT_THRESHOLD * 2) * (JOYSTICK_MOVEMENT_THRESHOLD * 2);
+    // Cada muestra táctil (también las históricas del lote) se clasifica con su propio instante,
+    // en el hilo de entrada: el de UI solo mueve el stick y publica las muestras.
+    private final InputMetrics inputMetrics = new InputMetrics();
+    // Fases del arranque desde el inicio del proceso. uptimeMillis y nanoTime comparten reloj
+    // (CLOCK_MONOTONIC), así que el origen se puede restar de System.nanoTime().
+    private final StartupMetrics startupMetrics = new StartupMetrics(Process.getStartUptimeMillis() * 1_000_000L);
+    // Zoom continuo (stick en modo zoom o pellizco con dos dedos): una velocidad cuantizada que
+    // solo se envía al cambiar, entre un ZOOM_GESTURE START y su STOP. Vive en el hilo de entrada.
+    private final ZoomEngine zoomEngine = new ZoomEngine(new ZoomEngine.Output() {
+        @Override
+        public void onZoomGesture(int phase, long nanos) {
+            sendToPC(WireProtocol.OP_ZOOM_GESTURE, phase, 0, nanos);
+        }
+
+        @Override
+        public void onZoomRate(int rate, long nanos) {
+            sendToPC(WireProtocol.OP_ZOOM_RATE, rate, 0, nanos);
+        }
+    });
+    // En un pellizco el stick se suelta y no vuelve a moverse hasta levantar todos los dedos.
+    private boolean isPinching = false;
+    private final JoystickSampleProcessor joystickProcessor = new JoystickSampleProcessor(new JoystickSampleProcessor.Sink() {
+        @Override
+        public void onDirection(int direction, long sampleNanos) {
+            keymapRouter.direction(direction, sampleNanos);
+        }
+
+        @Override
+        public void onZoom(float displacement, long sampleNanos) {
+            zoomEngine.stick(displacement, sampleNanos);
+        }
+
+        @Override
+        public void onPinch(float span, long sampleNanos) {
+            zoomEngine.pinch(span, sampleNanos);
+        }
+
+        @Override
+        public void onPinchEnd(long sampleNanos) {
+            zoomEngine.pinchEnd(sampleNanos);
+        }
+
+        @Override
+        public void onAnalog(float normX, float normY) {
+            analogStreamer.update(normX, normY);
+        }
+
+        @Override
+        public void onRelease(int mode, long sampleNanos) {
+            zoomEngine.stop(sampleNanos);
+            if (mode == JoystickSampleProcessor.MODE_ANALOG) {
+                analogStreamer.release();
+                return;
+            }
+            keymapRouter.release(sampleNanos);
+        }
+    });
+    private final JoystickInputThread joystickInput = new JoystickInputThread(joystickProcessor, inputMetrics);
+
+    // Overlay oculto de depuración (mantener pulsado el indicador de estado)
+    private static final long DEBUG_OVERLAY_REFRESH_MS = 500;
+    private TextView debugOverlay;
+    private final Runnable debugOverlayRefresh = new Runnable() {
+        @Override
+        public void run() {
+            debugOverlay.setText(startupMetrics.formatText() + latencyTracker.formatText() + connectionMetrics.formatText() + clockEstimator.formatText()
+                    + sendRateController.formatText() + inputMetrics.formatText() + "entrada: " + (joystickInput.isInline() ? "hilo UI" : "hilo propio")
+                    + "\n" + zoomEngine + "\n" + outboundQueue + recordingStatus() + "\n" + trace.dump(TRACE_OVERLAY_LINES));
+            handler.postDelayed(this, DEBUG_OVERLAY_REFRESH_MS);
+        }
+    };
+
+    // Grabación de sesión para reproducirla en la PC (receiver: ReplayMain). Se activa con el
+    // overlay visible manteniendo pulsado el logo.
+    private final SessionRecorder sessionRecorder = new SessionRecorder(SessionRecorder.DEFAULT_RING_CAPACITY);
 
     // Componentes de la interfaz
     private Handler handler = new Handler();
@@ -83,20 +296,19 @@ public class MainActivity extends AppCompatActivity {
     // --- CICLO DE VIDA DE LA ACTIVIDAD ---
     // -------------------------------------------------------------------------
 
+    // Arranque en frío: la conexión sale hacia el hilo de red antes de inflar la vista y corre en
+    // paralelo con el inflado; en el camino hasta el primer frame solo va lo que se puede tocar
+    // (joystick, botones, modos). El resto se engancha en deferredInit, tras el primer frame.
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        markStartup(StartupMetrics.PHASE_ACTIVITY_CREATE);
         SplashScreen.installSplashScreen(this);
 
         super.onCreate(savedInstanceState);
 
-        // Habilitar Modo Inmersivo (Pantalla Completa)
-        getWindow().setFlags(
-                WindowManager.LayoutParams.FLAG_FULLSCREEN,
-                WindowManager.LayoutParams.FLAG_FULLSCREEN);
-
-        setContentView(R.layout.activity_main);
-
-
+        commandWriter.start();
+        joystickInput.start();
+        connectAtStartup();
 
         // Habilitar Modo Inmersivo (Pantalla Completa)
         getWindow().setFlags(
@@ -104,14 +316,15 @@ public class MainActivity extends AppCompatActivity {
                 WindowManager.LayoutParams.FLAG_FULLSCREEN);
 
         setContentView(R.layout.activity_main);
+        markStartup(StartupMetrics.PHASE_CONTENT_VIEW);
 
         longPressRunnable = new Runnable() {
             @Override
             public void run() {
-                if (currentMode == 1) {
+                if (currentMode == MODE_DIGITAL) {
                     isZoomActive = true;
                     Toast.makeText(MainActivity.this, "¡Modo ZOOM Activado!", Toast.LENGTH_SHORT).show();
-                    Log.d(TAG, "Función Secreta: ZOOM ACTIVADO");
+                    trace.record(TraceEvent.ZOOM_ON);
                 }
             }
         };
@@ -119,30 +332,70 @@ public class MainActivity extends AppCompatActivity {
         indicatorLeft = findViewById(R.id.indicator_left);
         indicatorRight = findViewById(R.id.indicator_right);
 
-        // Inicialización de UI
+        // Inicialización de UI: lo que el usuario puede tocar en el primer frame
         initializeTopControls();
         initializeJoystickControl();
         initializeButtonColumns();
-        initializeReconnectButton();
 
-        // Al inicio, forzamos el estado de interfaz: Desconectado (ROJO a la IZQUIERDA)
-        updateConnectionStatusUI(false);
+        // La conexión puede haber terminado ya durante el inflado
+        updateConnectionStatusUI(isConnected);
+
+        View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnDrawListener(firstFrameListener);
+    }
+
+    // Primer frame dibujado: se mide y se programa el resto de la inicialización. El listener no
+    // se puede quitar desde su propio onDraw, así que se quita en el mensaje siguiente.
+    private final ViewTreeObserver.OnDrawListener firstFrameListener = new ViewTreeObserver.OnDrawListener() {
+        @Override
+        public void onDraw() {
+            if (markStartup(StartupMetrics.PHASE_FIRST_FRAME)) {
+                handler.post(deferredInit);
+            }
+        }
+    };
+
+    private final Runnable deferredInit = new Runnable() {
+        @Override
+        public void run() {
+            getWindow().getDecorView().getViewTreeObserver().removeOnDrawListener(firstFrameListener);
+            initializeReconnectButton();
+            initializeDebugOverlay();
+            loadKeymapProfiles();
+            initializeConnectionReceiver();
+            markStartup(StartupMetrics.PHASE_UI_READY);
+        }
+    };
 
-        // --- INICIALIZACIÓN CRÍTICA ---
-        initializeConnectionReceiver();
+    // Marca una fase del arranque (solo la primera vez) y la deja en la traza.
+    private boolean markStartup(int phase) {
+        if (!startupMetrics.mark(phase, System.nanoTime())) {
+            return false;
+        }
+        trace.record(TraceEvent.STARTUP_PHASE, phase, (int) (startupMetrics.sinceStartNanos(phase) / 1_000_000L));
+        return true;
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        connectionManager.stop();
         closeConnection();
 
-        // Detener la escucha de eventos USB/Cargador
-        unregisterReceiver(powerConnectionReceiver);
+        // Detener la escucha de eventos USB/Cargador (se registra tras el primer frame)
+        if (powerConnectionReceiver != null) {
+            unregisterReceiver(powerConnectionReceiver);
+        }
 
         // Detener cualquier reintento pendiente
         reconnectHandler.removeCallbacks(reconnectRunnable);
+        handler.removeCallbacks(debugOverlayRefresh);
+        handler.removeCallbacks(deferredInit);
+        stopSessionRecording();
 
+        analogStreamer.stop();
+        joystickInput.stop();
+        commandWriter.stop();
         networkExecutor.shutdown();
     }
 
@@ -173,7 +426,12 @@ public class MainActivity extends AppCompatActivity {
     private void closeAndReconnect() {
         if (isConnected) {
             closeConnection();
-            scheduleReconnectAttempt(2000); // Intenta de nuevo en 2 segundos
+            if (connectionManager.hasStandby()) {
+                // La reserva está lista: se conmuta ya, sin backoff.
+                connectToServer();
+            } else {
+                scheduleReconnectAttempt(reconnectBackoff.nextDelayMs());
+            }
         }
     }
 
@@ -181,6 +439,7 @@ public class MainActivity extends AppCompatActivity {
     private void scheduleReconnectAttempt(long delay) {
         if (!reconnectScheduled) {
             reconnectScheduled = true;
+            trace.record(TraceEvent.RECONNECT_SCHEDULED, (int) delay);
             reconnectHandler.postDelayed(reconnectRunnable, delay);
         }
     }
@@ -188,6 +447,10 @@ public class MainActivity extends AppCompatActivity {
     // Método para actualizar la interfaz de los indicadores (cambia el color de fondo)
     private void updateConnectionStatusUI(boolean connected) {
         runOnUiThread(() -> {
+            if (indicatorLeft == null) {
+                // Aún inflando (conexión de arranque): onCreate pinta el estado al terminar.
+                return;
+            }
             if (connected) {
                 // CONECTADO: DERECHA (GREEN) activo, IZQUIERDA (ROJO) apagado
                 indicatorRight.setBackgroundResource(R.drawable.circle_status_green);
@@ -208,7 +471,7 @@ public class MainActivity extends AppCompatActivity {
         LinearLayout reconnectButton = findViewById(R.id.card_reconnect_button);
 
         reconnectButton.setOnClickListener(v -> {
-            Log.d(TAG, "Botón de reconexión manual presionado. Forzando intento de conexión.");
+            trace.record(TraceEvent.RECONNECT_MANUAL);
 
             // 🛑 CLAVE 1: Forzar el cierre de cualquier conexión zombie primero.
             // Esto pondrá isConnected=false y la UI en ROJO.
@@ -227,6 +490,140 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    // -------------------------------------------------------------------------
+    // --- OVERLAY DE DEPURACIÓN (LATENCIAS) ---
+    // -------------------------------------------------------------------------
+
+    // Gesto oculto: mantener pulsado el indicador de estado muestra/oculta el overlay.
+    // El overlay muestra los últimos eventos de la traza. Tocarlo comparte el volcado CSV y guarda
+    // la traza completa en un fichero; mantenerlo pulsado reinicia los histogramas.
+    // Con el overlay visible, mantener pulsado el logo inicia/detiene la grabación de sesión y
+    // mantener pulsado el botón de reconexión alterna el hilo de entrada (comparativa A/B).
+    private void initializeDebugOverlay() {
+        debugOverlay = findViewById(R.id.debug_overlay);
+        View statusContainer = findViewById(R.id.connection_status_container);
+
+        statusContainer.setOnLongClickListener(v -> {
+            if (debugOverlay.getVisibility() == View.VISIBLE) {
+                debugOverlay.setVisibility(View.GONE);
+                handler.removeCallbacks(debugOverlayRefresh);
+            } else {
+                debugOverlay.setVisibility(View.VISIBLE);
+                handler.post(debugOverlayRefresh);
+            }
+            return true;
+        });
+
+        debugOverlay.setOnClickListener(v -> shareLatencyDump());
+        debugOverlay.setOnLongClickListener(v -> {
+            latencyTracker.reset();
+            connectionMetrics.reset();
+            inputMetrics.reset();
+            Toast.makeText(MainActivity.this, "Histogramas reiniciados.", Toast.LENGTH_SHORT).show();
+            return true;
+        });
+
+        findViewById(R.id.card_logo).setOnLongClickListener(v -> {
+            if (debugOverlay.getVisibility() != View.VISIBLE) {
+                return false;
+            }
+            if (sessionRecorder.isRecording()) {
+                stopSessionRecording();
+            } else {
+                startSessionRecording();
+            }
+            return true;
+        });
+
+        // El joystick está en reposo: no hay gesto cuyas muestras queden a medias en la cola.
+        findViewById(R.id.card_reconnect_button).setOnLongClickListener(v -> {
+            if (debugOverlay.getVisibility() != View.VISIBLE) {
+                return false;
+            }
+            joystickInput.setInline(!joystickInput.isInline());
+            Toast.makeText(this, joystickInput.isInline() ? "Joystick en el hilo de UI." : "Joystick en hilo propio.",
+                    Toast.LENGTH_SHORT).show();
+            return true;
+        });
+    }
+
+    // Las grabaciones quedan en Android/data/<paquete>/files/sesiones (adb pull).
+    private void startSessionRecording() {
+        File dir = getExternalFilesDir("sesiones");
+        if (dir == null) {
+            dir = new File(getFilesDir(), "sesiones");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Toast.makeText(this, "No se pudo crear " + dir, Toast.LENGTH_LONG).show();
+            return;
+        }
+        File file = new File(dir, "sesion-" + System.currentTimeMillis() + ".kgsr");
+        try {
+            sessionRecorder.start(file);
+            Toast.makeText(this, "Grabando sesión en " + file.getName(), Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            trace.record(TraceEvent.RECORDING_FAILED, trace.note(e.getMessage()));
+            Toast.makeText(this, "Error al grabar: " + e.getMessage(), Toast.LENGTH_LONG).show();
+        }
+    }
+
+    private void stopSessionRecording() {
+        if (!sessionRecorder.isRecording()) return;
+        try {
+            sessionRecorder.stop();
+            trace.record(TraceEvent.RECORDING_SAVED, (int) sessionRecorder.recordedCount(),
+                    (int) sessionRecorder.droppedCount());
+            Toast.makeText(this, "Sesión guardada: " + sessionRecorder.file().getName(), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            trace.record(TraceEvent.RECORDING_FAILED, trace.note(e.getMessage()));
+            Toast.makeText(this, "Grabación interrumpida: " + e.getMessage(), Toast.LENGTH_LONG).show();
+        }
+    }
+
+    private String recordingStatus() {
+        if (!sessionRecorder.isRecording()) {
+            return "";
+        }
+        return "\nREC " + sessionRecorder.file().getName() + ": " + sessionRecorder.recordedCount() + " comandos";
+    }
+
+    private void shareLatencyDump() {
+        Intent share = new Intent(Intent.ACTION_SEND);
+        share.setType("text/csv");
+        // La versión en el asunto permite comparar el arranque (filas startup_*) entre versiones.
+        share.putExtra(Intent.EXTRA_SUBJECT, "KeyGraphicControl " + versionName() + " - latencias");
+        share.putExtra(Intent.EXTRA_TEXT, latencyTracker.formatCsv() + connectionMetrics.formatCsvRows()
+                + inputMetrics.formatCsvRows() + startupMetrics.formatCsvRows());
+        startActivity(Intent.createChooser(share, "Exportar latencias"));
+        saveTraceDump();
+    }
+
+    private String versionName() {
+        try {
+            return getPackageManager().getPackageInfo(getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return "?";
+        }
+    }
+
+    // La traza completa va a Android/data/<paquete>/files/trazas (adb pull), fuera del hilo de UI.
+    private void saveTraceDump() {
+        File dir = getExternalFilesDir("trazas");
+        if (dir == null) {
+            dir = new File(getFilesDir(), "trazas");
+        }
+        File file = new File(dir, "traza-" + System.currentTimeMillis() + ".txt");
+        new Thread(() -> {
+            file.getParentFile().mkdirs();
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                out.write(trace.dump(trace.capacity()));
+                runOnUiThread(() -> Toast.makeText(this, "Traza guardada: " + file.getName(), Toast.LENGTH_SHORT).show());
+            } catch (IOException e) {
+                trace.record(TraceEvent.TRACE_DUMP_FAILED, trace.note(file + ": " + e.getMessage()));
+            }
+        }, "trace-dump").start();
+    }
+
     // -------------------------------------------------------------------------
     // --- LÓGICA DE CONEXIÓN Y DESCONEXIÓN ---
     // -------------------------------------------------------------------------
@@ -238,10 +635,11 @@ public class MainActivity extends AppCompatActivity {
                 String action = intent.getAction();
 
                 if (Intent.ACTION_POWER_CONNECTED.equals(action)) {
-                    Log.d(TAG, "EVENTO: Cable USB conectado. Intentando conectar a la PC...");
+                    trace.record(TraceEvent.USB_CONNECTED);
                     connectToServer();
                 } else if (Intent.ACTION_POWER_DISCONNECTED.equals(action)) {
-                    Log.d(TAG, "EVENTO: Cable USB desconectado. Cerrando conexión.");
+                    trace.record(TraceEvent.USB_DISCONNECTED);
+                    connectionManager.stop();
                     closeConnection();
                     runOnUiThread(() -> Toast.makeText(MainActivity.this, "Conexión con PC perdida.", Toast.LENGTH_SHORT).show());
                 }
@@ -252,21 +650,28 @@ public class MainActivity extends AppCompatActivity {
         filter.addAction(Intent.ACTION_POWER_CONNECTED);
         filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
         registerReceiver(powerConnectionReceiver, filter);
+    }
 
-        Intent batteryStatus = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
-        int chargePlug = batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
-        boolean usbConnected = chargePlug == BatteryManager.BATTERY_PLUGGED_USB;
-
-        if (usbConnected) {
-            Log.d(TAG, "ESTADO INICIAL: Cable USB ya estaba conectado. Intentando conexión.");
-            connectToServer();
-        }
+    // Conexión de arranque: la consulta del cable (una llamada al sistema) y el connect van en el
+    // hilo de red, en paralelo con el inflado. Si el cable se conecta después, lo ve el receptor.
+    private void connectAtStartup() {
+        networkExecutor.execute(() -> {
+            markStartup(StartupMetrics.PHASE_CONNECT_START);
+            Intent batteryStatus = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            int chargePlug = batteryStatus != null ? batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1) : -1;
+            if (chargePlug == BatteryManager.BATTERY_PLUGGED_USB) {
+                trace.record(TraceEvent.USB_PRESENT_AT_START);
+                connectToServer();
+            }
+        });
     }
 
     // --- MÉTODO DE CONEXIÓN ---
     private void connectToServer() {
         // Solo bloqueamos si ya estamos conectados Y no hay reconexión pendiente (previniendo bucles)
         if (isConnected && !reconnectScheduled) return;
+        // Un único intento en vuelo: los toques sin conexión no deben encolar conexiones.
+        if (!connectInFlight.compareAndSet(false, true)) return;
 
         // Si estamos aquí, es porque isConnected es false (o estamos en un bucle de reintento).
         updateConnectionStatusUI(false);
@@ -274,35 +679,83 @@ public class MainActivity extends AppCompatActivity {
         networkExecutor.execute(new Runnable() {
             @Override
             public void run() {
+                connectionMetrics.recordConnectAttempt();
+                trace.record(TraceEvent.CONNECT_ATTEMPT, reconnectBackoff.attempts());
                 try {
                     // 1. LIMPIEZA FORZADA DE SOCKETS ANTERIORES
-                    if (clientSocket != null) {
-                        try { clientSocket.close(); } catch (IOException ignore) {}
-                        clientSocket = null;
+                    if (transport != null) {
+                        transport.close();
+                        transport = null;
+                    }
+                    closeDatagramSender();
+
+                    // 2 y 3. Enlace negociado (binario si el listener responde al HELLO, texto si no)
+                    //    y sesión reanudada: la reserva si está viva o una conexión nueva a cada
+                    //    destino. Si el servidor PC está apagado, aquí falla.
+                    long acquireStart = System.nanoTime();
+                    Frame resumed = new Frame();
+                    ConnectionManager.Link link = connectionManager.acquire(resumeToken, resumed);
+                    NioSocketTransport newTransport = link.transport;
+                    transport = newTransport;
+                    protocolVersion = link.protocolVersion;
+                    trace.record(TraceEvent.LINK_READY, (int) ((System.nanoTime() - acquireStart) / 1000),
+                            link.fromStandby ? 1 : 0);
+                    // 4. Canal UDP para el estado, si está activado y el listener lo ofrece.
+                    DatagramStateSender udp = null;
+                    Frame datagramReply = new Frame();
+                    if (STATE_OVER_UDP && protocolVersion != ProtocolNegotiator.TEXT_PROTOCOL
+                            && ProtocolNegotiator.negotiateDatagram(newTransport, HANDSHAKE_TIMEOUT_MS, datagramReply)) {
+                        udp = new DatagramStateSender();
+                        datagramSender = udp;
+                        udp.connect(link.endpoint.host, datagramReply.arg0, datagramReply.arg1);
+                    }
+                    // El PC recién conectado no conoce el estado: se reenvía la dirección y el zoom
+                    // actuales (el escritor aún está desenganchado; el attach lo despierta).
+                    stateCoalescer.resendCurrent();
+                    if (resumed.opcode == WireProtocol.OP_RESUMED) {
+                        ReliableWindow window = commandWriter.reliableWindow();
+                        boolean sameSession = resumed.arg0 == resumeToken;
+                        resumeToken = resumed.arg0;
+                        commandWriter.attachResumed(newTransport, protocolVersion, udp, resumed.arg1);
+                        heartbeatMonitor.start(newTransport, protocolVersion, window);
+                        trace.record(TraceEvent.SESSION_RESUMED, sameSession ? 1 : 0, window.unacknowledged());
+                    } else {
+                        resumeToken = 0;
+                        commandWriter.attach(newTransport, protocolVersion, udp);
+                        heartbeatMonitor.start(newTransport, protocolVersion);
                     }
-
-                    // 2. Intenta la nueva conexión. Si el servidor PC está apagado, aquí falla.
-                    clientSocket = new Socket(SERVER_IP, SERVER_PORT);
-                    printwriter = new PrintWriter(clientSocket.getOutputStream(), true);
                     isConnected = true;
 
                     // 🚀 ÉXITO: Cambiar indicador a VERDE y CANCELAR cualquier reintento pendiente
                     reconnectHandler.removeCallbacks(reconnectRunnable);
                     reconnectScheduled = false;
+                    reconnectBackoff.reset();
+                    long lostAt = disconnectedAtNanos;
+                    if (lostAt != 0) {
+                        connectionMetrics.recordReconnect(System.nanoTime() - lostAt);
+                        disconnectedAtNanos = 0;
+                    }
                     updateConnectionStatusUI(true);
+                    markStartup(StartupMetrics.PHASE_CONNECTED);
+                    connectionManager.start();
 
-                    Log.i(TAG, "Conexión TCP establecida y estable.");
+                    trace.record(TraceEvent.CONNECT_OK, protocolVersion, udp != null ? datagramReply.arg0 : 0);
                     runOnUiThread(() -> Toast.makeText(MainActivity.this, "Control Remoto Conectado.", Toast.LENGTH_SHORT).show());
 
                 } catch (Exception e) {
-                    Log.e(TAG, "Fallo al conectar: " + e.getMessage());
+                    trace.record(TraceEvent.CONNECT_FAILED, trace.note(String.valueOf(e)));
                     isConnected = false;
-                    clientSocket = null;
-                    printwriter = null;
+                    if (transport != null) {
+                        transport.close();
+                    }
+                    transport = null;
+                    closeDatagramSender();
 
                     // 🛑 FALLO: Cambiar indicador a ROJO y programar un reintento
                     updateConnectionStatusUI(false);
-                    scheduleReconnectAttempt(RECONNECT_INTERVAL_MS);
+                    scheduleReconnectAttempt(reconnectBackoff.nextDelayMs());
+                } finally {
+                    connectInFlight.set(false);
                 }
             }
         });
@@ -313,56 +766,76 @@ public class MainActivity extends AppCompatActivity {
         if (!isConnected) return;
 
         isConnected = false;
+        disconnectedAtNanos = System.nanoTime();
 
         // 🛑 CIERRE: Cambiar indicador a ROJO
         updateConnectionStatusUI(false);
+        heartbeatMonitor.stop();
+        commandWriter.detach();
+
+        NioSocketTransport closing = transport;
+        transport = null;
+        if (closing != null) {
+            // Cerrar el canal para liberar el puerto
+            closing.close();
+            trace.record(TraceEvent.TRANSPORT_CLOSED, (int) (closing.bytesWritten() / 1024),
+                    (int) closing.backpressureWaits());
+        }
+        closeDatagramSender();
 
-        if (printwriter != null) {
-            printwriter.close();
+        long droppedState = 0;
+        for (int c = OutboundQueue.CLASS_DIRECTION; c < OutboundQueue.CLASS_COUNT; c++) {
+            droppedState += outboundQueue.droppedCount(c);
         }
-        if (clientSocket != null) {
-            try {
-                // Cerrar el socket para liberar el puerto
-                clientSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Error al cerrar socket: " + e.getMessage());
-            }
+        trace.record(TraceEvent.WRITER_STATS, (int) commandWriter.commandsWritten(), (int) commandWriter.writeCalls(),
+                (int) droppedState);
+    }
+
+    // El canal UDP vive y muere con la conexión TCP.
+    private void closeDatagramSender() {
+        DatagramStateSender closing = datagramSender;
+        datagramSender = null;
+        if (closing != null) {
+            closing.close();
+            trace.record(TraceEvent.DATAGRAM_CLOSED, (int) closing.sentCount(), (int) closing.refreshCount(),
+                    (int) closing.droppedCount());
         }
-        clientSocket = null;
-        printwriter = null;
     }
 
     // --- MÉTODO DE ENVÍO CRÍTICO (Detecta Desconexión Inesperada) ---
-    private void sendCommandToPC(String commandType, String value) {
+    // Camino caliente: sin Strings, sin Runnables, sin log. La cola aplica la política de cada
+    // comando (botón fiable, estado "último valor") y el fallo de red llega por el Listener del
+    // escritor.
+    private void sendToPC(int opcode, int arg0, int arg1, long inputNanos) {
+        // Se graba lo que produce la UI, haya conexión o no.
+        sessionRecorder.record(opcode, arg0, arg1, inputNanos);
+        trace.record(TraceEvent.COMMAND, opcode, arg0, arg1);
+        if (!ensureConnected()) return;
+
+        if (!commandWriter.submit(opcode, arg0, arg1, inputNanos)) {
+            // Solo los botones se rechazan, y solo con la cola llena: el PC lleva demasiado
+            // sin leer. Se trata como conexión muerta; los botones encolados saldrán al reconectar.
+            trace.record(TraceEvent.BUTTON_QUEUE_FULL, outboundQueue.depth(OutboundQueue.CLASS_BUTTON));
+            closeAndReconnect();
+        }
+    }
+
+    // Lo llama el hilo del AnalogStreamer en cada tick. Si el escritor va atrasado, el vector
+    // pendiente se sustituye por el nuevo.
+    private void queueAnalogVector(int x, int y) {
+        if (!isConnected) return;
+
+        commandWriter.publishAnalog(x, y);
+    }
+
+    private boolean ensureConnected() {
         if (!isConnected) {
-            Log.w(TAG, "Intento de envío sin conexión activa. Intentando conectar.");
+            trace.record(TraceEvent.SEND_WITHOUT_CONNECTION);
             // Si no estaba conectado, forzamos un intento de conexión (Reload implícito)
             connectToServer();
-            return;
+            return false;
         }
-
-        final String commandString = commandType + "," + value;
-        Log.i(TAG, "COMANDO ENVIADO: " + commandString);
-
-        networkExecutor.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    if (printwriter != null) {
-                        printwriter.println(commandString);
-                    } else {
-                        // Si printwriter es nulo pero isConnected=true (estado zombie)
-                        Log.e(TAG, "Error: Printwriter es nulo. Forzando cierre y reconexión.");
-                        closeAndReconnect();
-                    }
-                } catch (Exception e) {
-                    // 🚨 CLAVE: Detectamos fallo en la red (Servidor PC cerrado inesperadamente)
-                    // Esto cambia el indicador a ROJO y programa el reintento automático.
-                    Log.e(TAG, "Fallo al enviar el comando. Servidor PC cerrado: " + e.getMessage());
-                    closeAndReconnect();
-                }
-            }
-        });
+        return true;
     }
 
     // -------------------------------------------------------------------------
@@ -383,6 +856,7 @@ public class MainActivity extends AppCompatActivity {
             joystickCenterY = containerHeight / 2;
 
             joystickRadius = (Math.min(containerWidth, containerHeight) - Math.min(nubWidth, nubHeight)) / 2;
+            joystickProcessor.configure(joystickCenterX, joystickCenterY, joystickRadius, JOYSTICK_MOVEMENT_THRESHOLD);
         });
 
         joystickContainer.setOnTouchListener(new View.OnTouchListener() {
@@ -393,89 +867,137 @@ public class MainActivity extends AppCompatActivity {
                     return false;
                 }
 
-                switch (event.getAction()) {
+                long startNanos = System.nanoTime();
+                boolean offloaded = !joystickInput.isInline();
+                long eventNanos = eventTimeNanos(event);
+
+                switch (event.getActionMasked()) {
                     case MotionEvent.ACTION_DOWN:
+                        // Sin esperar al vsync: cada movimiento llega en cuanto lo lee el panel.
+                        v.requestUnbufferedDispatch(event);
                         handler.postDelayed(longPressRunnable, LONG_PRESS_DURATION);
-                        return true;
+                        break;
+
+                    case MotionEvent.ACTION_POINTER_DOWN:
+                        // Segundo dedo: pellizco de zoom en cualquier modo, sin esperar la pulsación larga.
+                        if (!isPinching && event.getPointerCount() == 2) {
+                            handler.removeCallbacks(longPressRunnable);
+                            resetJoystick(eventNanos);
+                            isPinching = true;
+                            joystickInput.publishPinch(pinchSpan(event), eventNanos, joystickMode());
+                            joystickInput.signal();
+                        }
+                        break;
+
+                    case MotionEvent.ACTION_POINTER_UP:
+                        if (isPinching && event.getPointerCount() == 2) {
+                            joystickInput.publishPinchEnd(eventNanos, joystickMode());
+                        }
+                        break;
 
                     case MotionEvent.ACTION_MOVE:
-                        moveJoystick(event.getX(), event.getY());
+                        if (isPinching) {
+                            if (event.getPointerCount() >= 2) {
+                                joystickInput.publishPinch(pinchSpan(event), eventNanos, joystickMode());
+                                joystickInput.signal();
+                            }
+                            break;
+                        }
+                        moveJoystick(event, eventNanos);
                         float dx = event.getX() - joystickCenterX;
                         float dy = event.getY() - joystickCenterY;
 
-                        if (Math.sqrt(dx * dx + dy * dy) > JOYSTICK_MOVEMENT_THRESHOLD * 2) {
+                        if (dx * dx + dy * dy > LONG_PRESS_CANCEL_SQ) {
                             handler.removeCallbacks(longPressRunnable);
                         }
-                        return true;
+                        break;
 
                     case MotionEvent.ACTION_UP:
+                    case MotionEvent.ACTION_CANCEL:
                         handler.removeCallbacks(longPressRunnable);
-                        resetJoystick();
+                        if (isPinching) {
+                            // El stick ya se soltó al empezar el pellizco. El fin del pellizco
+                            // se repite por si fue un CANCEL con los dos dedos; el motor lo ignora.
+                            joystickInput.publishPinchEnd(eventNanos, joystickMode());
+                            isPinching = false;
+                        } else {
+                            resetJoystick(eventNanos);
+                        }
 
                         if (isZoomActive) {
-                            Log.d(TAG, "Modo ZOOM Desactivado.");
+                            trace.record(TraceEvent.ZOOM_OFF);
                         }
                         isZoomActive = false;
-                        return true;
+                        break;
                 }
+                inputMetrics.recordUiTouch(offloaded, System.nanoTime() - startNanos);
                 return true;
             }
         });
     }
 
-    private void moveJoystick(float touchX, float touchY) {
-        float dx = touchX - joystickCenterX;
-        float dy = touchY - joystickCenterY;
-        double distance = Math.sqrt(dx * dx + dy * dy);
+    // Instante del evento en la base de System.nanoTime(): en Android ambos relojes son
+    // CLOCK_MONOTONIC, así que se pueden restar directamente.
+    private static long eventTimeNanos(MotionEvent event) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            return event.getEventTimeNanos();
+        }
+        return event.getEventTime() * 1_000_000L;
+    }
 
-        if (distance > joystickRadius) {
-            float ratio = joystickRadius / (float) distance;
+    // Publica en orden las muestras históricas agrupadas en el evento y después la actual; el hilo
+    // de entrada las clasifica. Aquí solo se dibuja el stick, limitado al radio.
+    private void moveJoystick(MotionEvent event, long eventNanos) {
+        int mode = joystickMode();
+        int history = event.getHistorySize();
+        for (int h = 0; h < history; h++) {
+            joystickInput.publishMove(event.getHistoricalX(h), event.getHistoricalY(h), historicalTimeNanos(event, h), mode);
+        }
+        float x = event.getX();
+        float y = event.getY();
+        joystickInput.publishMove(x, y, eventNanos, mode);
+        joystickInput.signal();
+
+        float dx = x - joystickCenterX;
+        float dy = y - joystickCenterY;
+        float distanceSq = dx * dx + dy * dy;
+        if (distanceSq > (float) joystickRadius * joystickRadius) {
+            float ratio = joystickRadius / (float) Math.sqrt(distanceSq);
             dx *= ratio;
             dy *= ratio;
         }
-
         joystickNub.setTranslationX(dx);
         joystickNub.setTranslationY(dy);
-
-        detectAndSendDirection(dx, dy);
     }
 
-    private void resetJoystick() {
-        joystickNub.setTranslationX(0);
-        joystickNub.setTranslationY(0);
-        sendCommandToPC("DIRECTION", "STOP");
+    // Distancia entre los dos primeros dedos, en píxeles de la vista.
+    private static float pinchSpan(MotionEvent event) {
+        float dx = event.getX(0) - event.getX(1);
+        float dy = event.getY(0) - event.getY(1);
+        return (float) Math.sqrt(dx * dx + dy * dy);
     }
 
-    private void detectAndSendDirection(float dx, float dy) {
+    private int joystickMode() {
+        if (currentMode == MODE_ANALOG) {
+            return JoystickSampleProcessor.MODE_ANALOG;
+        }
+        // Fuera del modo analógico las direcciones pasan por el mapeo del modo activo.
+        return isZoomActive ? JoystickSampleProcessor.MODE_ZOOM : JoystickSampleProcessor.MODE_DIRECTION;
+    }
 
-        if (currentMode == 1) {
+    private static long historicalTimeNanos(MotionEvent event, int pos) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            return event.getHistoricalEventTimeNanos(pos);
+        }
+        return event.getHistoricalEventTime(pos) * 1_000_000L;
+    }
 
-            if (isZoomActive) {
-                // Lógica de ZOOM
-                if (dx > 0 && dx > JOYSTICK_MOVEMENT_THRESHOLD) {
-                    sendCommandToPC("ZOOM", "IN");
-                } else if (dx < 0 && Math.abs(dx) > JOYSTICK_MOVEMENT_THRESHOLD) {
-                    sendCommandToPC("ZOOM", "OUT");
-                }
-            } else {
-                // Lógica de DESPLAZAMIENTO
-                String direction = "NONE";
-
-                if (Math.abs(dx) > Math.abs(dy)) {
-                    // Horizontal
-                    if (dx > JOYSTICK_MOVEMENT_THRESHOLD) direction = "RIGHT";
-                    else if (dx < -JOYSTICK_MOVEMENT_THRESHOLD) direction = "LEFT";
-                } else {
-                    // Vertical
-                    if (dy > JOYSTICK_MOVEMENT_THRESHOLD) direction = "DOWN";
-                    else if (dy < -JOYSTICK_MOVEMENT_THRESHOLD) direction = "UP";
-                }
+    // El fin del gesto pasa por la misma cola que los movimientos: el STOP no adelanta a ninguno.
+    private void resetJoystick(long eventNanos) {
+        joystickNub.setTranslationX(0);
+        joystickNub.setTranslationY(0);
 
-                if (!direction.equals("NONE")) {
-                    sendCommandToPC("DIRECTION", direction);
-                }
-            }
-        }
+        joystickInput.publishRelease(eventNanos, joystickMode());
     }
 
     // -------------------------------------------------------------------------
@@ -499,37 +1021,95 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void handleModeSelection(View selectedView) {
+        int previousMode = currentMode;
         for (View button : modeButtons) {
             int modeIndex = modeButtons.indexOf(button) + 1;
             if (button.getId() == selectedView.getId()) {
                 button.setBackgroundResource(R.drawable.circle_button_on);
                 currentMode = modeIndex;
-                Log.d(TAG, "Modo " + currentMode + " ACTIVADO");
+                keymapRouter.setMode(currentMode - 1);
+                trace.record(TraceEvent.MODE_SELECTED, currentMode);
             } else {
                 button.setBackgroundResource(R.drawable.circle_button_off);
             }
         }
+
+        if (currentMode == MODE_ANALOG) {
+            if (previousMode == MODE_ANALOG) {
+                // Pulsar otra vez el modo analógico alterna la frecuencia: 60 -> 120 -> 250 Hz.
+                cycleAnalogTickRate();
+            }
+            analogStreamer.start();
+        } else if (previousMode == MODE_ANALOG) {
+            // Al salir del modo analógico el PC debe quedar detenido.
+            analogStreamer.stop();
+            queueAnalogVector(0, 0);
+        }
+    }
+
+    private void cycleAnalogTickRate() {
+        int[] rates = AnalogStreamer.SUPPORTED_TICK_HZ;
+        int next = rates[0];
+        for (int i = 0; i < rates.length; i++) {
+            if (rates[i] == analogStreamer.getTickHz()) {
+                next = rates[(i + 1) % rates.length];
+                break;
+            }
+        }
+        analogStreamer.setTickHz(next);
+        Toast.makeText(this, "Modo analógico: " + next + " Hz", Toast.LENGTH_SHORT).show();
+    }
+
+    // Lectura y compilación en segundo plano; el router sigue con el mapeo anterior hasta que
+    // se publica el nuevo. Un perfil con errores se ignora (ese modo queda con el de siempre).
+    private void loadKeymapProfiles() {
+        File dir = getExternalFilesDir("perfiles");
+        if (dir == null) {
+            dir = new File(getFilesDir(), "perfiles");
+        }
+        File profilesDir = dir;
+        new Thread(() -> {
+            KeymapProfile[] profiles = new KeymapProfile[Keymap.MODE_COUNT];
+            int loaded = 0;
+            for (int mode = 0; mode < Keymap.MODE_COUNT; mode++) {
+                File file = new File(profilesDir, "modo" + (mode + 1) + ".txt");
+                if (!file.isFile()) {
+                    continue;
+                }
+                try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                    profiles[mode] = KeymapProfile.parse(in);
+                    loaded++;
+                } catch (IOException | IllegalArgumentException e) {
+                    trace.record(TraceEvent.KEYMAP_INVALID, mode + 1, trace.note(file.getName() + ": " + e.getMessage()));
+                }
+            }
+            Keymap keymap = Keymap.compile(profiles);
+            // Los pasos antes que el mapeo: ningún id de macro llega al escritor sin ellos.
+            commandWriter.setMacros(MacroTable.compile(keymap));
+            keymapRouter.setKeymap(keymap);
+            trace.record(TraceEvent.KEYMAP_LOADED, loaded, keymap.macroCount());
+        }, "keymap-loader").start();
     }
 
     private void initializeButtonColumns() {
         LinearLayout columnLeft = findViewById(R.id.column_left);
         LinearLayout columnRight = findViewById(R.id.column_right);
 
-        setupColumnListeners(columnLeft, "IZQUIERDA");
-        setupColumnListeners(columnRight, "DERECHA");
+        setupColumnListeners(columnLeft, WireProtocol.SIDE_LEFT);
+        setupColumnListeners(columnRight, WireProtocol.SIDE_RIGHT);
     }
 
-    private void setupColumnListeners(LinearLayout container, String side) {
+    private void setupColumnListeners(LinearLayout container, int side) {
         if (container != null) {
             for (int i = 0; i < container.getChildCount(); i++) {
                 final View buttonView = container.getChildAt(i);
                 final int buttonIndex = i + 1;
 
                 if (buttonView instanceof androidx.cardview.widget.CardView) {
-                    buttonView.setOnClickListener(v -> {
-                        String command = "BTN_" + side.toUpperCase() + "_" + buttonIndex;
-                        sendCommandToPC("BUTTON", command);
-                    });
+                    // El clic no trae MotionEvent: la latencia se mide desde aquí. El comando sale
+                    // de la tabla del modo activo.
+                    buttonView.setOnClickListener(v ->
+                            keymapRouter.pressButton(side, buttonIndex, System.nanoTime()));
                 }
             }
         }
@@ -0,0 +1,76 @@
+package utilsolu.keygraphiccontrol.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import utilsolu.keygraphiccontrol.protocol.FrameEncoder;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Construcción y codificación de un comando: la línea String + getBytes que hacía el
+ * PrintWriter original, el formato de texto sin reservas y las tramas binarias.
+ *
+ * <p>Cada llamada toma el siguiente comando de una mezcla fija (dirección, zoom, botón, vector).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandEncodingBenchmark {
+
+    private static final int[][] COMMANDS = {
+            {WireProtocol.OP_DIRECTION, WireProtocol.DIR_LEFT, 0},
+            {WireProtocol.OP_ZOOM, WireProtocol.ZOOM_IN, 0},
+            {WireProtocol.OP_BUTTON, WireProtocol.SIDE_RIGHT, 7},
+            {WireProtocol.OP_ANALOG, -64, 127},
+    };
+
+    private final byte[] scratch = new byte[WireProtocol.MAX_TEXT_LINE];
+    private final ByteBuffer direct = ByteBuffer.allocateDirect(WireProtocol.MAX_TEXT_LINE);
+    private final FrameEncoder encoder = new FrameEncoder();
+    private int index;
+
+    private int[] next() {
+        return COMMANDS[index++ & (COMMANDS.length - 1)];
+    }
+
+    /** Camino original: String por comando y bytes UTF-8 nuevos en cada println. */
+    @Benchmark
+    public byte[] legacyStringLine() {
+        int[] c = next();
+        return (WireProtocol.formatText(c[0], c[1], c[2]) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int textIntoScratch() {
+        int[] c = next();
+        return WireProtocol.formatText(c[0], c[1], c[2], scratch, 0);
+    }
+
+    @Benchmark
+    public int binaryFrame() {
+        int[] c = next();
+        return encoder.encode(c[0], c[1], c[2], scratch, 0);
+    }
+
+    @Benchmark
+    public int binaryFrameDirectBuffer() {
+        int[] c = next();
+        direct.clear();
+        encoder.encode(c[0], c[1], c[2], direct);
+        return direct.position();
+    }
+}
@@ -0,0 +1,59 @@
+package utilsolu.keygraphiccontrol.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import utilsolu.keygraphiccontrol.input.DirectionClassifier;
+
+/**
+ * Coste de clasificar un movimiento del joystick (la matemática de {@code detectAndSendDirection}).
+ * Recorre posiciones aleatorias precalculadas para que el predictor de saltos no lo tenga fácil.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DirectionClassifierBenchmark {
+
+    private static final int SAMPLES = 1024; // potencia de dos
+    private static final float THRESHOLD = 20f;
+    private static final float RADIUS = 150f;
+
+    private final float[] dx = new float[SAMPLES];
+    private final float[] dy = new float[SAMPLES];
+    private int index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            dx[i] = (random.nextFloat() * 2 - 1) * RADIUS;
+            dy[i] = (random.nextFloat() * 2 - 1) * RADIUS;
+        }
+    }
+
+    @Benchmark
+    public int direction() {
+        int i = index++ & (SAMPLES - 1);
+        return DirectionClassifier.direction(dx[i], dy[i], THRESHOLD);
+    }
+
+    @Benchmark
+    public int zoom() {
+        int i = index++ & (SAMPLES - 1);
+        return DirectionClassifier.zoom(dx[i], THRESHOLD);
+    }
+}
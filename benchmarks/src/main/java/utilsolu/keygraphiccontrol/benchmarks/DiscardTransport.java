@@ -0,0 +1,37 @@
+package utilsolu.keygraphiccontrol.benchmarks;
+
+import java.nio.ByteBuffer;
+
+import utilsolu.keygraphiccontrol.net.Transport;
+
+/** Transporte que acepta y descarta todo: aísla el coste del traspaso del de la red. */
+final class DiscardTransport implements Transport {
+
+    @Override
+    public void connect(String host, int port, int timeoutMs) {
+    }
+
+    @Override
+    public long write(ByteBuffer[] buffers, int offset, int length) {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += buffers[i].remaining();
+            buffers[i].position(buffers[i].limit());
+        }
+        return total;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, int timeoutMs) {
+        return 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
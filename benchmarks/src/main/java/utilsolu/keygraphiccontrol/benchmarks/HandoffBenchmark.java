@@ -0,0 +1,80 @@
+package utilsolu.keygraphiccontrol.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import utilsolu.keygraphiccontrol.metrics.LatencyTracker;
+import utilsolu.keygraphiccontrol.net.CommandRing;
+import utilsolu.keygraphiccontrol.net.CommandWriter;
+import utilsolu.keygraphiccontrol.net.OutboundQueue;
+import utilsolu.keygraphiccontrol.net.StateCoalescer;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Ida y vuelta de un comando desde el hilo productor (UI) hasta que el hilo de red lo ha
+ * procesado: el {@code networkExecutor.execute(Runnable)} original frente a la cola circular
+ * con el {@link CommandWriter} (que además codifica y "escribe" en un transporte que descarta).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HandoffBenchmark {
+
+    private ExecutorService executor;
+    private CommandRing ring;
+    private CommandWriter writer;
+    private long expectedWritten;
+    private int sink;
+
+    @Setup
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        ring = new CommandRing(256);
+        writer = new CommandWriter(new OutboundQueue(ring, new StateCoalescer(StateCoalescer.CHANNEL_COUNT)), new LatencyTracker(),
+                error -> {
+                    throw new IllegalStateException(error);
+                });
+        writer.attach(new DiscardTransport(), WireProtocol.VERSION);
+        writer.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        writer.stop();
+    }
+
+    /** Camino original: un Runnable nuevo por comando en un executor de un hilo. */
+    @Benchmark
+    public void executorRoundTrip() throws ExecutionException, InterruptedException {
+        executor.submit(() -> sink++).get();
+    }
+
+    /** Camino actual: primitivos en la cola, unpark del escritor y espera activa a que lo escriba. */
+    @Benchmark
+    public void commandWriterRoundTrip() {
+        ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 1, System.nanoTime());
+        writer.signal();
+        expectedWritten++;
+        while (writer.commandsWritten() < expectedWritten) {
+            Thread.onSpinWait();
+        }
+    }
+}
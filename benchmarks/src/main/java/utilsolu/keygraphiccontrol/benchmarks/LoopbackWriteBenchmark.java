@@ -0,0 +1,135 @@
+package utilsolu.keygraphiccontrol.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import utilsolu.keygraphiccontrol.net.NioSocketTransport;
+import utilsolu.keygraphiccontrol.protocol.FrameEncoder;
+import utilsolu.keygraphiccontrol.protocol.ProtocolNegotiator;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+import utilsolu.keygraphiccontrol.receiver.CommandSink;
+import utilsolu.keygraphiccontrol.receiver.ReceiverServer;
+
+/**
+ * Escritura de un comando por loopback hasta el receptor de referencia: el Socket + PrintWriter
+ * original frente al {@link NioSocketTransport} con texto o con tramas binarias.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackWriteBenchmark {
+
+    private static final String LOOPBACK = "127.0.0.1";
+    private static final int WRITE_TIMEOUT_MS = 10_000;
+
+    /** Receptor con un sink que solo cuenta. */
+    static ReceiverServer startReceiver(AtomicLong received) throws IOException {
+        ReceiverServer server = new ReceiverServer(new InetSocketAddress(LOOPBACK, 0),
+                ReceiverServer.DEFAULT_MAX_CLIENTS, new CommandSink() {
+            @Override
+            public void onCommand(int clientId, int opcode, int seq, int arg0, int arg1) {
+                received.lazySet(received.get() + 1);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    @State(Scope.Thread)
+    public static class NioState {
+
+        @Param({"binary", "text"})
+        public String protocol;
+
+        final AtomicLong received = new AtomicLong();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(WireProtocol.MAX_TEXT_LINE);
+        final ByteBuffer[] lanes = {buffer};
+        final byte[] scratch = new byte[WireProtocol.MAX_TEXT_LINE];
+        final FrameEncoder encoder = new FrameEncoder();
+        ReceiverServer server;
+        NioSocketTransport transport;
+        boolean binary;
+
+        @Setup
+        public void setUp() throws IOException {
+            server = startReceiver(received);
+            transport = new NioSocketTransport(NioSocketTransport.DEFAULT_SEND_BUFFER, WRITE_TIMEOUT_MS);
+            transport.connect(LOOPBACK, server.localPort(), 1000);
+            binary = protocol.equals("binary");
+            if (binary && ProtocolNegotiator.negotiate(transport, 1000) == ProtocolNegotiator.TEXT_PROTOCOL) {
+                throw new IllegalStateException("El receptor no aceptó el protocolo binario");
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            transport.close();
+            server.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LegacyState {
+
+        final AtomicLong received = new AtomicLong();
+        ReceiverServer server;
+        Socket socket;
+        PrintWriter writer;
+
+        @Setup
+        public void setUp() throws IOException {
+            server = startReceiver(received);
+            socket = new Socket(LOOPBACK, server.localPort());
+            writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            writer.close();
+            socket.close();
+            server.close();
+        }
+    }
+
+    /** Como el sendCommandToPC original: String, println y flush por comando. */
+    @Benchmark
+    public void legacyPrintWriter(LegacyState state) {
+        state.writer.println("DIRECTION,LEFT");
+    }
+
+    @Benchmark
+    public long nioTransport(NioState state) throws IOException {
+        ByteBuffer buffer = state.buffer;
+        buffer.clear();
+        if (state.binary) {
+            state.encoder.encode(WireProtocol.OP_DIRECTION, WireProtocol.DIR_LEFT, 0, buffer);
+        } else {
+            int length = WireProtocol.formatText(WireProtocol.OP_DIRECTION, WireProtocol.DIR_LEFT, 0, state.scratch, 0);
+            buffer.put(state.scratch, 0, length);
+        }
+        buffer.flip();
+        return state.transport.write(state.lanes, 0, 1);
+    }
+}
@@ -0,0 +1,197 @@
+package utilsolu.keygraphiccontrol.input;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Modo analógico del joystick: envía el vector (x, y) normalizado y cuantizado a una frecuencia
+ * fija desde un hilo propio, en lugar de las cuatro direcciones discretas.
+ *
+ * <p>El hilo de UI solo publica la última posición con {@link #update}; el hilo emisor la lee en
+ * cada tick. Mientras el stick está en reposo no se envía nada: al soltarlo se manda un único
+ * vector (0, 0) para que el PC detenga el movimiento.
+ *
+ * <p>{@link #setRateLimitHz} limita los envíos por debajo del tick (el control de ritmo lo baja
+ * si el enlace se congestiona): se envía uno de cada {@code ceil(tick / límite)} ticks.
+ */
+public final class AnalogStreamer {
+
+    public interface Sink {
+        /** Se llama desde el hilo emisor con el vector cuantizado. */
+        void onVector(int x, int y);
+    }
+
+    public static final int DEFAULT_TICK_HZ = 120;
+    public static final int[] SUPPORTED_TICK_HZ = {60, 120, 250};
+
+    /** Fracción del radio que se considera reposo (evita temblores alrededor del centro). */
+    public static final float DEAD_ZONE = 0.08f;
+
+    /** Vector (0, 0) empaquetado. */
+    public static final int IDLE = 0;
+
+    private final Sink sink;
+    private final AtomicInteger latest = new AtomicInteger(IDLE);
+    private final AtomicLong sentTicks = new AtomicLong();
+    private final AtomicLong idleTicks = new AtomicLong();
+    private final AtomicLong throttledTicks = new AtomicLong();
+
+    private volatile int tickHz;
+    private volatile int rateLimitHz = Integer.MAX_VALUE;
+    private volatile int tickDivider = 1;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> tickTask;
+
+    // Solo lo toca el hilo emisor.
+    private int lastSent = IDLE;
+    private int ticksSinceSend;
+
+    public AnalogStreamer(int tickHz, Sink sink) {
+        this.tickHz = checkTickHz(tickHz);
+        this.sink = sink;
+    }
+
+    /** Arranca el hilo emisor. Llamar a {@link #stop()} para liberarlo. */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "analog-sender");
+            thread.setPriority(Thread.MAX_PRIORITY);
+            return thread;
+        });
+        scheduleTicks();
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            tickTask = null;
+        }
+        latest.set(IDLE);
+    }
+
+    /** Cambia la frecuencia de envío; si el emisor está en marcha se reprograma al momento. */
+    public synchronized void setTickHz(int hz) {
+        tickHz = checkTickHz(hz);
+        updateDivider();
+        if (scheduler != null) {
+            tickTask.cancel(false);
+            scheduleTicks();
+        }
+    }
+
+    public int getTickHz() {
+        return tickHz;
+    }
+
+    /** Envíos por segundo como mucho, aunque el tick sea mayor. Seguro desde cualquier hilo. */
+    public void setRateLimitHz(int hz) {
+        if (hz <= 0) {
+            throw new IllegalArgumentException("Límite de envío inválido: " + hz);
+        }
+        rateLimitHz = hz;
+        updateDivider();
+    }
+
+    /** Ticks por envío con el límite actual (1 = cada tick). */
+    public int tickDivider() {
+        return tickDivider;
+    }
+
+    private void updateDivider() {
+        int hz = tickHz;
+        int limit = rateLimitHz;
+        tickDivider = limit >= hz ? 1 : (hz + limit - 1) / limit;
+    }
+
+    /**
+     * Publica la posición del stick. {@code normX}/{@code normY} van de -1 a 1 (desplazamiento
+     * dividido entre el radio del joystick).
+     */
+    public void update(float normX, float normY) {
+        latest.set(pack(quantize(normX), quantize(normY)));
+    }
+
+    /** El stick se soltó: el próximo tick envía (0, 0) y después el emisor queda en silencio. */
+    public void release() {
+        latest.set(IDLE);
+    }
+
+    public long sentTicks() {
+        return sentTicks.get();
+    }
+
+    public long idleTicks() {
+        return idleTicks.get();
+    }
+
+    /** Ticks con movimiento que no se enviaron por el límite de ritmo. */
+    public long throttledTicks() {
+        return throttledTicks.get();
+    }
+
+    // Visible para tests: un tick del emisor.
+    void tick() {
+        int vector = latest.get();
+        if (vector == IDLE && lastSent == IDLE) {
+            idleTicks.incrementAndGet();
+            return;
+        }
+        // El primer vector tras el reposo sale en su tick; los siguientes, al ritmo limitado.
+        if (lastSent != IDLE && ++ticksSinceSend < tickDivider) {
+            throttledTicks.incrementAndGet();
+            return;
+        }
+        ticksSinceSend = 0;
+        lastSent = vector;
+        sentTicks.incrementAndGet();
+        sink.onVector(unpackX(vector), unpackY(vector));
+    }
+
+    private void scheduleTicks() {
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / tickHz;
+        tickTask = scheduler.scheduleAtFixedRate(this::tick, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cuantiza un eje normalizado a [-ANALOG_MAX, ANALOG_MAX]. La zona muerta se descuenta y el
+     * resto del recorrido se reescala, así el primer paso fuera de ella es 1 y no un salto.
+     */
+    public static int quantize(float normalized) {
+        float magnitude = Math.min(Math.abs(normalized), 1f);
+        if (magnitude < DEAD_ZONE) {
+            return 0;
+        }
+        int steps = Math.round((magnitude - DEAD_ZONE) / (1f - DEAD_ZONE) * WireProtocol.ANALOG_MAX);
+        steps = Math.max(steps, 1);
+        return normalized < 0 ? -steps : steps;
+    }
+
+    public static int pack(int x, int y) {
+        return (x << 16) | (y & 0xFFFF);
+    }
+
+    public static int unpackX(int packed) {
+        return packed >> 16;
+    }
+
+    public static int unpackY(int packed) {
+        return (short) packed;
+    }
+
+    private static int checkTickHz(int hz) {
+        if (hz <= 0 || hz > 1000) {
+            throw new IllegalArgumentException("Frecuencia de tick fuera de rango: " + hz);
+        }
+        return hz;
+    }
+}
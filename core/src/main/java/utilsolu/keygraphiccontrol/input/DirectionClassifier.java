@@ -0,0 +1,54 @@
+package utilsolu.keygraphiccontrol.input;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Clasifica el desplazamiento del joystick en modo digital: una de las cuatro direcciones, o un
+ * zoom cuando el modo zoom está activo. Funciones puras, sin estado ni reservas de memoria.
+ *
+ * <p>{@code dx}/{@code dy} son píxeles desde el centro (y crece hacia abajo) y {@code threshold}
+ * el radio de la zona muerta.
+ */
+public final class DirectionClassifier {
+
+    /** Resultado de {@link #zoom} dentro de la zona muerta. */
+    public static final int NO_ZOOM = 0;
+
+    private DirectionClassifier() {
+    }
+
+    /**
+     * Dirección dominante del desplazamiento, o {@link WireProtocol#DIR_STOP} dentro de la zona
+     * muerta. En la diagonal exacta gana el eje vertical.
+     */
+    public static int direction(float dx, float dy, float threshold) {
+        if (Math.abs(dx) > Math.abs(dy)) {
+            if (dx > threshold) return WireProtocol.DIR_RIGHT;
+            if (dx < -threshold) return WireProtocol.DIR_LEFT;
+        } else {
+            if (dy > threshold) return WireProtocol.DIR_DOWN;
+            if (dy < -threshold) return WireProtocol.DIR_UP;
+        }
+        return WireProtocol.DIR_STOP;
+    }
+
+    /** Zoom según el eje horizontal: derecha acerca, izquierda aleja; {@link #NO_ZOOM} en la zona muerta. */
+    public static int zoom(float dx, float threshold) {
+        if (dx > threshold) return WireProtocol.ZOOM_IN;
+        if (dx < -threshold) return WireProtocol.ZOOM_OUT;
+        return NO_ZOOM;
+    }
+
+    /**
+     * Zoom proporcional según el eje horizontal: 0 dentro de la zona muerta y, fuera de ella, la
+     * fracción recorrida entre el borde de la zona muerta y el radio, con signo (derecha acerca).
+     */
+    public static float zoomDisplacement(float dx, float threshold, float radius) {
+        float travel = Math.abs(dx) - threshold;
+        if (travel <= 0 || radius <= threshold) {
+            return 0;
+        }
+        float fraction = Math.min(1f, travel / (radius - threshold));
+        return dx > 0 ? fraction : -fraction;
+    }
+}
@@ -0,0 +1,193 @@
+package utilsolu.keygraphiccontrol.input;
+
+import java.util.concurrent.locks.LockSupport;
+
+import utilsolu.keygraphiccontrol.metrics.InputMetrics;
+import utilsolu.keygraphiccontrol.net.CommandRing;
+
+/**
+ * Hilo de entrada del joystick: el hilo de UI solo dibuja el stick y publica las muestras táctiles
+ * en crudo; la clasificación ({@link JoystickSampleProcessor}) y la publicación de comandos se
+ * hacen aquí, fuera del hilo principal.
+ *
+ * <p>Las muestras viajan por una {@link CommandRing} (un productor, un consumidor, sin bloqueos ni
+ * reservas): el tipo y el modo del joystick van en el opcode y las coordenadas como bits de float
+ * en los argumentos. Si la cola se llena se descartan movimientos y muestras de pellizco (la
+ * siguiente las supera), pero nunca un fin de gesto ni de pellizco.
+ *
+ * <p>Con {@link #setInline(boolean)} las muestras se procesan en el hilo que las publica, como
+ * antes; sirve para comparar en el mismo dispositivo el coste del hilo principal con y sin el
+ * hilo de entrada.
+ */
+public final class JoystickInputThread implements CommandRing.Handler {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int KIND_MOVE = 0;
+    private static final int KIND_RELEASE = 1;
+    private static final int KIND_PINCH = 2;
+    private static final int KIND_PINCH_END = 3;
+    private static final int KIND_MASK = 0xF;
+    private static final int MODE_SHIFT = 4;
+    private static final int BATCH_LIMIT = 256;
+
+    private final JoystickSampleProcessor processor;
+    private final InputMetrics metrics;
+    private final CommandRing samples;
+
+    private volatile boolean inline;
+    private volatile boolean running;
+    private volatile boolean sleeping;
+    private volatile Thread thread;
+
+    public JoystickInputThread(JoystickSampleProcessor processor, InputMetrics metrics) {
+        this(processor, metrics, DEFAULT_CAPACITY);
+    }
+
+    /** {@code capacity} debe ser potencia de dos. */
+    public JoystickInputThread(JoystickSampleProcessor processor, InputMetrics metrics, int capacity) {
+        this.processor = processor;
+        this.metrics = metrics;
+        this.samples = new CommandRing(capacity);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::loop, "joystick-input");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread = null;
+        }
+    }
+
+    /**
+     * Procesa las muestras en el hilo que las publica. Cambiarlo solo con el joystick en reposo
+     * (sin gesto en curso), para que ninguna muestra quede en la cola tras el cambio.
+     */
+    public void setInline(boolean inline) {
+        this.inline = inline;
+    }
+
+    public boolean isInline() {
+        return inline;
+    }
+
+    /**
+     * Productor (hilo de UI): una muestra de movimiento en coordenadas de la vista del joystick.
+     * No despierta al hilo: tras publicar las de un evento hay que llamar a {@link #signal()}.
+     */
+    public void publishMove(float x, float y, long sampleNanos, int mode) {
+        if (inline) {
+            processor.setMode(mode);
+            processor.sample(x, y, sampleNanos);
+            return;
+        }
+        if (!samples.offer(KIND_MOVE | (mode << MODE_SHIFT), Float.floatToRawIntBits(x),
+                Float.floatToRawIntBits(y), sampleNanos)) {
+            metrics.recordDroppedSample();
+        }
+    }
+
+    /** Productor: distancia entre los dos dedos de un pellizco. Como {@link #publishMove}, sin despertar. */
+    public void publishPinch(float span, long sampleNanos, int mode) {
+        if (inline) {
+            processor.setMode(mode);
+            processor.pinch(span, sampleNanos);
+            return;
+        }
+        if (!samples.offer(KIND_PINCH | (mode << MODE_SHIFT), Float.floatToRawIntBits(span), 0, sampleNanos)) {
+            metrics.recordDroppedSample();
+        }
+    }
+
+    /** Productor: fin del pellizco. Nunca se descarta, como {@link #publishRelease}. */
+    public void publishPinchEnd(long sampleNanos, int mode) {
+        if (inline) {
+            processor.setMode(mode);
+            processor.pinchEnd(sampleNanos);
+            return;
+        }
+        offerBlocking(KIND_PINCH_END | (mode << MODE_SHIFT), sampleNanos);
+    }
+
+    /** Productor: fin del gesto. Nunca se descarta; si la cola está llena se espera a que haya hueco. */
+    public void publishRelease(long sampleNanos, int mode) {
+        if (inline) {
+            processor.setMode(mode);
+            processor.release(sampleNanos);
+            return;
+        }
+        offerBlocking(KIND_RELEASE | (mode << MODE_SHIFT), sampleNanos);
+    }
+
+    private void offerBlocking(int opcode, long sampleNanos) {
+        while (!samples.offer(opcode, 0, 0, sampleNanos)) {
+            signal();
+            Thread.yield();
+        }
+        signal();
+    }
+
+    /** Despierta al hilo de entrada si está dormido. */
+    public void signal() {
+        if (sleeping) {
+            Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /** Muestras esperando al hilo de entrada. */
+    public int pending() {
+        return samples.size();
+    }
+
+    private void loop() {
+        while (running) {
+            if (drainOnce() > 0) {
+                continue;
+            }
+            sleeping = true;
+            // Volver a mirar después de anunciar que dormimos, como el escritor.
+            if (running && samples.isEmpty()) {
+                LockSupport.park(this);
+            }
+            sleeping = false;
+        }
+    }
+
+    /** Consumidor. Visible para tests, que lo llaman desde su propio hilo sin arrancar el hilo. */
+    int drainOnce() {
+        return samples.drain(this, BATCH_LIMIT);
+    }
+
+    @Override
+    public void onCommand(int opcode, int arg0, int arg1, long inputNanos, long enqueueNanos) {
+        metrics.recordHandoff(System.nanoTime() - enqueueNanos);
+        processor.setMode(opcode >>> MODE_SHIFT);
+        switch (opcode & KIND_MASK) {
+            case KIND_RELEASE:
+                processor.release(inputNanos);
+                break;
+            case KIND_PINCH:
+                processor.pinch(Float.intBitsToFloat(arg0), inputNanos);
+                break;
+            case KIND_PINCH_END:
+                processor.pinchEnd(inputNanos);
+                break;
+            default:
+                processor.sample(Float.intBitsToFloat(arg0), Float.intBitsToFloat(arg1), inputNanos);
+                break;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package utilsolu.keygraphiccontrol.input;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Convierte muestras táctiles del joystick en comandos. Cada muestra (incluidas las históricas
+ * que Android agrupa en un mismo {@code MotionEvent}) pasa por el clasificador con su propia
+ * marca de tiempo, así un cambio de dirección sale con el instante en que ocurrió y no con el
+ * del último punto del lote.
+ *
+ * <p>Las coordenadas son las de la vista del joystick; el desplazamiento se limita al radio
+ * (como el dibujo del stick) antes de clasificarlo. Lo usa un único hilo (el de entrada, o el de
+ * UI en el camino directo) y no reserva memoria por muestra.
+ */
+public final class JoystickSampleProcessor {
+
+    public interface Sink {
+        /** Dirección fuera de la zona muerta (nunca {@link WireProtocol#DIR_STOP}). */
+        void onDirection(int direction, long sampleNanos);
+
+        /**
+         * Modo zoom: desplazamiento horizontal en [-1, 1] más allá de la zona muerta (0 dentro de
+         * ella); positivo acerca. Se llama en cada muestra, el destinatario decide qué enviar.
+         */
+        void onZoom(float displacement, long sampleNanos);
+
+        /** Distancia en píxeles entre los dos dedos de un pellizco. */
+        void onPinch(float span, long sampleNanos);
+
+        /** Uno de los dos dedos del pellizco se levantó. */
+        void onPinchEnd(long sampleNanos);
+
+        /** Vector normalizado al radio, en [-1, 1] por eje. */
+        void onAnalog(float normX, float normY);
+
+        /** El dedo se levantó; {@code mode} es el modo en que estaba el joystick. */
+        void onRelease(int mode, long sampleNanos);
+    }
+
+    public static final int MODE_DIRECTION = 0;
+    public static final int MODE_ZOOM = 1;
+    public static final int MODE_ANALOG = 2;
+    /** El stick se dibuja pero no genera comandos. */
+    public static final int MODE_NONE = 3;
+
+    private final Sink sink;
+    private float centerX;
+    private float centerY;
+    private float radius;
+    private float threshold;
+    private int mode = MODE_DIRECTION;
+
+    private float lastDx;
+    private float lastDy;
+    private long samples;
+
+    public JoystickSampleProcessor(Sink sink) {
+        this.sink = sink;
+    }
+
+    /** Geometría del joystick: centro y radio en píxeles de la vista, radio de la zona muerta. */
+    public void configure(float centerX, float centerY, float radius, float threshold) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.radius = radius;
+        this.threshold = threshold;
+    }
+
+    public void setMode(int mode) {
+        this.mode = mode;
+    }
+
+    /** Procesa una muestra. Las de un mismo gesto deben llegar en orden de tiempo. */
+    public void sample(float x, float y, long sampleNanos) {
+        samples++;
+        float dx = x - centerX;
+        float dy = y - centerY;
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance > radius && distance > 0) {
+            float ratio = radius / (float) distance;
+            dx *= ratio;
+            dy *= ratio;
+        }
+        lastDx = dx;
+        lastDy = dy;
+
+        switch (mode) {
+            case MODE_ANALOG:
+                // Se conserva la magnitud: el PC recibe movimiento proporcional.
+                if (radius > 0) {
+                    sink.onAnalog(dx / radius, dy / radius);
+                }
+                break;
+            case MODE_ZOOM:
+                sink.onZoom(DirectionClassifier.zoomDisplacement(dx, threshold, radius), sampleNanos);
+                break;
+            case MODE_NONE:
+                break;
+            default:
+                int direction = DirectionClassifier.direction(dx, dy, threshold);
+                // Dentro de la zona muerta no se envía nada (STOP solo al soltar).
+                if (direction != WireProtocol.DIR_STOP) {
+                    sink.onDirection(direction, sampleNanos);
+                }
+                break;
+        }
+    }
+
+    /** Muestra de un pellizco con dos dedos: la distancia entre ellos, en cualquier modo. */
+    public void pinch(float span, long sampleNanos) {
+        samples++;
+        sink.onPinch(span, sampleNanos);
+    }
+
+    /** Fin del pellizco (queda un dedo o ninguno). */
+    public void pinchEnd(long sampleNanos) {
+        sink.onPinchEnd(sampleNanos);
+    }
+
+    /** Fin del gesto: el stick vuelve al centro. */
+    public void release(long sampleNanos) {
+        lastDx = 0;
+        lastDy = 0;
+        sink.onRelease(mode, sampleNanos);
+    }
+
+    /** Procesa {@code count} muestras en orden (para tests y lotes ya copiados). */
+    public void process(float[] xs, float[] ys, long[] sampleNanos, int count) {
+        for (int i = 0; i < count; i++) {
+            sample(xs[i], ys[i], sampleNanos[i]);
+        }
+    }
+
+    /** Desplazamiento (limitado al radio) de la última muestra, para dibujar el stick. */
+    public float lastDx() {
+        return lastDx;
+    }
+
+    public float lastDy() {
+        return lastDy;
+    }
+
+    public long samplesProcessed() {
+        return samples;
+    }
+}
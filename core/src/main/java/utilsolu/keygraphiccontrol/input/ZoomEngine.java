@@ -0,0 +1,171 @@
+package utilsolu.keygraphiccontrol.input;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Motor de zoom continuo: convierte el desplazamiento del stick en modo zoom o un pellizco con
+ * dos dedos en una única velocidad de zoom, más un inicio y un fin de gesto explícitos.
+ *
+ * <p>La velocidad se cuantiza a {@link #LEVELS} niveles por sentido con histéresis, y solo se
+ * emite cuando cambia de nivel: un dedo quieto no genera nada, un gesto completo genera unas
+ * decenas de comandos en vez de uno por muestra táctil, y el ritmo de envío depende de la
+ * intención del usuario y no de la frecuencia del panel. Volver a cero es inmediato. En la cola
+ * de salida la velocidad es «el último gana», así que un lote del escritor nunca lleva más de una.
+ *
+ * <p>Orden de eventos: {@link WireProtocol#ZOOM_START} justo antes de la primera velocidad
+ * distinta de cero; al terminar, velocidad 0 (si no lo era ya) y {@link WireProtocol#ZOOM_STOP}.
+ * El 0 previo cubre al PC si la velocidad viaja por UDP y llega después del STOP.
+ *
+ * <p>Pellizco elástico: la distancia entre los dedos al empezar es la referencia; separarlos al
+ * doble es la velocidad máxima de acercamiento y juntarlos a la mitad la de alejamiento, con una
+ * zona muerta de ±{@link #PINCH_DEAD_ZONE}. Mientras hay pellizco el stick no cuenta.
+ *
+ * <p>Lo usa un único hilo (el de entrada, o el de UI en el camino directo).
+ */
+public final class ZoomEngine {
+
+    public interface Output {
+        /** {@link WireProtocol#ZOOM_START} o {@link WireProtocol#ZOOM_STOP}. */
+        void onZoomGesture(int phase, long nanos);
+
+        /** Velocidad en [-{@link WireProtocol#ZOOM_RATE_MAX}, {@link WireProtocol#ZOOM_RATE_MAX}]. */
+        void onZoomRate(int rate, long nanos);
+    }
+
+    /** Niveles de velocidad por sentido. */
+    public static final int LEVELS = 20;
+    /** Margen extra (en niveles) que hay que superar para cambiar de nivel: evita parpadeos. */
+    public static final float HYSTERESIS = 0.3f;
+    /** Variación relativa de la distancia entre dedos que no se considera pellizco. */
+    public static final float PINCH_DEAD_ZONE = 0.05f;
+
+    private static final int STEP = WireProtocol.ZOOM_RATE_MAX / LEVELS;
+    private static final double LN_2 = Math.log(2);
+
+    private final Output output;
+
+    private boolean started;
+    private int level;
+    private float pinchBase;
+
+    private long inputs;
+    private long emitted;
+    private long gestures;
+
+    public ZoomEngine(Output output) {
+        this.output = output;
+    }
+
+    /**
+     * Desplazamiento del stick en modo zoom, en [-1, 1] más allá de la zona muerta (0 dentro de
+     * ella); positivo acerca.
+     */
+    public void stick(float displacement, long nanos) {
+        if (pinchBase > 0) {
+            return;
+        }
+        inputs++;
+        update(displacement, nanos);
+    }
+
+    /** Distancia entre los dos dedos del pellizco; la primera llamada del gesto fija la referencia. */
+    public void pinch(float span, long nanos) {
+        if (span <= 0) {
+            return;
+        }
+        inputs++;
+        if (pinchBase <= 0) {
+            pinchBase = span;
+            return;
+        }
+        float ratio = span / pinchBase;
+        float velocity = 0;
+        if (Math.abs(ratio - 1) > PINCH_DEAD_ZONE) {
+            velocity = (float) (Math.log(ratio) / LN_2);
+        }
+        update(velocity, nanos);
+    }
+
+    /** Se levantó uno de los dos dedos: fin del pellizco. */
+    public void pinchEnd(long nanos) {
+        if (pinchBase > 0) {
+            pinchBase = 0;
+            stop(nanos);
+        }
+    }
+
+    /** Fin del gesto (dedo levantado o cambio de modo): velocidad 0 y STOP si había empezado. */
+    public void stop(long nanos) {
+        pinchBase = 0;
+        if (level != 0) {
+            level = 0;
+            emit(0, nanos);
+        }
+        if (started) {
+            started = false;
+            output.onZoomGesture(WireProtocol.ZOOM_STOP, nanos);
+        }
+    }
+
+    private void update(float velocity, long nanos) {
+        if (velocity > 1) {
+            velocity = 1;
+        } else if (velocity < -1) {
+            velocity = -1;
+        }
+        int next;
+        if (velocity == 0) {
+            next = 0;
+        } else {
+            float raw = velocity * LEVELS;
+            if (Math.abs(raw - level) <= 0.5f + HYSTERESIS) {
+                return;
+            }
+            next = Math.round(raw);
+        }
+        if (next == level) {
+            return;
+        }
+        level = next;
+        if (next != 0 && !started) {
+            started = true;
+            gestures++;
+            output.onZoomGesture(WireProtocol.ZOOM_START, nanos);
+        }
+        emit(next * STEP, nanos);
+    }
+
+    private void emit(int rate, long nanos) {
+        emitted++;
+        output.onZoomRate(rate, nanos);
+    }
+
+    /** Velocidad emitida por última vez. */
+    public int rate() {
+        return level * STEP;
+    }
+
+    public boolean isActive() {
+        return started;
+    }
+
+    /** Muestras de stick y pellizco recibidas. */
+    public long inputCount() {
+        return inputs;
+    }
+
+    /** Velocidades emitidas: la reducción de volumen es {@code inputCount / emittedCount}. */
+    public long emittedCount() {
+        return emitted;
+    }
+
+    public long gestureCount() {
+        return gestures;
+    }
+
+    @Override
+    public String toString() {
+        return "ZoomEngine{rate=" + rate() + ", active=" + started + ", inputs=" + inputs
+                + ", emitted=" + emitted + ", gestures=" + gestures + "}";
+    }
+}
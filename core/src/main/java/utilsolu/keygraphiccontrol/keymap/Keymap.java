@@ -0,0 +1,166 @@
+package utilsolu.keygraphiccontrol.keymap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Mapeo ya compilado de todos los modos: qué comando envía cada control (botón de columna o
+ * dirección del joystick) en cada modo. Son tres arrays planos de primitivos indexados por
+ * {@code modo * CONTROL_COUNT + control}; consultar un control es una lectura de array y el
+ * comando sale tal cual hacia la cola de envío, sin construir nada.
+ *
+ * <p>Las macros se numeran al compilar: su control envía {@code MACRO} con ARG0 = id, y
+ * {@link #macro(int)} da los pasos para precodificarlos antes de que nadie pulse nada, y
+ * {@link #macroControl(int)} el control al que se asignó (su comando de siempre es lo que se
+ * envía al listener de texto, que no conoce las macros).
+ *
+ * <p>Inmutable una vez compilado: se publica entero (campo volátil) y puede leerse desde
+ * cualquier hilo.
+ */
+public final class Keymap {
+
+    public static final int MODE_COUNT = 3;
+    /** Botones por columna que admite el mapeo. */
+    public static final int MAX_BUTTONS = 8;
+
+    private static final int LEFT_BASE = 0;
+    private static final int RIGHT_BASE = MAX_BUTTONS;
+    private static final int JOYSTICK_BASE = 2 * MAX_BUTTONS;
+    // Las direcciones UP..RIGHT (DIR_STOP no se mapea).
+    private static final int JOYSTICK_CONTROLS = WireProtocol.DIR_RIGHT;
+    public static final int CONTROL_COUNT = JOYSTICK_BASE + JOYSTICK_CONTROLS;
+
+    /** Opcode de un control sin asignar: no envía nada. */
+    public static final int NONE = 0;
+
+    private final int[] opcodes;
+    private final int[] args0;
+    private final int[] args1;
+    private final Macro[] macros;
+    private final int[] macroControls;
+
+    private Keymap(int[] opcodes, int[] args0, int[] args1, Macro[] macros, int[] macroControls) {
+        this.opcodes = opcodes;
+        this.args0 = args0;
+        this.args1 = args1;
+        this.macros = macros;
+        this.macroControls = macroControls;
+    }
+
+    /** Control de un botón de columna ({@code side} = {@code SIDE_*}, {@code index} desde 1), o -1. */
+    public static int buttonControl(int side, int index) {
+        if (index < 1 || index > MAX_BUTTONS) {
+            return -1;
+        }
+        if (side == WireProtocol.SIDE_LEFT) {
+            return LEFT_BASE + index - 1;
+        }
+        return side == WireProtocol.SIDE_RIGHT ? RIGHT_BASE + index - 1 : -1;
+    }
+
+    /** Control de una dirección del joystick ({@code DIR_UP}..{@code DIR_RIGHT}), o -1. */
+    public static int joystickControl(int direction) {
+        return direction >= WireProtocol.DIR_UP && direction <= WireProtocol.DIR_RIGHT
+                ? JOYSTICK_BASE + direction - WireProtocol.DIR_UP : -1;
+    }
+
+    /** Opcode del comando de siempre de {@code control}: {@code BUTTON} o {@code DIRECTION}. */
+    public static int defaultOpcode(int control) {
+        return control < JOYSTICK_BASE ? WireProtocol.OP_BUTTON : WireProtocol.OP_DIRECTION;
+    }
+
+    /** ARG0 del comando de siempre: el lado del botón o la dirección del joystick. */
+    public static int defaultArg0(int control) {
+        if (control >= JOYSTICK_BASE) {
+            return WireProtocol.DIR_UP + control - JOYSTICK_BASE;
+        }
+        return control < RIGHT_BASE ? WireProtocol.SIDE_LEFT : WireProtocol.SIDE_RIGHT;
+    }
+
+    /** ARG1 del comando de siempre: el número del botón (desde 1), o 0 en el joystick. */
+    public static int defaultArg1(int control) {
+        if (control >= JOYSTICK_BASE) {
+            return 0;
+        }
+        return control < RIGHT_BASE ? control - LEFT_BASE + 1 : control - RIGHT_BASE + 1;
+    }
+
+    /**
+     * Compila un perfil por modo; un perfil null o sin entrada para un control deja el
+     * comportamiento de siempre (el botón envía su BUTTON y el joystick su DIRECTION).
+     */
+    public static Keymap compile(KeymapProfile[] profiles) {
+        int[] opcodes = new int[MODE_COUNT * CONTROL_COUNT];
+        int[] args0 = new int[opcodes.length];
+        int[] args1 = new int[opcodes.length];
+        List<Macro> macros = new ArrayList<>();
+        List<Integer> macroControls = new ArrayList<>();
+        for (int mode = 0; mode < MODE_COUNT; mode++) {
+            int base = mode * CONTROL_COUNT;
+            for (int control = 0; control < CONTROL_COUNT; control++) {
+                set(opcodes, args0, args1, base + control,
+                        defaultOpcode(control), defaultArg0(control), defaultArg1(control));
+            }
+            KeymapProfile profile = mode < profiles.length ? profiles[mode] : null;
+            if (profile == null) {
+                continue;
+            }
+            for (int i = 0; i < profile.size(); i++) {
+                Macro macro = profile.macro(i);
+                if (macro != null) {
+                    set(opcodes, args0, args1, base + profile.control(i), WireProtocol.OP_MACRO, macros.size(), 0);
+                    macros.add(macro);
+                    macroControls.add(profile.control(i));
+                    continue;
+                }
+                set(opcodes, args0, args1, base + profile.control(i),
+                        profile.opcode(i), profile.arg0(i), profile.arg1(i));
+            }
+        }
+        int[] controls = new int[macroControls.size()];
+        for (int id = 0; id < controls.length; id++) {
+            controls[id] = macroControls.get(id);
+        }
+        return new Keymap(opcodes, args0, args1, macros.toArray(new Macro[0]), controls);
+    }
+
+    /** El mapeo de siempre en todos los modos. */
+    public static Keymap defaults() {
+        return compile(new KeymapProfile[0]);
+    }
+
+    private static void set(int[] opcodes, int[] args0, int[] args1, int slot, int opcode, int arg0, int arg1) {
+        opcodes[slot] = opcode;
+        args0[slot] = arg0;
+        args1[slot] = arg1;
+    }
+
+    /** {@code mode} desde 0; {@code control} de {@link #buttonControl}/{@link #joystickControl}. */
+    public int opcode(int mode, int control) {
+        return opcodes[mode * CONTROL_COUNT + control];
+    }
+
+    public int arg0(int mode, int control) {
+        return args0[mode * CONTROL_COUNT + control];
+    }
+
+    public int arg1(int mode, int control) {
+        return args1[mode * CONTROL_COUNT + control];
+    }
+
+    /** Macros compiladas; sus ids van de 0 a {@code macroCount() - 1}. */
+    public int macroCount() {
+        return macros.length;
+    }
+
+    public Macro macro(int id) {
+        return macros[id];
+    }
+
+    /** Control al que está asignada la macro {@code id}. */
+    public int macroControl(int id) {
+        return macroControls[id];
+    }
+}
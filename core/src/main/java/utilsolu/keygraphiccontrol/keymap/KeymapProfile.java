@@ -0,0 +1,174 @@
+package utilsolu.keygraphiccontrol.keymap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Locale;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Perfil de mapeo de un modo, tal como lo escribe el usuario: una asignación por línea,
+ * {@code CONTROL = ACCIÓN}, con {@code #} para comentarios.
+ *
+ * <pre>
+ * # Modo 3: teclado
+ * IZQUIERDA_1 = KEY 32
+ * DERECHA_2   = BUTTON IZQUIERDA 1
+ * UP          = KEY 87
+ * LEFT        = NONE
+ * DERECHA_1   = MACRO DOWN:17 TAP:67 UP:17
+ * </pre>
+ *
+ * <p>Controles: {@code IZQUIERDA_n} / {@code DERECHA_n} (botones de columna, desde 1) y
+ * {@code UP}, {@code DOWN}, {@code LEFT}, {@code RIGHT} (joystick). Acciones: {@code BUTTON
+ * <lado> <n>}, {@code DIRECTION <dir>}, {@code KEY <código>} (tecla del PC, código del listener),
+ * {@code MACRO <pasos>} (ver {@link Macro}) y {@code NONE}. El texto solo se interpreta al cargar; {@link Keymap#compile} lo pasa a tablas.
+ */
+public final class KeymapProfile {
+
+    private int size;
+    private int[] controls = new int[8];
+    private int[] opcodes = new int[8];
+    private int[] args0 = new int[8];
+    private int[] args1 = new int[8];
+    private Macro[] macros = new Macro[8];
+
+    /**
+     * Lee un perfil. Una línea que no se entiende lanza {@link IllegalArgumentException} con su
+     * número: un perfil a medias haría cosas inesperadas con los botones.
+     */
+    public static KeymapProfile parse(Reader source) throws IOException {
+        KeymapProfile profile = new KeymapProfile();
+        BufferedReader in = new BufferedReader(source);
+        String line;
+        int number = 0;
+        while ((line = in.readLine()) != null) {
+            number++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            int equals = line.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Línea " + number + ": falta '=': " + line);
+            }
+            String control = line.substring(0, equals).trim().toUpperCase(Locale.ROOT);
+            String[] action = line.substring(equals + 1).trim().toUpperCase(Locale.ROOT).split("\\s+");
+            profile.add(number, parseControl(number, control), action);
+        }
+        return profile;
+    }
+
+    private static int parseControl(int number, String name) {
+        int control = Keymap.joystickControl(WireProtocol.directionOf(name));
+        int underscore = name.lastIndexOf('_');
+        if (control < 0 && underscore > 0) {
+            int side = WireProtocol.sideOf(name.substring(0, underscore));
+            control = Keymap.buttonControl(side, parseInt(number, name.substring(underscore + 1)));
+        }
+        if (control < 0) {
+            throw new IllegalArgumentException("Línea " + number + ": control desconocido: " + name);
+        }
+        return control;
+    }
+
+    private void add(int number, int control, String[] action) {
+        int opcode;
+        int arg0 = 0;
+        int arg1 = 0;
+        Macro macro = null;
+        String type = action[0];
+        if (type.equals("NONE") && action.length == 1) {
+            opcode = Keymap.NONE;
+        } else if (type.equals("KEY") && action.length == 2) {
+            opcode = WireProtocol.OP_KEY;
+            arg0 = parseInt(number, action[1]);
+        } else if (type.equals("BUTTON") && action.length == 3) {
+            opcode = WireProtocol.OP_BUTTON;
+            arg0 = WireProtocol.sideOf(action[1]);
+            arg1 = parseInt(number, action[2]);
+            if (arg0 < 0 || arg1 < 1) {
+                throw new IllegalArgumentException("Línea " + number + ": botón inválido: " + join(action));
+            }
+        } else if (type.equals("DIRECTION") && action.length == 2) {
+            opcode = WireProtocol.OP_DIRECTION;
+            arg0 = WireProtocol.directionOf(action[1]);
+            if (arg0 <= WireProtocol.DIR_STOP) {
+                throw new IllegalArgumentException("Línea " + number + ": dirección inválida: " + action[1]);
+            }
+        } else if (type.equals("MACRO")) {
+            opcode = WireProtocol.OP_MACRO;
+            try {
+                macro = Macro.parse(action, 1);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Línea " + number + ": " + e.getMessage());
+            }
+        } else {
+            throw new IllegalArgumentException("Línea " + number + ": acción desconocida: " + join(action));
+        }
+        if (size == controls.length) {
+            controls = Arrays.copyOf(controls, size * 2);
+            opcodes = Arrays.copyOf(opcodes, size * 2);
+            args0 = Arrays.copyOf(args0, size * 2);
+            args1 = Arrays.copyOf(args1, size * 2);
+            macros = Arrays.copyOf(macros, size * 2);
+        }
+        controls[size] = control;
+        opcodes[size] = opcode;
+        args0[size] = arg0;
+        args1[size] = arg1;
+        macros[size] = macro;
+        size++;
+    }
+
+    private static String join(String[] words) {
+        StringBuilder out = new StringBuilder();
+        for (String word : words) {
+            if (out.length() > 0) {
+                out.append(' ');
+            }
+            out.append(word);
+        }
+        return out.toString();
+    }
+
+    private static int parseInt(int number, String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Línea " + number + ": número inválido: " + text);
+        }
+    }
+
+    /** Asignaciones en orden de lectura (una repetida pisa a la anterior al compilar). */
+    public int size() {
+        return size;
+    }
+
+    int control(int i) {
+        return controls[i];
+    }
+
+    int opcode(int i) {
+        return opcodes[i];
+    }
+
+    int arg0(int i) {
+        return args0[i];
+    }
+
+    int arg1(int i) {
+        return args1[i];
+    }
+
+    /** La macro de la asignación {@code i}, o null si no es {@code MACRO}. */
+    Macro macro(int i) {
+        return macros[i];
+    }
+}
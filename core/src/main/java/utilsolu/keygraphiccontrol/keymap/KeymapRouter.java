@@ -0,0 +1,113 @@
+package utilsolu.keygraphiccontrol.keymap;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Traduce los controles físicos a comandos con el {@link Keymap} del modo activo.
+ *
+ * <p>Botones: cada pulsación es una consulta a la tabla ({@code KEY} sale como
+ * {@link WireProtocol#KEY_TAP}; {@code MACRO} sale con su id y el escritor añade los pasos). Joystick: una dirección asignada a {@code DIRECTION} se envía en
+ * cada muestra, como siempre (la cola de estado descarta las repetidas); una asignada a
+ * {@code KEY} mantiene la tecla pulsada (DOWN al entrar en la dirección, UP al salir o soltar) y
+ * una asignada a {@code BUTTON} se envía una vez al entrar en la dirección.
+ *
+ * <p>Hilos: {@link #pressButton} desde el hilo de UI; {@link #direction} y {@link #release}
+ * solo desde el hilo de entrada del joystick, que es el único que toca el estado del gesto.
+ * Cambiar de modo o de mapeo es escribir un campo volátil: no bloquea a nadie.
+ */
+public final class KeymapRouter {
+
+    public interface Output {
+        void send(int opcode, int arg0, int arg1, long inputNanos);
+    }
+
+    private static final int NO_CONTROL = -1;
+
+    private final Output output;
+    private volatile Keymap keymap = Keymap.defaults();
+    private volatile int mode;
+
+    // Estado del gesto del joystick; solo el hilo de entrada.
+    private int lastControl = NO_CONTROL;
+    private int heldKey;
+    private boolean keyHeld;
+
+    public KeymapRouter(Output output) {
+        this.output = output;
+    }
+
+    /** Publica un mapeo recién compilado; se aplica desde el siguiente control. */
+    public void setKeymap(Keymap keymap) {
+        this.keymap = keymap;
+    }
+
+    /** {@code mode} desde 0, menor que {@link Keymap#MODE_COUNT}. */
+    public void setMode(int mode) {
+        if (mode < 0 || mode >= Keymap.MODE_COUNT) {
+            throw new IllegalArgumentException("Modo fuera de rango: " + mode);
+        }
+        this.mode = mode;
+    }
+
+    public int mode() {
+        return mode;
+    }
+
+    /** Botón de columna pulsado. Devuelve false si el botón no envía nada en este modo. */
+    public boolean pressButton(int side, int index, long inputNanos) {
+        int control = Keymap.buttonControl(side, index);
+        if (control < 0) {
+            return false;
+        }
+        Keymap map = keymap;
+        int m = mode;
+        int opcode = map.opcode(m, control);
+        if (opcode == Keymap.NONE) {
+            return false;
+        }
+        int arg1 = opcode == WireProtocol.OP_KEY ? WireProtocol.KEY_TAP : map.arg1(m, control);
+        output.send(opcode, map.arg0(m, control), arg1, inputNanos);
+        return true;
+    }
+
+    /** Muestra del joystick fuera de la zona muerta ({@code DIR_UP}..{@code DIR_RIGHT}). */
+    public void direction(int direction, long inputNanos) {
+        int control = Keymap.joystickControl(direction);
+        if (control < 0) {
+            return;
+        }
+        Keymap map = keymap;
+        int m = mode;
+        int opcode = map.opcode(m, control);
+        int arg0 = map.arg0(m, control);
+        boolean entered = control != lastControl;
+        lastControl = control;
+        if (opcode == WireProtocol.OP_KEY) {
+            if (!keyHeld || heldKey != arg0) {
+                releaseKey(inputNanos);
+                output.send(WireProtocol.OP_KEY, arg0, WireProtocol.KEY_DOWN, inputNanos);
+                heldKey = arg0;
+                keyHeld = true;
+            }
+            return;
+        }
+        releaseKey(inputNanos);
+        if (opcode == WireProtocol.OP_DIRECTION || (entered && opcode != Keymap.NONE)) {
+            output.send(opcode, arg0, map.arg1(m, control), inputNanos);
+        }
+    }
+
+    /** Fin del gesto: suelta la tecla mantenida, si la hay, y envía el STOP de siempre. */
+    public void release(long inputNanos) {
+        releaseKey(inputNanos);
+        lastControl = NO_CONTROL;
+        output.send(WireProtocol.OP_DIRECTION, WireProtocol.DIR_STOP, 0, inputNanos);
+    }
+
+    private void releaseKey(long inputNanos) {
+        if (keyHeld) {
+            keyHeld = false;
+            output.send(WireProtocol.OP_KEY, heldKey, WireProtocol.KEY_UP, inputNanos);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package utilsolu.keygraphiccontrol.keymap;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Secuencia de teclas asignada a un control: {@code CONTROL = MACRO <paso> <paso> ...}, con
+ * pasos {@code DOWN:<código>}, {@code UP:<código>}, {@code TAP:<código>} y {@code WAIT:<ms>}.
+ *
+ * <pre>
+ * DERECHA_1 = MACRO DOWN:17 DOWN:16 TAP:90 UP:16 UP:17   # Ctrl+Shift+Z
+ * DERECHA_2 = MACRO TAP:49 WAIT:120 TAP:50
+ * </pre>
+ *
+ * <p>Un {@code WAIT} es la pausa antes del paso siguiente; el listener la aplica con su propio
+ * reloj, así que la red no estira ni encoge la secuencia. Se valida entera al cargar: como mucho
+ * {@link WireProtocol#MACRO_MAX_STEPS} pasos, pausas de hasta
+ * {@link WireProtocol#MACRO_MAX_DELAY_MS} ms, sin {@code WAIT} al final y con cada tecla pulsada
+ * soltada antes de acabar (una macro nunca deja teclas atascadas en el PC).
+ *
+ * <p>Inmutable.
+ */
+public final class Macro {
+
+    private final int[] keys;
+    private final int[] actions;
+    private final int[] delaysMs;
+
+    private Macro(int[] keys, int[] actions, int[] delaysMs) {
+        this.keys = keys;
+        this.actions = actions;
+        this.delaysMs = delaysMs;
+    }
+
+    /**
+     * Lee los pasos {@code tokens[from..]} (ya en mayúsculas). Una macro inválida lanza
+     * {@link IllegalArgumentException}; {@link KeymapProfile} le añade el número de línea.
+     */
+    public static Macro parse(String[] tokens, int from) {
+        int[] keys = new int[WireProtocol.MACRO_MAX_STEPS];
+        int[] actions = new int[WireProtocol.MACRO_MAX_STEPS];
+        int[] delays = new int[WireProtocol.MACRO_MAX_STEPS];
+        int[] held = new int[WireProtocol.MACRO_MAX_STEPS];
+        int heldCount = 0;
+        int steps = 0;
+        int pendingDelay = 0;
+        boolean waiting = false;
+        for (int i = from; i < tokens.length; i++) {
+            String token = tokens[i];
+            int colon = token.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("paso de macro inválido: " + token);
+            }
+            String kind = token.substring(0, colon);
+            int value = parseValue(token, token.substring(colon + 1));
+            if (kind.equals("WAIT")) {
+                pendingDelay += value;
+                if (pendingDelay > WireProtocol.MACRO_MAX_DELAY_MS) {
+                    throw new IllegalArgumentException("pausa de más de " + WireProtocol.MACRO_MAX_DELAY_MS
+                            + " ms: " + token);
+                }
+                waiting = true;
+                continue;
+            }
+            int action = actionOf(kind);
+            if (action < 0) {
+                throw new IllegalArgumentException("paso de macro inválido: " + token);
+            }
+            if (steps == WireProtocol.MACRO_MAX_STEPS) {
+                throw new IllegalArgumentException("macro de más de " + WireProtocol.MACRO_MAX_STEPS + " pasos");
+            }
+            int at = indexOf(held, heldCount, value);
+            if (action == WireProtocol.KEY_DOWN) {
+                if (at >= 0) {
+                    throw new IllegalArgumentException("tecla ya pulsada: " + token);
+                }
+                held[heldCount++] = value;
+            } else if (action == WireProtocol.KEY_UP) {
+                if (at < 0) {
+                    throw new IllegalArgumentException("tecla soltada sin pulsar: " + token);
+                }
+                held[at] = held[--heldCount];
+            }
+            keys[steps] = value;
+            actions[steps] = action;
+            delays[steps] = pendingDelay;
+            steps++;
+            pendingDelay = 0;
+            waiting = false;
+        }
+        if (steps == 0) {
+            throw new IllegalArgumentException("macro sin pasos");
+        }
+        if (waiting) {
+            throw new IllegalArgumentException("macro terminada en WAIT");
+        }
+        if (heldCount > 0) {
+            throw new IllegalArgumentException("tecla sin soltar: " + held[0]);
+        }
+        return new Macro(copy(keys, steps), copy(actions, steps), copy(delays, steps));
+    }
+
+    private static int actionOf(String kind) {
+        switch (kind) {
+            case "TAP":
+                return WireProtocol.KEY_TAP;
+            case "DOWN":
+                return WireProtocol.KEY_DOWN;
+            case "UP":
+                return WireProtocol.KEY_UP;
+            default:
+                return -1;
+        }
+    }
+
+    private static int parseValue(String token, String text) {
+        try {
+            int value = Integer.parseInt(text);
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Abajo, con el paso entero en el mensaje.
+        }
+        throw new IllegalArgumentException("número inválido: " + token);
+    }
+
+    private static int indexOf(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] copy(int[] values, int count) {
+        int[] out = new int[count];
+        System.arraycopy(values, 0, out, 0, count);
+        return out;
+    }
+
+    public int steps() {
+        return keys.length;
+    }
+
+    /** Código de tecla del paso {@code i} (código del listener). */
+    public int key(int i) {
+        return keys[i];
+    }
+
+    /** {@code KEY_TAP}, {@code KEY_DOWN} o {@code KEY_UP}. */
+    public int action(int i) {
+        return actions[i];
+    }
+
+    /** Pausa antes del paso {@code i}, en ms. */
+    public int delayMs(int i) {
+        return delaysMs[i];
+    }
+
+    /** Duración de la macro en el listener: la suma de sus pausas. */
+    public int totalDelayMs() {
+        int total = 0;
+        for (int delay : delaysMs) {
+            total += delay;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,132 @@
+package utilsolu.keygraphiccontrol.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Salud de la conexión con el PC: RTT de los latidos, cuánto tardamos en dar por muerto al PC
+ * y cuánto tardamos en volver a estar conectados.
+ *
+ * <p>Con conexión de reserva ({@link utilsolu.keygraphiccontrol.net.ConnectionManager}), el
+ * cambio de enlace se mide aparte según de dónde salió el nuevo: de la reserva ya abierta o de
+ * una conexión nueva (la reserva no estaba o estaba muerta).
+ *
+ * <p>Lo escriben el monitor de latidos y el hilo que conecta; lo lee el overlay de depuración.
+ */
+public final class ConnectionMetrics {
+
+    private final LatencyHistogram heartbeatRtt = new LatencyHistogram();
+    private final LatencyHistogram deadPeerDetection = new LatencyHistogram();
+    private final LatencyHistogram reconnectTime = new LatencyHistogram();
+    private final LatencyHistogram standbySwitch = new LatencyHistogram();
+    private final LatencyHistogram coldSwitch = new LatencyHistogram();
+
+    private final AtomicLong deadPeers = new AtomicLong();
+    private final AtomicLong connectAttempts = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong standbysLost = new AtomicLong();
+
+    /** Ida y vuelta de un PING/PONG. */
+    public void recordRoundTrip(long nanos) {
+        heartbeatRtt.record(nanos);
+    }
+
+    /** El PC se dio por muerto tras {@code silenceNanos} sin recibir nada de él. */
+    public void recordPeerDead(long silenceNanos) {
+        deadPeers.incrementAndGet();
+        deadPeerDetection.record(silenceNanos);
+    }
+
+    public void recordConnectAttempt() {
+        connectAttempts.incrementAndGet();
+    }
+
+    /** Conexión recuperada {@code nanos} después de perder la anterior. */
+    public void recordReconnect(long nanos) {
+        reconnects.incrementAndGet();
+        reconnectTime.record(nanos);
+    }
+
+    /** Enlace listo {@code nanos} después de pedirlo; {@code fromStandby}: era la reserva. */
+    public void recordSwitch(long nanos, boolean fromStandby) {
+        (fromStandby ? standbySwitch : coldSwitch).record(nanos);
+    }
+
+    /** Una conexión de reserva resultó estar muerta (al comprobarla o al ir a usarla). */
+    public void recordStandbyLost() {
+        standbysLost.incrementAndGet();
+    }
+
+    public LatencyHistogram heartbeatRtt() {
+        return heartbeatRtt;
+    }
+
+    public LatencyHistogram deadPeerDetection() {
+        return deadPeerDetection;
+    }
+
+    public LatencyHistogram reconnectTime() {
+        return reconnectTime;
+    }
+
+    public LatencyHistogram standbySwitch() {
+        return standbySwitch;
+    }
+
+    public LatencyHistogram coldSwitch() {
+        return coldSwitch;
+    }
+
+    public long standbysLost() {
+        return standbysLost.get();
+    }
+
+    public long deadPeers() {
+        return deadPeers.get();
+    }
+
+    public long connectAttempts() {
+        return connectAttempts.get();
+    }
+
+    public long reconnects() {
+        return reconnects.get();
+    }
+
+    public void reset() {
+        heartbeatRtt.reset();
+        deadPeerDetection.reset();
+        reconnectTime.reset();
+        standbySwitch.reset();
+        coldSwitch.reset();
+        standbysLost.set(0);
+        deadPeers.set(0);
+        connectAttempts.set(0);
+        reconnects.set(0);
+    }
+
+    /** Tabla para el overlay, con las mismas columnas que {@link LatencyTracker#formatText()}. */
+    public String formatText() {
+        StringBuilder out = new StringBuilder();
+        HistogramFormat.appendTextHeader(out);
+        HistogramFormat.appendTextRow(out, "heartbeat_rtt", heartbeatRtt);
+        HistogramFormat.appendTextRow(out, "dead_peer_detect", deadPeerDetection);
+        HistogramFormat.appendTextRow(out, "reconnect", reconnectTime);
+        HistogramFormat.appendTextRow(out, "switch_standby", standbySwitch);
+        HistogramFormat.appendTextRow(out, "switch_cold", coldSwitch);
+        out.append(String.format(Locale.US, "caídas %d, intentos %d, reconexiones %d, reservas perdidas %d%n",
+                deadPeers(), connectAttempts(), reconnects(), standbysLost()));
+        return out.toString();
+    }
+
+    /** Filas CSV sin cabecera, para añadir tras {@link LatencyTracker#formatCsv()}. */
+    public String formatCsvRows() {
+        StringBuilder out = new StringBuilder();
+        HistogramFormat.appendCsvRow(out, "heartbeat_rtt", heartbeatRtt);
+        HistogramFormat.appendCsvRow(out, "dead_peer_detect", deadPeerDetection);
+        HistogramFormat.appendCsvRow(out, "reconnect", reconnectTime);
+        HistogramFormat.appendCsvRow(out, "switch_standby", standbySwitch);
+        HistogramFormat.appendCsvRow(out, "switch_cold", coldSwitch);
+        return out.toString();
+    }
+}
@@ -0,0 +1,37 @@
+package utilsolu.keygraphiccontrol.metrics;
+
+import java.util.Locale;
+
+/** Formato común (tabla de texto y CSV, en microsegundos) para los histogramas de este paquete. */
+final class HistogramFormat {
+
+    static final String CSV_HEADER = "stage,count,p50_us,p99_us,p999_us,max_us\n";
+
+    private HistogramFormat() {
+    }
+
+    static void appendTextHeader(StringBuilder out) {
+        out.append(String.format(Locale.US, "%-17s %8s %8s %8s %8s %8s%n",
+                "etapa (us)", "n", "p50", "p99", "p999", "max"));
+    }
+
+    static void appendTextRow(StringBuilder out, String name, LatencyHistogram h) {
+        out.append(String.format(Locale.US, "%-17s %8d %8d %8d %8d %8d%n",
+                name, h.count(),
+                micros(h.percentileNanos(50)), micros(h.percentileNanos(99)),
+                micros(h.percentileNanos(99.9)), micros(h.maxNanos())));
+    }
+
+    static void appendCsvRow(StringBuilder out, String name, LatencyHistogram h) {
+        out.append(name).append(',')
+                .append(h.count()).append(',')
+                .append(micros(h.percentileNanos(50))).append(',')
+                .append(micros(h.percentileNanos(99))).append(',')
+                .append(micros(h.percentileNanos(99.9))).append(',')
+                .append(micros(h.maxNanos())).append('\n');
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+}
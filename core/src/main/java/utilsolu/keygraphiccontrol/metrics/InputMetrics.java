@@ -0,0 +1,81 @@
+package utilsolu.keygraphiccontrol.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coste de la entrada táctil en el hilo principal y traspaso al hilo de entrada.
+ *
+ * <p>El tiempo de {@code onTouch} se registra en un histograma distinto según la clasificación
+ * se haga en el propio hilo principal ({@code ui_touch_inline}, el camino antiguo) o en el hilo
+ * de entrada ({@code ui_touch_offload}), para comparar ambos en el mismo dispositivo.
+ */
+public final class InputMetrics {
+
+    private final LatencyHistogram uiTouchInline = new LatencyHistogram();
+    private final LatencyHistogram uiTouchOffload = new LatencyHistogram();
+    private final LatencyHistogram sampleHandoff = new LatencyHistogram();
+
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong droppedSamples = new AtomicLong();
+
+    /** Tiempo del hilo principal dentro de {@code onTouch} para un evento. */
+    public void recordUiTouch(boolean offloaded, long nanos) {
+        (offloaded ? uiTouchOffload : uiTouchInline).record(nanos);
+    }
+
+    /** Desde que el hilo principal publica la muestra hasta que el hilo de entrada la procesa. */
+    public void recordHandoff(long nanos) {
+        samples.incrementAndGet();
+        sampleHandoff.record(nanos);
+    }
+
+    /** Muestra de movimiento descartada con la cola llena. */
+    public void recordDroppedSample() {
+        droppedSamples.incrementAndGet();
+    }
+
+    public LatencyHistogram uiTouch(boolean offloaded) {
+        return offloaded ? uiTouchOffload : uiTouchInline;
+    }
+
+    public LatencyHistogram sampleHandoff() {
+        return sampleHandoff;
+    }
+
+    public long samples() {
+        return samples.get();
+    }
+
+    public long droppedSamples() {
+        return droppedSamples.get();
+    }
+
+    public void reset() {
+        uiTouchInline.reset();
+        uiTouchOffload.reset();
+        sampleHandoff.reset();
+        samples.set(0);
+        droppedSamples.set(0);
+    }
+
+    /** Tabla para el overlay, con las mismas columnas que {@link LatencyTracker#formatText()}. */
+    public String formatText() {
+        StringBuilder out = new StringBuilder();
+        HistogramFormat.appendTextHeader(out);
+        HistogramFormat.appendTextRow(out, "ui_touch_inline", uiTouchInline);
+        HistogramFormat.appendTextRow(out, "ui_touch_offload", uiTouchOffload);
+        HistogramFormat.appendTextRow(out, "sample_handoff", sampleHandoff);
+        out.append(String.format(Locale.US, "muestras %d, descartadas %d%n", samples(), droppedSamples()));
+        return out.toString();
+    }
+
+    /** Filas CSV sin cabecera, para añadir tras {@link LatencyTracker#formatCsv()}. */
+    public String formatCsvRows() {
+        StringBuilder out = new StringBuilder();
+        HistogramFormat.appendCsvRow(out, "ui_touch_inline", uiTouchInline);
+        HistogramFormat.appendCsvRow(out, "ui_touch_offload", uiTouchOffload);
+        HistogramFormat.appendCsvRow(out, "sample_handoff", sampleHandoff);
+        return out.toString();
+    }
+}
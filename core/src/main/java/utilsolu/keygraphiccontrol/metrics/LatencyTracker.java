@@ -0,0 +1,81 @@
+package utilsolu.keygraphiccontrol.metrics;
+
+/**
+ * Latencias del camino de entrada, etapa por etapa, desde que el dedo se mueve
+ * ({@code MotionEvent.getEventTime()}) hasta que los bytes salen por el socket.
+ *
+ * <p>Todas las marcas de tiempo están en la base de {@link System#nanoTime()}; en Android
+ * coincide con la de {@code SystemClock.uptimeMillis()}, que es la que usa MotionEvent.
+ */
+public final class LatencyTracker {
+
+    /** Evento táctil (o clic) hasta entrar en la cola / coalescedor. */
+    public static final int STAGE_INPUT_TO_ENQUEUE = 0;
+    /** Tiempo esperando en la cola / coalescedor hasta que el escritor lo recoge. */
+    public static final int STAGE_QUEUE_WAIT = 1;
+    /** Desde que el escritor lo recoge hasta que termina la escritura en el socket. */
+    public static final int STAGE_DEQUEUE_TO_WRITE = 2;
+    /** Evento táctil hasta escritura completada. */
+    public static final int STAGE_END_TO_END = 3;
+    public static final int STAGE_COUNT = 4;
+
+    private static final String[] STAGE_NAMES = {
+            "input_to_enqueue", "queue_wait", "dequeue_to_write", "end_to_end"
+    };
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_COUNT];
+
+    public LatencyTracker() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(int stage, long nanos) {
+        histograms[stage].record(nanos);
+    }
+
+    /**
+     * Registra todas las etapas de un comando a partir de sus cuatro marcas de tiempo.
+     * Es lo que llama el escritor tras cada escritura completada.
+     */
+    public void recordCommand(long inputNanos, long enqueueNanos, long dequeueNanos, long writtenNanos) {
+        histograms[STAGE_INPUT_TO_ENQUEUE].record(enqueueNanos - inputNanos);
+        histograms[STAGE_QUEUE_WAIT].record(dequeueNanos - enqueueNanos);
+        histograms[STAGE_DEQUEUE_TO_WRITE].record(writtenNanos - dequeueNanos);
+        histograms[STAGE_END_TO_END].record(writtenNanos - inputNanos);
+    }
+
+    public LatencyHistogram histogram(int stage) {
+        return histograms[stage];
+    }
+
+    public static String stageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /** Tabla legible para el overlay de depuración (valores en microsegundos). */
+    public String formatText() {
+        StringBuilder out = new StringBuilder();
+        HistogramFormat.appendTextHeader(out);
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            HistogramFormat.appendTextRow(out, STAGE_NAMES[i], histograms[i]);
+        }
+        return out.toString();
+    }
+
+    /** Volcado CSV para exportar (valores en microsegundos). */
+    public String formatCsv() {
+        StringBuilder out = new StringBuilder(HistogramFormat.CSV_HEADER);
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            HistogramFormat.appendCsvRow(out, STAGE_NAMES[i], histograms[i]);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,99 @@
+package utilsolu.keygraphiccontrol.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fases del arranque en frío, medidas desde el inicio del proceso: cuándo se crea la actividad,
+ * cuándo empieza la conexión en segundo plano, cuándo está inflada la vista, el primer frame,
+ * la UI completa y la primera conexión con el PC.
+ *
+ * <p>Cada fase se marca una sola vez (la primera gana: las reconexiones no cuentan). Los dos
+ * números de referencia por versión son {@link #PHASE_FIRST_FRAME} y {@link #PHASE_CONNECTED};
+ * van también al CSV exportado, con una muestra por arranque.
+ *
+ * <p>Las marcas llegan del hilo de UI y del de red; las lee el overlay.
+ */
+public final class StartupMetrics {
+
+    public static final int PHASE_ACTIVITY_CREATE = 0;
+    public static final int PHASE_CONNECT_START = 1;
+    public static final int PHASE_CONTENT_VIEW = 2;
+    public static final int PHASE_FIRST_FRAME = 3;
+    public static final int PHASE_UI_READY = 4;
+    public static final int PHASE_CONNECTED = 5;
+    public static final int PHASE_COUNT = 6;
+
+    private static final String[] PHASE_NAMES = {
+            "activity_create", "connect_start", "content_view", "first_frame", "ui_ready", "connected"};
+
+    private final long originNanos;
+    private final AtomicLongArray sinceOrigin = new AtomicLongArray(PHASE_COUNT);
+    private final LatencyHistogram[] phases = new LatencyHistogram[PHASE_COUNT];
+
+    /** {@code originNanos}: inicio del proceso en la base de {@code System.nanoTime()}. */
+    public StartupMetrics(long originNanos) {
+        this.originNanos = originNanos;
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Marca la fase en el instante {@code nanos}. Devuelve false si ya estaba marcada. Un
+     * instante anterior al origen cuenta como 1 ns, para no confundirlo con "sin marcar".
+     */
+    public boolean mark(int phase, long nanos) {
+        long elapsed = Math.max(1, nanos - originNanos);
+        if (!sinceOrigin.compareAndSet(phase, 0, elapsed)) {
+            return false;
+        }
+        phases[phase].record(elapsed);
+        return true;
+    }
+
+    public boolean isMarked(int phase) {
+        return sinceOrigin.get(phase) != 0;
+    }
+
+    /** Tiempo desde el inicio del proceso hasta la fase, o 0 si aún no se alcanzó. */
+    public long sinceStartNanos(int phase) {
+        return sinceOrigin.get(phase);
+    }
+
+    public long timeToFirstFrameNanos() {
+        return sinceStartNanos(PHASE_FIRST_FRAME);
+    }
+
+    public long timeToConnectedNanos() {
+        return sinceStartNanos(PHASE_CONNECTED);
+    }
+
+    public static String phaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    /** Línea para el overlay, en milisegundos desde el inicio del proceso ("-" sin alcanzar). */
+    public String formatText() {
+        StringBuilder out = new StringBuilder("arranque (ms):");
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            long nanos = sinceOrigin.get(i);
+            out.append(' ').append(PHASE_NAMES[i]).append('=');
+            if (nanos == 0) {
+                out.append('-');
+            } else {
+                out.append(String.format(Locale.US, "%.1f", nanos / 1e6));
+            }
+        }
+        return out.append('\n').toString();
+    }
+
+    /** Filas CSV sin cabecera, para añadir tras {@link LatencyTracker#formatCsv()}. */
+    public String formatCsvRows() {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            HistogramFormat.appendCsvRow(out, "startup_" + PHASE_NAMES[i], phases[i]);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,178 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.util.Locale;
+
+/**
+ * Estimación estilo NTP del desfase y la deriva entre el reloj del teléfono
+ * ({@code System.nanoTime()}) y el del listener, a partir de los latidos.
+ *
+ * <p>Cada latido da una muestra: {@code t1} (PING enviado, reloj local), {@code remote} (PING
+ * recibido, reloj del listener) y {@code t4} (respuesta leída, reloj local). Con el punto medio
+ * de la ida y vuelta como instante de {@code remote}, el error de la muestra es como mucho la
+ * mitad del RTT, así que de las últimas {@link #DEFAULT_WINDOW} se usa la de RTT mínimo (la que
+ * menos cola y planificación lleva dentro). Si su RTT es menor que el de la muestra en la que se
+ * apoya la estimación, el desfase salta a ella; si no, se suaviza hacia ella. La deriva sale de
+ * comparar desfases filtrados separados por al menos {@link #DRIFT_INTERVAL_NANOS}.
+ *
+ * <p>Hilos: las muestras llegan desde el monitor de latidos; las lecturas ({@link #toRemoteNanos},
+ * estado) vienen del escritor y del overlay. Todo va bajo el monitor del objeto: unas decenas de
+ * muestras por segundo y una lectura por lote escrito, sin contención real.
+ */
+public final class ClockEstimator {
+
+    public static final int DEFAULT_WINDOW = 8;
+    /** Distancia mínima entre las dos muestras con las que se mide la deriva. */
+    public static final long DRIFT_INTERVAL_NANOS = 2_000_000_000L;
+    // El desfase avanza 1/8 hacia cada muestra filtrada; la deriva, 1/4 hacia cada medida.
+    private static final int OFFSET_SMOOTHING_SHIFT = 3;
+    private static final double DRIFT_GAIN = 0.25;
+
+    private final long[] rtts;
+    private final long[] offsets;
+    private final long[] midpoints;
+    private int next;
+    private int filled;
+    private long samples;
+
+    private boolean synced;
+    // Desfase suavizado (remoto - local) válido en el instante local anchorNanos.
+    private long offsetNanos;
+    private long anchorNanos;
+    // RTT de la muestra en la que se apoya el desfase; envejece hacia el mínimo de la ventana.
+    private long anchorRttNanos;
+    // Deriva relativa (ns de desfase por ns local) y la muestra desde la que se mide la próxima.
+    private double drift;
+    private long driftFromNanos;
+    private long driftFromOffset;
+    private long minRttNanos;
+
+    public ClockEstimator() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public ClockEstimator(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Ventana inválida: " + window);
+        }
+        rtts = new long[window];
+        offsets = new long[window];
+        midpoints = new long[window];
+    }
+
+    /** Olvida todo: el listener de una conexión nueva puede tener otro reloj. */
+    public synchronized void reset() {
+        next = 0;
+        filled = 0;
+        samples = 0;
+        synced = false;
+        offsetNanos = 0;
+        anchorNanos = 0;
+        anchorRttNanos = 0;
+        drift = 0;
+        minRttNanos = 0;
+    }
+
+    /** Una ida y vuelta: {@code t1} y {@code t4} en el reloj local, {@code remoteNanos} en el del listener. */
+    public synchronized void onSample(long t1, long remoteNanos, long t4) {
+        long rtt = t4 - t1;
+        if (rtt < 0) {
+            return;
+        }
+        long midpoint = t1 + rtt / 2;
+        rtts[next] = rtt;
+        offsets[next] = remoteNanos - midpoint;
+        midpoints[next] = midpoint;
+        next = (next + 1) % rtts.length;
+        filled = Math.min(filled + 1, rtts.length);
+        samples++;
+
+        int best = 0;
+        for (int i = 1; i < filled; i++) {
+            if (rtts[i] < rtts[best]) {
+                best = i;
+            }
+        }
+        long bestOffset = offsets[best];
+        long bestMidpoint = midpoints[best];
+        minRttNanos = rtts[best];
+
+        if (!synced) {
+            synced = true;
+            offsetNanos = bestOffset;
+            anchorNanos = bestMidpoint;
+            anchorRttNanos = minRttNanos;
+            driftFromNanos = bestMidpoint;
+            driftFromOffset = bestOffset;
+            return;
+        }
+        if (minRttNanos < anchorRttNanos) {
+            offsetNanos = bestOffset;
+            anchorRttNanos = minRttNanos;
+        } else {
+            long predicted = offsetAt(bestMidpoint);
+            offsetNanos = predicted + ((bestOffset - predicted) >> OFFSET_SMOOTHING_SHIFT);
+            anchorRttNanos += (minRttNanos - anchorRttNanos) >> OFFSET_SMOOTHING_SHIFT;
+        }
+        anchorNanos = bestMidpoint;
+
+        long span = bestMidpoint - driftFromNanos;
+        if (span >= DRIFT_INTERVAL_NANOS) {
+            double measured = (double) (bestOffset - driftFromOffset) / span;
+            drift += (measured - drift) * DRIFT_GAIN;
+            driftFromNanos = bestMidpoint;
+            driftFromOffset = bestOffset;
+        }
+    }
+
+    private long offsetAt(long localNanos) {
+        return offsetNanos + (long) (drift * (localNanos - anchorNanos));
+    }
+
+    /** Hay al menos una muestra: {@link #toRemoteNanos} ya tiene sentido. */
+    public synchronized boolean isSynchronized() {
+        return synced;
+    }
+
+    /** Instante local ({@code System.nanoTime()}) convertido al reloj del listener. */
+    public synchronized long toRemoteNanos(long localNanos) {
+        return localNanos + offsetAt(localNanos);
+    }
+
+    /** Desfase actual (remoto - local). */
+    public synchronized long offsetNanos() {
+        return offsetAt(System.nanoTime());
+    }
+
+    /** Deriva del reloj del listener respecto al local, en partes por millón. */
+    public synchronized double driftPpm() {
+        return drift * 1e6;
+    }
+
+    /** Cota del error de la muestra filtrada: la mitad de su RTT. */
+    public synchronized long uncertaintyNanos() {
+        return minRttNanos / 2;
+    }
+
+    public synchronized long minRttNanos() {
+        return minRttNanos;
+    }
+
+    public synchronized long samples() {
+        return samples;
+    }
+
+    /** Línea para el overlay. */
+    public synchronized String formatText() {
+        if (!synced) {
+            return "reloj: sin sincronizar\n";
+        }
+        return String.format(Locale.US, "reloj: desfase %.3f ms ± %d us, deriva %.1f ppm, %d muestras%n",
+                offsetAt(System.nanoTime()) / 1e6, uncertaintyNanos() / 1000, driftPpm(), samples);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ClockEstimator{synced=" + synced + ", offset=" + offsetNanos + ", driftPpm=" + driftPpm()
+                + ", minRtt=" + minRttNanos + ", samples=" + samples + "}";
+    }
+}
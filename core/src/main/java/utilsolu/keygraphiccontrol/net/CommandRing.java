@@ -0,0 +1,122 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola circular de capacidad fija para un productor (hilo de UI) y un consumidor (hilo escritor).
+ *
+ * <p>Cada ranura es un comando de tamaño fijo (opcode + dos argumentos + marcas de tiempo de
+ * entrada y de encolado) guardado en arrays de primitivos reservados al construir la cola, así
+ * que ni {@link #offer} ni {@link #drain} crean objetos. Los índices solo avanzan; la posición real es {@code índice & mask}.
+ */
+public final class CommandRing {
+
+    public interface Handler {
+        /** {@code inputNanos}/{@code enqueueNanos} en la base de {@link System#nanoTime()}. */
+        void onCommand(int opcode, int arg0, int arg1, long inputNanos, long enqueueNanos);
+    }
+
+    private final int mask;
+    private final int[] opcodes;
+    private final int[] args0;
+    private final int[] args1;
+    private final long[] inputTimes;
+    private final long[] enqueueTimes;
+
+    // tail lo escribe solo el productor, head solo el consumidor.
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // Copia local del índice del otro lado, para no leer el volátil en cada operación.
+    private long cachedHead;
+    private long cachedTail;
+
+    // Solo los escribe el productor.
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong highWaterMark = new AtomicLong();
+
+    /** {@code capacity} debe ser potencia de dos. */
+    public CommandRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("La capacidad debe ser potencia de dos: " + capacity);
+        }
+        mask = capacity - 1;
+        opcodes = new int[capacity];
+        args0 = new int[capacity];
+        args1 = new int[capacity];
+        inputTimes = new long[capacity];
+        enqueueTimes = new long[capacity];
+    }
+
+    /**
+     * Productor. {@code inputNanos} es el instante del evento que originó el comando.
+     * Devuelve false si la cola está llena.
+     */
+    public boolean offer(int opcode, int arg0, int arg1, long inputNanos) {
+        long t = tail.get();
+        if (t - cachedHead > mask) {
+            cachedHead = head.get();
+            if (t - cachedHead > mask) {
+                rejected.lazySet(rejected.get() + 1);
+                return false;
+            }
+        }
+        int slot = (int) (t & mask);
+        opcodes[slot] = opcode;
+        args0[slot] = arg0;
+        args1[slot] = arg1;
+        inputTimes[slot] = inputNanos;
+        enqueueTimes[slot] = System.nanoTime();
+        // Publica la ranura: el consumidor ve los arrays escritos antes que el nuevo tail.
+        tail.lazySet(t + 1);
+        if (t + 1 - cachedHead > highWaterMark.get()) {
+            // cachedHead puede ir atrasado: solo en ese caso se paga la lectura del volátil.
+            long depth = t + 1 - head.get();
+            if (depth > highWaterMark.get()) {
+                highWaterMark.lazySet(depth);
+            }
+        }
+        return true;
+    }
+
+    /** Consumidor. Entrega hasta {@code limit} comandos al handler y devuelve cuántos fueron. */
+    public int drain(Handler handler, int limit) {
+        long h = head.get();
+        if (h >= cachedTail) {
+            cachedTail = tail.get();
+            if (h >= cachedTail) {
+                return 0;
+            }
+        }
+        int count = (int) Math.min(cachedTail - h, limit);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) ((h + i) & mask);
+            handler.onCommand(opcodes[slot], args0[slot], args1[slot], inputTimes[slot], enqueueTimes[slot]);
+        }
+        head.lazySet(h + count);
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    /** Número aproximado de comandos en cola (exacto si se llama desde uno de los dos hilos). */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** Comandos que no cupieron porque la cola estaba llena. */
+    public long rejectedCount() {
+        return rejected.get();
+    }
+
+    /** Profundidad máxima observada por el productor. */
+    public long highWaterMark() {
+        return highWaterMark.get();
+    }
+}
@@ -0,0 +1,472 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import utilsolu.keygraphiccontrol.metrics.LatencyTracker;
+import utilsolu.keygraphiccontrol.protocol.FrameEncoder;
+import utilsolu.keygraphiccontrol.protocol.ProtocolNegotiator;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Hilo escritor dedicado: vacía la {@link OutboundQueue} (botones primero, luego dirección, zoom,
+ * vector analógico y latido), codifica los comandos en buffers directos reutilizados (uno para
+ * botones y otro para estado) y los envía con una sola escritura agrupada por cada despertar.
+ *
+ * <p>En régimen estable ni los productores ni el escritor reservan memoria: los comandos viajan
+ * como primitivos y el despertar es un {@link LockSupport#unpark}.
+ *
+ * <p>Con un {@link DatagramStateSender} enganchado, el estado (dirección, zoom, vector analógico)
+ * sale por UDP en cuanto se drena y cada latido refresca el último valor de cada canal; por TCP
+ * quedan los botones y los latidos.
+ *
+ * <p>Con una sesión reanudada ({@link #attachResumed}), cada botón o tecla lleva su secuencia de
+ * sesión y queda en la {@link ReliableWindow} hasta que el listener lo confirma; al reanudar, lo
+ * no confirmado se reenvía antes que lo nuevo. Si la ventana se llena (el PC no confirma), los
+ * botones esperan en la cola.
+ *
+ * <p>Con un {@link ClockEstimator} sincronizado, cada escritura con comandos va precedida de
+ * una trama TIMESTAMP con el instante de escritura en el reloj del listener, para que este mida
+ * la latencia de ida de cada comando.
+ *
+ * <p>Con un {@link SendRateController}, el estado sale como mucho una vez por su ventana de
+ * agrupado; entre medias los lotes solo llevan botones y latidos, y el estado nuevo pisa al
+ * pendiente. Cada escritura le informa al controlador de su duración y de la cola restante.
+ *
+ * <p>Una macro ({@link WireProtocol#OP_MACRO}) sale como su cabecera seguida de los pasos
+ * precodificados en la {@link MacroTable}, todo en el buffer de botones: llega al listener en la
+ * misma escritura y sin tramas de estado en medio. Solo la cabecera es fiable. Por texto sale en
+ * su lugar el comando de siempre del control ({@link MacroTable#textFallback}).
+ */
+public final class CommandWriter implements CommandRing.Handler {
+
+    public interface Listener {
+        /** Se llama desde el hilo escritor cuando falla una escritura; el escritor ya se ha desenganchado. */
+        void onWriteFailed(IOException error);
+    }
+
+    private static final int BATCH_LIMIT = 64;
+    // Fuera de los botones, cada clase aporta como mucho un comando por lote.
+    private static final int MAX_STATE_BATCH = OutboundQueue.CLASS_COUNT - 1;
+    private static final int MAX_BATCH = BATCH_LIMIT + MAX_STATE_BATCH;
+    private static final long WINDOW_FULL_PARK_NANOS = 1_000_000L;
+
+    private final OutboundQueue queue;
+    private final ReliableWindow window;
+    private final Listener listener;
+    private final LatencyTracker latency;
+    private final ClockEstimator clock;
+    private final SendRateController rate;
+
+    // Buffers de salida directos, reservados una vez: los botones van delante del estado.
+    // Cada uno cabe su lote completo en el peor caso (líneas de texto; en botones, todo macros).
+    private final ByteBuffer buttonBuffer = ByteBuffer.allocateDirect(BATCH_LIMIT * MacroTable.MAX_ENCODED_BYTES);
+    private final ByteBuffer stateBuffer = ByteBuffer.allocateDirect(MAX_STATE_BATCH * WireProtocol.MAX_TEXT_LINE);
+    private final ByteBuffer stampBuffer = ByteBuffer.allocateDirect(WireProtocol.FRAME_SIZE);
+    private final ByteBuffer[] lanes = {stampBuffer, buttonBuffer, stateBuffer};
+    private final byte[] textScratch = new byte[WireProtocol.MAX_TEXT_LINE];
+
+    // Marcas de tiempo de cada comando del lote en curso, para medir latencias tras escribir.
+    private final long[] batchInputNanos = new long[MAX_BATCH];
+    private final long[] batchEnqueueNanos = new long[MAX_BATCH];
+    private int batchSize;
+    private boolean batchHasPing;
+    // Ventana de agrupado del estado (solo con controlador de ritmo): último lote con estado y
+    // cuánto falta para el siguiente cuando el lote actual lo retuvo.
+    private boolean stateSent;
+    private long lastStateNanos;
+    private long stateHoldNanos;
+
+    private volatile Transport target;
+    private DatagramStateSender datagrams;
+    private boolean reliableSession;
+    // Lo pone attachResumed; el escritor lo consume y reenvía desde la primera secuencia sin
+    // confirmar. resending/resendNext son solo del escritor.
+    private volatile boolean resendRequested;
+    private boolean resending;
+    private int resendNext;
+    // Fallo de UDP durante el drenado (onCommand no puede lanzar): se trata tras el lote.
+    private IOException datagramFailure;
+    private int protocolVersion = ProtocolNegotiator.TEXT_PROTOCOL;
+    private FrameEncoder encoder = new FrameEncoder();
+    private volatile MacroTable macros = MacroTable.EMPTY;
+
+    private final AtomicLong commandsWritten = new AtomicLong();
+    private final AtomicLong writeCalls = new AtomicLong();
+    private final AtomicLong resent = new AtomicLong();
+
+    private volatile boolean running;
+    private volatile boolean sleeping;
+    private volatile Thread thread;
+
+    public CommandWriter(OutboundQueue queue, LatencyTracker latency, Listener listener) {
+        this(queue, new ReliableWindow(ReliableWindow.DEFAULT_CAPACITY), latency, listener);
+    }
+
+    public CommandWriter(OutboundQueue queue, ReliableWindow window, LatencyTracker latency, Listener listener) {
+        this(queue, window, null, latency, listener);
+    }
+
+    /** {@code clock} puede ser null: entonces no se envían marcas de tiempo. */
+    public CommandWriter(OutboundQueue queue, ReliableWindow window, ClockEstimator clock,
+                         LatencyTracker latency, Listener listener) {
+        this(queue, window, clock, null, latency, listener);
+    }
+
+    /** {@code rate} puede ser null: entonces el estado sale en cada lote, sin ventana. */
+    public CommandWriter(OutboundQueue queue, ReliableWindow window, ClockEstimator clock, SendRateController rate,
+                         LatencyTracker latency, Listener listener) {
+        this.queue = queue;
+        this.window = window;
+        this.clock = clock;
+        this.rate = rate;
+        this.latency = latency;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::loop, "command-writer");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread = null;
+        }
+    }
+
+    /**
+     * Engancha el escritor a un transporte recién negociado. Se llama desde el hilo que conecta;
+     * el escritor ve los cambios porque {@code target} se publica en último lugar.
+     */
+    public void attach(Transport out, int protocolVersion) {
+        attach(out, protocolVersion, null);
+    }
+
+    /**
+     * Igual que {@link #attach(Transport, int)}, enviando el estado por {@code datagrams} (ya
+     * conectado) si no es null. Solo con protocolo binario.
+     */
+    public void attach(Transport out, int protocolVersion, DatagramStateSender datagrams) {
+        // Sin reanudación nadie confirmará ni deduplicará: lo pendiente no se puede reenviar.
+        window.forgetPending();
+        attach(out, protocolVersion, datagrams, false);
+    }
+
+    /**
+     * Engancha el escritor a una sesión reanudada (protocolo binario): el listener ya entregó
+     * hasta {@code deliveredSeq}; lo posterior de la ventana se reenvía antes que lo nuevo.
+     */
+    public void attachResumed(Transport out, int protocolVersion, DatagramStateSender datagrams, int deliveredSeq) {
+        window.acknowledge(deliveredSeq);
+        resendRequested = true;
+        attach(out, protocolVersion, datagrams, true);
+    }
+
+    private void attach(Transport out, int protocolVersion, DatagramStateSender datagrams, boolean reliable) {
+        this.protocolVersion = protocolVersion;
+        this.encoder = new FrameEncoder();
+        this.datagrams = datagrams;
+        this.reliableSession = reliable;
+        this.target = out;
+        signal();
+    }
+
+    /**
+     * Publica las macros del mapeo recién compilado. Debe llamarse antes de publicar el mapeo en
+     * el {@link utilsolu.keygraphiccontrol.keymap.KeymapRouter}, para que ningún id llegue antes
+     * que sus pasos; una macro con id desconocido no se envía.
+     */
+    public void setMacros(MacroTable macros) {
+        this.macros = macros;
+    }
+
+    public ReliableWindow reliableWindow() {
+        return window;
+    }
+
+    /** Comandos fiables reenviados tras reanudar sesiones. */
+    public long resentCount() {
+        return resent.get();
+    }
+
+    public void detach() {
+        target = null;
+    }
+
+    /**
+     * Publica un comando en la cola y despierta al escritor si hace falta. Devuelve false si la
+     * cola lo rechazó (botones con la cola llena: el PC no está leyendo).
+     */
+    public boolean submit(int opcode, int arg0, int arg1, long inputNanos) {
+        int result = queue.offer(opcode, arg0, arg1, inputNanos);
+        if (result == OutboundQueue.OFFER_WAKE) {
+            signal();
+        }
+        return result != OutboundQueue.OFFER_REJECTED;
+    }
+
+    /** Publica el último vector analógico; si el escritor va atrasado se sustituye el pendiente. */
+    public void publishAnalog(int x, int y) {
+        submit(WireProtocol.OP_ANALOG, x, y, System.nanoTime());
+    }
+
+    /**
+     * Pide enviar un latido ({@code nonce} &gt; 0) en el próximo lote. Solo tiene efecto con el
+     * protocolo binario; no cuenta como comando ni entra en las latencias.
+     */
+    public void publishPing(int nonce) {
+        submit(WireProtocol.OP_PING, nonce, 0, 0);
+    }
+
+    /** Despierta al escritor si está dormido. Lo llaman los productores tras publicar. */
+    public void signal() {
+        if (sleeping) {
+            Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    public long commandsWritten() {
+        return commandsWritten.get();
+    }
+
+    public long writeCalls() {
+        return writeCalls.get();
+    }
+
+    private void loop() {
+        while (running) {
+            if (drainOnce() > 0) {
+                continue;
+            }
+            if (reliableSession && window.free() == 0 && target != null) {
+                // Ventana llena: los botones esperan a un ACK, que lee el hilo de latidos.
+                LockSupport.parkNanos(this, WINDOW_FULL_PARK_NANOS);
+                continue;
+            }
+            long hold = stateHoldNanos;
+            sleeping = true;
+            // Volver a mirar después de anunciar que dormimos: un productor que publicó justo
+            // antes no nos habría despertado. Con estado retenido, solo hasta que venza la ventana.
+            if (running && !hasPendingWork(hold == 0)) {
+                if (hold > 0) {
+                    LockSupport.parkNanos(this, hold);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            sleeping = false;
+        }
+    }
+
+    private boolean hasPendingWork(boolean includeState) {
+        return target != null && (queue.hasPending(includeState) || resending || resendRequested);
+    }
+
+    /**
+     * Un despertar del escritor: codifica todo lo pendiente (botones primero, luego estado) y lo
+     * envía en una sola escritura agrupada. Devuelve el número de tramas escritas (latido incluido).
+     * Visible para tests, que lo llaman desde su propio hilo en lugar de arrancar el escritor.
+     */
+    int drainOnce() {
+        Transport out = target;
+        if (out == null) {
+            return 0;
+        }
+        DatagramStateSender udp = datagrams;
+        long dequeueNanos = System.nanoTime();
+        buttonBuffer.clear();
+        stateBuffer.clear();
+        batchSize = 0;
+        batchHasPing = false;
+
+        int resentNow = resendPending();
+        int reliableLimit = BATCH_LIMIT - resentNow;
+        if (reliableSession) {
+            reliableLimit = Math.min(reliableLimit, window.free());
+        }
+        boolean includeState = stateDue(dequeueNanos);
+        queue.drain(this, reliableLimit, includeState);
+
+        int count = batchSize;
+        if (count > 0 || resentNow > 0 || batchHasPing) {
+            buttonBuffer.flip();
+            stateBuffer.flip();
+            try {
+                if (batchHasPing && udp != null) {
+                    udp.refresh();
+                }
+                if (datagramFailure != null) {
+                    IOException e = datagramFailure;
+                    datagramFailure = null;
+                    throw e;
+                }
+                // Con el estado por UDP el lote puede no llevar nada para TCP.
+                boolean wrote = buttonBuffer.hasRemaining() || stateBuffer.hasRemaining();
+                long writeStartNanos = 0;
+                if (wrote) {
+                    int first = stamp(count + resentNow) ? 0 : 1;
+                    writeStartNanos = System.nanoTime();
+                    out.write(lanes, first, lanes.length - first);
+                    writeCalls.incrementAndGet();
+                }
+                long writtenNanos = System.nanoTime();
+                if (wrote && rate != null) {
+                    rate.onWrite(writtenNanos - writeStartNanos, queue.depth(OutboundQueue.CLASS_BUTTON), writtenNanos);
+                }
+                for (int i = 0; i < count; i++) {
+                    latency.recordCommand(batchInputNanos[i], batchEnqueueNanos[i], dequeueNanos, writtenNanos);
+                }
+                commandsWritten.addAndGet(count);
+                resent.addAndGet(resentNow);
+            } catch (IOException e) {
+                target = null;
+                listener.onWriteFailed(e);
+            }
+        }
+        return count + resentNow + (batchHasPing ? 1 : 0);
+    }
+
+    // Decide si el lote lleva estado: siempre sin controlador; con él, solo si ya pasó su ventana
+    // desde el último lote con estado. Si no, deja en stateHoldNanos cuánto falta.
+    private boolean stateDue(long nowNanos) {
+        stateHoldNanos = 0;
+        if (rate == null || !queue.hasPendingState()) {
+            return true;
+        }
+        long wait = stateSent ? lastStateNanos + rate.intervalNanos() - nowNanos : 0;
+        if (wait > 0) {
+            stateHoldNanos = wait;
+            return false;
+        }
+        stateSent = true;
+        lastStateNanos = nowNanos;
+        return true;
+    }
+
+    // Prepara la trama TIMESTAMP del lote si hay comandos y el reloj del listener es conocido.
+    private boolean stamp(int commands) {
+        if (commands == 0 || clock == null || protocolVersion == ProtocolNegotiator.TEXT_PROTOCOL
+                || !clock.isSynchronized()) {
+            return false;
+        }
+        long remoteNanos = clock.toRemoteNanos(System.nanoTime());
+        int uncertaintyMicros = (int) Math.min(Integer.MAX_VALUE, clock.uncertaintyNanos() / 1000);
+        stampBuffer.clear();
+        encoder.encodeWithSeq(WireProtocol.OP_TIMESTAMP, 0, uncertaintyMicros,
+                WireProtocol.highBits(remoteNanos), WireProtocol.lowBits(remoteNanos), stampBuffer);
+        stampBuffer.flip();
+        return true;
+    }
+
+    // Reenvía (al buffer de botones) hasta un lote de comandos sin confirmar tras reanudar.
+    private int resendPending() {
+        if (resendRequested) {
+            resendRequested = false;
+            resending = true;
+            resendNext = window.lastAcknowledged() + 1;
+        }
+        int count = 0;
+        while (resending && count < BATCH_LIMIT) {
+            // Confirmado mientras tanto: se salta.
+            int first = window.lastAcknowledged() + 1;
+            if (resendNext - first < 0) {
+                resendNext = first;
+            }
+            if (resendNext - window.lastAssigned() > 0) {
+                resending = false;
+                break;
+            }
+            int opcode = window.opcode(resendNext);
+            if (opcode == WireProtocol.OP_MACRO) {
+                MacroTable table = macros;
+                if (table.contains(window.arg0(resendNext))) {
+                    putMacro(table, window.arg0(resendNext), resendNext, true, false);
+                }
+            } else {
+                encoder.encodeReliable(opcode, resendNext, window.arg0(resendNext), window.arg1(resendNext),
+                        buttonBuffer);
+            }
+            resendNext++;
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void onCommand(int opcode, int arg0, int arg1, long inputNanos, long enqueueNanos) {
+        boolean text = protocolVersion == ProtocolNegotiator.TEXT_PROTOCOL;
+        if (opcode == WireProtocol.OP_PING) {
+            // El listener de texto no conoce los latidos.
+            if (!text) {
+                encoder.encode(opcode, arg0, arg1, stateBuffer);
+                batchHasPing = true;
+            }
+            return;
+        }
+        if (text && (opcode == WireProtocol.OP_ZOOM_RATE || opcode == WireProtocol.OP_ZOOM_GESTURE)) {
+            // El listener de texto solo conoce ZOOM,IN/OUT: cada cambio de nivel sale como una
+            // línea con el sentido de la velocidad; el inicio, el fin y la velocidad 0 no salen.
+            if (opcode == WireProtocol.OP_ZOOM_GESTURE || arg0 == 0) {
+                return;
+            }
+            opcode = WireProtocol.OP_ZOOM;
+            arg0 = arg0 > 0 ? WireProtocol.ZOOM_IN : WireProtocol.ZOOM_OUT;
+        }
+        MacroTable table = macros;
+        if (opcode == WireProtocol.OP_MACRO && !table.contains(arg0)) {
+            return;
+        }
+        batchInputNanos[batchSize] = inputNanos;
+        batchEnqueueNanos[batchSize] = enqueueNanos;
+        batchSize++;
+        boolean reliable = OutboundQueue.classOf(opcode) == OutboundQueue.CLASS_BUTTON;
+        DatagramStateSender udp = datagrams;
+        if (udp != null && !reliable) {
+            try {
+                udp.send(opcode, arg0, arg1);
+            } catch (IOException e) {
+                datagramFailure = e;
+            }
+            return;
+        }
+        ByteBuffer lane = reliable ? buttonBuffer : stateBuffer;
+        if (opcode == WireProtocol.OP_MACRO) {
+            int seq = reliableSession ? window.append(opcode, arg0, arg1) : 0;
+            putMacro(table, arg0, seq, reliableSession, text);
+        } else if (reliable && reliableSession) {
+            encoder.encodeReliable(opcode, window.append(opcode, arg0, arg1), arg0, arg1, lane);
+        } else if (text) {
+            int length = WireProtocol.formatText(opcode, arg0, arg1, textScratch, 0);
+            lane.put(textScratch, 0, length);
+        } else {
+            encoder.encode(opcode, arg0, arg1, lane);
+        }
+    }
+
+    // Cabecera MACRO y sus pasos, seguidos en el buffer de botones. En texto, la línea de reserva.
+    private void putMacro(MacroTable table, int id, int seq, boolean reliable, boolean text) {
+        if (text) {
+            buttonBuffer.put(table.textFallback(id));
+            return;
+        }
+        if (reliable) {
+            encoder.encodeReliable(WireProtocol.OP_MACRO, seq, table.steps(id), id, buttonBuffer);
+        } else {
+            encoder.encode(WireProtocol.OP_MACRO, table.steps(id), id, buttonBuffer);
+        }
+        buttonBuffer.put(table.binarySteps(id));
+    }
+}
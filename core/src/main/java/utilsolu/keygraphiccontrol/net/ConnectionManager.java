@@ -0,0 +1,422 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import utilsolu.keygraphiccontrol.metrics.ConnectionMetrics;
+import utilsolu.keygraphiccontrol.protocol.Frame;
+import utilsolu.keygraphiccontrol.protocol.FrameDecoder;
+import utilsolu.keygraphiccontrol.protocol.FrameEncoder;
+import utilsolu.keygraphiccontrol.protocol.ProtocolNegotiator;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Abre los enlaces con el listener y, opcionalmente, mantiene uno de reserva ya conectado y
+ * negociado para que el cambio tras una caída cueste una ida y vuelta (el RESUME) en lugar de
+ * un connect, un HELLO y la espera del backoff.
+ *
+ * <p>Los destinos son una lista de {@link Endpoint}: la reserva va al siguiente del activo (otro
+ * listener, si lo hay, para que no caiga con él) o al mismo si solo hay uno. Si la reserva falta
+ * o está muerta, {@link #acquire} prueba una conexión nueva con cada destino, empezando por el
+ * último que funcionó.
+ *
+ * <p>Un destino que no respondió al HELLO (listener antiguo, solo texto) queda recordado hasta
+ * que se reinicie la app: sus conexiones siguientes ya no envían HELLO ni esperan el timeout de
+ * la negociación, y hablan texto desde el primer byte.
+ *
+ * <p>Un hilo propio ("standby") repone la reserva en cuanto se usa o se pierde, cada
+ * {@link #RETRY_INTERVAL_MS} mientras no lo logra, y la comprueba cada {@link #PROBE_INTERVAL_MS}
+ * con un PING (con el protocolo de texto, solo que siga abierta). Al reponerla avisa al
+ * {@link Listener}: si no había conexión activa (el listener se reinició), se puede conectar
+ * ya sin esperar al siguiente reintento.
+ *
+ * <p>{@link #acquire} se llama desde el hilo que conecta; la reserva la comparten ese hilo y el
+ * de mantenimiento bajo {@code standbyLock}, que nunca se retiene durante E/S: la comprobación
+ * saca la reserva, la prueba fuera del cerrojo y la devuelve si sigue viva. Un {@link #acquire}
+ * que llega entretanto no espera a la comprobación: conecta de nuevo.
+ */
+public final class ConnectionManager {
+
+    public interface Listener {
+        /** Hay una reserva nueva lista. Se llama desde el hilo de mantenimiento. */
+        void onStandbyReady();
+    }
+
+    /** Dirección de un listener. */
+    public static final class Endpoint {
+        public final String host;
+        public final int port;
+
+        public Endpoint(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    /** Enlace conectado y negociado. */
+    public static final class Link {
+        public final NioSocketTransport transport;
+        public final Endpoint endpoint;
+        public final int protocolVersion;
+        /** true si era la reserva. */
+        public final boolean fromStandby;
+        private final int endpointIndex;
+
+        Link(NioSocketTransport transport, Endpoint endpoint, int endpointIndex, int protocolVersion,
+             boolean fromStandby) {
+            this.transport = transport;
+            this.endpoint = endpoint;
+            this.endpointIndex = endpointIndex;
+            this.protocolVersion = protocolVersion;
+            this.fromStandby = fromStandby;
+        }
+    }
+
+    public static final int PROBE_INTERVAL_MS = 250;
+    public static final int RETRY_INTERVAL_MS = 100;
+    private static final int ALIGN_WAIT_MS = 50;
+
+    private final Endpoint[] endpoints;
+    private final boolean standbyEnabled;
+    private final int connectTimeoutMs;
+    private final int handshakeTimeoutMs;
+    private final int sendBufferBytes;
+    private final int writeTimeoutMs;
+    private final ConnectionMetrics metrics;
+    private final Listener listener;
+
+    private final Object standbyLock = new Object();
+    // Se escribe bajo standbyLock; volátil para que hasStandby no espere a una comprobación.
+    private volatile Link standby;
+    // Destino del último enlace entregado por acquire; -1 antes del primero.
+    private volatile int activeIndex = -1;
+    // 1 = el destino respondió en texto; lo escriben el hilo que conecta y el de mantenimiento.
+    private final AtomicIntegerArray textOnly;
+
+    // Solo los usa el hilo de mantenimiento.
+    private final ByteBuffer probeIn = ByteBuffer.allocate(4 * WireProtocol.FRAME_SIZE);
+    private final ByteBuffer probeOut = ByteBuffer.allocate(WireProtocol.FRAME_SIZE);
+    private final FrameEncoder probeEncoder = new FrameEncoder();
+    private final Frame probeFrame = new Frame();
+    private int probeNonce;
+
+    private final AtomicLong standbysOpened = new AtomicLong();
+    private final AtomicLong standbysUsed = new AtomicLong();
+
+    // Hilo de mantenimiento vigente; al parar se pone a null y el hilo sale en el siguiente ciclo.
+    private volatile Thread thread;
+
+    /**
+     * {@code standbyEnabled} false: sin reserva ni hilo, {@link #acquire} siempre conecta de
+     * nuevo. {@code listener} puede ser null.
+     */
+    public ConnectionManager(List<Endpoint> endpoints, boolean standbyEnabled, int connectTimeoutMs,
+                             int handshakeTimeoutMs, int sendBufferBytes, int writeTimeoutMs,
+                             ConnectionMetrics metrics, Listener listener) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("Sin destinos");
+        }
+        this.endpoints = endpoints.toArray(new Endpoint[0]);
+        this.textOnly = new AtomicIntegerArray(this.endpoints.length);
+        this.standbyEnabled = standbyEnabled;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.handshakeTimeoutMs = handshakeTimeoutMs;
+        this.sendBufferBytes = sendBufferBytes;
+        this.writeTimeoutMs = writeTimeoutMs;
+        this.metrics = metrics;
+        this.listener = listener;
+    }
+
+    /** Arranca el mantenimiento de la reserva (si está activada). Idempotente. */
+    public synchronized void start() {
+        if (!standbyEnabled || thread != null) {
+            return;
+        }
+        Thread t = new Thread(this::loop, "standby");
+        thread = t;
+        t.start();
+    }
+
+    /** Para el mantenimiento y cierra la reserva; el enlace activo no se toca. */
+    public synchronized void stop() {
+        Thread t = thread;
+        thread = null;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+        synchronized (standbyLock) {
+            if (standby != null) {
+                standby.transport.close();
+                standby = null;
+            }
+        }
+    }
+
+    /**
+     * Devuelve un enlace listo, reanudando la sesión {@code resumeToken} (0 = nueva): la reserva si
+     * sigue viva o, si no, una conexión nueva al primer destino que responda. {@code resumed}
+     * queda como en {@link ProtocolNegotiator#negotiate(Transport, int, int, Frame)}. Lanza el
+     * error del último destino si ninguno responde.
+     */
+    public Link acquire(int resumeToken, Frame resumed) throws IOException {
+        long startNanos = System.nanoTime();
+        Link link = takeStandby(resumeToken, resumed);
+        if (link == null) {
+            link = connectAny(resumeToken, resumed);
+        }
+        metrics.recordSwitch(System.nanoTime() - startNanos, link.fromStandby);
+        activeIndex = link.endpointIndex;
+        // Hay que reponer la reserva (se acaba de usar) o moverla (el activo cambió de destino).
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+        return link;
+    }
+
+    /**
+     * true si hay una reserva abierta (comprobada por última vez hace menos de un ciclo). Mientras
+     * se comprueba no está disponible y devuelve false.
+     */
+    public boolean hasStandby() {
+        return standby != null;
+    }
+
+    /** Reservas abiertas desde el principio. */
+    public long standbysOpened() {
+        return standbysOpened.get();
+    }
+
+    /** Reservas que {@link #acquire} llegó a usar. */
+    public long standbysUsed() {
+        return standbysUsed.get();
+    }
+
+    // Saca la reserva y la reanuda; null si no hay o resulta estar muerta.
+    private Link takeStandby(int resumeToken, Frame resumed) {
+        Link candidate;
+        synchronized (standbyLock) {
+            candidate = standby;
+            standby = null;
+        }
+        if (candidate == null) {
+            return null;
+        }
+        try {
+            drainIdle(candidate.transport);
+            if (candidate.protocolVersion == ProtocolNegotiator.TEXT_PROTOCOL) {
+                resumed.set(0, 0, 0, 0, 0);
+            } else {
+                ProtocolNegotiator.resume(candidate.transport, handshakeTimeoutMs, resumeToken, resumed);
+            }
+            standbysUsed.incrementAndGet();
+            return new Link(candidate.transport, candidate.endpoint, candidate.endpointIndex,
+                    candidate.protocolVersion, true);
+        } catch (IOException e) {
+            candidate.transport.close();
+            metrics.recordStandbyLost();
+            return null;
+        }
+    }
+
+    private Link connectAny(int resumeToken, Frame resumed) throws IOException {
+        int first = Math.max(0, activeIndex);
+        IOException last = null;
+        for (int i = 0; i < endpoints.length; i++) {
+            int index = (first + i) % endpoints.length;
+            NioSocketTransport transport = new NioSocketTransport(sendBufferBytes, writeTimeoutMs);
+            try {
+                transport.connect(endpoints[index].host, endpoints[index].port, connectTimeoutMs);
+                int version = negotiate(index, transport, resumeToken, resumed);
+                return new Link(transport, endpoints[index], index, version, false);
+            } catch (IOException e) {
+                transport.close();
+                last = e;
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * Negocia con el destino {@code index}, reanudando la sesión si {@code resumed} no es null. Un
+     * destino que ya respondió en texto no recibe HELLO: se usa texto sin esperar.
+     */
+    private int negotiate(int index, Transport transport, int resumeToken, Frame resumed) throws IOException {
+        if (textOnly.get(index) != 0) {
+            if (resumed != null) {
+                resumed.set(0, 0, 0, 0, 0);
+            }
+            return ProtocolNegotiator.TEXT_PROTOCOL;
+        }
+        int version = resumed != null
+                ? ProtocolNegotiator.negotiate(transport, handshakeTimeoutMs, resumeToken, resumed)
+                : ProtocolNegotiator.negotiate(transport, handshakeTimeoutMs);
+        if (version == ProtocolNegotiator.TEXT_PROTOCOL) {
+            textOnly.set(index, 1);
+        }
+        return version;
+    }
+
+    /** true si el destino {@code index} respondió en texto y ya no se le negocia el binario. */
+    public boolean isTextOnly(int index) {
+        return textOnly.get(index) != 0;
+    }
+
+    // --- MANTENIMIENTO DE LA RESERVA ---
+
+    private boolean isCurrent() {
+        return thread == Thread.currentThread();
+    }
+
+    private void loop() {
+        while (isCurrent()) {
+            Link candidate;
+            synchronized (standbyLock) {
+                candidate = standby;
+                standby = null;
+            }
+            if (candidate != null && !probe(candidate)) {
+                candidate.transport.close();
+                candidate = null;
+            }
+            boolean ready = candidate != null && restore(candidate);
+            boolean shared = ready && endpoints.length > 1 && candidate.endpointIndex == activeIndex;
+            if (!ready || shared) {
+                // Sin reserva, cualquier destino vale; compartiendo listener con el activo, solo otro.
+                Link fresh = openStandby(shared);
+                if (fresh != null && !install(fresh)) {
+                    return;
+                }
+                ready |= fresh != null;
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(ready ? PROBE_INTERVAL_MS : RETRY_INTERVAL_MS));
+        }
+    }
+
+    // Devuelve la reserva ya comprobada a su sitio; si se paró mientras tanto, la cierra.
+    private boolean restore(Link candidate) {
+        synchronized (standbyLock) {
+            if (standby == null && isCurrent()) {
+                standby = candidate;
+                return true;
+            }
+        }
+        candidate.transport.close();
+        return false;
+    }
+
+    // Coloca la reserva nueva (cerrando la que sustituye) y avisa; false si ya se paró.
+    private boolean install(Link fresh) {
+        synchronized (standbyLock) {
+            if (!isCurrent()) {
+                fresh.transport.close();
+                return false;
+            }
+            if (standby != null) {
+                standby.transport.close();
+            }
+            standby = fresh;
+        }
+        standbysOpened.incrementAndGet();
+        if (listener != null) {
+            listener.onStandbyReady();
+        }
+        return true;
+    }
+
+    // Conecta y negocia (sin sesión: se reanuda al usarla). Prefiere el destino siguiente al activo.
+    private Link openStandby(boolean avoidActive) {
+        int first = endpoints.length > 1 ? activeIndex + 1 : 0;
+        for (int i = 0; i < endpoints.length; i++) {
+            int index = Math.floorMod(first + i, endpoints.length);
+            if (avoidActive && index == activeIndex) {
+                continue;
+            }
+            NioSocketTransport transport = new NioSocketTransport(sendBufferBytes, writeTimeoutMs);
+            try {
+                transport.connect(endpoints[index].host, endpoints[index].port, connectTimeoutMs);
+                int version = negotiate(index, transport, 0, null);
+                return new Link(transport, endpoints[index], index, version, false);
+            } catch (IOException e) {
+                transport.close();
+            }
+        }
+        return null;
+    }
+
+    // Comprueba la reserva: PING y su PONG con el binario; con texto, solo que no esté cerrada.
+    private boolean probe(Link link) {
+        try {
+            if (link.protocolVersion == ProtocolNegotiator.TEXT_PROTOCOL) {
+                drainIdle(link.transport);
+                return true;
+            }
+            int nonce = ++probeNonce;
+            probeOut.clear();
+            probeEncoder.encode(WireProtocol.OP_PING, nonce, 0, probeOut);
+            probeOut.flip();
+            link.transport.write(new ByteBuffer[]{probeOut}, 0, 1);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(handshakeTimeoutMs);
+            probeIn.clear();
+            boolean answered = false;
+            while (true) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    break;
+                }
+                int read = link.transport.read(probeIn, (int) remainingMs);
+                if (read < 0) {
+                    break;
+                }
+                probeIn.flip();
+                // El CLOCK que sigue a cada PONG se descarta aquí o en el siguiente uso; solo se
+                // vuelve con tramas enteras, para no dejar el resto de una a medias en el socket.
+                while (FrameDecoder.decode(probeIn, probeFrame)) {
+                    answered |= probeFrame.opcode == WireProtocol.OP_PONG && probeFrame.arg0 == nonce;
+                }
+                if (answered && !probeIn.hasRemaining()) {
+                    return true;
+                }
+                probeIn.compact();
+            }
+        } catch (IOException e) {
+            // Se cuenta abajo como reserva perdida.
+        }
+        metrics.recordStandbyLost();
+        return false;
+    }
+
+    // Descarta lo que haya llegado a una conexión sin usar (respuestas de latido tardías) y lanza
+    // si el listener la cerró. Si el último trozo deja una trama a medias, espera al resto.
+    private static void drainIdle(Transport transport) throws IOException {
+        ByteBuffer scratch = ByteBuffer.allocate(4 * WireProtocol.FRAME_SIZE);
+        long total = 0;
+        while (true) {
+            boolean aligned = total % WireProtocol.FRAME_SIZE == 0;
+            scratch.clear();
+            int read = transport.read(scratch, aligned ? 0 : ALIGN_WAIT_MS);
+            if (read < 0) {
+                throw new EOFException("Conexión de reserva cerrada por el PC");
+            }
+            if (read == 0) {
+                if (aligned) {
+                    return;
+                }
+                throw new ProtocolException("Trama a medias en la conexión de reserva");
+            }
+            total += read;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import utilsolu.keygraphiccontrol.protocol.StateDatagram;
+
+/**
+ * Canal UDP opcional para el estado continuo (dirección, zoom, vector analógico). El estado es
+ * idempotente: un datagrama perdido no debe retener a los siguientes como haría una
+ * retransmisión TCP. Los botones nunca pasan por aquí.
+ *
+ * <p>UDP puede perder el último estado (p. ej. el STOP al soltar el joystick), así que
+ * {@link #refresh} reenvía el último valor de cada canal; el {@link CommandWriter} lo llama con
+ * cada latido. El receptor ignora los refrescos que no cambian nada.
+ *
+ * <p>Solo lo usa el hilo escritor, salvo {@link #connect} (antes de engancharlo) y
+ * {@link #close}. Envía desde un buffer directo reutilizado: sin reservas por datagrama.
+ */
+public final class DatagramStateSender implements Closeable {
+
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(StateDatagram.SIZE);
+    private DatagramChannel channel;
+    private int token;
+    private int nextSeq;
+
+    // Último valor enviado por canal, para los refrescos.
+    private final int[] lastOpcode = new int[StateDatagram.SLOT_COUNT];
+    private final int[] lastArg0 = new int[StateDatagram.SLOT_COUNT];
+    private final int[] lastArg1 = new int[StateDatagram.SLOT_COUNT];
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Abre el socket UDP hacia el puerto que anunció el listener en DATAGRAM_READY. */
+    public void connect(String host, int port, int token) throws IOException {
+        channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(host, port));
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        this.token = token;
+    }
+
+    /**
+     * Envía un comando de estado y lo recuerda para {@link #refresh}. Con el buffer del socket
+     * lleno el datagrama se descarta (lo repara el siguiente refresco). Lanza IOException si el
+     * listener ya no escucha (ICMP "puerto inalcanzable") o el canal está cerrado.
+     */
+    public void send(int opcode, int arg0, int arg1) throws IOException {
+        int slot = StateDatagram.slotOf(opcode);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Opcode sin canal de estado: " + opcode);
+        }
+        lastOpcode[slot] = opcode;
+        lastArg0[slot] = arg0;
+        lastArg1[slot] = arg1;
+        transmit(opcode, arg0, arg1);
+    }
+
+    /** Reenvía el último valor de cada canal que haya enviado algo. */
+    public void refresh() throws IOException {
+        for (int slot = 0; slot < StateDatagram.SLOT_COUNT; slot++) {
+            if (lastOpcode[slot] != 0) {
+                transmit(lastOpcode[slot], lastArg0[slot], lastArg1[slot]);
+                refreshes.incrementAndGet();
+            }
+        }
+    }
+
+    private void transmit(int opcode, int arg0, int arg1) throws IOException {
+        packet.clear();
+        StateDatagram.encode(opcode, nextSeq++, arg0, arg1, token, System.nanoTime(), packet);
+        packet.flip();
+        if (channel.write(packet) == 0) {
+            dropped.incrementAndGet();
+        } else {
+            sent.incrementAndGet();
+        }
+    }
+
+    public long sentCount() {
+        return sent.get();
+    }
+
+    /** Datagramas de refresco enviados (incluidos en {@link #sentCount()}). */
+    public long refreshCount() {
+        return refreshes.get();
+    }
+
+    /** Datagramas descartados con el buffer de envío lleno. */
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DatagramStateSender{sent=" + sentCount() + ", refreshes=" + refreshCount()
+                + ", dropped=" + droppedCount() + "}";
+    }
+}
@@ -0,0 +1,193 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import utilsolu.keygraphiccontrol.metrics.ConnectionMetrics;
+import utilsolu.keygraphiccontrol.protocol.Frame;
+import utilsolu.keygraphiccontrol.protocol.FrameDecoder;
+import utilsolu.keygraphiccontrol.protocol.ProtocolNegotiator;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Detecta en pocos cientos de milisegundos que el PC ha dejado de responder, sin esperar a que
+ * falle una escritura (con el buffer del kernel vacío, escribir a un PC colgado "funciona").
+ *
+ * <p>Un hilo propio por conexión lee del transporte y, con el protocolo binario, pide un PING
+ * cada {@code intervalMs}. Si se acumulan {@code missThreshold} latidos sin PONG, o el PC cierra
+ * la conexión, o la lectura falla, avisa una sola vez al {@link Listener}. Con el protocolo de
+ * texto el listener antiguo no responde latidos, así que solo se detecta el cierre.
+ *
+ * <p>Los PING los escribe el {@link CommandWriter} (vía {@link PingSender}) para que el socket
+ * siga teniendo un único escritor.
+ *
+ * <p>Como es quien lee la conexión, también pasa a la {@link ReliableWindow} las confirmaciones
+ * de comandos fiables (ACK, y la que repite cada PONG) de una sesión reanudada, y al
+ * {@link ClockEstimator} las marcas de reloj (CLOCK) que el listener añade a cada PONG, y al
+ * {@link SendRateController} el RTT de cada latido.
+ */
+public final class HeartbeatMonitor {
+
+    public interface PingSender {
+        void sendPing(int nonce);
+    }
+
+    public interface Listener {
+        /** Se llama desde el hilo del monitor, como mucho una vez por {@link #start}. */
+        void onPeerDead(String reason);
+    }
+
+    private static final int READ_BUFFER_BYTES = 16 * WireProtocol.FRAME_SIZE;
+
+    private final int intervalMs;
+    private final int missThreshold;
+    private final PingSender sender;
+    private final ConnectionMetrics metrics;
+    private final Listener listener;
+    private final ClockEstimator clock;
+    private final SendRateController rate;
+
+    // Hilo de la conexión actual; al parar se pone a null y el hilo sale en el siguiente ciclo.
+    private volatile Thread thread;
+
+    public HeartbeatMonitor(int intervalMs, int missThreshold, PingSender sender,
+                            ConnectionMetrics metrics, Listener listener) {
+        this(intervalMs, missThreshold, sender, metrics, null, listener);
+    }
+
+    /** Con {@code clock} no null, cada latido respondido con CLOCK es una muestra de reloj. */
+    public HeartbeatMonitor(int intervalMs, int missThreshold, PingSender sender,
+                            ConnectionMetrics metrics, ClockEstimator clock, Listener listener) {
+        this(intervalMs, missThreshold, sender, metrics, clock, null, listener);
+    }
+
+    /** Con {@code rate} no null, el RTT de cada latido alimenta el control del ritmo de envío. */
+    public HeartbeatMonitor(int intervalMs, int missThreshold, PingSender sender, ConnectionMetrics metrics,
+                            ClockEstimator clock, SendRateController rate, Listener listener) {
+        if (intervalMs <= 0 || missThreshold <= 0) {
+            throw new IllegalArgumentException(
+                    "Latido inválido: intervalo=" + intervalMs + " ms, fallos=" + missThreshold);
+        }
+        this.intervalMs = intervalMs;
+        this.missThreshold = missThreshold;
+        this.sender = sender;
+        this.metrics = metrics;
+        this.listener = listener;
+        this.clock = clock;
+        this.rate = rate;
+    }
+
+    /** Empieza a vigilar un transporte recién negociado. Para antes el monitor anterior. */
+    public synchronized void start(Transport transport, int protocolVersion) {
+        start(transport, protocolVersion, null);
+    }
+
+    /** Igual que {@link #start(Transport, int)}, confirmando en {@code acks} (si no es null). */
+    public synchronized void start(Transport transport, int protocolVersion, ReliableWindow acks) {
+        boolean binary = protocolVersion != ProtocolNegotiator.TEXT_PROTOCOL;
+        if (clock != null) {
+            // Otra conexión, quizá otro listener: las muestras anteriores no valen.
+            clock.reset();
+        }
+        if (rate != null) {
+            rate.reset();
+        }
+        Thread t = new Thread(() -> loop(transport, binary, acks), "heartbeat");
+        thread = t;
+        t.start();
+    }
+
+    public synchronized void stop() {
+        thread = null;
+    }
+
+    /** Tiempo máximo de silencio antes de declarar muerto al PC, con el protocolo binario. */
+    public int detectionBudgetMs() {
+        return intervalMs * (missThreshold + 1);
+    }
+
+    private boolean isCurrent() {
+        return thread == Thread.currentThread();
+    }
+
+    private void loop(Transport transport, boolean binary, ReliableWindow acks) {
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        Frame frame = new Frame();
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        long[] pingSentNanos = new long[missThreshold + 1];
+        int sent = 0;
+        int acked = 0;
+        long lastHeardNanos = System.nanoTime();
+        long nextPingNanos = lastHeardNanos;
+
+        try {
+            while (isCurrent()) {
+                long now = System.nanoTime();
+                if (binary && now - nextPingNanos >= 0) {
+                    if (sent - acked >= missThreshold) {
+                        peerDead(now - lastHeardNanos, (sent - acked) + " latidos sin respuesta");
+                        return;
+                    }
+                    sent++;
+                    pingSentNanos[sent % pingSentNanos.length] = now;
+                    sender.sendPing(sent);
+                    nextPingNanos = now + intervalNanos;
+                }
+
+                int timeoutMs = binary
+                        ? (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextPingNanos - now))
+                        : intervalMs;
+                int read = transport.read(in, timeoutMs);
+                if (read < 0) {
+                    peerDead(System.nanoTime() - lastHeardNanos, "el PC cerró la conexión");
+                    return;
+                }
+                if (read == 0) {
+                    continue;
+                }
+                lastHeardNanos = System.nanoTime();
+                if (!binary) {
+                    // El listener de texto no debería enviar nada; se descarta.
+                    in.clear();
+                    continue;
+                }
+                in.flip();
+                while (FrameDecoder.decode(in, frame)) {
+                    if (frame.opcode == WireProtocol.OP_PONG && frame.arg0 > acked && frame.arg0 <= sent) {
+                        acked = frame.arg0;
+                        long rtt = lastHeardNanos - pingSentNanos[acked % pingSentNanos.length];
+                        metrics.recordRoundTrip(rtt);
+                        if (rate != null) {
+                            rate.onRoundTrip(rtt, lastHeardNanos);
+                        }
+                        if (acks != null) {
+                            acks.acknowledge(frame.arg1);
+                        }
+                    } else if (frame.opcode == WireProtocol.OP_ACK && acks != null) {
+                        acks.acknowledge(frame.arg0);
+                    } else if (frame.opcode == WireProtocol.OP_CLOCK && clock != null
+                            && frame.seq > 0 && frame.seq <= sent && sent - frame.seq < pingSentNanos.length) {
+                        clock.onSample(pingSentNanos[frame.seq % pingSentNanos.length],
+                                WireProtocol.joinBits(frame.arg0, frame.arg1), lastHeardNanos);
+                    }
+                }
+                in.compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Cerrar el transporte desde otro hilo también acaba aquí; solo cuenta si seguimos vigentes.
+            peerDead(System.nanoTime() - lastHeardNanos, "error de lectura: " + e.getMessage());
+        }
+    }
+
+    private void peerDead(long silenceNanos, String reason) {
+        synchronized (this) {
+            if (!isCurrent()) {
+                return;
+            }
+            thread = null;
+        }
+        metrics.recordPeerDead(silenceNanos);
+        listener.onPeerDead(reason);
+    }
+}
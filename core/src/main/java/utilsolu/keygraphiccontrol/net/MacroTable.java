@@ -0,0 +1,85 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.nio.ByteBuffer;
+
+import utilsolu.keygraphiccontrol.keymap.Keymap;
+import utilsolu.keygraphiccontrol.keymap.Macro;
+import utilsolu.keygraphiccontrol.protocol.FrameEncoder;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Pasos de las macros de un {@link Keymap}, ya codificados al cargar el mapeo: por cada id, las
+ * tramas MACRO_STEP en binario y la línea de texto de reserva. Al pulsar, el
+ * {@link CommandWriter} solo escribe la cabecera MACRO y copia estos bytes detrás.
+ *
+ * <p>El listener de texto no conoce ni las macros ni las líneas KEY: allí el control envía el
+ * comando que tenía sin perfil ({@code BUTTON} o {@code DIRECTION}), como antes de asignarle la
+ * macro.
+ *
+ * <p>Inmutable; se publica entera con {@link CommandWriter#setMacros}.
+ */
+public final class MacroTable {
+
+    /** Bytes de la macro más larga: la cabecera y sus pasos en binario. */
+    public static final int MAX_ENCODED_BYTES = (WireProtocol.MACRO_MAX_STEPS + 1) * WireProtocol.FRAME_SIZE;
+
+    public static final MacroTable EMPTY = new MacroTable(new int[0], new byte[0][], new byte[0][]);
+
+    private final int[] steps;
+    private final byte[][] binary;
+    private final byte[][] text;
+
+    private MacroTable(int[] steps, byte[][] binary, byte[][] text) {
+        this.steps = steps;
+        this.binary = binary;
+        this.text = text;
+    }
+
+    public static MacroTable compile(Keymap keymap) {
+        int count = keymap.macroCount();
+        int[] steps = new int[count];
+        byte[][] binary = new byte[count][];
+        byte[][] text = new byte[count][];
+        FrameEncoder encoder = new FrameEncoder();
+        byte[] line = new byte[WireProtocol.MAX_TEXT_LINE];
+        for (int id = 0; id < count; id++) {
+            Macro macro = keymap.macro(id);
+            steps[id] = macro.steps();
+            ByteBuffer frames = ByteBuffer.allocate(macro.steps() * WireProtocol.FRAME_SIZE);
+            for (int i = 0; i < macro.steps(); i++) {
+                // SEQ = número de paso: el listener comprueba que llegan todos y en orden.
+                encoder.encodeWithSeq(WireProtocol.OP_MACRO_STEP, 0, i, macro.key(i),
+                        WireProtocol.macroStepArg1(macro.action(i), macro.delayMs(i)), frames);
+            }
+            binary[id] = frames.array();
+            int control = keymap.macroControl(id);
+            int length = WireProtocol.formatText(Keymap.defaultOpcode(control), Keymap.defaultArg0(control),
+                    Keymap.defaultArg1(control), line, 0);
+            text[id] = new byte[length];
+            System.arraycopy(line, 0, text[id], 0, length);
+        }
+        return new MacroTable(steps, binary, text);
+    }
+
+    public int size() {
+        return steps.length;
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id < steps.length;
+    }
+
+    public int steps(int id) {
+        return steps[id];
+    }
+
+    /** Tramas MACRO_STEP de la macro {@code id}, listas para ir tras su cabecera. */
+    byte[] binarySteps(int id) {
+        return binary[id];
+    }
+
+    /** Línea de texto que sustituye a la macro {@code id}: el comando de siempre de su control. */
+    byte[] textFallback(int id) {
+        return text[id];
+    }
+}
@@ -0,0 +1,154 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transporte TCP sobre un {@link SocketChannel} no bloqueante, con TCP_NODELAY activado (sin
+ * Nagle: cada lote sale en cuanto se escribe) y tamaño de buffer de envío configurable.
+ *
+ * <p>Cuando el buffer del kernel se llena, {@link #write} espera en un selector a que vuelva a
+ * haber hueco, como mucho {@code writeTimeoutMs}. Lectura y escritura usan selectores distintos
+ * para poder llamarse desde hilos diferentes.
+ */
+public final class NioSocketTransport implements Transport {
+
+    /** Usar el tamaño de buffer de envío por defecto del sistema. */
+    public static final int DEFAULT_SEND_BUFFER = 0;
+
+    private final int sendBufferBytes;
+    private final int writeTimeoutMs;
+
+    private SocketChannel channel;
+    private Selector writeSelector;
+    private Selector readSelector;
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong backpressureWaits = new AtomicLong();
+
+    public NioSocketTransport(int sendBufferBytes, int writeTimeoutMs) {
+        this.sendBufferBytes = sendBufferBytes;
+        this.writeTimeoutMs = writeTimeoutMs;
+    }
+
+    @Override
+    public void connect(String host, int port, int timeoutMs) throws IOException {
+        channel = SocketChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (sendBufferBytes > 0) {
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferBytes);
+            }
+            channel.configureBlocking(false);
+            writeSelector = Selector.open();
+            readSelector = Selector.open();
+
+            if (!channel.connect(new InetSocketAddress(host, port))) {
+                SelectionKey key = channel.register(writeSelector, SelectionKey.OP_CONNECT);
+                if (writeSelector.select(timeoutMs) == 0) {
+                    throw new SocketTimeoutException("Timeout de conexión (" + timeoutMs + " ms)");
+                }
+                writeSelector.selectedKeys().clear();
+                channel.finishConnect();
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                channel.register(writeSelector, SelectionKey.OP_WRITE);
+            }
+            channel.register(readSelector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long write(ByteBuffer[] buffers, int offset, int length) throws IOException {
+        long total = 0;
+        long deadline = 0;
+        while (hasRemaining(buffers, offset, length)) {
+            long written = channel.write(buffers, offset, length);
+            total += written;
+            if (written > 0) {
+                continue;
+            }
+            // Buffer de envío lleno: el PC no está leyendo al ritmo que escribimos.
+            backpressureWaits.incrementAndGet();
+            long now = System.nanoTime();
+            if (deadline == 0) {
+                deadline = now + TimeUnit.MILLISECONDS.toNanos(writeTimeoutMs);
+            } else if (now >= deadline) {
+                throw new SocketTimeoutException("Timeout de escritura (" + writeTimeoutMs + " ms)");
+            }
+            writeSelector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - now)));
+            writeSelector.selectedKeys().clear();
+        }
+        bytesWritten.addAndGet(total);
+        return total;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, int timeoutMs) throws IOException {
+        int read = channel.read(dst);
+        if (read != 0 || timeoutMs <= 0) {
+            return read;
+        }
+        if (readSelector.select(timeoutMs) == 0) {
+            return 0;
+        }
+        readSelector.selectedKeys().clear();
+        return channel.read(dst);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel != null && channel.isOpen() && channel.isConnected();
+    }
+
+    @Override
+    public void close() {
+        closeQuietly(channel);
+        closeQuietly(writeSelector);
+        closeQuietly(readSelector);
+    }
+
+    // Visible para tests.
+    boolean isTcpNoDelay() throws IOException {
+        return channel.getOption(StandardSocketOptions.TCP_NODELAY);
+    }
+
+    public long bytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /** Veces que una escritura tuvo que esperar a que se vaciara el buffer del socket. */
+    public long backpressureWaits() {
+        return backpressureWaits.get();
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import utilsolu.keygraphiccontrol.input.AnalogStreamer;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Cola de salida acotada entre los productores (UI, emisor analógico, latidos) y el
+ * {@link CommandWriter}, con una política por clase de comando:
+ *
+ * <ul>
+ *   <li>{@link #POLICY_RELIABLE} (botones, teclas, macros, inicio y fin de zoom): FIFO en una
+ *       {@link CommandRing}, nunca se descartan y salen antes que el estado. Si la cola se llena
+ *       es que el PC lleva demasiado sin leer: la oferta se rechaza y el llamador debe tratarlo
+ *       como una conexión muerta.</li>
+ *   <li>{@link #POLICY_LATEST} (dirección, zoom, velocidad de zoom, vector analógico, latido):
+ *       un único valor pendiente por clase; el nuevo pisa al anterior y el pisado cuenta como
+ *       descartado.</li>
+ * </ul>
+ *
+ * <p>Así la memoria no crece aunque el socket se atasque, y al recuperarse el PC recibe los
+ * botones pendientes y el último estado, no segundos de movimientos viejos.
+ *
+ * <p>Hilos: la dirección y el zoom los publica solo el hilo de entrada del joystick (cada canal
+ * del coalescedor es de un productor). La cola circular la comparten el hilo de UI (botones) y el
+ * de entrada (teclas del mapeo de direcciones, inicio y fin de zoom), así que {@link #offer}
+ * serializa los opcodes fiables. El vector analógico, la velocidad de zoom y el latido pueden
+ * venir de sus propios hilos. Consumidor: el hilo escritor ({@link #drain}).
+ */
+public final class OutboundQueue {
+
+    public static final int CLASS_BUTTON = 0;
+    public static final int CLASS_DIRECTION = 1;
+    public static final int CLASS_ZOOM = 2;
+    public static final int CLASS_ANALOG = 3;
+    public static final int CLASS_CONTROL = 4;
+    public static final int CLASS_ZOOM_RATE = 5;
+    public static final int CLASS_COUNT = 6;
+
+    public static final int POLICY_RELIABLE = 0;
+    public static final int POLICY_LATEST = 1;
+
+    /** La clase fiable está llena: el comando no se ha encolado. */
+    public static final int OFFER_REJECTED = 0;
+    /** Encolado; el escritor ya tenía este trabajo anunciado. */
+    public static final int OFFER_QUEUED = 1;
+    /** Encolado; hay que despertar al escritor ({@link CommandWriter#signal}). */
+    public static final int OFFER_WAKE = 2;
+
+    private static final String[] CLASS_NAMES = {"button", "direction", "zoom", "analog", "control", "zoom_rate"};
+
+    private static final int NO_ANALOG_PENDING = Integer.MIN_VALUE;
+    private static final int NO_PING_PENDING = 0;
+    private static final int NO_ZOOM_RATE_PENDING = Integer.MIN_VALUE;
+
+    private final CommandRing ring;
+    private final StateCoalescer coalescer;
+
+    private final AtomicInteger pendingAnalog = new AtomicInteger(NO_ANALOG_PENDING);
+    private volatile long pendingAnalogNanos;
+    private final AtomicInteger pendingPing = new AtomicInteger(NO_PING_PENDING);
+    private final AtomicInteger pendingZoomRate = new AtomicInteger(NO_ZOOM_RATE_PENDING);
+    private volatile long pendingZoomRateNanos;
+    private volatile long pendingZoomRateEnqueueNanos;
+
+    private final AtomicLongArray offered = new AtomicLongArray(CLASS_COUNT);
+    // Analógico y latido; el resto sale de la cola circular y del coalescedor.
+    private final AtomicLongArray replaced = new AtomicLongArray(CLASS_COUNT);
+
+    public OutboundQueue(CommandRing ring, StateCoalescer coalescer) {
+        this.ring = ring;
+        this.coalescer = coalescer;
+    }
+
+    public static int classOf(int opcode) {
+        switch (opcode) {
+            case WireProtocol.OP_BUTTON:
+            case WireProtocol.OP_KEY:
+            case WireProtocol.OP_ZOOM_GESTURE:
+            case WireProtocol.OP_MACRO:
+                return CLASS_BUTTON;
+            case WireProtocol.OP_DIRECTION:
+                return CLASS_DIRECTION;
+            case WireProtocol.OP_ZOOM:
+                return CLASS_ZOOM;
+            case WireProtocol.OP_ANALOG:
+                return CLASS_ANALOG;
+            case WireProtocol.OP_ZOOM_RATE:
+                return CLASS_ZOOM_RATE;
+            case WireProtocol.OP_PING:
+                return CLASS_CONTROL;
+            default:
+                throw new IllegalArgumentException("Opcode sin clase de envío: " + opcode);
+        }
+    }
+
+    public static int policyOf(int commandClass) {
+        return commandClass == CLASS_BUTTON ? POLICY_RELIABLE : POLICY_LATEST;
+    }
+
+    public static String className(int commandClass) {
+        return CLASS_NAMES[commandClass];
+    }
+
+    /**
+     * Publica un comando según la política de su clase. {@code inputNanos} es el instante del
+     * evento que lo originó. Devuelve {@link #OFFER_WAKE}, {@link #OFFER_QUEUED} u
+     * {@link #OFFER_REJECTED}.
+     */
+    public int offer(int opcode, int arg0, int arg1, long inputNanos) {
+        int commandClass = classOf(opcode);
+        offered.incrementAndGet(commandClass);
+        switch (commandClass) {
+            case CLASS_BUTTON:
+                return offerReliable(opcode, arg0, arg1, inputNanos) ? OFFER_WAKE : OFFER_REJECTED;
+            case CLASS_DIRECTION:
+                return coalescer.offer(StateCoalescer.CHANNEL_DIRECTION, arg0, inputNanos) ? OFFER_WAKE : OFFER_QUEUED;
+            case CLASS_ZOOM:
+                return coalescer.offer(StateCoalescer.CHANNEL_ZOOM, arg0, inputNanos) ? OFFER_WAKE : OFFER_QUEUED;
+            case CLASS_ANALOG:
+                pendingAnalogNanos = inputNanos;
+                return publishLatest(pendingAnalog, AnalogStreamer.pack(arg0, arg1), NO_ANALOG_PENDING, CLASS_ANALOG);
+            case CLASS_ZOOM_RATE:
+                pendingZoomRateNanos = inputNanos;
+                pendingZoomRateEnqueueNanos = System.nanoTime();
+                return publishLatest(pendingZoomRate, arg0, NO_ZOOM_RATE_PENDING, CLASS_ZOOM_RATE);
+            default:
+                return publishLatest(pendingPing, arg0, NO_PING_PENDING, CLASS_CONTROL);
+        }
+    }
+
+    // Botones (UI) y gestos de zoom (hilo de entrada) comparten la cola circular de un productor.
+    private boolean offerReliable(int opcode, int arg0, int arg1, long inputNanos) {
+        synchronized (ring) {
+            return ring.offer(opcode, arg0, arg1, inputNanos);
+        }
+    }
+
+    private int publishLatest(AtomicInteger slot, int value, int empty, int commandClass) {
+        if (slot.getAndSet(value) == empty) {
+            return OFFER_WAKE;
+        }
+        replaced.incrementAndGet(commandClass);
+        return OFFER_QUEUED;
+    }
+
+    /**
+     * Consumidor: entrega al handler hasta {@code reliableLimit} botones y después el estado
+     * pendiente (dirección, zoom, velocidad de zoom, vector analógico, latido). Devuelve cuántos
+     * comandos entregó. El latido llega con marcas de tiempo 0: no es una entrada del usuario.
+     */
+    public int drain(CommandRing.Handler handler, int reliableLimit) {
+        return drain(handler, reliableLimit, true);
+    }
+
+    /**
+     * Como {@link #drain(CommandRing.Handler, int)}; con {@code includeState} false solo salen los
+     * botones y el latido, y el estado sigue pendiente (y pisándose) para un lote posterior.
+     */
+    public int drain(CommandRing.Handler handler, int reliableLimit, boolean includeState) {
+        int count = ring.drain(handler, reliableLimit);
+        if (includeState) {
+            count += drainState(handler);
+        }
+        int nonce = pendingPing.getAndSet(NO_PING_PENDING);
+        if (nonce != NO_PING_PENDING) {
+            handler.onCommand(WireProtocol.OP_PING, nonce, 0, 0, 0);
+            count++;
+        }
+        return count;
+    }
+
+    private int drainState(CommandRing.Handler handler) {
+        int count = drainState(handler, StateCoalescer.CHANNEL_DIRECTION, WireProtocol.OP_DIRECTION);
+        count += drainState(handler, StateCoalescer.CHANNEL_ZOOM, WireProtocol.OP_ZOOM);
+        int rate = pendingZoomRate.getAndSet(NO_ZOOM_RATE_PENDING);
+        if (rate != NO_ZOOM_RATE_PENDING) {
+            handler.onCommand(WireProtocol.OP_ZOOM_RATE, rate, 0, pendingZoomRateNanos, pendingZoomRateEnqueueNanos);
+            count++;
+        }
+        int vector = pendingAnalog.getAndSet(NO_ANALOG_PENDING);
+        if (vector != NO_ANALOG_PENDING) {
+            // El vector analógico nace en el tick del emisor: entrada = encolado.
+            long tickNanos = pendingAnalogNanos;
+            handler.onCommand(WireProtocol.OP_ANALOG, AnalogStreamer.unpackX(vector), AnalogStreamer.unpackY(vector),
+                    tickNanos, tickNanos);
+            count++;
+        }
+        return count;
+    }
+
+    private int drainState(CommandRing.Handler handler, int channel, int opcode) {
+        int value = coalescer.poll(channel);
+        if (value == StateCoalescer.EMPTY) {
+            return 0;
+        }
+        handler.onCommand(opcode, value, 0, coalescer.polledInputNanos(channel), coalescer.polledEnqueueNanos(channel));
+        return 1;
+    }
+
+    public boolean hasPending() {
+        return hasPending(true);
+    }
+
+    /** Hay botones o latido pendientes y, con {@code includeState}, también estado. */
+    public boolean hasPending(boolean includeState) {
+        return !ring.isEmpty() || pendingPing.get() != NO_PING_PENDING || (includeState && hasPendingState());
+    }
+
+    /** Hay dirección, zoom, velocidad de zoom o vector analógico esperando al escritor. */
+    public boolean hasPendingState() {
+        return coalescer.hasPending() || pendingAnalog.get() != NO_ANALOG_PENDING
+                || pendingZoomRate.get() != NO_ZOOM_RATE_PENDING;
+    }
+
+    /** Comandos de la clase esperando al escritor (0 o 1 en las clases {@link #POLICY_LATEST}). */
+    public int depth(int commandClass) {
+        switch (commandClass) {
+            case CLASS_BUTTON:
+                return ring.size();
+            case CLASS_DIRECTION:
+                return coalescer.hasPending(StateCoalescer.CHANNEL_DIRECTION) ? 1 : 0;
+            case CLASS_ZOOM:
+                return coalescer.hasPending(StateCoalescer.CHANNEL_ZOOM) ? 1 : 0;
+            case CLASS_ANALOG:
+                return pendingAnalog.get() != NO_ANALOG_PENDING ? 1 : 0;
+            case CLASS_ZOOM_RATE:
+                return pendingZoomRate.get() != NO_ZOOM_RATE_PENDING ? 1 : 0;
+            default:
+                return pendingPing.get() != NO_PING_PENDING ? 1 : 0;
+        }
+    }
+
+    public int depth() {
+        int total = 0;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            total += depth(i);
+        }
+        return total;
+    }
+
+    public long offeredCount(int commandClass) {
+        return offered.get(commandClass);
+    }
+
+    /**
+     * Comandos de la clase que no llegarán al PC: pisados por uno más reciente en las clases
+     * {@link #POLICY_LATEST}, rechazados por cola llena en la fiable.
+     */
+    public long droppedCount(int commandClass) {
+        switch (commandClass) {
+            case CLASS_BUTTON:
+                return ring.rejectedCount();
+            case CLASS_DIRECTION:
+                return coalescer.collapsedCount(StateCoalescer.CHANNEL_DIRECTION);
+            case CLASS_ZOOM:
+                return coalescer.collapsedCount(StateCoalescer.CHANNEL_ZOOM);
+            default:
+                return replaced.get(commandClass);
+        }
+    }
+
+    /** Profundidad máxima que ha alcanzado la clase fiable. */
+    public long reliableHighWaterMark() {
+        return ring.highWaterMark();
+    }
+
+    public int reliableCapacity() {
+        return ring.capacity();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("OutboundQueue{depth=").append(depth())
+                .append(", buttonHighWater=").append(reliableHighWaterMark()).append('/').append(reliableCapacity())
+                .append(", dropped=[");
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append(CLASS_NAMES[i]).append('=').append(droppedCount(i));
+        }
+        return out.append("]}").toString();
+    }
+}
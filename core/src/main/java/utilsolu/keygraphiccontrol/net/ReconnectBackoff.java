@@ -0,0 +1,55 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.util.Random;
+
+/**
+ * Espera entre intentos de reconexión: exponencial desde {@code baseMs} hasta {@code maxMs}, con
+ * jitter.
+ *
+ * <p>Cada espera cae al azar entre la mitad y el total del techo del intento. La mitad fija
+ * impide que el jitter la deje en cero y martillee al PC. La mitad aleatoria evita que los
+ * reintentos se sincronicen con los reinicios del listener.
+ */
+public final class ReconnectBackoff {
+
+    private final long baseMs;
+    private final long maxMs;
+    private final Random random;
+    private int attempts;
+
+    public ReconnectBackoff(long baseMs, long maxMs) {
+        this(baseMs, maxMs, new Random());
+    }
+
+    // Visible para tests: Random con semilla fija.
+    ReconnectBackoff(long baseMs, long maxMs, Random random) {
+        if (baseMs <= 0 || maxMs < baseMs) {
+            throw new IllegalArgumentException("Backoff inválido: base=" + baseMs + ", max=" + maxMs);
+        }
+        this.baseMs = baseMs;
+        this.maxMs = maxMs;
+        this.random = random;
+    }
+
+    /** Espera antes del próximo intento; cada llamada cuenta como un intento más. */
+    public synchronized long nextDelayMs() {
+        long ceiling = ceilingMs(attempts);
+        attempts++;
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half + 1));
+    }
+
+    /** Vuelve a la espera mínima; se llama al conectar con éxito. */
+    public synchronized void reset() {
+        attempts = 0;
+    }
+
+    public synchronized int attempts() {
+        return attempts;
+    }
+
+    private long ceilingMs(int attempt) {
+        // Desplazar como mucho 30 bits: más allá ya está saturado en maxMs y evita desbordar.
+        return Math.min(maxMs, baseMs << Math.min(attempt, 30));
+    }
+}
@@ -0,0 +1,111 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ventana de comandos fiables (botones, teclas) enviados y aún sin confirmar por el listener.
+ *
+ * <p>Cada comando recibe una secuencia de sesión (desde 1, sigue entre conexiones) y se guarda
+ * en arrays de primitivos hasta que un ACK la cubre. Tras reconectar, el escritor reenvía lo que
+ * el listener dice no haber entregado y este descarta los duplicados por secuencia: un botón ya
+ * escrito en un socket que luego murió no se pierde ni llega dos veces.
+ *
+ * <p>Hilos: {@link #append} y las lecturas de entradas solo desde el hilo escritor;
+ * {@link #acknowledge} desde cualquiera (el lector de latidos, o quien reconecta). Las
+ * secuencias se comparan por diferencia, así que el desbordamiento del int no rompe el orden.
+ */
+public final class ReliableWindow {
+
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private final int mask;
+    private final int[] opcodes;
+    private final int[] args0;
+    private final int[] args1;
+
+    // Lo escribe solo el hilo escritor; volatile porque attach lo lee desde quien reconecta.
+    private volatile int lastAssigned;
+    private final AtomicInteger lastAcknowledged = new AtomicInteger();
+
+    /** {@code capacity} debe ser potencia de dos. */
+    public ReliableWindow(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("La capacidad debe ser potencia de dos: " + capacity);
+        }
+        mask = capacity - 1;
+        opcodes = new int[capacity];
+        args0 = new int[capacity];
+        args1 = new int[capacity];
+    }
+
+    /** Escritor: guarda un comando y devuelve su secuencia. Requiere {@link #free()} &gt; 0. */
+    public int append(int opcode, int arg0, int arg1) {
+        if (free() <= 0) {
+            throw new IllegalStateException("Ventana fiable llena: " + this);
+        }
+        int seq = lastAssigned + 1;
+        int slot = seq & mask;
+        opcodes[slot] = opcode;
+        args0[slot] = arg0;
+        args1[slot] = arg1;
+        lastAssigned = seq;
+        return seq;
+    }
+
+    /** Confirma todo hasta {@code seq} inclusive. Las confirmaciones viejas no hacen nada. */
+    public void acknowledge(int seq) {
+        int current;
+        do {
+            current = lastAcknowledged.get();
+            if (seq - current <= 0) {
+                return;
+            }
+        } while (!lastAcknowledged.compareAndSet(current, seq));
+    }
+
+    /** Escritor: comandos que aún caben sin confirmar. */
+    public int free() {
+        return mask + 1 - unacknowledged();
+    }
+
+    /** Escritor: comandos enviados y aún sin confirmar. */
+    public int unacknowledged() {
+        return lastAssigned - lastAcknowledged.get();
+    }
+
+    /** Escritor: olvida los pendientes (el listener no sabe reanudar; no hay a quién reenviarlos). */
+    public void forgetPending() {
+        acknowledge(lastAssigned);
+    }
+
+    public int lastAssigned() {
+        return lastAssigned;
+    }
+
+    public int lastAcknowledged() {
+        return lastAcknowledged.get();
+    }
+
+    /** Escritor: entradas de una secuencia aún sin confirmar. */
+    public int opcode(int seq) {
+        return opcodes[seq & mask];
+    }
+
+    public int arg0(int seq) {
+        return args0[seq & mask];
+    }
+
+    public int arg1(int seq) {
+        return args1[seq & mask];
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public String toString() {
+        return "ReliableWindow{assigned=" + lastAssigned + ", acked=" + lastAcknowledged.get()
+                + ", capacity=" + capacity() + "}";
+    }
+}
@@ -0,0 +1,219 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.util.Locale;
+
+import utilsolu.keygraphiccontrol.metrics.LatencyHistogram;
+
+/**
+ * Ritmo de envío del estado continuo (dirección, zoom, velocidad de zoom, vector analógico)
+ * ajustado al enlace, estilo AIMD: baja a la mitad en cuanto el enlace da señales de congestión
+ * y sube {@link #INCREASE_STEP_HZ} por cada {@link #DECISION_PERIOD_NANOS} limpio con envíos.
+ * Los botones y teclas no pasan por aquí: salen siempre en el primer lote.
+ *
+ * <p>Señales de congestión:
+ * <ul>
+ *   <li>Escritura lenta: una escritura agrupada tarda más de {@link #SLOW_WRITE_NANOS} (el
+ *       buffer del socket está lleno y el transporte espera a que el PC lea).</li>
+ *   <li>Cola: tras un lote quedan más de {@link #BACKLOG_LIMIT} botones sin escribir.</li>
+ *   <li>RTT: un latido tarda más de {@link #RTT_MARGIN_NANOS} sobre el mínimo de la conexión
+ *       (hay cola en el túnel adb/USB o en el listener).</li>
+ * </ul>
+ * Como mucho se baja una vez por periodo: las señales de un mismo atasco no se acumulan.
+ *
+ * <p>El ritmo se traduce en la ventana de agrupado del {@link CommandWriter} (como mucho un
+ * lote de estado por {@link #intervalNanos()}; lo que llega entre medias se pisa en la cola) y,
+ * vía {@link Listener}, en el tick del emisor analógico.
+ *
+ * <p>Hilos: el escritor informa de sus escrituras y el monitor de latidos de los RTT; el estado
+ * va bajo el monitor del objeto y el ritmo vigente se publica en volátiles para el escritor.
+ */
+public final class SendRateController {
+
+    public interface Listener {
+        /**
+         * El ritmo cambió; {@code cause} es {@link #CAUSE_NONE} en las subidas. Se llama desde el
+         * hilo que informó (escritor o latidos) con el monitor tomado: debe volver enseguida.
+         */
+        void onRateChanged(int rateHz, int cause);
+    }
+
+    public static final int MAX_RATE_HZ = 250;
+    public static final int MIN_RATE_HZ = 10;
+    public static final int INCREASE_STEP_HZ = 10;
+    public static final long DECISION_PERIOD_NANOS = 100_000_000L;
+    public static final long SLOW_WRITE_NANOS = 4_000_000L;
+    public static final int BACKLOG_LIMIT = 8;
+    public static final long RTT_MARGIN_NANOS = 15_000_000L;
+
+    public static final int CAUSE_NONE = 0;
+    public static final int CAUSE_SLOW_WRITE = 1;
+    public static final int CAUSE_BACKLOG = 2;
+    public static final int CAUSE_RTT = 3;
+    private static final int CAUSE_COUNT = 4;
+
+    private static final String[] CAUSE_NAMES = {"ninguna", "escritura", "cola", "rtt"};
+
+    private final Listener listener;
+    private final LatencyHistogram writeTime = new LatencyHistogram();
+
+    private volatile int rateHz = MAX_RATE_HZ;
+    private volatile long intervalNanos = intervalFor(MAX_RATE_HZ);
+
+    private boolean periodOpen;
+    private long periodStartNanos;
+    private boolean periodCongested;
+    private boolean periodActive;
+    private boolean decreasedOnce;
+    private long lastDecreaseNanos;
+    private long baseRttNanos;
+    private long lastRttNanos;
+
+    private final long[] signals = new long[CAUSE_COUNT];
+    private long decreases;
+    private long increases;
+    private int lastCause = CAUSE_NONE;
+
+    public SendRateController() {
+        this(null);
+    }
+
+    /** {@code listener} puede ser null. */
+    public SendRateController(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Nueva conexión: el RTT mínimo de la anterior no vale (puede ser otro camino). El ritmo se
+     * conserva; si el enlace está mejor, sube solo.
+     */
+    public synchronized void reset() {
+        periodOpen = false;
+        periodCongested = false;
+        periodActive = false;
+        baseRttNanos = 0;
+        lastRttNanos = 0;
+    }
+
+    /**
+     * El escritor terminó una escritura agrupada que tardó {@code writeNanos}; quedan
+     * {@code backlog} botones en la cola.
+     */
+    public synchronized void onWrite(long writeNanos, int backlog, long nowNanos) {
+        writeTime.record(writeNanos);
+        advance(nowNanos);
+        periodActive = true;
+        if (writeNanos > SLOW_WRITE_NANOS) {
+            congested(CAUSE_SLOW_WRITE, nowNanos);
+        } else if (backlog > BACKLOG_LIMIT) {
+            congested(CAUSE_BACKLOG, nowNanos);
+        }
+    }
+
+    /** Ida y vuelta de un latido. */
+    public synchronized void onRoundTrip(long rttNanos, long nowNanos) {
+        advance(nowNanos);
+        lastRttNanos = rttNanos;
+        if (baseRttNanos == 0 || rttNanos < baseRttNanos) {
+            baseRttNanos = rttNanos;
+        } else if (rttNanos - baseRttNanos > RTT_MARGIN_NANOS) {
+            congested(CAUSE_RTT, nowNanos);
+        }
+    }
+
+    // Cierra el periodo vencido: si no hubo congestión y sí envíos, subida aditiva.
+    private void advance(long nowNanos) {
+        if (!periodOpen) {
+            periodOpen = true;
+            periodStartNanos = nowNanos;
+            return;
+        }
+        if (nowNanos - periodStartNanos < DECISION_PERIOD_NANOS) {
+            return;
+        }
+        if (!periodCongested && periodActive && rateHz < MAX_RATE_HZ) {
+            increases++;
+            setRate(Math.min(MAX_RATE_HZ, rateHz + INCREASE_STEP_HZ), CAUSE_NONE);
+        }
+        periodStartNanos = nowNanos;
+        periodCongested = false;
+        periodActive = false;
+    }
+
+    private void congested(int cause, long nowNanos) {
+        signals[cause]++;
+        periodCongested = true;
+        if (decreasedOnce && nowNanos - lastDecreaseNanos < DECISION_PERIOD_NANOS) {
+            return;
+        }
+        decreasedOnce = true;
+        lastDecreaseNanos = nowNanos;
+        lastCause = cause;
+        if (rateHz > MIN_RATE_HZ) {
+            decreases++;
+            setRate(Math.max(MIN_RATE_HZ, rateHz / 2), cause);
+        }
+    }
+
+    private void setRate(int hz, int cause) {
+        rateHz = hz;
+        intervalNanos = intervalFor(hz);
+        if (listener != null) {
+            listener.onRateChanged(hz, cause);
+        }
+    }
+
+    private static long intervalFor(int hz) {
+        return 1_000_000_000L / hz;
+    }
+
+    /** Ritmo vigente del estado continuo, en lotes por segundo. */
+    public int rateHz() {
+        return rateHz;
+    }
+
+    /** Separación mínima entre dos lotes de estado: la ventana de agrupado del escritor. */
+    public long intervalNanos() {
+        return intervalNanos;
+    }
+
+    public LatencyHistogram writeTime() {
+        return writeTime;
+    }
+
+    public synchronized long decreases() {
+        return decreases;
+    }
+
+    public synchronized long increases() {
+        return increases;
+    }
+
+    /** Señales de congestión de una causa, hayan provocado bajada o no. */
+    public synchronized long signals(int cause) {
+        return signals[cause];
+    }
+
+    public synchronized long baseRttNanos() {
+        return baseRttNanos;
+    }
+
+    public static String causeName(int cause) {
+        return CAUSE_NAMES[cause];
+    }
+
+    /** Línea para el overlay. */
+    public synchronized String formatText() {
+        return String.format(Locale.US,
+                "envío: %d Hz (ventana %.1f ms), bajadas %d (última: %s), subidas %d, señales escritura %d"
+                        + " cola %d rtt %d, rtt %.1f/%.1f ms, escritura p99 %d us%n",
+                rateHz, intervalNanos / 1e6, decreases, CAUSE_NAMES[lastCause], increases,
+                signals[CAUSE_SLOW_WRITE], signals[CAUSE_BACKLOG], signals[CAUSE_RTT],
+                lastRttNanos / 1e6, baseRttNanos / 1e6, writeTime.percentileNanos(99) / 1000);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SendRateController{rateHz=" + rateHz + ", decreases=" + decreases + ", increases=" + increases
+                + ", lastCause=" + CAUSE_NAMES[lastCause] + ", baseRtt=" + baseRttNanos + "}";
+    }
+}
@@ -0,0 +1,205 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Etapa de coalescencia entre la entrada táctil y el socket para comandos de estado
+ * (dirección del joystick, zoom).
+ *
+ * <p>Cada canal guarda un único valor pendiente: si llegan varios antes de que el hilo de red
+ * lo recoja, solo sobrevive el último. Además se descartan los valores repetidos, tanto al
+ * ofrecerlos (igual al último aceptado) como al recogerlos (igual al último enviado).
+ *
+ * <p>Productor: hilo de entrada del joystick ({@link #offer}, {@link #clear}). Consumidor: hilo de red
+ * ({@link #poll}). {@link #resendCurrent} lo llama el hilo que conecta, con el consumidor parado
+ * y a la vez que el productor. Los valores deben ser &gt;= 0.
+ */
+public final class StateCoalescer {
+
+    public static final int CHANNEL_DIRECTION = 0;
+    public static final int CHANNEL_ZOOM = 1;
+    public static final int CHANNEL_COUNT = 2;
+
+    /** Valor que devuelve {@link #poll} cuando no hay nada que enviar. */
+    public static final int EMPTY = -1;
+
+    private final AtomicIntegerArray lastAccepted;
+    private final AtomicIntegerArray pending;
+    private final AtomicIntegerArray lastSent;
+
+    // Marcas de tiempo del valor pendiente; se escriben antes de publicarlo en pending.
+    private final AtomicLongArray pendingInputNanos;
+    private final AtomicLongArray pendingEnqueueNanos;
+    // Marcas del último valor devuelto por poll(); solo las usa el consumidor.
+    private final long[] polledInputNanos;
+    private final long[] polledEnqueueNanos;
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLongArray collapsed;
+    private final AtomicLong sent = new AtomicLong();
+
+    public StateCoalescer(int channelCount) {
+        lastAccepted = new AtomicIntegerArray(channelCount);
+        pending = new AtomicIntegerArray(channelCount);
+        lastSent = new AtomicIntegerArray(channelCount);
+        pendingInputNanos = new AtomicLongArray(channelCount);
+        pendingEnqueueNanos = new AtomicLongArray(channelCount);
+        polledInputNanos = new long[channelCount];
+        polledEnqueueNanos = new long[channelCount];
+        collapsed = new AtomicLongArray(channelCount);
+        reset();
+    }
+
+    /**
+     * Publica un nuevo estado. Devuelve true solo si el canal pasó de "sin pendiente" a
+     * "con pendiente", es decir, cuando el llamador debe programar un drenado. Así una ráfaga
+     * de movimientos encola una sola tarea en el hilo de red. {@code inputNanos} es el instante
+     * del evento táctil que produjo el valor.
+     */
+    public boolean offer(int channel, int value, long inputNanos) {
+        offered.incrementAndGet();
+        if (lastAccepted.get(channel) == value) {
+            suppressed.incrementAndGet();
+            return false;
+        }
+        lastAccepted.set(channel, value);
+        pendingInputNanos.set(channel, inputNanos);
+        pendingEnqueueNanos.set(channel, System.nanoTime());
+        int previous = pending.getAndSet(channel, value);
+        if (previous != EMPTY) {
+            // El valor anterior nunca llegó a salir: lo pisa el más reciente.
+            collapsed.incrementAndGet(channel);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Recoge el estado pendiente del canal, o {@link #EMPTY} si no hay nada nuevo que enviar.
+     * Se asume que el valor devuelto se escribe en el socket. Sus marcas de tiempo quedan en
+     * {@link #polledInputNanos(int)} y {@link #polledEnqueueNanos(int)}.
+     */
+    public int poll(int channel) {
+        int value = pending.getAndSet(channel, EMPTY);
+        if (value == EMPTY) {
+            return EMPTY;
+        }
+        if (lastSent.get(channel) == value) {
+            // Ej. RIGHT -> LEFT -> RIGHT colapsado en RIGHT: el PC ya tiene ese estado.
+            suppressed.incrementAndGet();
+            return EMPTY;
+        }
+        lastSent.set(channel, value);
+        polledInputNanos[channel] = pendingInputNanos.get(channel);
+        polledEnqueueNanos[channel] = pendingEnqueueNanos.get(channel);
+        sent.incrementAndGet();
+        return value;
+    }
+
+    public long polledInputNanos(int channel) {
+        return polledInputNanos[channel];
+    }
+
+    public long polledEnqueueNanos(int channel) {
+        return polledEnqueueNanos[channel];
+    }
+
+    /** true si el canal tiene un valor esperando a {@link #poll}. */
+    public boolean hasPending(int channel) {
+        return pending.get(channel) != EMPTY;
+    }
+
+    /** true si algún canal tiene un valor esperando a {@link #poll}. */
+    public boolean hasPending() {
+        for (int i = 0; i < pending.length(); i++) {
+            if (pending.get(i) != EMPTY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Olvida el último valor aceptado del canal para que el siguiente se envíe aunque sea igual
+     * (p. ej. el stick vuelve a la zona muerta y se empuja otra vez hacia el mismo lado del zoom).
+     */
+    public void clear(int channel) {
+        lastAccepted.set(channel, EMPTY);
+        lastSent.set(channel, EMPTY);
+    }
+
+    /**
+     * Vuelve a dejar pendiente el último valor aceptado de cada canal, aunque ya se enviara: el
+     * PC recién conectado no conoce el estado actual (p. ej. el stick sigue empujado durante la
+     * reconexión). Se llama con el escritor desenganchado; un {@link #offer} concurrente gana
+     * siempre: si acepta un valor mientras tanto, lo pendiente acaba siendo ese.
+     */
+    public void resendCurrent() {
+        long now = System.nanoTime();
+        for (int i = 0; i < pending.length(); i++) {
+            lastSent.set(i, EMPTY);
+            while (true) {
+                int current = lastAccepted.get(i);
+                if (current == EMPTY) {
+                    break;
+                }
+                pendingInputNanos.set(i, now);
+                pendingEnqueueNanos.set(i, now);
+                // Ya hay algo pendiente: es igual o más nuevo que lo que leímos.
+                if (!pending.compareAndSet(i, EMPTY, current)) {
+                    break;
+                }
+                if (lastAccepted.get(i) == current) {
+                    break;
+                }
+                // Un offer aceptó otro valor entre medias: se retira el nuestro, si sigue ahí, y se
+                // vuelve a mirar.
+                pending.compareAndSet(i, current, EMPTY);
+            }
+        }
+    }
+
+    /** Olvida todo el estado. Solo sin productor ni consumidor activos. */
+    public void reset() {
+        for (int i = 0; i < pending.length(); i++) {
+            lastAccepted.set(i, EMPTY);
+            pending.set(i, EMPTY);
+            lastSent.set(i, EMPTY);
+        }
+    }
+
+    public long offeredCount() {
+        return offered.get();
+    }
+
+    /** Eventos descartados por repetir el estado ya aceptado o ya enviado. */
+    public long suppressedCount() {
+        return suppressed.get();
+    }
+
+    /** Eventos pisados por uno más reciente antes de llegar al socket. */
+    public long collapsedCount() {
+        long total = 0;
+        for (int i = 0; i < collapsed.length(); i++) {
+            total += collapsed.get(i);
+        }
+        return total;
+    }
+
+    public long collapsedCount(int channel) {
+        return collapsed.get(channel);
+    }
+
+    public long sentCount() {
+        return sent.get();
+    }
+
+    @Override
+    public String toString() {
+        return "StateCoalescer{offered=" + offeredCount() + ", suppressed=" + suppressedCount()
+                + ", collapsed=" + collapsedCount() + ", sent=" + sentCount() + "}";
+    }
+}
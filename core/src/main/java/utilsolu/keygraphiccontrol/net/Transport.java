@@ -0,0 +1,35 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Canal de bytes hacia el listener de la PC. Permite cambiar la implementación (NIO, tests)
+ * sin tocar el hilo escritor ni la negociación del protocolo.
+ *
+ * <p>{@link #write} y {@link #read} pueden llamarse a la vez desde hilos distintos, pero cada
+ * uno desde un único hilo.
+ */
+public interface Transport extends Closeable {
+
+    /** Abre la conexión; lanza {@link java.net.SocketTimeoutException} si no se logra a tiempo. */
+    void connect(String host, int port, int timeoutMs) throws IOException;
+
+    /**
+     * Escritura agrupada: envía todos los bytes restantes de {@code buffers[offset..offset+length)}
+     * y no vuelve hasta haberlo hecho. Devuelve el número de bytes escritos.
+     */
+    long write(ByteBuffer[] buffers, int offset, int length) throws IOException;
+
+    /**
+     * Lee lo disponible en {@code dst}, esperando como máximo {@code timeoutMs} a que llegue algo
+     * (0 = no esperar). Devuelve los bytes leídos, 0 si no llegó nada o -1 si el otro lado cerró.
+     */
+    int read(ByteBuffer dst, int timeoutMs) throws IOException;
+
+    boolean isOpen();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,29 @@
+package utilsolu.keygraphiccontrol.protocol;
+
+/**
+ * Trama decodificada. Es mutable a propósito: el decodificador reutiliza la misma instancia
+ * para no crear objetos por cada comando recibido.
+ */
+public final class Frame {
+
+    public int opcode;
+    public int flags;
+    public int seq;
+    public int arg0;
+    public int arg1;
+
+    public Frame set(int opcode, int flags, int seq, int arg0, int arg1) {
+        this.opcode = opcode;
+        this.flags = flags;
+        this.seq = seq;
+        this.arg0 = arg0;
+        this.arg1 = arg1;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "Frame{op=0x" + Integer.toHexString(opcode) + ", flags=" + flags + ", seq=" + seq
+                + ", arg0=" + arg0 + ", arg1=" + arg1 + "}";
+    }
+}
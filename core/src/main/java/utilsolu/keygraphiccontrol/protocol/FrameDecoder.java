@@ -0,0 +1,63 @@
+package utilsolu.keygraphiccontrol.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodifica tramas binarias producidas por {@link FrameEncoder}.
+ */
+public final class FrameDecoder {
+
+    private FrameDecoder() {
+    }
+
+    /** Decodifica la trama que empieza en {@code src[offset]}. */
+    public static Frame decode(byte[] src, int offset, Frame out) throws ProtocolException {
+        if (src.length - offset < WireProtocol.FRAME_SIZE) {
+            throw new ProtocolException("Trama incompleta: " + (src.length - offset) + " bytes");
+        }
+        checkHeader(src[offset], src[offset + 1]);
+        return out.set(
+                src[offset + 2] & 0xFF,
+                src[offset + 3] & 0xFF,
+                getInt(src, offset + 4),
+                getInt(src, offset + 8),
+                getInt(src, offset + 12));
+    }
+
+    /**
+     * Decodifica la siguiente trama de {@code src} si hay bytes suficientes. Devuelve false
+     * (sin consumir nada) cuando la trama todavía no ha llegado completa.
+     */
+    public static boolean decode(ByteBuffer src, Frame out) throws ProtocolException {
+        if (src.remaining() < WireProtocol.FRAME_SIZE) {
+            return false;
+        }
+        int start = src.position();
+        checkHeader(src.get(start), src.get(start + 1));
+        out.set(
+                src.get(start + 2) & 0xFF,
+                src.get(start + 3) & 0xFF,
+                src.getInt(start + 4),
+                src.getInt(start + 8),
+                src.getInt(start + 12));
+        src.position(start + WireProtocol.FRAME_SIZE);
+        return true;
+    }
+
+    private static void checkHeader(byte magic, byte version) throws ProtocolException {
+        if (magic != WireProtocol.MAGIC) {
+            throw new ProtocolException("Magic inválido: 0x" + Integer.toHexString(magic & 0xFF));
+        }
+        if (version < 1 || version > WireProtocol.VERSION) {
+            throw new ProtocolException("Versión no soportada: " + version);
+        }
+    }
+
+    private static int getInt(byte[] src, int off) {
+        return ((src[off] & 0xFF) << 24)
+                | ((src[off + 1] & 0xFF) << 16)
+                | ((src[off + 2] & 0xFF) << 8)
+                | (src[off + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,81 @@
+package utilsolu.keygraphiccontrol.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codifica comandos en tramas binarias de tamaño fijo ({@link WireProtocol#FRAME_SIZE} bytes)
+ * y asigna el número de secuencia. No es thread-safe: debe usarse desde el hilo que escribe.
+ */
+public final class FrameEncoder {
+
+    private int nextSeq;
+
+    public FrameEncoder() {
+        this(0);
+    }
+
+    public FrameEncoder(int firstSeq) {
+        this.nextSeq = firstSeq;
+    }
+
+    /** Escribe la trama en {@code dst[offset..]} y devuelve el número de bytes escritos. */
+    public int encode(int opcode, int arg0, int arg1, byte[] dst, int offset) {
+        writeFrame(dst, offset, opcode, 0, nextSeq++, arg0, arg1);
+        return WireProtocol.FRAME_SIZE;
+    }
+
+    /** Igual que {@link #encode(int, int, int, byte[], int)} pero sobre un ByteBuffer. */
+    public void encode(int opcode, int arg0, int arg1, ByteBuffer dst) {
+        dst.put(WireProtocol.MAGIC)
+                .put(WireProtocol.VERSION)
+                .put((byte) opcode)
+                .put((byte) 0)
+                .putInt(nextSeq++)
+                .putInt(arg0)
+                .putInt(arg1);
+    }
+
+    /**
+     * Trama de un comando fiable ({@link WireProtocol#FLAG_RELIABLE}) con la secuencia de sesión
+     * {@code seq}; no consume la secuencia propia del codificador.
+     */
+    public void encodeReliable(int opcode, int seq, int arg0, int arg1, ByteBuffer dst) {
+        encodeWithSeq(opcode, WireProtocol.FLAG_RELIABLE, seq, arg0, arg1, dst);
+    }
+
+    /**
+     * Trama con flags y SEQ explícitos (respuestas y tramas de control que usan SEQ para otra
+     * cosa); no consume la secuencia propia del codificador.
+     */
+    public void encodeWithSeq(int opcode, int flags, int seq, int arg0, int arg1, ByteBuffer dst) {
+        dst.put(WireProtocol.MAGIC)
+                .put(WireProtocol.VERSION)
+                .put((byte) opcode)
+                .put((byte) flags)
+                .putInt(seq)
+                .putInt(arg0)
+                .putInt(arg1);
+    }
+
+    /** Secuencia que llevará la próxima trama. */
+    public int nextSeq() {
+        return nextSeq;
+    }
+
+    static void writeFrame(byte[] dst, int off, int opcode, int flags, int seq, int arg0, int arg1) {
+        dst[off] = WireProtocol.MAGIC;
+        dst[off + 1] = WireProtocol.VERSION;
+        dst[off + 2] = (byte) opcode;
+        dst[off + 3] = (byte) flags;
+        putInt(dst, off + 4, seq);
+        putInt(dst, off + 8, arg0);
+        putInt(dst, off + 12, arg1);
+    }
+
+    private static void putInt(byte[] dst, int off, int value) {
+        dst[off] = (byte) (value >>> 24);
+        dst[off + 1] = (byte) (value >>> 16);
+        dst[off + 2] = (byte) (value >>> 8);
+        dst[off + 3] = (byte) value;
+    }
+}
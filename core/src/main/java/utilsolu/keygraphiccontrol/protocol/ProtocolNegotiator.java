@@ -0,0 +1,162 @@
+package utilsolu.keygraphiccontrol.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import utilsolu.keygraphiccontrol.net.Transport;
+
+/**
+ * Negocia el protocolo justo después de abrir la conexión.
+ *
+ * <p>El cliente envía "HELLO,KGC1" como una línea de texto normal. Un listener nuevo responde
+ * "HELLO_OK,&lt;versión&gt;" y a partir de ahí ambos hablan binario. Un listener antiguo no
+ * responde nada (lo ve como un comando desconocido), así que al vencer el timeout seguimos
+ * en texto y todo funciona como antes. Si el listener cierra la conexión durante la negociación
+ * se lanza {@link EOFException}: eso no es un listener de texto sino uno que se cae o reinicia.
+ *
+ * <p>Con binario, el cliente pide además reanudar su sesión (RESUME). La primera vez lo hace tras
+ * el HELLO_OK, con token 0, y recibe un token; en las reconexiones ya sabe que el listener habla
+ * binario y envía el RESUME con su token pegado al HELLO, así la reanudación no añade otra ida y
+ * vuelta.
+ */
+public final class ProtocolNegotiator {
+
+    /** Resultado cuando el servidor no entiende el protocolo binario. */
+    public static final int TEXT_PROTOCOL = 0;
+
+    private static final int MAX_LINE_LENGTH = 64;
+
+    private ProtocolNegotiator() {
+    }
+
+    /** Devuelve la versión binaria acordada o {@link #TEXT_PROTOCOL} si hay que usar texto. */
+    public static int negotiate(Transport transport, int timeoutMs) throws IOException {
+        byte[] hello = (WireProtocol.helloLine() + "\n").getBytes(StandardCharsets.UTF_8);
+        transport.write(new ByteBuffer[]{ByteBuffer.wrap(hello)}, 0, 1);
+        return WireProtocol.parseHelloReply(readLine(transport, timeoutMs));
+    }
+
+    /**
+     * Como {@link #negotiate(Transport, int)}, pidiendo además reanudar la sesión {@code resumeToken}
+     * (0 = sesión nueva). Si el listener reanuda, {@code resumed.opcode} queda en
+     * {@link WireProtocol#OP_RESUMED} con el token en {@code arg0} y la última secuencia fiable
+     * entregada en {@code arg1}; si no (texto o listener sin reanudación), queda en 0.
+     */
+    public static int negotiate(Transport transport, int timeoutMs, int resumeToken, Frame resumed) throws IOException {
+        resumed.set(0, 0, 0, 0, 0);
+        ByteBuffer hello = ByteBuffer.wrap((WireProtocol.helloLine() + "\n").getBytes(StandardCharsets.UTF_8));
+        ByteBuffer resume = ByteBuffer.allocate(WireProtocol.FRAME_SIZE);
+        new FrameEncoder().encode(WireProtocol.OP_RESUME, resumeToken, 0, resume);
+        resume.flip();
+        // Con token el listener ya habló binario en esta sesión: el RESUME va en la misma escritura.
+        boolean pipelined = resumeToken != 0;
+        transport.write(new ByteBuffer[]{hello, resume}, 0, pipelined ? 2 : 1);
+        int version = WireProtocol.parseHelloReply(readLine(transport, timeoutMs));
+        if (version == TEXT_PROTOCOL) {
+            return TEXT_PROTOCOL;
+        }
+        if (!pipelined) {
+            transport.write(new ByteBuffer[]{resume}, 0, 1);
+        }
+        if (!readFrame(transport, timeoutMs, resumed, "RESUMED") || resumed.opcode != WireProtocol.OP_RESUMED) {
+            resumed.set(0, 0, 0, 0, 0);
+        }
+        return version;
+    }
+
+    /**
+     * Reanuda la sesión {@code resumeToken} (0 = nueva) en una conexión que ya negoció el binario
+     * con {@link #negotiate(Transport, int)}: la de reserva del
+     * {@link utilsolu.keygraphiccontrol.net.ConnectionManager}. Las respuestas a sus latidos de
+     * comprobación que aún estén en camino (PONG, CLOCK) se descartan. Devuelve true si el
+     * listener reanudó; {@code resumed} queda como en {@link #negotiate(Transport, int, int, Frame)}.
+     */
+    public static boolean resume(Transport transport, int timeoutMs, int resumeToken, Frame resumed) throws IOException {
+        resumed.set(0, 0, 0, 0, 0);
+        ByteBuffer resume = ByteBuffer.allocate(WireProtocol.FRAME_SIZE);
+        new FrameEncoder().encode(WireProtocol.OP_RESUME, resumeToken, 0, resume);
+        resume.flip();
+        transport.write(new ByteBuffer[]{resume}, 0, 1);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0 || !readFrame(transport, (int) remainingMs, resumed, "RESUMED")) {
+                resumed.set(0, 0, 0, 0, 0);
+                return false;
+            }
+            if (resumed.opcode == WireProtocol.OP_RESUMED) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Solo con protocolo binario y antes de arrancar los latidos: pide el canal UDP de estado.
+     * Devuelve true si el listener lo ofrece; entonces {@code reply.arg0} es el puerto UDP y
+     * {@code reply.arg1} el token que deben llevar los datagramas. Un listener que no lo conoce
+     * no responde y, al vencer el timeout, el estado sigue por TCP.
+     */
+    public static boolean negotiateDatagram(Transport transport, int timeoutMs, Frame reply) throws IOException {
+        ByteBuffer request = ByteBuffer.allocate(WireProtocol.FRAME_SIZE);
+        new FrameEncoder().encode(WireProtocol.OP_DATAGRAM_OPEN, 0, 0, request);
+        request.flip();
+        transport.write(new ByteBuffer[]{request}, 0, 1);
+        // Puerto 0: el listener conoce el canal pero no lo ofrece.
+        return readFrame(transport, timeoutMs, reply, "DATAGRAM_READY")
+                && reply.opcode == WireProtocol.OP_DATAGRAM_READY && reply.arg0 > 0;
+    }
+
+    /** Lee una trama de respuesta. Devuelve false si no llega ningún byte antes del timeout. */
+    private static boolean readFrame(Transport transport, int timeoutMs, Frame reply, String what) throws IOException {
+        ByteBuffer response = ByteBuffer.allocate(WireProtocol.FRAME_SIZE);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (response.hasRemaining()) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0 || transport.read(response, (int) remainingMs) < 0) {
+                if (response.position() > 0) {
+                    // Lo que llegue después ya no estaría alineado con las tramas.
+                    throw new ProtocolException("Respuesta " + what + " incompleta");
+                }
+                return false;
+            }
+        }
+        response.flip();
+        return FrameDecoder.decode(response, reply);
+    }
+
+    /**
+     * Lee una línea byte a byte para no consumir nada de lo que el servidor envíe después.
+     * Devuelve null si no llega completa antes del timeout; lanza si la conexión se cierra.
+     */
+    private static String readLine(Transport transport, int timeoutMs) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        StringBuilder line = new StringBuilder();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (line.length() < MAX_LINE_LENGTH) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0) {
+                return null;
+            }
+            one.clear();
+            int read = transport.read(one, (int) remainingMs);
+            if (read < 0) {
+                throw new EOFException("Conexión cerrada durante la negociación");
+            }
+            if (read == 0) {
+                continue;
+            }
+            char c = (char) one.get(0);
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.append(c);
+            }
+        }
+        return line.toString();
+    }
+}
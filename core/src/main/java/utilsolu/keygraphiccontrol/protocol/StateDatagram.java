@@ -0,0 +1,98 @@
+package utilsolu.keygraphiccontrol.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Datagrama UDP de estado continuo (dirección, zoom, velocidad de zoom, vector analógico). Es una
+ * trama normal de {@link WireProtocol#FRAME_SIZE} bytes seguida del token de sesión y de la hora
+ * de envío:
+ *
+ * <pre>
+ *  0 .. 15          16 .. 19   20 .. 27
+ * +----------------+----------+-------------+
+ * | TRAMA (SEQ...) |  TOKEN   | SENT_NANOS  |
+ * +----------------+----------+-------------+
+ * </pre>
+ *
+ * SEQ es propio del canal UDP y crece con cada datagrama; el receptor descarta los que llegan
+ * con una secuencia no mayor que la última aceptada en el mismo canal de estado (desordenados o
+ * duplicados). SENT_NANOS es el {@code System.nanoTime()} del emisor: no se compara con el reloj
+ * del receptor, solo entre datagramas, para descartar los que llegan con un retraso anómalo.
+ *
+ * <p>Mutable y reutilizable como {@link Frame}: decodificar no crea objetos.
+ */
+public final class StateDatagram {
+
+    public static final int SIZE = WireProtocol.FRAME_SIZE + 4 + 8;
+
+    // Canales de estado: cada uno lleva su propia "última secuencia aceptada".
+    public static final int SLOT_DIRECTION = 0;
+    public static final int SLOT_ZOOM = 1;
+    public static final int SLOT_ANALOG = 2;
+    public static final int SLOT_ZOOM_RATE = 3;
+    public static final int SLOT_COUNT = 4;
+
+    public int opcode;
+    public int seq;
+    public int arg0;
+    public int arg1;
+    public int token;
+    public long sentNanos;
+
+    /** Canal de estado del opcode, o -1 si no viaja por UDP (botones, control). */
+    public static int slotOf(int opcode) {
+        switch (opcode) {
+            case WireProtocol.OP_DIRECTION:
+                return SLOT_DIRECTION;
+            case WireProtocol.OP_ZOOM:
+                return SLOT_ZOOM;
+            case WireProtocol.OP_ANALOG:
+                return SLOT_ANALOG;
+            case WireProtocol.OP_ZOOM_RATE:
+                return SLOT_ZOOM_RATE;
+            default:
+                return -1;
+        }
+    }
+
+    /** Escribe un datagrama completo en {@code dst} a partir de su posición. */
+    public static void encode(int opcode, int seq, int arg0, int arg1, int token, long sentNanos, ByteBuffer dst) {
+        dst.put(WireProtocol.MAGIC)
+                .put(WireProtocol.VERSION)
+                .put((byte) opcode)
+                .put((byte) 0)
+                .putInt(seq)
+                .putInt(arg0)
+                .putInt(arg1)
+                .putInt(token)
+                .putLong(sentNanos);
+    }
+
+    /** Decodifica el datagrama que ocupa todo lo restante de {@code src}. */
+    public StateDatagram decode(ByteBuffer src) throws ProtocolException {
+        if (src.remaining() != SIZE) {
+            throw new ProtocolException("Datagrama de " + src.remaining() + " bytes (se esperaban " + SIZE + ")");
+        }
+        int start = src.position();
+        if (src.get(start) != WireProtocol.MAGIC) {
+            throw new ProtocolException("Magic inválido: 0x" + Integer.toHexString(src.get(start) & 0xFF));
+        }
+        opcode = src.get(start + 2) & 0xFF;
+        if (slotOf(opcode) < 0) {
+            throw new ProtocolException("Opcode 0x" + Integer.toHexString(opcode) + " no es de estado");
+        }
+        seq = src.getInt(start + 4);
+        arg0 = src.getInt(start + 8);
+        arg1 = src.getInt(start + 12);
+        token = src.getInt(start + 16);
+        sentNanos = src.getLong(start + 20);
+        src.position(start + SIZE);
+        return this;
+    }
+
+    /** true si {@code seq} es posterior a {@code last}, con el contador dando la vuelta. */
+    public static boolean isNewer(int seq, int last) {
+        return seq - last > 0;
+    }
+}
@@ -0,0 +1,452 @@
+package utilsolu.keygraphiccontrol.protocol;
+
+/**
+ * Definición del protocolo de cable entre el teléfono y el listener de la PC.
+ *
+ * <p>Formato binario (versión 1), todos los campos en orden de red (big-endian):
+ * <pre>
+ *  0      1        2       3      4 .. 7   8 .. 11   12 .. 15
+ * +------+--------+-------+------+--------+---------+---------+
+ * |MAGIC |VERSION |OPCODE |FLAGS |  SEQ   |  ARG0   |  ARG1   |
+ * +------+--------+-------+------+--------+---------+---------+
+ *  |<-------------- HEADER (8) -------->|<-- PAYLOAD (8) --->|
+ * </pre>
+ *
+ * <p>El protocolo de texto heredado ("TIPO,VALOR\n") sigue disponible como respaldo:
+ * {@link #formatText} produce exactamente las mismas líneas que enviaba la versión anterior.
+ */
+public final class WireProtocol {
+
+    public static final byte MAGIC = 0x4B; // 'K'
+    public static final byte VERSION = 1;
+
+    public static final int HEADER_SIZE = 8;
+    public static final int PAYLOAD_SIZE = 8;
+    public static final int FRAME_SIZE = HEADER_SIZE + PAYLOAD_SIZE;
+
+    /** Longitud máxima de una línea de texto heredada, incluido el '\n'. */
+    public static final int MAX_TEXT_LINE = 48;
+
+    // --- OPCODES ---
+    // Control, solo en binario: el cliente envía PING con ARG0 = número de latido y el listener
+    // responde PONG con el mismo ARG0. El protocolo de texto no tiene latidos.
+    public static final int OP_PING = 0x01;
+    public static final int OP_PONG = 0x02;
+    // Canal UDP opcional para el estado continuo: el cliente pide DATAGRAM_OPEN y el listener
+    // responde DATAGRAM_READY con ARG0 = puerto UDP y ARG1 = token de sesión (ver StateDatagram).
+    public static final int OP_DATAGRAM_OPEN = 0x03;
+    public static final int OP_DATAGRAM_READY = 0x04;
+    // Reanudación de sesión: el cliente envía RESUME con ARG0 = token (0 = sesión nueva) y el
+    // listener responde RESUMED con ARG0 = token vigente y ARG1 = última secuencia fiable que
+    // entregó en esa sesión. ACK (listener) confirma en ARG0 la última secuencia fiable entregada;
+    // el PONG la repite en ARG1.
+    public static final int OP_RESUME = 0x05;
+    public static final int OP_RESUMED = 0x06;
+    public static final int OP_ACK = 0x07;
+    // Reloj: tras cada PONG el listener envía CLOCK con SEQ = número de latido y ARG0/ARG1 = su
+    // nanoTime (mitad alta/baja) al recibir el PING. Con eso el cliente estima el desfase entre
+    // relojes y abre cada lote con TIMESTAMP: ARG0/ARG1 = instante de escritura ya convertido al
+    // reloj del listener, SEQ = incertidumbre de la conversión en µs. Se aplica a los comandos
+    // que le siguen en la conexión.
+    public static final int OP_CLOCK = 0x08;
+    public static final int OP_TIMESTAMP = 0x09;
+    public static final int OP_DIRECTION = 0x10;
+    public static final int OP_ZOOM = 0x11;
+    public static final int OP_ANALOG = 0x12;
+    // Zoom continuo: ARG0 = velocidad en [-ZOOM_RATE_MAX, ZOOM_RATE_MAX], positiva acerca. Solo
+    // se envía cuando cambia; entre un ZOOM_GESTURE START y su STOP el PC mantiene la última.
+    // Los listeners de texto no conocen ninguno de los dos: el escritor envía allí ZOOM,IN/OUT
+    // por cada cambio de velocidad. Sus líneas de texto solo se usan para describirlos (trazas).
+    public static final int OP_ZOOM_RATE = 0x13;
+    public static final int OP_BUTTON = 0x20;
+    // Tecla del PC asignada por un perfil de mapeo: ARG0 = código de tecla, ARG1 = KEY_*.
+    public static final int OP_KEY = 0x21;
+    // Inicio y fin de un gesto de zoom (ARG0 = ZOOM_START o ZOOM_STOP); el STOP implica velocidad 0.
+    public static final int OP_ZOOM_GESTURE = 0x22;
+    // Macro de teclas: MACRO con ARG0 = número de pasos y ARG1 = id de la macro, seguido sin nada
+    // en medio de sus pasos MACRO_STEP: ARG0 = código de tecla, ARG1 = KEY_* en el byte bajo y la
+    // pausa previa en ms en el resto ({@link #macroStepArg1}). Solo el MACRO es fiable; el
+    // listener espera a tener todos los pasos y los ejecuta como una unidad, con sus pausas.
+    // En la cola de salida el MACRO lleva ARG0 = id; el escritor añade los pasos precodificados.
+    public static final int OP_MACRO = 0x23;
+    public static final int OP_MACRO_STEP = 0x24;
+
+    // --- FLAGS ---
+    // Comando fiable de una sesión reanudable: SEQ es su secuencia en la sesión (sigue entre
+    // conexiones, empieza en 1) y el listener descarta las que ya entregó.
+    public static final int FLAG_RELIABLE = 0x01;
+
+    // --- VALORES DE DIRECCIÓN (ARG0 de OP_DIRECTION) ---
+    public static final int DIR_STOP = 0;
+    public static final int DIR_UP = 1;
+    public static final int DIR_DOWN = 2;
+    public static final int DIR_LEFT = 3;
+    public static final int DIR_RIGHT = 4;
+
+    // --- VALORES DE ZOOM (ARG0 de OP_ZOOM) ---
+    public static final int ZOOM_IN = 1;
+    public static final int ZOOM_OUT = 2;
+
+    // --- ZOOM CONTINUO (ARG0 de OP_ZOOM_RATE y OP_ZOOM_GESTURE) ---
+    public static final int ZOOM_RATE_MAX = 1000;
+    public static final int ZOOM_START = 1;
+    public static final int ZOOM_STOP = 2;
+
+    // --- VECTOR ANALÓGICO (ARG0 = x, ARG1 = y, cuantizados en [-ANALOG_MAX, ANALOG_MAX]) ---
+    // Eje Y hacia abajo, igual que la pantalla.
+    public static final int ANALOG_MAX = 127;
+
+    // --- COLUMNAS DE BOTONES (ARG0 de OP_BUTTON, ARG1 = índice desde 1) ---
+    public static final int SIDE_LEFT = 1;
+    public static final int SIDE_RIGHT = 2;
+
+    // --- ACCIÓN DE TECLA (ARG1 de OP_KEY) ---
+    public static final int KEY_TAP = 0;
+    public static final int KEY_DOWN = 1;
+    public static final int KEY_UP = 2;
+
+    // --- MACROS ---
+    public static final int MACRO_MAX_STEPS = 16;
+    public static final int MACRO_MAX_DELAY_MS = 5000;
+
+    // --- NEGOCIACIÓN (siempre en texto, para no romper listeners antiguos) ---
+    public static final String HELLO = "HELLO";
+    public static final String HELLO_OK = "HELLO_OK";
+    public static final String CLIENT_ID = "KGC";
+
+    private static final String[] DIRECTION_NAMES = {"STOP", "UP", "DOWN", "LEFT", "RIGHT"};
+    private static final String[] ZOOM_NAMES = {null, "IN", "OUT"};
+    private static final String[] SIDE_NAMES = {null, "IZQUIERDA", "DERECHA"};
+    private static final String[] KEY_ACTION_NAMES = {"TAP", "DOWN", "UP"};
+    private static final String[] ZOOM_GESTURE_NAMES = {null, "START", "STOP"};
+
+    // Versiones ASCII precodificadas para formatear sin crear Strings en el camino caliente.
+    private static final byte[][] DIRECTION_LINES = asciiPrefixed("DIRECTION,", DIRECTION_NAMES);
+    private static final byte[][] ZOOM_LINES = asciiPrefixed("ZOOM,", ZOOM_NAMES);
+    private static final byte[][] BUTTON_PREFIXES = asciiPrefixed("BUTTON,BTN_", SIDE_NAMES, "_");
+    private static final byte[] ANALOG_PREFIX = ascii("ANALOG,");
+    private static final byte[] KEY_PREFIX = ascii("KEY,");
+    private static final byte[][] KEY_ACTION_SUFFIXES = asciiPrefixed(";", KEY_ACTION_NAMES);
+    private static final byte[] ZOOM_RATE_PREFIX = ascii("ZOOM_RATE,");
+    private static final byte[][] ZOOM_GESTURE_LINES = asciiPrefixed("ZOOM_GESTURE,", ZOOM_GESTURE_NAMES);
+
+    private WireProtocol() {
+    }
+
+    /** Línea de saludo que el cliente envía tras conectar: "HELLO,KGC1". */
+    public static String helloLine() {
+        return HELLO + "," + CLIENT_ID + VERSION;
+    }
+
+    /**
+     * Lado del servidor: versión binaria que anuncia una línea "HELLO,KGC&lt;n&gt;", o 0 si la línea
+     * no es un saludo válido.
+     */
+    public static int parseHello(String line) {
+        String prefix = HELLO + "," + CLIENT_ID;
+        if (line == null || !line.startsWith(prefix)) {
+            return 0;
+        }
+        try {
+            int version = Integer.parseInt(line.substring(prefix.length()).trim());
+            return version >= 1 ? version : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** Respuesta del servidor que acepta la versión binaria {@code version}: "HELLO_OK,&lt;n&gt;". */
+    public static String helloReplyLine(int version) {
+        return HELLO_OK + "," + version;
+    }
+
+    /**
+     * Interpreta la respuesta del servidor al saludo. Devuelve la versión binaria aceptada
+     * o 0 si la línea no es un HELLO_OK válido (listener antiguo => protocolo de texto).
+     */
+    public static int parseHelloReply(String line) {
+        if (line == null || !line.startsWith(HELLO_OK + ",")) {
+            return 0;
+        }
+        try {
+            int version = Integer.parseInt(line.substring(HELLO_OK.length() + 1).trim());
+            return version >= 1 && version <= VERSION ? version : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- PROTOCOLO DE TEXTO (RESPALDO) ---
+    // -------------------------------------------------------------------------
+
+    /** Convierte un comando a la línea de texto heredada (sin el salto de línea final). */
+    public static String formatText(int opcode, int arg0, int arg1) {
+        switch (opcode) {
+            case OP_DIRECTION:
+                return "DIRECTION," + nameAt(DIRECTION_NAMES, arg0, "direction");
+            case OP_ZOOM:
+                return "ZOOM," + nameAt(ZOOM_NAMES, arg0, "zoom");
+            case OP_ANALOG:
+                return "ANALOG," + arg0 + ";" + arg1;
+            case OP_BUTTON:
+                return "BUTTON,BTN_" + nameAt(SIDE_NAMES, arg0, "side") + "_" + arg1;
+            case OP_KEY:
+                return "KEY," + arg0 + ";" + nameAt(KEY_ACTION_NAMES, arg1, "key action");
+            case OP_ZOOM_RATE:
+                return "ZOOM_RATE," + arg0;
+            case OP_ZOOM_GESTURE:
+                return "ZOOM_GESTURE," + nameAt(ZOOM_GESTURE_NAMES, arg0, "zoom gesture");
+            default:
+                throw new IllegalArgumentException("Opcode desconocido: " + opcode);
+        }
+    }
+
+    /**
+     * Igual que {@link #formatText(int, int, int)} pero escribe los bytes ASCII de la línea,
+     * incluido el '\n', en {@code dst[offset..]} sin reservar memoria. Devuelve los bytes escritos
+     * (como máximo {@link #MAX_TEXT_LINE}).
+     */
+    public static int formatText(int opcode, int arg0, int arg1, byte[] dst, int offset) {
+        int pos = offset;
+        switch (opcode) {
+            case OP_DIRECTION:
+                pos = put(dst, pos, lineAt(DIRECTION_LINES, arg0, "direction"));
+                break;
+            case OP_ZOOM:
+                pos = put(dst, pos, lineAt(ZOOM_LINES, arg0, "zoom"));
+                break;
+            case OP_ANALOG:
+                pos = put(dst, pos, ANALOG_PREFIX);
+                pos = putDecimal(dst, pos, arg0);
+                dst[pos++] = ';';
+                pos = putDecimal(dst, pos, arg1);
+                break;
+            case OP_BUTTON:
+                pos = put(dst, pos, lineAt(BUTTON_PREFIXES, arg0, "side"));
+                pos = putDecimal(dst, pos, arg1);
+                break;
+            case OP_KEY:
+                byte[] action = lineAt(KEY_ACTION_SUFFIXES, arg1, "key action");
+                pos = put(dst, pos, KEY_PREFIX);
+                pos = putDecimal(dst, pos, arg0);
+                pos = put(dst, pos, action);
+                break;
+            case OP_ZOOM_RATE:
+                pos = put(dst, pos, ZOOM_RATE_PREFIX);
+                pos = putDecimal(dst, pos, arg0);
+                break;
+            case OP_ZOOM_GESTURE:
+                pos = put(dst, pos, lineAt(ZOOM_GESTURE_LINES, arg0, "zoom gesture"));
+                break;
+            default:
+                throw new IllegalArgumentException("Opcode desconocido: " + opcode);
+        }
+        dst[pos++] = '\n';
+        return pos - offset;
+    }
+
+    /**
+     * Interpreta una línea de texto heredada. Devuelve false si la línea no es un comando conocido;
+     * en ese caso {@code out} queda sin modificar.
+     */
+    public static boolean parseText(String line, Frame out) {
+        int comma = line.indexOf(',');
+        if (comma < 0) {
+            return false;
+        }
+        String type = line.substring(0, comma);
+        String value = line.substring(comma + 1).trim();
+
+        int opcode;
+        int arg0;
+        int arg1 = 0;
+        if (type.equals("DIRECTION")) {
+            opcode = OP_DIRECTION;
+            arg0 = indexOf(DIRECTION_NAMES, value);
+        } else if (type.equals("ZOOM")) {
+            opcode = OP_ZOOM;
+            arg0 = indexOf(ZOOM_NAMES, value);
+        } else if (type.equals("ANALOG")) {
+            // x;y
+            int separator = value.indexOf(';');
+            if (separator < 0) {
+                return false;
+            }
+            opcode = OP_ANALOG;
+            try {
+                arg0 = Integer.parseInt(value.substring(0, separator));
+                arg1 = Integer.parseInt(value.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (Math.abs(arg0) > ANALOG_MAX || Math.abs(arg1) > ANALOG_MAX) {
+                return false;
+            }
+            out.set(opcode, 0, 0, arg0, arg1);
+            return true;
+        } else if (type.equals("ZOOM_RATE")) {
+            try {
+                arg0 = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (Math.abs(arg0) > ZOOM_RATE_MAX) {
+                return false;
+            }
+            out.set(OP_ZOOM_RATE, 0, 0, arg0, 0);
+            return true;
+        } else if (type.equals("ZOOM_GESTURE")) {
+            opcode = OP_ZOOM_GESTURE;
+            arg0 = indexOf(ZOOM_GESTURE_NAMES, value);
+        } else if (type.equals("BUTTON")) {
+            // BTN_<LADO>_<n>
+            int last = value.lastIndexOf('_');
+            if (!value.startsWith("BTN_") || last <= 4) {
+                return false;
+            }
+            opcode = OP_BUTTON;
+            arg0 = indexOf(SIDE_NAMES, value.substring(4, last));
+            try {
+                arg1 = Integer.parseInt(value.substring(last + 1));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        } else if (type.equals("KEY")) {
+            // <código>;<TAP|DOWN|UP>
+            int separator = value.indexOf(';');
+            if (separator < 0) {
+                return false;
+            }
+            opcode = OP_KEY;
+            try {
+                arg0 = Integer.parseInt(value.substring(0, separator));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            arg1 = indexOf(KEY_ACTION_NAMES, value.substring(separator + 1));
+            if (arg1 < 0) {
+                return false;
+            }
+        } else {
+            return false;
+        }
+        if (arg0 < 0) {
+            return false;
+        }
+        out.set(opcode, 0, 0, arg0, arg1);
+        return true;
+    }
+
+    /** ARG1 de un MACRO_STEP: acción {@code KEY_*} y pausa previa en ms. */
+    public static int macroStepArg1(int action, int delayMs) {
+        return action | delayMs << 8;
+    }
+
+    public static int macroStepAction(int arg1) {
+        return arg1 & 0xFF;
+    }
+
+    public static int macroStepDelayMs(int arg1) {
+        return arg1 >>> 8;
+    }
+
+    /** Mitad alta de un instante de 64 bits repartido en ARG0/ARG1 (CLOCK, TIMESTAMP). */
+    public static int highBits(long nanos) {
+        return (int) (nanos >>> 32);
+    }
+
+    public static int lowBits(long nanos) {
+        return (int) nanos;
+    }
+
+    /** Instante de 64 bits a partir de ARG0 (mitad alta) y ARG1 (mitad baja). */
+    public static long joinBits(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    /** Dirección ({@code DIR_*}) con el nombre del protocolo de texto ("UP", ...), o -1. */
+    public static int directionOf(String name) {
+        return indexOf(DIRECTION_NAMES, name);
+    }
+
+    /** Columna ({@code SIDE_*}) con el nombre del protocolo de texto ("IZQUIERDA", ...), o -1. */
+    public static int sideOf(String name) {
+        return indexOf(SIDE_NAMES, name);
+    }
+
+    public static String sideName(int side) {
+        return nameAt(SIDE_NAMES, side, "side");
+    }
+
+    public static String directionName(int direction) {
+        return nameAt(DIRECTION_NAMES, direction, "direction");
+    }
+
+    private static String nameAt(String[] names, int index, String what) {
+        if (index < 0 || index >= names.length || names[index] == null) {
+            throw new IllegalArgumentException("Valor de " + what + " inválido: " + index);
+        }
+        return names[index];
+    }
+
+    private static byte[] lineAt(byte[][] lines, int index, String what) {
+        if (index < 0 || index >= lines.length || lines[index] == null) {
+            throw new IllegalArgumentException("Valor de " + what + " inválido: " + index);
+        }
+        return lines[index];
+    }
+
+    private static int put(byte[] dst, int pos, byte[] src) {
+        System.arraycopy(src, 0, dst, pos, src.length);
+        return pos + src.length;
+    }
+
+    private static int putDecimal(byte[] dst, int pos, int value) {
+        long v = value;
+        if (v < 0) {
+            dst[pos++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) {
+            digits++;
+        }
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            dst[i] = (byte) ('0' + (v % 10));
+            v /= 10;
+        }
+        return pos + digits;
+    }
+
+    private static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+
+    private static byte[][] asciiPrefixed(String prefix, String[] names) {
+        return asciiPrefixed(prefix, names, "");
+    }
+
+    private static byte[][] asciiPrefixed(String prefix, String[] names, String suffix) {
+        byte[][] lines = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null) {
+                lines[i] = ascii(prefix + names[i] + suffix);
+            }
+        }
+        return lines;
+    }
+
+    private static int indexOf(String[] names, String value) {
+        for (int i = 0; i < names.length; i++) {
+            if (value.equals(names[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,52 @@
+package utilsolu.keygraphiccontrol.replay;
+
+import java.util.Locale;
+
+/** Resultado de una reproducción con {@link SessionReplayer}. Las latencias van en el {@code LatencyTracker} del escritor. */
+public final class ReplayReport {
+
+    public final long commands;
+    public final long passes;
+    public final long elapsedNanos;
+    /** Ofertas rechazadas por la cola de botones llena y reintentadas (solo a velocidad máxima). */
+    public final long queueFullRetries;
+    /** Mayor retraso respecto al horario de la grabación (0 a velocidad máxima). */
+    public final long maxLagNanos;
+    public final long heapStartBytes;
+    public final long heapPeakBytes;
+    public final long heapEndBytes;
+
+    ReplayReport(long commands, long passes, long elapsedNanos, long queueFullRetries, long maxLagNanos,
+                 long heapStartBytes, long heapPeakBytes, long heapEndBytes) {
+        this.commands = commands;
+        this.passes = passes;
+        this.elapsedNanos = elapsedNanos;
+        this.queueFullRetries = queueFullRetries;
+        this.maxLagNanos = maxLagNanos;
+        this.heapStartBytes = heapStartBytes;
+        this.heapPeakBytes = heapPeakBytes;
+        this.heapEndBytes = heapEndBytes;
+    }
+
+    public double commandsPerSecond() {
+        return elapsedNanos == 0 ? 0 : commands * 1e9 / elapsedNanos;
+    }
+
+    /** Crecimiento del heap tras un GC al final respecto a otro al principio. */
+    public long heapGrowthBytes() {
+        return heapEndBytes - heapStartBytes;
+    }
+
+    public String formatText() {
+        return String.format(Locale.US,
+                "%d comandos en %.1f s (%d pasadas): %.0f cmd/s, retraso máx %.2f ms, reintentos por cola llena %d%n"
+                        + "heap: inicio %d KiB, pico %d KiB, final %d KiB (crecimiento %+d KiB)%n",
+                commands, elapsedNanos / 1e9, passes, commandsPerSecond(), maxLagNanos / 1e6, queueFullRetries,
+                heapStartBytes / 1024, heapPeakBytes / 1024, heapEndBytes / 1024, heapGrowthBytes() / 1024);
+    }
+
+    @Override
+    public String toString() {
+        return formatText();
+    }
+}
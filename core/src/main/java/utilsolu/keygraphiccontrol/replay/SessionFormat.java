@@ -0,0 +1,86 @@
+package utilsolu.keygraphiccontrol.replay;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Formato binario de las grabaciones de sesión ({@link SessionRecorder} / {@link SessionReader}).
+ *
+ * <pre>
+ *   cabecera (16 bytes, big-endian)
+ *     0  int   MAGIC "KGSR"
+ *     4  short VERSION
+ *     6  short reservado (0)
+ *     8  long  hora de pared del inicio (ms desde epoch), solo informativa
+ *
+ *   registro (3..21 bytes)
+ *     varint         nanos desde el registro anterior (sin signo; el primero, desde 0)
+ *     byte           opcode
+ *     varint zigzag  arg0
+ *     varint zigzag  arg1
+ * </pre>
+ *
+ * Los registros solo se añaden al final: una grabación cortada a medias (app cerrada, disco
+ * lleno) sigue siendo legible hasta el último registro completo.
+ */
+public final class SessionFormat {
+
+    public static final int MAGIC = 0x4B475352;
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    /** Tamaño máximo de un registro: varint de 64 bits + opcode + dos varint de 32 bits. */
+    public static final int MAX_RECORD_SIZE = 10 + 1 + 5 + 5;
+
+    private SessionFormat() {
+    }
+
+    static void writeHeader(ByteBuffer out, long startWallMillis) {
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+        out.putShort((short) 0);
+        out.putLong(startWallMillis);
+    }
+
+    static void writeRecord(ByteBuffer out, long deltaNanos, int opcode, int arg0, int arg1) {
+        putVarLong(out, deltaNanos);
+        out.put((byte) opcode);
+        putVarInt(out, (arg0 << 1) ^ (arg0 >> 31));
+        putVarInt(out, (arg1 << 1) ^ (arg1 >> 31));
+    }
+
+    private static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static void putVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /** Lee un varint de hasta {@code maxBytes} bytes; -1 si el buffer se acaba antes. */
+    static long getVarLong(ByteBuffer in, int maxBytes) {
+        long value = 0;
+        for (int shift = 0, i = 0; i < maxBytes; i++, shift += 7) {
+            if (!in.hasRemaining()) {
+                return -1;
+            }
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    static int unzigzag(long encoded) {
+        int value = (int) encoded;
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
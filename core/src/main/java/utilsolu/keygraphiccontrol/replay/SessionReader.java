@@ -0,0 +1,136 @@
+package utilsolu.keygraphiccontrol.replay;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Lee secuencialmente una grabación {@link SessionFormat} con un buffer fijo, sin cargarla entera
+ * en memoria (una sesión de horas ocupa decenas de MB).
+ *
+ * <pre>
+ *   while (reader.next()) {
+ *       use(reader.offsetNanos(), reader.opcode(), reader.arg0(), reader.arg1());
+ *   }
+ * </pre>
+ *
+ * Un último registro incompleto (grabación cortada) se ignora y se anota en {@link #truncated()}.
+ */
+public final class SessionReader implements Closeable {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final long startWallMillis;
+    private boolean eof;
+    private boolean truncated;
+
+    private long offsetNanos;
+    private int opcode;
+    private int arg0;
+    private int arg1;
+
+    public SessionReader(File file) throws IOException {
+        channel = new FileInputStream(file).getChannel();
+        buffer.limit(0);
+        try {
+            fill();
+            if (buffer.remaining() < SessionFormat.HEADER_SIZE || buffer.getInt() != SessionFormat.MAGIC) {
+                throw new IOException("No es una grabación de sesión: " + file);
+            }
+            short version = buffer.getShort();
+            if (version != SessionFormat.VERSION) {
+                throw new IOException("Versión de grabación no soportada: " + version);
+            }
+            buffer.getShort();
+            startWallMillis = buffer.getLong();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Vuelve al primer registro (para reproducir en bucle). */
+    public void rewind() throws IOException {
+        channel.position(SessionFormat.HEADER_SIZE);
+        buffer.clear().flip();
+        eof = false;
+        truncated = false;
+        offsetNanos = 0;
+    }
+
+    /** Avanza al siguiente registro. Devuelve false al final de la grabación. */
+    public boolean next() throws IOException {
+        if (buffer.remaining() < SessionFormat.MAX_RECORD_SIZE && !eof) {
+            fill();
+        }
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
+        int start = buffer.position();
+        long delta = SessionFormat.getVarLong(buffer, 10);
+        long op = delta < 0 ? -1 : (buffer.hasRemaining() ? buffer.get() & 0xFF : -1);
+        long a0 = op < 0 ? -1 : SessionFormat.getVarLong(buffer, 5);
+        long a1 = a0 < 0 ? -1 : SessionFormat.getVarLong(buffer, 5);
+        if (a1 < 0) {
+            if (buffer.limit() - start >= SessionFormat.MAX_RECORD_SIZE) {
+                throw new IOException("Grabación corrupta en el byte " + (channel.position() - buffer.limit() + start));
+            }
+            // Solo puede faltar el final del fichero: último registro a medias.
+            truncated = true;
+            buffer.position(buffer.limit());
+            return false;
+        }
+        offsetNanos += delta;
+        opcode = (int) op;
+        arg0 = SessionFormat.unzigzag(a0);
+        arg1 = SessionFormat.unzigzag(a1);
+        return true;
+    }
+
+    private void fill() throws IOException {
+        buffer.compact();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                eof = true;
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    /** Nanos desde el primer registro de la grabación. */
+    public long offsetNanos() {
+        return offsetNanos;
+    }
+
+    public int opcode() {
+        return opcode;
+    }
+
+    public int arg0() {
+        return arg0;
+    }
+
+    public int arg1() {
+        return arg1;
+    }
+
+    public long startWallMillis() {
+        return startWallMillis;
+    }
+
+    /** true si la grabación acababa en un registro incompleto. */
+    public boolean truncated() {
+        return truncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
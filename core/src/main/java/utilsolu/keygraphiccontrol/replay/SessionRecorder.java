@@ -0,0 +1,196 @@
+package utilsolu.keygraphiccontrol.replay;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import utilsolu.keygraphiccontrol.net.CommandRing;
+
+/**
+ * Graba el flujo de comandos que produce la UI en un fichero {@link SessionFormat}, para
+ * reproducirlo después con {@link SessionReplayer}.
+ *
+ * <p>Los productores (hilo de UI para botones, hilo de entrada para el joystick) solo copian el
+ * comando a una {@link CommandRing} propia ({@link #record}, sin reservas ni E/S); un hilo "session-recorder" la vacía cada {@link #FLUSH_INTERVAL_MS} y escribe
+ * por bloques. Si el disco no da abasto la cola se llena y los comandos se cuentan como perdidos
+ * en lugar de frenar la UI.
+ *
+ * <p>Las marcas de tiempo son las del evento ({@code inputNanos}). Clics y eventos táctiles usan
+ * relojes monótonos que pueden cruzarse unos microsegundos: se fuerzan a no retroceder.
+ */
+public final class SessionRecorder implements Closeable {
+
+    public static final int DEFAULT_RING_CAPACITY = 4096;
+    static final long FLUSH_INTERVAL_MS = 100;
+    private static final int BLOCK_BYTES = 64 * 1024;
+
+    private final CommandRing ring;
+    // La cola es de un productor: los dos hilos que graban se turnan con este cerrojo, que nunca
+    // se retiene más que lo que dura un offer.
+    private final Object producerLock = new Object();
+    private final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_BYTES);
+    private final CommandRing.Handler encoder = this::encode;
+    private static final CommandRing.Handler DISCARD = (opcode, arg0, arg1, inputNanos, enqueueNanos) -> { };
+
+    private volatile boolean recording;
+    private Thread thread;
+    private FileChannel file;
+    private File target;
+    private IOException failure;
+
+    // Solo los toca el hilo grabador.
+    private long lastNanos;
+    private boolean first;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    public SessionRecorder(int ringCapacity) {
+        ring = new CommandRing(ringCapacity);
+    }
+
+    /** Empieza a grabar en {@code file} (se sobrescribe si existe). */
+    public synchronized void start(File file) throws IOException {
+        if (recording) {
+            throw new IllegalStateException("Ya se está grabando en " + target);
+        }
+        this.file = new FileOutputStream(file).getChannel();
+        target = file;
+        // Restos de la grabación anterior (llegados justo al pararla).
+        while (!ring.isEmpty()) {
+            ring.drain(DISCARD, Integer.MAX_VALUE);
+        }
+        failure = null;
+        first = true;
+        recorded.set(0);
+        bytesWritten.set(0);
+        block.clear();
+        SessionFormat.writeHeader(block, System.currentTimeMillis());
+        recording = true;
+        thread = new Thread(this::loop, "session-recorder");
+        thread.start();
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /** Fichero de la grabación en curso o de la última. */
+    public synchronized File file() {
+        return target;
+    }
+
+    /**
+     * Productor: anota un comando si hay una grabación en curso. Devuelve false si no se grabó
+     * (sin grabación o cola llena).
+     */
+    public boolean record(int opcode, int arg0, int arg1, long inputNanos) {
+        if (!recording) {
+            return false;
+        }
+        synchronized (producerLock) {
+            return ring.offer(opcode, arg0, arg1, inputNanos);
+        }
+    }
+
+    /**
+     * Detiene la grabación y cierra el fichero tras escribir lo pendiente. Lanza el error de
+     * disco que hubiera cortado la grabación, si lo hubo.
+     */
+    public synchronized void stop() throws IOException {
+        if (thread == null) {
+            return;
+        }
+        recording = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+    }
+
+    public long recordedCount() {
+        return recorded.get();
+    }
+
+    /** Comandos que no cupieron en la cola mientras el disco iba atrasado. */
+    public long droppedCount() {
+        return ring.rejectedCount();
+    }
+
+    public long bytesWritten() {
+        return bytesWritten.get();
+    }
+
+    private void loop() {
+        try {
+            while (recording) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS));
+                flushRing();
+            }
+            flushRing();
+        } catch (IOException e) {
+            failure = e;
+            recording = false;
+        } finally {
+            try {
+                file.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private void flushRing() throws IOException {
+        while (!ring.isEmpty()) {
+            ring.drain(encoder, Integer.MAX_VALUE);
+        }
+        writeBlock();
+    }
+
+    private void encode(int opcode, int arg0, int arg1, long inputNanos, long enqueueNanos) {
+        if (first) {
+            first = false;
+            lastNanos = inputNanos;
+        }
+        long delta = Math.max(0, inputNanos - lastNanos);
+        lastNanos += delta;
+        if (block.remaining() < SessionFormat.MAX_RECORD_SIZE) {
+            try {
+                writeBlock();
+            } catch (IOException e) {
+                // Se relanza desde flushRing al ver el bloque sin vaciar.
+                failure = e;
+                return;
+            }
+        }
+        SessionFormat.writeRecord(block, delta, opcode, arg0, arg1);
+        recorded.incrementAndGet();
+    }
+
+    private void writeBlock() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        block.flip();
+        while (block.hasRemaining()) {
+            bytesWritten.addAndGet(file.write(block));
+        }
+        block.clear();
+    }
+}
@@ -0,0 +1,137 @@
+package utilsolu.keygraphiccontrol.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import utilsolu.keygraphiccontrol.net.CommandWriter;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Reproduce una grabación de {@link SessionRecorder} contra un {@link CommandWriter} real: mismos
+ * comandos, mismo orden y, salvo a {@link #MAX_SPEED}, el mismo ritmo escalado por la velocidad.
+ * Sirve para pruebas de carga y de resistencia sin teléfono: en bucle durante horas contra el
+ * receptor de loopback, midiendo ritmo conseguido, latencias y crecimiento del heap.
+ *
+ * <p>El hilo que llama a {@link #replay} hace de hilo de UI: debe ser el único productor del
+ * escritor mientras dura la reproducción.
+ */
+public final class SessionReplayer {
+
+    /** Sin pausas entre comandos: mide el techo del camino de envío. */
+    public static final double MAX_SPEED = 0;
+
+    private static final int HEAP_SAMPLE_INTERVAL = 4096;
+    private static final long QUEUE_FULL_BACKOFF_NANOS = 50_000;
+
+    private final CommandWriter writer;
+    private final AtomicLong replayed = new AtomicLong();
+    private volatile boolean cancelled;
+
+    public SessionReplayer(CommandWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Reproduce {@code recording} a {@code speed}x (1 = tiempo real). Con {@code durationNanos} 0
+     * hace una sola pasada; si no, repite la grabación hasta agotar ese tiempo.
+     *
+     * <p>La cola de botones es fiable: si se llena (solo ocurre a velocidad máxima o con el PC
+     * atascado) se espera y se reintenta en lugar de perder el comando.
+     */
+    public ReplayReport replay(File recording, double speed, long durationNanos) throws IOException {
+        cancelled = false;
+        replayed.set(0);
+        Runtime runtime = Runtime.getRuntime();
+        long heapStart = usedHeapAfterGc(runtime);
+        long heapPeak = heapStart;
+        long commands = 0;
+        long passes = 0;
+        long retries = 0;
+        long maxLag = 0;
+
+        long start = System.nanoTime();
+        long deadline = durationNanos > 0 ? start + durationNanos : Long.MAX_VALUE;
+        try (SessionReader reader = new SessionReader(recording)) {
+            long passStart = start;
+            long passCommands = 0;
+            replay:
+            while (!cancelled) {
+                if (!reader.next()) {
+                    passes++;
+                    if (durationNanos <= 0 || passCommands == 0 || System.nanoTime() >= deadline) {
+                        break;
+                    }
+                    reader.rewind();
+                    passStart = System.nanoTime();
+                    passCommands = 0;
+                    continue;
+                }
+                int opcode = reader.opcode();
+                if (!isReplayable(opcode)) {
+                    continue;
+                }
+                if (speed > 0) {
+                    long due = passStart + (long) (reader.offsetNanos() / speed);
+                    long now = System.nanoTime();
+                    if (due > now) {
+                        parkUntil(due);
+                    } else {
+                        maxLag = Math.max(maxLag, now - due);
+                    }
+                }
+                if (System.nanoTime() >= deadline) {
+                    break;
+                }
+                long inputNanos = System.nanoTime();
+                while (!writer.submit(opcode, reader.arg0(), reader.arg1(), inputNanos)) {
+                    retries++;
+                    if (cancelled) {
+                        break replay;
+                    }
+                    LockSupport.parkNanos(QUEUE_FULL_BACKOFF_NANOS);
+                }
+                commands++;
+                passCommands++;
+                replayed.lazySet(commands);
+                if (commands % HEAP_SAMPLE_INTERVAL == 0) {
+                    heapPeak = Math.max(heapPeak, runtime.totalMemory() - runtime.freeMemory());
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long heapEnd = usedHeapAfterGc(runtime);
+        return new ReplayReport(commands, passes, elapsed, retries, maxLag, heapStart,
+                Math.max(heapPeak, heapEnd), heapEnd);
+    }
+
+    /** Detiene una reproducción en curso desde otro hilo; {@link #replay} vuelve con lo hecho. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /** Comandos entregados al escritor en la reproducción en curso (para informes de progreso). */
+    public long replayedCount() {
+        return replayed.get();
+    }
+
+    // Los latidos no se graban; cualquier otro opcode desconocido viene de una versión más nueva.
+    private static boolean isReplayable(int opcode) {
+        return opcode == WireProtocol.OP_BUTTON || opcode == WireProtocol.OP_KEY || opcode == WireProtocol.OP_DIRECTION
+                || opcode == WireProtocol.OP_ZOOM || opcode == WireProtocol.OP_ANALOG
+                || opcode == WireProtocol.OP_ZOOM_RATE || opcode == WireProtocol.OP_ZOOM_GESTURE;
+    }
+
+    private static void parkUntil(long dueNanos) {
+        long remaining;
+        while ((remaining = dueNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static long usedHeapAfterGc(Runtime runtime) {
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,134 @@
+package utilsolu.keygraphiccontrol.trace;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Catálogo de eventos de la traza. Cada evento es un entero con una plantilla que solo se usa
+ * al volcar ({@link TraceRing#dump}); al grabar no se formatea nada.
+ *
+ * <p>En las plantillas, {@code %d} toma el siguiente argumento como entero, {@code %s} como
+ * nota ({@link TraceRing#note}) y {@code %c} toma tres (opcode, arg0, arg1) y los muestra como
+ * la línea de texto del comando.
+ */
+public final class TraceEvent {
+
+    // --- ENVÍO ---
+    public static final int COMMAND = 1;
+    public static final int SEND_WITHOUT_CONNECTION = 2;
+    public static final int BUTTON_QUEUE_FULL = 3;
+    public static final int WRITE_FAILED = 4;
+
+    // --- CONEXIÓN ---
+    public static final int CONNECT_ATTEMPT = 5;
+    public static final int CONNECT_OK = 6;
+    public static final int CONNECT_FAILED = 7;
+    public static final int PEER_DEAD = 8;
+    public static final int RECONNECT_SCHEDULED = 9;
+    public static final int RECONNECT_MANUAL = 10;
+    public static final int TRANSPORT_CLOSED = 11;
+    public static final int WRITER_STATS = 12;
+    public static final int DATAGRAM_CLOSED = 13;
+    public static final int USB_CONNECTED = 14;
+    public static final int USB_DISCONNECTED = 15;
+    public static final int USB_PRESENT_AT_START = 16;
+
+    // --- UI ---
+    public static final int MODE_SELECTED = 17;
+    public static final int ZOOM_ON = 18;
+    public static final int ZOOM_OFF = 19;
+
+    // --- GRABACIÓN DE SESIÓN ---
+    public static final int RECORDING_STARTED = 20;
+    public static final int RECORDING_SAVED = 21;
+    public static final int RECORDING_FAILED = 22;
+    public static final int TRACE_DUMP_FAILED = 23;
+
+    // --- MAPEO ---
+    public static final int KEYMAP_LOADED = 24;
+    public static final int KEYMAP_INVALID = 25;
+    public static final int SESSION_RESUMED = 26;
+
+    // --- CONTROL DE RITMO ---
+    public static final int SEND_RATE_DOWN = 27;
+
+    // --- ARRANQUE ---
+    public static final int STARTUP_PHASE = 28;
+
+    // --- CONEXIÓN DE RESERVA ---
+    public static final int LINK_READY = 29;
+
+    private static final String[] TEMPLATES = new String[30];
+
+    static {
+        TEMPLATES[COMMAND] = "comando %c";
+        TEMPLATES[SEND_WITHOUT_CONNECTION] = "envío sin conexión: se intenta conectar";
+        TEMPLATES[BUTTON_QUEUE_FULL] = "cola de botones llena (%d pendientes): reconectando";
+        TEMPLATES[WRITE_FAILED] = "fallo al enviar: %s";
+        TEMPLATES[CONNECT_ATTEMPT] = "intento de conexión %d";
+        TEMPLATES[CONNECT_OK] = "conectado: protocolo %d, puerto UDP %d";
+        TEMPLATES[CONNECT_FAILED] = "fallo al conectar: %s";
+        TEMPLATES[PEER_DEAD] = "PC sin respuesta: %s";
+        TEMPLATES[RECONNECT_SCHEDULED] = "reintento programado en %d ms";
+        TEMPLATES[RECONNECT_MANUAL] = "reconexión manual";
+        TEMPLATES[TRANSPORT_CLOSED] = "transporte cerrado: %d KiB, %d esperas por buffer lleno";
+        TEMPLATES[WRITER_STATS] = "escritor: %d comandos en %d escrituras, %d estados descartados";
+        TEMPLATES[DATAGRAM_CLOSED] = "canal UDP cerrado: %d enviados, %d refrescos, %d descartados";
+        TEMPLATES[USB_CONNECTED] = "cable USB conectado";
+        TEMPLATES[USB_DISCONNECTED] = "cable USB desconectado";
+        TEMPLATES[USB_PRESENT_AT_START] = "cable USB ya conectado al iniciar";
+        TEMPLATES[MODE_SELECTED] = "modo %d";
+        TEMPLATES[ZOOM_ON] = "zoom activado";
+        TEMPLATES[ZOOM_OFF] = "zoom desactivado";
+        TEMPLATES[RECORDING_STARTED] = "grabación iniciada";
+        TEMPLATES[RECORDING_SAVED] = "grabación guardada: %d comandos, %d perdidos";
+        TEMPLATES[RECORDING_FAILED] = "grabación fallida: %s";
+        TEMPLATES[TRACE_DUMP_FAILED] = "no se pudo guardar la traza: %s";
+        TEMPLATES[KEYMAP_LOADED] = "mapeo compilado: %d perfiles de usuario, %d macros";
+        TEMPLATES[KEYMAP_INVALID] = "perfil del modo %d ignorado: %s";
+        TEMPLATES[SESSION_RESUMED] = "sesión reanudada (misma: %d), %d botones por reenviar";
+        TEMPLATES[SEND_RATE_DOWN] = "ritmo de estado bajado a %d Hz (causa %d: 1 escritura, 2 cola, 3 rtt)";
+        TEMPLATES[STARTUP_PHASE] = "arranque: fase %d a los %d ms";
+        TEMPLATES[LINK_READY] = "enlace listo en %d us (reserva: %d)";
+    }
+
+    private TraceEvent() {
+    }
+
+    /** Texto del evento con sus argumentos. Solo para volcados: reserva memoria. */
+    static void describe(int event, int arg0, int arg1, int arg2, TraceRing ring, StringBuilder out) {
+        String template = event > 0 && event < TEMPLATES.length ? TEMPLATES[event] : null;
+        if (template == null) {
+            out.append("evento ").append(event).append(' ').append(arg0).append(',').append(arg1).append(',').append(arg2);
+            return;
+        }
+        int[] args = {arg0, arg1, arg2};
+        int next = 0;
+        for (int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c != '%' || i + 1 == template.length()) {
+                out.append(c);
+                continue;
+            }
+            char kind = template.charAt(++i);
+            if (kind == 'c') {
+                appendCommand(arg0, arg1, arg2, out);
+                next = args.length;
+            } else if (next < args.length) {
+                int value = args[next++];
+                if (kind == 's') {
+                    out.append(ring.noteText(value));
+                } else {
+                    out.append(value);
+                }
+            }
+        }
+    }
+
+    private static void appendCommand(int opcode, int arg0, int arg1, StringBuilder out) {
+        try {
+            out.append(WireProtocol.formatText(opcode, arg0, arg1));
+        } catch (IllegalArgumentException e) {
+            out.append("op ").append(opcode).append(' ').append(arg0).append(',').append(arg1);
+        }
+    }
+}
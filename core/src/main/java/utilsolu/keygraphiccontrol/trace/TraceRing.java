@@ -0,0 +1,147 @@
+package utilsolu.keygraphiccontrol.trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Traza en memoria de tamaño fijo: cada registro es un evento ({@link TraceEvent}), su instante
+ * ({@link System#nanoTime()}) y hasta tres argumentos enteros, guardados en arrays de primitivos
+ * reservados al construirla. Grabar no formatea ni reserva memoria; el texto solo se genera al
+ * volcarla ({@link #dump}). Cuando se llena, los registros nuevos pisan a los más antiguos.
+ *
+ * <p>Puede grabar cualquier hilo: cada registro reserva su ranura con un incremento atómico y la
+ * publica con un sello de secuencia, así el volcado descarta las ranuras a medio escribir o
+ * pisadas mientras las leía.
+ *
+ * <p>Los textos que no son enteros (mensajes de error) se guardan con {@link #note}, solo en
+ * caminos fríos, en una tabla pequeña que también se recicla.
+ */
+public final class TraceRing {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    static final int NOTE_CAPACITY = 64;
+
+    private final int mask;
+    private final long[] times;
+    private final int[] events;
+    private final int[] args0;
+    private final int[] args1;
+    private final int[] args2;
+    // Secuencia + 1 del registro publicado en cada ranura; 0 mientras se escribe.
+    private final AtomicLongArray sealed;
+    private final AtomicLong next = new AtomicLong();
+
+    private final String[] notes = new String[NOTE_CAPACITY];
+    private final int[] noteHandles = new int[NOTE_CAPACITY];
+    private int nextNote = 1;
+
+    /** {@code capacity} debe ser potencia de dos. */
+    public TraceRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("La capacidad debe ser potencia de dos: " + capacity);
+        }
+        mask = capacity - 1;
+        times = new long[capacity];
+        events = new int[capacity];
+        args0 = new int[capacity];
+        args1 = new int[capacity];
+        args2 = new int[capacity];
+        sealed = new AtomicLongArray(capacity);
+    }
+
+    public void record(int event) {
+        record(event, 0, 0, 0);
+    }
+
+    public void record(int event, int arg0) {
+        record(event, arg0, 0, 0);
+    }
+
+    public void record(int event, int arg0, int arg1) {
+        record(event, arg0, arg1, 0);
+    }
+
+    public void record(int event, int arg0, int arg1, int arg2) {
+        long seq = next.getAndIncrement();
+        int slot = (int) (seq & mask);
+        sealed.set(slot, 0);
+        times[slot] = System.nanoTime();
+        events[slot] = event;
+        args0[slot] = arg0;
+        args1[slot] = arg1;
+        args2[slot] = arg2;
+        sealed.lazySet(slot, seq + 1);
+    }
+
+    /**
+     * Guarda un texto para usarlo como argumento {@code %s} y devuelve su referencia. Camino frío:
+     * solo para errores y similares. Tras {@link #NOTE_CAPACITY} notas nuevas la referencia caduca.
+     */
+    public synchronized int note(String text) {
+        int handle = nextNote++;
+        if (nextNote <= 0) {
+            nextNote = 1;
+        }
+        int slot = handle & (NOTE_CAPACITY - 1);
+        notes[slot] = text;
+        noteHandles[slot] = handle;
+        return handle;
+    }
+
+    synchronized String noteText(int handle) {
+        int slot = handle & (NOTE_CAPACITY - 1);
+        return handle > 0 && noteHandles[slot] == handle ? notes[slot] : "(nota " + handle + " caducada)";
+    }
+
+    /** Registros grabados desde la creación (incluidos los ya pisados). */
+    public long recordedCount() {
+        return next.get();
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Vuelca los últimos {@code maxRecords} registros, del más antiguo al más reciente, una línea
+     * por registro con su instante relativo al volcado en milisegundos.
+     */
+    public void dump(StringBuilder out, int maxRecords) {
+        long end = next.get();
+        long start = Math.max(0, end - Math.min(maxRecords, capacity()));
+        long now = System.nanoTime();
+        for (long seq = start; seq < end; seq++) {
+            int slot = (int) (seq & mask);
+            if (sealed.get(slot) != seq + 1) {
+                continue;
+            }
+            long time = times[slot];
+            int event = events[slot];
+            int arg0 = args0[slot];
+            int arg1 = args1[slot];
+            int arg2 = args2[slot];
+            // Pisado mientras se leía: se omite.
+            if (sealed.get(slot) != seq + 1) {
+                continue;
+            }
+            long micros = Math.max(0, now - time) / 1000;
+            out.append('-').append(micros / 1000).append('.');
+            long fraction = micros % 1000;
+            if (fraction < 100) {
+                out.append('0');
+            }
+            if (fraction < 10) {
+                out.append('0');
+            }
+            out.append(fraction).append(" ms  ");
+            TraceEvent.describe(event, arg0, arg1, arg2, this, out);
+            out.append('\n');
+        }
+    }
+
+    public String dump(int maxRecords) {
+        StringBuilder out = new StringBuilder();
+        dump(out, maxRecords);
+        return out.toString();
+    }
+}
@@ -0,0 +1,81 @@
+package utilsolu.keygraphiccontrol.input;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+public class AnalogStreamerTest {
+
+    private final List<int[]> sent = new ArrayList<>();
+    private final AnalogStreamer streamer = new AnalogStreamer(120, (x, y) -> sent.add(new int[]{x, y}));
+
+    @Test
+    public void quantize_appliesDeadZoneAndClamps() {
+        assertEquals(0, AnalogStreamer.quantize(0f));
+        assertEquals(0, AnalogStreamer.quantize(AnalogStreamer.DEAD_ZONE / 2));
+        assertEquals(1, AnalogStreamer.quantize(AnalogStreamer.DEAD_ZONE + 0.001f));
+        assertEquals(WireProtocol.ANALOG_MAX, AnalogStreamer.quantize(1f));
+        assertEquals(WireProtocol.ANALOG_MAX, AnalogStreamer.quantize(3f));
+        assertEquals(-WireProtocol.ANALOG_MAX, AnalogStreamer.quantize(-1f));
+    }
+
+    @Test
+    public void pack_roundTripsNegativeAxes() {
+        int packed = AnalogStreamer.pack(-127, 64);
+        assertEquals(-127, AnalogStreamer.unpackX(packed));
+        assertEquals(64, AnalogStreamer.unpackY(packed));
+    }
+
+    @Test
+    public void idleStick_sendsNothing() {
+        for (int i = 0; i < 10; i++) {
+            streamer.tick();
+        }
+        assertTrue(sent.isEmpty());
+        assertEquals(10, streamer.idleTicks());
+    }
+
+    @Test
+    public void heldStick_streamsEveryTickThenOneStop() {
+        streamer.update(1f, -0.5f);
+        streamer.tick();
+        streamer.tick();
+        streamer.release();
+        streamer.tick();
+        streamer.tick();
+
+        assertEquals(3, sent.size());
+        assertEquals(WireProtocol.ANALOG_MAX, sent.get(0)[0]);
+        assertTrue(sent.get(0)[1] < 0);
+        assertArrayEquals(new int[]{0, 0}, sent.get(2));
+        assertEquals(1, streamer.idleTicks());
+    }
+
+    @Test
+    public void rateLimit_sendsEveryNthTickAfterTheFirst() {
+        streamer.setRateLimitHz(40);
+        assertEquals(3, streamer.tickDivider());
+
+        streamer.update(1f, 0f);
+        for (int i = 0; i < 7; i++) {
+            streamer.tick();
+        }
+
+        // Ticks 1, 4 y 7: el primero sin esperar.
+        assertEquals(3, sent.size());
+        assertEquals(4, streamer.throttledTicks());
+
+        streamer.setRateLimitHz(1000);
+        assertEquals(1, streamer.tickDivider());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tickRate_mustBePositive() {
+        streamer.setTickHz(0);
+    }
+}
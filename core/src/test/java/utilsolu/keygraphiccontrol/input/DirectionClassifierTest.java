@@ -0,0 +1,36 @@
+package utilsolu.keygraphiccontrol.input;
+
+import org.junit.Test;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+public class DirectionClassifierTest {
+
+    private static final float THRESHOLD = 20f;
+
+    @Test
+    public void direction_picksDominantAxis() {
+        assertEquals(WireProtocol.DIR_RIGHT, DirectionClassifier.direction(50, 10, THRESHOLD));
+        assertEquals(WireProtocol.DIR_LEFT, DirectionClassifier.direction(-50, 49, THRESHOLD));
+        assertEquals(WireProtocol.DIR_DOWN, DirectionClassifier.direction(10, 50, THRESHOLD));
+        assertEquals(WireProtocol.DIR_UP, DirectionClassifier.direction(-10, -50, THRESHOLD));
+        // Diagonal exacta: vertical.
+        assertEquals(WireProtocol.DIR_UP, DirectionClassifier.direction(30, -30, THRESHOLD));
+    }
+
+    @Test
+    public void direction_insideDeadZoneIsStop() {
+        assertEquals(WireProtocol.DIR_STOP, DirectionClassifier.direction(0, 0, THRESHOLD));
+        assertEquals(WireProtocol.DIR_STOP, DirectionClassifier.direction(20, 5, THRESHOLD));
+        assertEquals(WireProtocol.DIR_STOP, DirectionClassifier.direction(-5, -20, THRESHOLD));
+    }
+
+    @Test
+    public void zoom_followsHorizontalAxis() {
+        assertEquals(WireProtocol.ZOOM_IN, DirectionClassifier.zoom(21, THRESHOLD));
+        assertEquals(WireProtocol.ZOOM_OUT, DirectionClassifier.zoom(-21, THRESHOLD));
+        assertEquals(DirectionClassifier.NO_ZOOM, DirectionClassifier.zoom(20, THRESHOLD));
+    }
+}
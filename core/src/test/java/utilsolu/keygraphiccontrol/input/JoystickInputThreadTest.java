@@ -0,0 +1,134 @@
+package utilsolu.keygraphiccontrol.input;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import utilsolu.keygraphiccontrol.metrics.InputMetrics;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+public class JoystickInputThreadTest {
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> threads = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    private final JoystickSampleProcessor processor = new JoystickSampleProcessor(new JoystickSampleProcessor.Sink() {
+        @Override
+        public void onDirection(int direction, long sampleNanos) {
+            threads.add(Thread.currentThread().getName());
+            events.add("dir " + direction + " @" + sampleNanos);
+        }
+
+        @Override
+        public void onZoom(float displacement, long sampleNanos) {
+            events.add("zoom " + displacement + " @" + sampleNanos);
+        }
+
+        @Override
+        public void onPinch(float span, long sampleNanos) {
+            events.add("pinch " + span + " @" + sampleNanos);
+        }
+
+        @Override
+        public void onPinchEnd(long sampleNanos) {
+            events.add("pinch end @" + sampleNanos);
+        }
+
+        @Override
+        public void onAnalog(float normX, float normY) {
+            events.add("analog " + normX + "," + normY);
+        }
+
+        @Override
+        public void onRelease(int mode, long sampleNanos) {
+            threads.add(Thread.currentThread().getName());
+            events.add("release " + mode + " @" + sampleNanos);
+            released.countDown();
+        }
+    });
+
+    private final InputMetrics metrics = new InputMetrics();
+    private final JoystickInputThread input = new JoystickInputThread(processor, metrics, 4);
+
+    {
+        processor.configure(100f, 100f, 80f, 20f);
+    }
+
+    @After
+    public void tearDown() {
+        input.stop();
+    }
+
+    @Test
+    public void drain_deliversSamplesInOrderWithTheirModeAndTimestamps() {
+        input.publishMove(160, 100, 1_000, JoystickSampleProcessor.MODE_DIRECTION);
+        input.publishMove(20, 100, 2_000, JoystickSampleProcessor.MODE_ZOOM);
+        input.publishRelease(3_000, JoystickSampleProcessor.MODE_ZOOM);
+
+        assertTrue(events.isEmpty());
+        assertEquals(3, input.drainOnce());
+
+        assertEquals("[dir " + WireProtocol.DIR_RIGHT + " @1000, zoom -1.0 @2000, release "
+                + JoystickSampleProcessor.MODE_ZOOM + " @3000]", events.toString());
+        assertEquals(3, metrics.samples());
+        assertEquals(0f, processor.lastDx(), 0f);
+    }
+
+    @Test
+    public void pinch_travelsThroughTheQueue() {
+        input.publishPinch(150.5f, 1_000, JoystickSampleProcessor.MODE_DIRECTION);
+        input.publishPinchEnd(2_000, JoystickSampleProcessor.MODE_DIRECTION);
+
+        assertEquals(2, input.drainOnce());
+        assertEquals("[pinch 150.5 @1000, pinch end @2000]", events.toString());
+    }
+
+    @Test
+    public void fullQueue_dropsMovesAndCountsThem() {
+        for (int i = 0; i < 6; i++) {
+            input.publishMove(160, 100, i, JoystickSampleProcessor.MODE_DIRECTION);
+        }
+
+        assertEquals(2, metrics.droppedSamples());
+        assertEquals(4, input.drainOnce());
+        assertEquals(4, events.size());
+    }
+
+    @Test
+    public void startedThread_classifiesOffTheCallerThreadAndReleaseWaitsForRoom() throws InterruptedException {
+        input.start();
+        // Más muestras que capacidad: el fin del gesto espera hueco en vez de perderse.
+        for (int i = 0; i < 20; i++) {
+            input.publishMove(160, 100, i, JoystickSampleProcessor.MODE_DIRECTION);
+            input.signal();
+        }
+        input.publishRelease(99, JoystickSampleProcessor.MODE_DIRECTION);
+
+        assertTrue(released.await(2, TimeUnit.SECONDS));
+        assertEquals("release " + JoystickSampleProcessor.MODE_DIRECTION + " @99", events.get(events.size() - 1));
+        for (String name : threads) {
+            assertEquals("joystick-input", name);
+        }
+    }
+
+    @Test
+    public void inline_processesOnTheCallerThread() {
+        input.setInline(true);
+
+        input.publishMove(160, 100, 1_000, JoystickSampleProcessor.MODE_DIRECTION);
+        input.publishRelease(2_000, JoystickSampleProcessor.MODE_DIRECTION);
+
+        assertEquals(2, events.size());
+        assertEquals(Thread.currentThread().getName(), threads.get(0));
+        assertEquals(0, input.pending());
+        assertEquals(0, metrics.samples());
+    }
+}
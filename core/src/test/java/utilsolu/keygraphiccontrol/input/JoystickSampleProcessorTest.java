@@ -0,0 +1,112 @@
+package utilsolu.keygraphiccontrol.input;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+public class JoystickSampleProcessorTest {
+
+    private static final float CENTER = 100f;
+    private static final float RADIUS = 80f;
+    private static final float THRESHOLD = 20f;
+
+    private final List<String> events = new ArrayList<>();
+    private final JoystickSampleProcessor processor = new JoystickSampleProcessor(new JoystickSampleProcessor.Sink() {
+        @Override
+        public void onDirection(int direction, long sampleNanos) {
+            events.add("dir " + direction + " @" + sampleNanos);
+        }
+
+        @Override
+        public void onZoom(float displacement, long sampleNanos) {
+            events.add("zoom " + displacement + " @" + sampleNanos);
+        }
+
+        @Override
+        public void onPinch(float span, long sampleNanos) {
+            events.add("pinch " + span + " @" + sampleNanos);
+        }
+
+        @Override
+        public void onPinchEnd(long sampleNanos) {
+            events.add("pinch end @" + sampleNanos);
+        }
+
+        @Override
+        public void onAnalog(float normX, float normY) {
+            events.add("analog " + normX + "," + normY);
+        }
+
+        @Override
+        public void onRelease(int mode, long sampleNanos) {
+            events.add("release " + mode + " @" + sampleNanos);
+        }
+    });
+
+    {
+        processor.configure(CENTER, CENTER, RADIUS, THRESHOLD);
+    }
+
+    @Test
+    public void historicalSamples_keepTheirOwnTimestamps() {
+        // Un lote de 8 ms a 1 kHz: derecha, zona muerta, arriba.
+        float[] xs = {150, 160, 105, 100, 100};
+        float[] ys = {100, 100, 100, 60, 40};
+        long[] times = {1_000, 2_000, 3_000, 4_000, 8_000};
+
+        processor.process(xs, ys, times, xs.length);
+
+        assertEquals("[dir " + WireProtocol.DIR_RIGHT + " @1000, dir " + WireProtocol.DIR_RIGHT + " @2000, dir "
+                + WireProtocol.DIR_UP + " @4000, dir " + WireProtocol.DIR_UP + " @8000]", events.toString());
+        assertEquals(5, processor.samplesProcessed());
+    }
+
+    @Test
+    public void displacement_isClampedToRadius() {
+        processor.sample(CENTER + 300, CENTER + 400, 1);
+
+        assertEquals(48f, processor.lastDx(), 1e-3);
+        assertEquals(64f, processor.lastDy(), 1e-3);
+    }
+
+    @Test
+    public void zoomMode_reportsDisplacementBeyondDeadZone() {
+        processor.setMode(JoystickSampleProcessor.MODE_ZOOM);
+        // Zona muerta 20, radio 80: 50 px recorre la mitad del tramo útil.
+        processor.process(new float[]{150, 110, 20, 400}, new float[]{100, 100, 100, 100},
+                new long[]{1, 2, 3, 4}, 4);
+
+        assertEquals("[zoom 0.5 @1, zoom 0.0 @2, zoom -1.0 @3, zoom 1.0 @4]", events.toString());
+    }
+
+    @Test
+    public void pinch_isForwardedInAnyMode() {
+        processor.setMode(JoystickSampleProcessor.MODE_DIRECTION);
+        processor.pinch(120f, 1);
+        processor.pinchEnd(2);
+
+        assertEquals("[pinch 120.0 @1, pinch end @2]", events.toString());
+    }
+
+    @Test
+    public void analogMode_normalizesToRadius() {
+        processor.setMode(JoystickSampleProcessor.MODE_ANALOG);
+        processor.process(new float[]{140, 500}, new float[]{100, 100}, new long[]{1, 2}, 2);
+
+        assertEquals("[analog 0.5,0.0, analog 1.0,0.0]", events.toString());
+    }
+
+    @Test
+    public void noneMode_onlyTracksTheStick() {
+        processor.setMode(JoystickSampleProcessor.MODE_NONE);
+        processor.sample(170, 100, 1);
+
+        assertTrue(events.isEmpty());
+        assertEquals(70f, processor.lastDx(), 1e-3);
+    }
+}
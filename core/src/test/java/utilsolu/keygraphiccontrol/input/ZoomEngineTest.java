@@ -0,0 +1,108 @@
+package utilsolu.keygraphiccontrol.input;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+public class ZoomEngineTest {
+
+    private final List<String> events = new ArrayList<>();
+    private final ZoomEngine engine = new ZoomEngine(new ZoomEngine.Output() {
+        @Override
+        public void onZoomGesture(int phase, long nanos) {
+            events.add(phase == WireProtocol.ZOOM_START ? "start" : "stop");
+        }
+
+        @Override
+        public void onZoomRate(int rate, long nanos) {
+            events.add("rate " + rate);
+        }
+    });
+
+    @Test
+    public void stick_emitsStartRatesAndStopInOrder() {
+        engine.stick(0f, 1);
+        engine.stick(0.5f, 2);
+        engine.stick(-1f, 3);
+        engine.stop(4);
+
+        assertEquals("[start, rate 500, rate -1000, rate 0, stop]", events.toString());
+        assertFalse(engine.isActive());
+    }
+
+    @Test
+    public void smallWobble_staysOnTheSameLevel() {
+        engine.stick(0.50f, 1);
+        // Medio nivel = 0.025: sin la histéresis 0.526 ya saltaría a 550.
+        engine.stick(0.526f, 2);
+        engine.stick(0.49f, 3);
+        engine.stick(0.545f, 4);
+
+        assertEquals("[start, rate 500, rate 550]", events.toString());
+    }
+
+    @Test
+    public void returnToDeadZone_isImmediateAndKeepsTheGestureOpen() {
+        engine.stick(0.3f, 1);
+        engine.stick(0.01f, 2);
+        engine.stick(0f, 3);
+        engine.stick(0.3f, 4);
+
+        assertEquals("[start, rate 300, rate 0, rate 300]", events.toString());
+        assertEquals(1, engine.gestureCount());
+    }
+
+    @Test
+    public void pinch_isElasticAroundTheInitialSpan() {
+        engine.pinch(200f, 1);
+        engine.pinch(205f, 2);
+        engine.pinch(400f, 3);
+        engine.pinch(100f, 4);
+        engine.pinch(50f, 5);
+        engine.pinchEnd(6);
+
+        assertEquals("[start, rate 1000, rate -1000, rate 0, stop]", events.toString());
+    }
+
+    @Test
+    public void pinch_overridesTheStickUntilItEnds() {
+        engine.pinch(100f, 1);
+        engine.stick(1f, 2);
+        assertTrue(events.isEmpty());
+
+        engine.pinchEnd(3);
+        engine.stick(1f, 4);
+
+        assertEquals("[start, rate 1000]", events.toString());
+    }
+
+    @Test
+    public void stop_withoutMovementSendsNothing() {
+        engine.stick(0f, 1);
+        engine.pinchEnd(2);
+        engine.stop(3);
+
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void sweep_sendsFarFewerCommandsThanSamples() {
+        // Un barrido lento de ida y vuelta a 240 Hz: antes, un ZOOM por muestra fuera de la zona muerta.
+        for (int i = 0; i <= 1000; i++) {
+            engine.stick(i / 1000f, i);
+        }
+        for (int i = 1000; i >= 0; i--) {
+            engine.stick(i / 1000f, 2000 - i);
+        }
+        engine.stop(3000);
+
+        assertEquals(2002, engine.inputCount());
+        assertTrue("emitidos: " + engine.emittedCount(), engine.emittedCount() <= 2 * ZoomEngine.LEVELS + 1);
+        assertEquals("stop", events.get(events.size() - 1));
+    }
+}
@@ -0,0 +1,65 @@
+package utilsolu.keygraphiccontrol.keymap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+public class KeymapRouterTest {
+
+    private final List<String> sent = new ArrayList<>();
+    private final KeymapRouter router = new KeymapRouter((opcode, arg0, arg1, inputNanos) ->
+            sent.add(WireProtocol.formatText(opcode, arg0, arg1)));
+
+    private void useProfile(int mode, String text) throws IOException {
+        KeymapProfile[] profiles = new KeymapProfile[Keymap.MODE_COUNT];
+        profiles[mode] = KeymapProfile.parse(new StringReader(text));
+        router.setKeymap(Keymap.compile(profiles));
+    }
+
+    @Test
+    public void defaultMapping_sendsLegacyCommands() {
+        assertTrue(router.pressButton(WireProtocol.SIDE_LEFT, 2, 0));
+        router.direction(WireProtocol.DIR_UP, 1);
+        router.direction(WireProtocol.DIR_UP, 2);
+        router.release(3);
+
+        assertEquals("[BUTTON,BTN_IZQUIERDA_2, DIRECTION,UP, DIRECTION,UP, DIRECTION,STOP]", sent.toString());
+    }
+
+    @Test
+    public void modeSwitch_changesTheTableUsed() throws IOException {
+        useProfile(1, "IZQUIERDA_2 = KEY 32\nDERECHA_1 = NONE\n");
+
+        router.pressButton(WireProtocol.SIDE_LEFT, 2, 0);
+        router.setMode(1);
+        router.pressButton(WireProtocol.SIDE_LEFT, 2, 0);
+        assertFalse(router.pressButton(WireProtocol.SIDE_RIGHT, 1, 0));
+        assertFalse(router.pressButton(WireProtocol.SIDE_RIGHT, Keymap.MAX_BUTTONS + 1, 0));
+
+        assertEquals("[BUTTON,BTN_IZQUIERDA_2, KEY,32;TAP]", sent.toString());
+    }
+
+    @Test
+    public void joystickKeys_areHeldWhileInTheDirection() throws IOException {
+        useProfile(2, "UP = KEY 87\nRIGHT = KEY 68\nDOWN = BUTTON DERECHA 1\n");
+        router.setMode(2);
+
+        router.direction(WireProtocol.DIR_UP, 1);
+        router.direction(WireProtocol.DIR_UP, 2);
+        router.direction(WireProtocol.DIR_RIGHT, 3);
+        router.direction(WireProtocol.DIR_DOWN, 4);
+        router.direction(WireProtocol.DIR_DOWN, 5);
+        router.direction(WireProtocol.DIR_RIGHT, 6);
+        router.release(7);
+
+        assertEquals("[KEY,87;DOWN, KEY,87;UP, KEY,68;DOWN, KEY,68;UP, BUTTON,BTN_DERECHA_1, KEY,68;DOWN, "
+                + "KEY,68;UP, DIRECTION,STOP]", sent.toString());
+    }
+}
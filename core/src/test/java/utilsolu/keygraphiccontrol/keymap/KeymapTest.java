@@ -0,0 +1,128 @@
+package utilsolu.keygraphiccontrol.keymap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+public class KeymapTest {
+
+    @Test
+    public void defaults_keepLegacyButtonsAndDirections() {
+        Keymap map = Keymap.defaults();
+        int control = Keymap.buttonControl(WireProtocol.SIDE_RIGHT, 3);
+
+        for (int mode = 0; mode < Keymap.MODE_COUNT; mode++) {
+            assertEquals(WireProtocol.OP_BUTTON, map.opcode(mode, control));
+            assertEquals(WireProtocol.SIDE_RIGHT, map.arg0(mode, control));
+            assertEquals(3, map.arg1(mode, control));
+            assertEquals(WireProtocol.OP_DIRECTION, map.opcode(mode, Keymap.joystickControl(WireProtocol.DIR_LEFT)));
+            assertEquals(WireProtocol.DIR_LEFT, map.arg0(mode, Keymap.joystickControl(WireProtocol.DIR_LEFT)));
+        }
+    }
+
+    @Test
+    public void compile_appliesEachProfileToItsModeOnly() throws IOException {
+        KeymapProfile keyboard = KeymapProfile.parse(new StringReader(
+                "# teclado\n"
+                        + "izquierda_1 = KEY 32\n"
+                        + "DERECHA_2 = BUTTON IZQUIERDA 1   # reasignado\n"
+                        + "\n"
+                        + "UP = KEY 87\n"
+                        + "LEFT = NONE\n"
+                        + "RIGHT = DIRECTION UP\n"));
+        Keymap map = Keymap.compile(new KeymapProfile[]{null, null, keyboard});
+
+        int left1 = Keymap.buttonControl(WireProtocol.SIDE_LEFT, 1);
+        assertEquals(WireProtocol.OP_KEY, map.opcode(2, left1));
+        assertEquals(32, map.arg0(2, left1));
+        assertEquals(WireProtocol.OP_BUTTON, map.opcode(0, left1));
+
+        int right2 = Keymap.buttonControl(WireProtocol.SIDE_RIGHT, 2);
+        assertEquals(WireProtocol.SIDE_LEFT, map.arg0(2, right2));
+        assertEquals(1, map.arg1(2, right2));
+
+        assertEquals(Keymap.NONE, map.opcode(2, Keymap.joystickControl(WireProtocol.DIR_LEFT)));
+        assertEquals(WireProtocol.DIR_UP, map.arg0(2, Keymap.joystickControl(WireProtocol.DIR_RIGHT)));
+        // Lo que el perfil no menciona sigue igual.
+        assertEquals(WireProtocol.OP_DIRECTION, map.opcode(2, Keymap.joystickControl(WireProtocol.DIR_DOWN)));
+    }
+
+    @Test
+    public void parse_rejectsUnknownLinesWithTheirNumber() throws IOException {
+        String[] bad = {"IZQUIERDA_9 = KEY 1", "ARRIBA = KEY 1", "UP = JUMP", "UP = KEY x", "UP KEY 1", "UP = DIRECTION STOP"};
+        for (String line : bad) {
+            try {
+                KeymapProfile.parse(new StringReader("# ok\n" + line + "\n"));
+                fail("Aceptó: " + line);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Línea 2:"));
+            }
+        }
+    }
+
+    @Test
+    public void macro_foldsWaitsIntoTheNextStepAndGetsAnId() throws IOException {
+        KeymapProfile profile = KeymapProfile.parse(new StringReader(
+                "DERECHA_1 = MACRO down:17 TAP:67 WAIT:30 WAIT:20 UP:17\n"
+                        + "UP = MACRO TAP:87\n"));
+        Keymap map = Keymap.compile(new KeymapProfile[]{null, profile});
+
+        int right1 = Keymap.buttonControl(WireProtocol.SIDE_RIGHT, 1);
+        assertEquals(WireProtocol.OP_MACRO, map.opcode(1, right1));
+        assertEquals(WireProtocol.OP_BUTTON, map.opcode(0, right1));
+        assertEquals(2, map.macroCount());
+        Macro macro = map.macro(map.arg0(1, right1));
+        assertEquals(3, macro.steps());
+        assertEquals(WireProtocol.KEY_DOWN, macro.action(0));
+        assertEquals(67, macro.key(1));
+        assertEquals(0, macro.delayMs(1));
+        assertEquals(50, macro.delayMs(2));
+        assertEquals(50, macro.totalDelayMs());
+        assertEquals(1, map.arg0(1, Keymap.joystickControl(WireProtocol.DIR_UP)));
+    }
+
+    @Test
+    public void macroControl_keepsTheDefaultCommandOfItsControl() throws IOException {
+        Keymap map = Keymap.compile(new KeymapProfile[]{KeymapProfile.parse(new StringReader(
+                "DERECHA_2 = MACRO TAP:87\nLEFT = MACRO TAP:65\n"))});
+        Keymap defaults = Keymap.defaults();
+
+        int left = Keymap.joystickControl(WireProtocol.DIR_LEFT);
+        assertEquals(Keymap.buttonControl(WireProtocol.SIDE_RIGHT, 2), map.macroControl(0));
+        assertEquals(left, map.macroControl(1));
+        for (int control = 0; control < Keymap.CONTROL_COUNT; control++) {
+            assertEquals(defaults.opcode(0, control), Keymap.defaultOpcode(control));
+            assertEquals(defaults.arg0(0, control), Keymap.defaultArg0(control));
+            assertEquals(defaults.arg1(0, control), Keymap.defaultArg1(control));
+        }
+        assertEquals(WireProtocol.OP_DIRECTION, Keymap.defaultOpcode(left));
+        assertEquals(WireProtocol.DIR_LEFT, Keymap.defaultArg0(left));
+    }
+
+    @Test
+    public void macro_rejectsSequencesThatCannotRunSafely() throws IOException {
+        String[] bad = {
+                "UP = MACRO",
+                "UP = MACRO DOWN:17",
+                "UP = MACRO UP:17",
+                "UP = MACRO DOWN:17 DOWN:17 UP:17",
+                "UP = MACRO TAP:1 WAIT:10",
+                "UP = MACRO TAP:1 WAIT:5001 TAP:2",
+                "UP = MACRO TAP:-1",
+                "UP = MACRO HOLD:1",
+                "UP = MACRO TAP:1 TAP:1 TAP:1 TAP:1 TAP:1 TAP:1 TAP:1 TAP:1 TAP:1 TAP:1 TAP:1 TAP:1 TAP:1 TAP:1 TAP:1 TAP:1 TAP:1"};
+        for (String line : bad) {
+            try {
+                KeymapProfile.parse(new StringReader("# ok\n" + line + "\n"));
+                fail("Aceptó: " + line);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Línea 2:"));
+            }
+        }
+    }
+}
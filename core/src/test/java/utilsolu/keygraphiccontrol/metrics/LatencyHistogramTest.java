@@ -0,0 +1,61 @@
+package utilsolu.keygraphiccontrol.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles_stayWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        assertEquals(1000, histogram.count());
+        assertEquals(1_000_000, histogram.maxNanos());
+        assertWithin(500_000, histogram.percentileNanos(50));
+        assertWithin(990_000, histogram.percentileNanos(99));
+        assertEquals(1_000_000, histogram.percentileNanos(100));
+    }
+
+    @Test
+    public void emptyAndReset_reportZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentileNanos(99));
+
+        histogram.record(42);
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.maxNanos());
+        assertEquals(0, histogram.percentileNanos(50));
+    }
+
+    @Test
+    public void negativeAndHugeValues_areClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.percentileNanos(50));
+        assertEquals(LatencyHistogram.MAX_VALUE_NANOS, histogram.maxNanos());
+    }
+
+    @Test
+    public void buckets_areContiguousAndOrdered() {
+        long previousHigh = -1;
+        for (int i = 0; i <= LatencyHistogram.indexFor(LatencyHistogram.MAX_VALUE_NANOS); i++) {
+            long high = LatencyHistogram.highestValueIn(i);
+            assertEquals("cubeta " + i, i, LatencyHistogram.indexFor(previousHigh + 1));
+            assertEquals("cubeta " + i, i, LatencyHistogram.indexFor(high));
+            previousHigh = high;
+        }
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        // Cubetas de 1/32 de cada potencia de dos: error relativo máximo ~3 %.
+        assertTrue("esperado ~" + expected + ", obtenido " + actual,
+                Math.abs(actual - expected) <= expected / 32 + 1);
+    }
+}
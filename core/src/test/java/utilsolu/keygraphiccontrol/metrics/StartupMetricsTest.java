@@ -0,0 +1,35 @@
+package utilsolu.keygraphiccontrol.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StartupMetricsTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void phases_areMeasuredFromProcessStartAndFirstMarkWins() {
+        StartupMetrics startup = new StartupMetrics(1000 * MS);
+
+        assertTrue(startup.mark(StartupMetrics.PHASE_FIRST_FRAME, 1250 * MS));
+        assertFalse(startup.mark(StartupMetrics.PHASE_FIRST_FRAME, 1900 * MS));
+        assertTrue(startup.mark(StartupMetrics.PHASE_CONNECTED, 1180 * MS));
+
+        assertEquals(250 * MS, startup.timeToFirstFrameNanos());
+        assertEquals(180 * MS, startup.timeToConnectedNanos());
+        assertFalse(startup.isMarked(StartupMetrics.PHASE_UI_READY));
+        assertTrue(startup.formatText().contains("first_frame=250.0 ui_ready=- connected=180.0"));
+    }
+
+    @Test
+    public void csvRows_carryOneSamplePerMarkedPhase() {
+        StartupMetrics startup = new StartupMetrics(0);
+        startup.mark(StartupMetrics.PHASE_CONTENT_VIEW, 40 * MS);
+
+        String csv = startup.formatCsvRows();
+        assertTrue(csv.startsWith("startup_activity_create,0,"));
+        assertTrue(csv.contains("startup_content_view,1,"));
+        assertEquals(StartupMetrics.PHASE_COUNT, csv.split("\n").length);
+    }
+}
@@ -0,0 +1,57 @@
+package utilsolu.keygraphiccontrol.net;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ClockEstimatorTest {
+
+    private static final long SKEW_NANOS = 7_000_000_000L;
+
+    @Test
+    public void minRttSample_winsOverAsymmetricDelays() {
+        ClockEstimator clock = new ClockEstimator();
+        // Ida rápida y vuelta con cola variable: el punto medio se sesga salvo en la muestra limpia.
+        long t = 1_000_000_000L;
+        long[] returnDelays = {3_000_000, 8_000_000, 200_000, 5_000_000, 9_000_000};
+        for (long back : returnDelays) {
+            long oneWay = 100_000;
+            clock.onSample(t, t + oneWay + SKEW_NANOS, t + oneWay + back);
+            t += 100_000_000;
+        }
+        assertTrue(clock.isSynchronized());
+        assertEquals(300_000, clock.minRttNanos());
+        // Error acotado por la asimetría de la muestra de RTT mínimo (50 µs), no por las otras.
+        assertEquals(SKEW_NANOS, clock.toRemoteNanos(t) - t, 60_000);
+    }
+
+    @Test
+    public void drift_isTrackedOverMinutes() {
+        ClockEstimator clock = new ClockEstimator();
+        Random random = new Random(18);
+        double driftPpm = 40;
+        long t = 0;
+        for (int i = 0; i < 3000; i++) {
+            long remote = SKEW_NANOS + t + (long) (t * driftPpm / 1e6);
+            long out = 100_000 + random.nextInt(2_000_000);
+            long back = 100_000 + random.nextInt(2_000_000);
+            clock.onSample(t - out, remote, t + back);
+            t += 100_000_000;
+        }
+        assertEquals(driftPpm, clock.driftPpm(), 5);
+        long expected = SKEW_NANOS + (long) (t * driftPpm / 1e6);
+        assertEquals(expected, clock.toRemoteNanos(t) - t, 1_000_000);
+    }
+
+    @Test
+    public void reset_forgetsTheOldListener() {
+        ClockEstimator clock = new ClockEstimator();
+        clock.onSample(0, SKEW_NANOS, 1_000);
+        clock.reset();
+        assertFalse(clock.isSynchronized());
+        assertEquals(0, clock.samples());
+        assertEquals("reloj: sin sincronizar\n", clock.formatText());
+    }
+}
@@ -0,0 +1,43 @@
+package utilsolu.keygraphiccontrol.net;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CommandRingTest {
+
+    @Test
+    public void drain_preservesFifoOrder() {
+        CommandRing ring = new CommandRing(8);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(ring.offer(0x20, 1, i, 0L));
+        }
+        List<Integer> seen = new ArrayList<>();
+        assertEquals(5, ring.drain((op, a0, a1, inputNanos, enqueueNanos) -> seen.add(a1), 64));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), seen);
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void offer_failsWhenFullAndRecoversAfterDrain() {
+        CommandRing ring = new CommandRing(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(0x20, 1, i, 0L));
+        }
+        assertFalse(ring.offer(0x20, 1, 99, 0L));
+        assertEquals(4, ring.size());
+
+        assertEquals(2, ring.drain((op, a0, a1, inputNanos, enqueueNanos) -> { }, 2));
+        assertTrue(ring.offer(0x20, 1, 4, 0L));
+        assertEquals(3, ring.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacity_mustBePowerOfTwo() {
+        new CommandRing(100);
+    }
+}
@@ -0,0 +1,353 @@
+package utilsolu.keygraphiccontrol.net;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import utilsolu.keygraphiccontrol.keymap.Keymap;
+import utilsolu.keygraphiccontrol.keymap.KeymapProfile;
+import utilsolu.keygraphiccontrol.metrics.LatencyTracker;
+import utilsolu.keygraphiccontrol.protocol.Frame;
+import utilsolu.keygraphiccontrol.protocol.FrameDecoder;
+import utilsolu.keygraphiccontrol.protocol.ProtocolNegotiator;
+import utilsolu.keygraphiccontrol.protocol.StateDatagram;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+public class CommandWriterTest {
+
+    private final CommandRing ring = new CommandRing(64);
+    private final StateCoalescer coalescer = new StateCoalescer(StateCoalescer.CHANNEL_COUNT);
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+    private final LatencyTracker latency = new LatencyTracker();
+    private final OutboundQueue queue = new OutboundQueue(ring, coalescer);
+    private final CommandWriter writer = new CommandWriter(queue, latency, failure::set);
+
+    @Test
+    public void drainOnce_writesButtonsThenStateInOneGatheringWrite() throws Exception {
+        RecordingTransport out = new RecordingTransport();
+        writer.attach(out, WireProtocol.VERSION);
+
+        ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 2, 0L);
+        coalescer.offer(StateCoalescer.CHANNEL_DIRECTION, WireProtocol.DIR_UP, 0L);
+        writer.publishAnalog(-5, 9);
+
+        assertEquals(3, writer.drainOnce());
+        assertEquals(1, out.writes);
+
+        byte[] bytes = out.bytes.toByteArray();
+        Frame frame = new Frame();
+        FrameDecoder.decode(bytes, 0, frame);
+        assertEquals(WireProtocol.OP_BUTTON, frame.opcode);
+        FrameDecoder.decode(bytes, WireProtocol.FRAME_SIZE, frame);
+        assertEquals(WireProtocol.OP_DIRECTION, frame.opcode);
+        FrameDecoder.decode(bytes, 2 * WireProtocol.FRAME_SIZE, frame);
+        assertEquals(WireProtocol.OP_ANALOG, frame.opcode);
+        assertEquals(-5, frame.arg0);
+        assertEquals(9, frame.arg1);
+    }
+
+    @Test
+    public void textProtocol_writesLegacyLines() {
+        RecordingTransport out = new RecordingTransport();
+        writer.attach(out, ProtocolNegotiator.TEXT_PROTOCOL);
+
+        ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_RIGHT, 7, 0L);
+        coalescer.offer(StateCoalescer.CHANNEL_ZOOM, WireProtocol.ZOOM_OUT, 0L);
+        writer.drainOnce();
+
+        assertEquals("BUTTON,BTN_DERECHA_7\nZOOM,OUT\n", out.bytes.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void zoomGesture_onTextProtocolBecomesLegacyZoomLines() {
+        RecordingTransport out = new RecordingTransport();
+        writer.attach(out, ProtocolNegotiator.TEXT_PROTOCOL);
+
+        int[][] gesture = {
+                {WireProtocol.OP_ZOOM_GESTURE, WireProtocol.ZOOM_START}, {WireProtocol.OP_ZOOM_RATE, 250},
+                {WireProtocol.OP_ZOOM_RATE, 500}, {WireProtocol.OP_ZOOM_RATE, 0}, {WireProtocol.OP_ZOOM_RATE, -250},
+                {WireProtocol.OP_ZOOM_GESTURE, WireProtocol.ZOOM_STOP}};
+        for (int[] command : gesture) {
+            writer.submit(command[0], command[1], 0, 0L);
+            writer.drainOnce();
+        }
+
+        assertEquals("ZOOM,IN\nZOOM,IN\nZOOM,OUT\n", out.bytes.toString(StandardCharsets.US_ASCII));
+        assertEquals(3, writer.commandsWritten());
+    }
+
+    @Test
+    public void macro_isWrittenAsHeaderAndStepsInOneWriteAheadOfState() throws Exception {
+        Keymap keymap = macroKeymap("IZQUIERDA_1 = MACRO DOWN:17 WAIT:40 TAP:67 UP:17\n");
+        writer.setMacros(MacroTable.compile(keymap));
+        RecordingTransport out = new RecordingTransport();
+        writer.attach(out, WireProtocol.VERSION);
+
+        coalescer.offer(StateCoalescer.CHANNEL_DIRECTION, WireProtocol.DIR_UP, 0L);
+        writer.submit(WireProtocol.OP_MACRO, 0, 0, 0L);
+        // Un id que el mapeo no conoce no sale.
+        writer.submit(WireProtocol.OP_MACRO, 7, 0, 0L);
+
+        assertEquals(2, writer.drainOnce());
+        assertEquals(1, out.writes);
+        byte[] bytes = out.bytes.toByteArray();
+        assertEquals(5 * WireProtocol.FRAME_SIZE, bytes.length);
+        Frame frame = FrameDecoder.decode(bytes, 0, new Frame());
+        assertEquals(WireProtocol.OP_MACRO, frame.opcode);
+        assertEquals(3, frame.arg0);
+        assertEquals(0, frame.arg1);
+        for (int step = 0; step < 3; step++) {
+            FrameDecoder.decode(bytes, (step + 1) * WireProtocol.FRAME_SIZE, frame);
+            assertEquals(WireProtocol.OP_MACRO_STEP, frame.opcode);
+            assertEquals(step, frame.seq);
+        }
+        FrameDecoder.decode(bytes, 2 * WireProtocol.FRAME_SIZE, frame);
+        assertEquals(67, frame.arg0);
+        assertEquals(40, WireProtocol.macroStepDelayMs(frame.arg1));
+        FrameDecoder.decode(bytes, 4 * WireProtocol.FRAME_SIZE, frame);
+        assertEquals(WireProtocol.OP_DIRECTION, frame.opcode);
+    }
+
+    @Test
+    public void macro_onTextProtocolSendsTheControlsDefaultCommand() throws Exception {
+        writer.setMacros(MacroTable.compile(macroKeymap(
+                "IZQUIERDA_1 = MACRO TAP:49 WAIT:100 TAP:50\nDERECHA_3 = MACRO TAP:51\n")));
+        RecordingTransport out = new RecordingTransport();
+        writer.attach(out, ProtocolNegotiator.TEXT_PROTOCOL);
+
+        writer.submit(WireProtocol.OP_MACRO, 0, 0, 0L);
+        writer.submit(WireProtocol.OP_MACRO, 1, 0, 0L);
+        writer.drainOnce();
+
+        // El listener de texto no conoce KEY: recibe lo que enviaban los botones sin perfil.
+        String expected = text(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 1)
+                + text(WireProtocol.OP_BUTTON, WireProtocol.SIDE_RIGHT, 3);
+        assertEquals(expected, out.bytes.toString(StandardCharsets.US_ASCII));
+    }
+
+    private static String text(int opcode, int arg0, int arg1) {
+        byte[] line = new byte[WireProtocol.MAX_TEXT_LINE];
+        return new String(line, 0, WireProtocol.formatText(opcode, arg0, arg1, line, 0), StandardCharsets.US_ASCII);
+    }
+
+    private static Keymap macroKeymap(String profile) throws IOException {
+        return Keymap.compile(new KeymapProfile[]{KeymapProfile.parse(new StringReader(profile))});
+    }
+
+    @Test
+    public void ping_isWrittenOnlyWithBinaryProtocol() throws Exception {
+        RecordingTransport binary = new RecordingTransport();
+        writer.attach(binary, WireProtocol.VERSION);
+        writer.publishPing(5);
+        assertEquals(1, writer.drainOnce());
+
+        Frame frame = FrameDecoder.decode(binary.bytes.toByteArray(), 0, new Frame());
+        assertEquals(WireProtocol.OP_PING, frame.opcode);
+        assertEquals(5, frame.arg0);
+        assertEquals(0, writer.commandsWritten());
+        assertEquals(0, latency.histogram(LatencyTracker.STAGE_END_TO_END).count());
+
+        RecordingTransport text = new RecordingTransport();
+        writer.attach(text, ProtocolNegotiator.TEXT_PROTOCOL);
+        writer.publishPing(6);
+        assertEquals(0, writer.drainOnce());
+        assertEquals(0, text.writes);
+    }
+
+    @Test
+    public void datagramChannel_carriesStateAndHeartbeatRefreshesIt() throws Exception {
+        try (DatagramChannel pc = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0))) {
+            DatagramStateSender udp = new DatagramStateSender();
+            udp.connect("127.0.0.1", pc.socket().getLocalPort(), 77);
+            RecordingTransport tcp = new RecordingTransport();
+            writer.attach(tcp, WireProtocol.VERSION, udp);
+
+            ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 1, 0L);
+            coalescer.offer(StateCoalescer.CHANNEL_DIRECTION, WireProtocol.DIR_DOWN, 0L);
+            assertEquals(2, writer.drainOnce());
+
+            // Por TCP solo el botón.
+            byte[] bytes = tcp.bytes.toByteArray();
+            assertEquals(WireProtocol.FRAME_SIZE, bytes.length);
+            assertEquals(WireProtocol.OP_BUTTON, FrameDecoder.decode(bytes, 0, new Frame()).opcode);
+
+            ByteBuffer packet = ByteBuffer.allocate(64);
+            StateDatagram datagram = new StateDatagram();
+            pc.receive(packet);
+            packet.flip();
+            datagram.decode(packet);
+            assertEquals(WireProtocol.OP_DIRECTION, datagram.opcode);
+            assertEquals(WireProtocol.DIR_DOWN, datagram.arg0);
+            assertEquals(77, datagram.token);
+            int firstSeq = datagram.seq;
+
+            // El latido vuelve a mandar el último estado con una secuencia nueva.
+            writer.publishPing(1);
+            writer.drainOnce();
+            packet.clear();
+            pc.receive(packet);
+            packet.flip();
+            datagram.decode(packet);
+            assertEquals(WireProtocol.DIR_DOWN, datagram.arg0);
+            assertTrue(StateDatagram.isNewer(datagram.seq, firstSeq));
+            assertEquals(1, udp.refreshCount());
+            assertEquals(2, writer.commandsWritten());
+            udp.close();
+        }
+    }
+
+    @Test
+    public void stalledPeer_keepsQueueBoundedAndSendsButtonsThenLatestState() throws Exception {
+        RecordingTransport peer = new RecordingTransport();
+        peer.stall = new CountDownLatch(1);
+        writer.attach(peer, ProtocolNegotiator.TEXT_PROTOCOL);
+        writer.start();
+        try {
+            // El primer comando deja al escritor atascado dentro de write().
+            writer.submit(WireProtocol.OP_DIRECTION, WireProtocol.DIR_UP, 0, System.nanoTime());
+            assertTrue(peer.writeEntered.await(2, TimeUnit.SECONDS));
+
+            // Segundos de joystick y unos cuantos botones mientras el PC no lee.
+            for (int i = 0; i <= 10_000; i++) {
+                assertTrue(writer.submit(WireProtocol.OP_DIRECTION, 1 + ((i + 1) & 3), 0, System.nanoTime()));
+            }
+            for (int i = 1; i <= 20; i++) {
+                assertTrue(writer.submit(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, i, System.nanoTime()));
+            }
+            assertEquals(20, queue.depth(OutboundQueue.CLASS_BUTTON));
+            assertEquals(1, queue.depth(OutboundQueue.CLASS_DIRECTION));
+            assertEquals(10_000, queue.droppedCount(OutboundQueue.CLASS_DIRECTION));
+            assertEquals(0, queue.droppedCount(OutboundQueue.CLASS_BUTTON));
+
+            peer.stall.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (writer.commandsWritten() < 22 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        } finally {
+            writer.stop();
+        }
+
+        // Todos los botones, en orden y antes que el estado; del joystick solo el último valor.
+        StringBuilder expected = new StringBuilder("DIRECTION,UP\n");
+        for (int i = 1; i <= 20; i++) {
+            expected.append("BUTTON,BTN_IZQUIERDA_").append(i).append('\n');
+        }
+        expected.append("DIRECTION,DOWN\n");
+        assertEquals(expected.toString(), peer.bytes.toString(StandardCharsets.US_ASCII));
+        assertEquals(0, queue.depth());
+    }
+
+    @Test
+    public void rateController_holdsStateInsideItsWindowButNeverButtons() throws Exception {
+        SendRateController rate = new SendRateController();
+        for (int i = 0; i < 5; i++) {
+            rate.onWrite(10_000_000L, 0, i * SendRateController.DECISION_PERIOD_NANOS);
+        }
+        assertEquals(SendRateController.MIN_RATE_HZ, rate.rateHz());
+        CommandWriter limited = new CommandWriter(queue, new ReliableWindow(ReliableWindow.DEFAULT_CAPACITY), null,
+                rate, latency, failure::set);
+        RecordingTransport out = new RecordingTransport();
+        limited.attach(out, WireProtocol.VERSION);
+
+        coalescer.offer(StateCoalescer.CHANNEL_DIRECTION, WireProtocol.DIR_UP, 0L);
+        assertEquals(1, limited.drainOnce());
+        coalescer.offer(StateCoalescer.CHANNEL_DIRECTION, WireProtocol.DIR_LEFT, 0L);
+        coalescer.offer(StateCoalescer.CHANNEL_DIRECTION, WireProtocol.DIR_DOWN, 0L);
+        ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 1, 0L);
+
+        // Dentro de la ventana solo sale el botón; la dirección sigue pendiente y pisándose.
+        assertEquals(1, limited.drainOnce());
+        assertTrue(queue.hasPendingState());
+        assertEquals(0, limited.drainOnce());
+
+        TimeUnit.NANOSECONDS.sleep(rate.intervalNanos());
+        assertEquals(1, limited.drainOnce());
+        byte[] bytes = out.bytes.toByteArray();
+        Frame frame = new Frame();
+        FrameDecoder.decode(bytes, WireProtocol.FRAME_SIZE, frame);
+        assertEquals(WireProtocol.OP_BUTTON, frame.opcode);
+        FrameDecoder.decode(bytes, 2 * WireProtocol.FRAME_SIZE, frame);
+        assertEquals(WireProtocol.DIR_DOWN, frame.arg0);
+        assertTrue(rate.writeTime().count() >= 3);
+    }
+
+    @Test
+    public void writeFailure_detachesAndNotifies() {
+        RecordingTransport broken = new RecordingTransport();
+        broken.failWith = new IOException("broken pipe");
+        writer.attach(broken, WireProtocol.VERSION);
+        ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 1, 0L);
+
+        writer.drainOnce();
+        assertNotNull(failure.get());
+
+        ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 2, 0L);
+        assertEquals(0, writer.drainOnce());
+    }
+
+    @Test
+    public void drainOnce_recordsEveryStageForEachCommand() {
+        writer.attach(new RecordingTransport(), WireProtocol.VERSION);
+        long input = System.nanoTime();
+
+        ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 1, input);
+        coalescer.offer(StateCoalescer.CHANNEL_DIRECTION, WireProtocol.DIR_LEFT, input);
+        writer.drainOnce();
+
+        for (int stage = 0; stage < LatencyTracker.STAGE_COUNT; stage++) {
+            assertEquals(LatencyTracker.stageName(stage), 2, latency.histogram(stage).count());
+        }
+        long endToEnd = latency.histogram(LatencyTracker.STAGE_END_TO_END).maxNanos();
+        assertTrue(endToEnd > 0 && endToEnd <= System.nanoTime() - input);
+    }
+
+    @Test
+    public void steadyStateSend_allocatesNothing() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        RecordingTransport sink = new RecordingTransport();
+        sink.discard = true;
+        writer.attach(sink, WireProtocol.VERSION);
+
+        // Calentar (carga de clases, JIT) antes de medir.
+        sendBurst(20_000);
+
+        long baseline = threads.getCurrentThreadAllocatedBytes();
+        long overhead = threads.getCurrentThreadAllocatedBytes() - baseline;
+
+        int sends = 100_000;
+        long before = threads.getCurrentThreadAllocatedBytes();
+        sendBurst(sends);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before - overhead;
+
+        // Un solo objeto por envío serían >= 16 bytes * 100k. Se tolera el ruido puntual de la
+        // JVM (compilación JIT) dividiendo por el número de envíos.
+        assertEquals("bytes reservados por envío (total " + allocated + ")", 0, allocated / sends);
+    }
+
+    private void sendBurst(int count) {
+        for (int i = 0; i < count; i++) {
+            ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, i & 7, 0L);
+            coalescer.offer(StateCoalescer.CHANNEL_DIRECTION, 1 + (i & 3), 0L);
+            writer.publishAnalog(i & 63, -(i & 63));
+            writer.drainOnce();
+        }
+    }
+}
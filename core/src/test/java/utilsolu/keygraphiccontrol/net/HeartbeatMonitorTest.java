@@ -0,0 +1,146 @@
+package utilsolu.keygraphiccontrol.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import utilsolu.keygraphiccontrol.metrics.ConnectionMetrics;
+import utilsolu.keygraphiccontrol.metrics.LatencyTracker;
+import utilsolu.keygraphiccontrol.protocol.Frame;
+import utilsolu.keygraphiccontrol.protocol.FrameDecoder;
+import utilsolu.keygraphiccontrol.protocol.FrameEncoder;
+import utilsolu.keygraphiccontrol.protocol.ProtocolNegotiator;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+/** Latidos contra un PC simulado en loopback que responde, se cuelga o cierra. */
+public class HeartbeatMonitorTest {
+
+    private static final String LOOPBACK = "127.0.0.1";
+    private static final int INTERVAL_MS = 50;
+    private static final int MISSES = 3;
+
+    private ServerSocket server;
+    private final ExecutorService serverThread = Executors.newSingleThreadExecutor();
+    private final NioSocketTransport transport = new NioSocketTransport(NioSocketTransport.DEFAULT_SEND_BUFFER, 1000);
+    private final ConnectionMetrics metrics = new ConnectionMetrics();
+    private final CommandWriter writer = new CommandWriter(
+            new OutboundQueue(new CommandRing(8), new StateCoalescer(StateCoalescer.CHANNEL_COUNT)), new LatencyTracker(),
+            error -> { });
+    private final CountDownLatch dead = new CountDownLatch(1);
+    private final AtomicReference<String> reason = new AtomicReference<>();
+    private final HeartbeatMonitor monitor = new HeartbeatMonitor(INTERVAL_MS, MISSES, writer::publishPing, metrics,
+            why -> {
+                reason.set(why);
+                dead.countDown();
+            });
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 1, InetAddress.getByName(LOOPBACK));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        monitor.stop();
+        writer.stop();
+        transport.close();
+        server.close();
+        serverThread.shutdownNow();
+    }
+
+    @Test
+    public void answeringPeer_staysAliveAndRecordsRtt() throws Exception {
+        serverThread.submit(() -> answerPings(Long.MAX_VALUE));
+        connect(WireProtocol.VERSION);
+
+        assertFalse(dead.await(INTERVAL_MS * (MISSES + 4), TimeUnit.MILLISECONDS));
+        assertTrue(metrics.heartbeatRtt().count() >= MISSES);
+    }
+
+    @Test
+    public void hungPeer_isDeclaredDeadWithinBudget() throws Exception {
+        // Responde unos latidos y luego deja de leer y de contestar, sin cerrar el socket.
+        AtomicLong hungAt = new AtomicLong();
+        serverThread.submit(() -> {
+            answerPings(3);
+            hungAt.set(System.nanoTime());
+            Thread.sleep(10_000);
+            return null;
+        });
+        connect(WireProtocol.VERSION);
+
+        assertTrue(dead.await(2, TimeUnit.SECONDS));
+        long detectMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - hungAt.get());
+        assertTrue("detectado en " + detectMs + " ms", detectMs <= monitor.detectionBudgetMs() + 100);
+        assertTrue(reason.get(), reason.get().contains("sin respuesta"));
+        assertEquals(1, metrics.deadPeers());
+    }
+
+    @Test
+    public void closedPeer_isDetectedAlsoWithTextProtocol() throws Exception {
+        serverThread.submit(() -> {
+            Socket client = server.accept();
+            Thread.sleep(INTERVAL_MS);
+            client.close();
+            return null;
+        });
+        connect(ProtocolNegotiator.TEXT_PROTOCOL);
+
+        assertTrue(dead.await(1, TimeUnit.SECONDS));
+        assertTrue(reason.get(), reason.get().contains("cerró"));
+    }
+
+    @Test
+    public void stop_silencesListener() throws Exception {
+        serverThread.submit(() -> {
+            Thread.sleep(10_000);
+            return null;
+        });
+        connect(WireProtocol.VERSION);
+        monitor.stop();
+
+        assertFalse(dead.await(monitor.detectionBudgetMs() * 2L, TimeUnit.MILLISECONDS));
+    }
+
+    private void connect(int protocolVersion) throws IOException {
+        transport.connect(LOOPBACK, server.getLocalPort(), 1000);
+        writer.attach(transport, protocolVersion);
+        writer.start();
+        monitor.start(transport, protocolVersion);
+    }
+
+    // PC simulado: contesta PONG a los primeros {@code limit} PING.
+    private Void answerPings(long limit) throws IOException {
+        Socket client = server.accept();
+        DataInputStream in = new DataInputStream(client.getInputStream());
+        OutputStream out = client.getOutputStream();
+        FrameEncoder encoder = new FrameEncoder();
+        byte[] frameBytes = new byte[WireProtocol.FRAME_SIZE];
+        Frame frame = new Frame();
+        for (long answered = 0; answered < limit; ) {
+            in.readFully(frameBytes);
+            FrameDecoder.decode(frameBytes, 0, frame);
+            if (frame.opcode == WireProtocol.OP_PING) {
+                encoder.encode(WireProtocol.OP_PONG, frame.arg0, 0, frameBytes, 0);
+                out.write(frameBytes);
+                answered++;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,134 @@
+package utilsolu.keygraphiccontrol.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import utilsolu.keygraphiccontrol.protocol.ProtocolNegotiator;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+/** Pruebas contra un servidor TCP local en loopback, como el listener real de la PC. */
+public class NioSocketTransportTest {
+
+    private static final String LOOPBACK = "127.0.0.1";
+
+    private ServerSocket server;
+    private final ExecutorService serverThread = Executors.newSingleThreadExecutor();
+    private final NioSocketTransport transport = new NioSocketTransport(NioSocketTransport.DEFAULT_SEND_BUFFER, 1000);
+
+    @Before
+    public void setUp() throws IOException {
+        // Puerto efímero para no chocar con un listener real en 8090.
+        server = new ServerSocket(0, 1, InetAddress.getByName(LOOPBACK));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        transport.close();
+        server.close();
+        serverThread.shutdownNow();
+    }
+
+    @Test
+    public void gatheringWrite_arrivesInOrder() throws Exception {
+        Future<String> received = serverThread.submit(() -> {
+            try (Socket client = server.accept()) {
+                return readAll(client.getInputStream(), 11);
+            }
+        });
+        transport.connect(LOOPBACK, server.getLocalPort(), 1000);
+        assertTrue(transport.isTcpNoDelay());
+
+        ByteBuffer[] lanes = {ascii("hello "), ascii("world")};
+        assertEquals(11, transport.write(lanes, 0, 2));
+        assertEquals("hello world", received.get(2, TimeUnit.SECONDS));
+        assertEquals(11, transport.bytesWritten());
+    }
+
+    @Test
+    public void negotiate_binaryWhenServerAnswersHello() throws Exception {
+        serverThread.submit(() -> {
+            Socket client = server.accept();
+            readLine(client.getInputStream());
+            client.getOutputStream().write("HELLO_OK,1\n".getBytes(StandardCharsets.US_ASCII));
+            return client;
+        });
+        transport.connect(LOOPBACK, server.getLocalPort(), 1000);
+
+        assertEquals(WireProtocol.VERSION, ProtocolNegotiator.negotiate(transport, 1000));
+    }
+
+    @Test
+    public void negotiate_fallsBackToTextWithLegacyListener() throws Exception {
+        Future<String> hello = serverThread.submit(() -> {
+            Socket client = server.accept();
+            return readLine(client.getInputStream()); // Un listener antiguo nunca responde.
+        });
+        transport.connect(LOOPBACK, server.getLocalPort(), 1000);
+
+        long start = System.nanoTime();
+        assertEquals(ProtocolNegotiator.TEXT_PROTOCOL, ProtocolNegotiator.negotiate(transport, 200));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertEquals("HELLO,KGC1", hello.get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void read_reportsPeerClose() throws Exception {
+        serverThread.submit(() -> {
+            server.accept().close();
+            return null;
+        });
+        transport.connect(LOOPBACK, server.getLocalPort(), 1000);
+
+        assertEquals(-1, transport.read(ByteBuffer.allocate(8), 1000));
+    }
+
+    @Test(expected = ConnectException.class)
+    public void connect_failsWhenNobodyListens() throws Exception {
+        int port = server.getLocalPort();
+        server.close();
+        transport.connect(LOOPBACK, port, 1000);
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String readAll(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(data, read, length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return new String(data, 0, read, StandardCharsets.US_ASCII);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+}
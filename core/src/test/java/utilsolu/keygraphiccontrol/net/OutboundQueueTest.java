@@ -0,0 +1,85 @@
+package utilsolu.keygraphiccontrol.net;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueTest {
+
+    private final CommandRing ring = new CommandRing(4);
+    private final OutboundQueue queue = new OutboundQueue(ring, new StateCoalescer(StateCoalescer.CHANNEL_COUNT));
+
+    @Test
+    public void policies_buttonsReliableEverythingElseLatest() {
+        assertEquals(OutboundQueue.POLICY_RELIABLE, OutboundQueue.policyOf(OutboundQueue.classOf(WireProtocol.OP_BUTTON)));
+        assertEquals(OutboundQueue.POLICY_LATEST, OutboundQueue.policyOf(OutboundQueue.classOf(WireProtocol.OP_DIRECTION)));
+        assertEquals(OutboundQueue.POLICY_LATEST, OutboundQueue.policyOf(OutboundQueue.classOf(WireProtocol.OP_ZOOM)));
+        assertEquals(OutboundQueue.POLICY_LATEST, OutboundQueue.policyOf(OutboundQueue.classOf(WireProtocol.OP_ANALOG)));
+        assertEquals(OutboundQueue.POLICY_LATEST, OutboundQueue.policyOf(OutboundQueue.classOf(WireProtocol.OP_PING)));
+        assertEquals(OutboundQueue.POLICY_LATEST, OutboundQueue.policyOf(OutboundQueue.classOf(WireProtocol.OP_ZOOM_RATE)));
+        assertEquals(OutboundQueue.CLASS_BUTTON, OutboundQueue.classOf(WireProtocol.OP_ZOOM_GESTURE));
+    }
+
+    @Test
+    public void fullReliableClass_rejectsAndCounts() {
+        for (int i = 1; i <= ring.capacity(); i++) {
+            assertEquals(OutboundQueue.OFFER_WAKE, queue.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, i, 0L));
+        }
+        assertEquals(OutboundQueue.OFFER_REJECTED, queue.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 9, 0L));
+
+        assertEquals(1, queue.droppedCount(OutboundQueue.CLASS_BUTTON));
+        assertEquals(ring.capacity(), queue.depth(OutboundQueue.CLASS_BUTTON));
+        assertEquals(ring.capacity(), queue.reliableHighWaterMark());
+    }
+
+    @Test
+    public void latestClasses_keepOnlyNewestValue() {
+        assertEquals(OutboundQueue.OFFER_WAKE, queue.offer(WireProtocol.OP_ANALOG, 1, 1, 0L));
+        assertEquals(OutboundQueue.OFFER_QUEUED, queue.offer(WireProtocol.OP_ANALOG, 2, -2, 0L));
+        assertEquals(OutboundQueue.OFFER_QUEUED, queue.offer(WireProtocol.OP_ANALOG, 3, -3, 0L));
+        queue.offer(WireProtocol.OP_ZOOM, WireProtocol.ZOOM_IN, 0, 0L);
+        queue.offer(WireProtocol.OP_ZOOM, WireProtocol.ZOOM_OUT, 0, 0L);
+
+        assertEquals(2, queue.depth());
+        assertEquals(2, queue.droppedCount(OutboundQueue.CLASS_ANALOG));
+        assertEquals(1, queue.droppedCount(OutboundQueue.CLASS_ZOOM));
+
+        List<String> drained = drainAll();
+        assertEquals("[17:2:0, 18:3:-3]", drained.toString());
+        assertFalse(queue.hasPending());
+    }
+
+    @Test
+    public void drain_sendsButtonsBeforeState() {
+        queue.offer(WireProtocol.OP_DIRECTION, WireProtocol.DIR_LEFT, 0, 0L);
+        queue.offer(WireProtocol.OP_PING, 7, 0, 0L);
+        queue.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_RIGHT, 1, 0L);
+        queue.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_RIGHT, 2, 0L);
+
+        assertEquals("[32:2:1, 32:2:2, 16:3:0, 1:7:0]", drainAll().toString());
+    }
+
+    @Test
+    public void zoomRate_coalescesBetweenReliableGestureEvents() {
+        queue.offer(WireProtocol.OP_ZOOM_GESTURE, WireProtocol.ZOOM_START, 0, 0L);
+        queue.offer(WireProtocol.OP_ZOOM_RATE, 200, 0, 0L);
+        queue.offer(WireProtocol.OP_ZOOM_RATE, 450, 0, 0L);
+        queue.offer(WireProtocol.OP_ZOOM_RATE, 0, 0, 0L);
+
+        assertEquals(1, queue.depth(OutboundQueue.CLASS_ZOOM_RATE));
+        assertEquals(2, queue.droppedCount(OutboundQueue.CLASS_ZOOM_RATE));
+        assertEquals("[34:1:0, 19:0:0]", drainAll().toString());
+        assertEquals(0, queue.depth(OutboundQueue.CLASS_ZOOM_RATE));
+    }
+
+    private List<String> drainAll() {
+        List<String> out = new ArrayList<>();
+        queue.drain((opcode, arg0, arg1, inputNanos, enqueueNanos) -> out.add(opcode + ":" + arg0 + ":" + arg1), 64);
+        return out;
+    }
+}
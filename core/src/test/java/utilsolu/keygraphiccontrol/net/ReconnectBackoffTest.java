@@ -0,0 +1,41 @@
+package utilsolu.keygraphiccontrol.net;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReconnectBackoffTest {
+
+    @Test
+    public void delays_growExponentiallyWithinJitterBounds() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 5000, new Random(42));
+        long ceiling = 100;
+        for (int i = 0; i < 12; i++) {
+            long delay = backoff.nextDelayMs();
+            assertTrue("intento " + i + ": " + delay, delay >= ceiling / 2 && delay <= ceiling);
+            ceiling = Math.min(5000, ceiling * 2);
+        }
+        assertEquals(12, backoff.attempts());
+    }
+
+    @Test
+    public void reset_returnsToBaseDelay() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 5000, new Random(7));
+        for (int i = 0; i < 10; i++) {
+            backoff.nextDelayMs();
+        }
+        backoff.reset();
+        assertTrue(backoff.nextDelayMs() <= 100);
+    }
+
+    @Test
+    public void manyAttempts_neverOverflow() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 5000, new Random(1));
+        for (int i = 0; i < 1000; i++) {
+            long delay = backoff.nextDelayMs();
+            assertTrue(delay >= 50 && delay <= 5000);
+        }
+    }
+}
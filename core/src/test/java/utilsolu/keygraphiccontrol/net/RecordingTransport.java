@@ -0,0 +1,68 @@
+package utilsolu.keygraphiccontrol.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Transporte en memoria para tests: guarda (o descarta) lo escrito y cuenta las escrituras.
+ * Con {@link #stall} simula un PC que no lee: {@code write} se bloquea hasta liberar el latch.
+ */
+class RecordingTransport implements Transport {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    int writes;
+    boolean discard;
+    IOException failWith;
+    CountDownLatch stall;
+    final CountDownLatch writeEntered = new CountDownLatch(1);
+
+    @Override
+    public void connect(String host, int port, int timeoutMs) {
+    }
+
+    @Override
+    public long write(ByteBuffer[] buffers, int offset, int length) throws IOException {
+        writeEntered.countDown();
+        if (stall != null) {
+            try {
+                stall.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+        if (failWith != null) {
+            throw failWith;
+        }
+        writes++;
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            ByteBuffer buffer = buffers[i];
+            total += buffer.remaining();
+            if (discard) {
+                buffer.position(buffer.limit());
+            } else {
+                while (buffer.hasRemaining()) {
+                    bytes.write(buffer.get());
+                }
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, int timeoutMs) {
+        return 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
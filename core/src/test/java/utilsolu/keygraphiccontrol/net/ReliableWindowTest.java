@@ -0,0 +1,79 @@
+package utilsolu.keygraphiccontrol.net;
+
+import org.junit.Test;
+
+import utilsolu.keygraphiccontrol.metrics.LatencyTracker;
+import utilsolu.keygraphiccontrol.protocol.Frame;
+import utilsolu.keygraphiccontrol.protocol.FrameDecoder;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+public class ReliableWindowTest {
+
+    @Test
+    public void acknowledge_releasesSlotsAndIgnoresOldAcks() {
+        ReliableWindow window = new ReliableWindow(4);
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, window.append(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, i));
+        }
+        assertEquals(0, window.free());
+
+        window.acknowledge(3);
+        window.acknowledge(1);
+        assertEquals(3, window.lastAcknowledged());
+        assertEquals(1, window.unacknowledged());
+        assertEquals(5, window.append(WireProtocol.OP_KEY, 30, WireProtocol.KEY_TAP));
+        assertEquals(WireProtocol.OP_KEY, window.opcode(5));
+        assertEquals(4, window.arg1(4));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void append_whenFull_throws() {
+        ReliableWindow window = new ReliableWindow(2);
+        window.append(WireProtocol.OP_BUTTON, 0, 1);
+        window.append(WireProtocol.OP_BUTTON, 0, 2);
+        window.append(WireProtocol.OP_BUTTON, 0, 3);
+    }
+
+    @Test
+    public void resumedWriter_resendsUnacknowledgedBeforeNewButtons() throws Exception {
+        CommandRing ring = new CommandRing(16);
+        OutboundQueue queue = new OutboundQueue(ring, new StateCoalescer(StateCoalescer.CHANNEL_COUNT));
+        ReliableWindow window = new ReliableWindow(4);
+        CommandWriter writer = new CommandWriter(queue, window, new LatencyTracker(), error -> { });
+
+        RecordingTransport lost = new RecordingTransport();
+        writer.attachResumed(lost, WireProtocol.VERSION, null, 0);
+        for (int i = 1; i <= 3; i++) {
+            ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_RIGHT, i, 0L);
+        }
+        assertEquals(3, writer.drainOnce());
+        assertEquals(3, window.unacknowledged());
+
+        // El listener llegó a entregar el 1: al reanudar se reenvían 2 y 3 y después el 4 nuevo.
+        RecordingTransport out = new RecordingTransport();
+        ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_RIGHT, 4, 0L);
+        ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_RIGHT, 5, 0L);
+        ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_RIGHT, 6, 0L);
+        writer.attachResumed(out, WireProtocol.VERSION, null, 1);
+        // Ventana de 4 con 2 sin confirmar: caben solo dos botones nuevos.
+        assertEquals(4, writer.drainOnce());
+        assertEquals(2, writer.resentCount());
+
+        byte[] bytes = out.bytes.toByteArray();
+        Frame frame = new Frame();
+        for (int i = 0; i < 4; i++) {
+            FrameDecoder.decode(bytes, i * WireProtocol.FRAME_SIZE, frame);
+            assertEquals(WireProtocol.FLAG_RELIABLE, frame.flags);
+            assertEquals(i + 2, frame.seq);
+            assertEquals(i + 2, frame.arg1);
+        }
+        assertEquals(1, ring.size());
+
+        window.acknowledge(5);
+        assertEquals(1, writer.drainOnce());
+        FrameDecoder.decode(out.bytes.toByteArray(), 4 * WireProtocol.FRAME_SIZE, frame);
+        assertEquals(6, frame.seq);
+    }
+}
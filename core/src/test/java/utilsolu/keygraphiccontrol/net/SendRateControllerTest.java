@@ -0,0 +1,82 @@
+package utilsolu.keygraphiccontrol.net;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SendRateControllerTest {
+
+    private static final long MS = 1_000_000L;
+
+    private final List<String> changes = new ArrayList<>();
+    private final SendRateController rate = new SendRateController(
+            (hz, cause) -> changes.add(hz + " " + SendRateController.causeName(cause)));
+
+    @Test
+    public void slowWrites_halveTheRateOncePerPeriod() {
+        rate.onWrite(10 * MS, 0, 0);
+        rate.onWrite(10 * MS, 0, 20 * MS);
+        assertEquals(125, rate.rateHz());
+        assertEquals(8 * MS, rate.intervalNanos());
+
+        rate.onWrite(10 * MS, 0, 150 * MS);
+        assertEquals(62, rate.rateHz());
+        assertEquals(2, rate.decreases());
+        assertEquals(3, rate.signals(SendRateController.CAUSE_SLOW_WRITE));
+        assertEquals("[125 escritura, 62 escritura]", changes.toString());
+    }
+
+    @Test
+    public void cleanPeriodsWithTraffic_increaseAdditivelyUpToTheMaximum() {
+        rate.onWrite(0, SendRateController.BACKLOG_LIMIT + 1, 0);
+        assertEquals(125, rate.rateHz());
+
+        // Escrituras rápidas cada 10 ms durante 2 s: una subida por periodo.
+        for (long t = 10 * MS; t <= 2000 * MS; t += 10 * MS) {
+            rate.onWrite(100_000, 0, t);
+        }
+        assertEquals(SendRateController.MAX_RATE_HZ, rate.rateHz());
+        assertEquals("125 cola", changes.get(0));
+        assertEquals(13, rate.increases());
+    }
+
+    @Test
+    public void idlePeriods_doNotIncrease() {
+        rate.onWrite(10 * MS, 0, 0);
+        rate.onRoundTrip(MS, 500 * MS);
+        rate.onRoundTrip(MS, 1000 * MS);
+
+        assertEquals(125, rate.rateHz());
+        assertEquals(0, rate.increases());
+    }
+
+    @Test
+    public void roundTripAboveTheConnectionMinimum_isCongestion() {
+        rate.onRoundTrip(2 * MS, 0);
+        rate.onRoundTrip(10 * MS, 100 * MS);
+        assertEquals(SendRateController.MAX_RATE_HZ, rate.rateHz());
+
+        rate.onRoundTrip(2 * MS + SendRateController.RTT_MARGIN_NANOS + 1, 200 * MS);
+        assertEquals(125, rate.rateHz());
+        assertEquals(1, rate.signals(SendRateController.CAUSE_RTT));
+
+        // Otra conexión: el mínimo anterior ya no cuenta, el ritmo se conserva.
+        rate.reset();
+        rate.onRoundTrip(30 * MS, 300 * MS);
+        rate.onRoundTrip(40 * MS, 400 * MS);
+        assertEquals(30 * MS, rate.baseRttNanos());
+        assertEquals(125, rate.rateHz());
+    }
+
+    @Test
+    public void sustainedCongestion_stopsAtTheMinimum() {
+        for (int i = 0; i < 20; i++) {
+            rate.onWrite(10 * MS, 0, i * 100 * MS);
+        }
+        assertEquals(SendRateController.MIN_RATE_HZ, rate.rateHz());
+        assertEquals(5, rate.decreases());
+    }
+}
@@ -0,0 +1,123 @@
+package utilsolu.keygraphiccontrol.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static utilsolu.keygraphiccontrol.net.StateCoalescer.CHANNEL_DIRECTION;
+import static utilsolu.keygraphiccontrol.net.StateCoalescer.CHANNEL_ZOOM;
+import static utilsolu.keygraphiccontrol.net.StateCoalescer.EMPTY;
+
+public class StateCoalescerTest {
+
+    private static final int RIGHT = 4;
+    private static final int LEFT = 3;
+    private static final int UP = 1;
+
+    @Test
+    public void duplicates_areSuppressed() {
+        StateCoalescer coalescer = new StateCoalescer(StateCoalescer.CHANNEL_COUNT);
+
+        assertTrue(coalescer.offer(CHANNEL_DIRECTION, RIGHT, 0L));
+        assertEquals(RIGHT, coalescer.poll(CHANNEL_DIRECTION));
+
+        for (int i = 0; i < 50; i++) {
+            assertFalse(coalescer.offer(CHANNEL_DIRECTION, RIGHT, 0L));
+        }
+        assertEquals(EMPTY, coalescer.poll(CHANNEL_DIRECTION));
+        assertEquals(50, coalescer.suppressedCount());
+        assertEquals(1, coalescer.sentCount());
+    }
+
+    @Test
+    public void burst_latestValueWins() {
+        StateCoalescer coalescer = new StateCoalescer(StateCoalescer.CHANNEL_COUNT);
+
+        assertTrue(coalescer.offer(CHANNEL_DIRECTION, RIGHT, 0L));
+        assertFalse(coalescer.offer(CHANNEL_DIRECTION, LEFT, 0L));
+        assertFalse(coalescer.offer(CHANNEL_DIRECTION, UP, 0L));
+
+        assertEquals(UP, coalescer.poll(CHANNEL_DIRECTION));
+        assertEquals(EMPTY, coalescer.poll(CHANNEL_DIRECTION));
+        assertEquals(2, coalescer.collapsedCount());
+    }
+
+    @Test
+    public void collapsedBackToLastSent_isNotResent() {
+        StateCoalescer coalescer = new StateCoalescer(StateCoalescer.CHANNEL_COUNT);
+        coalescer.offer(CHANNEL_DIRECTION, RIGHT, 0L);
+        coalescer.poll(CHANNEL_DIRECTION);
+
+        assertTrue(coalescer.offer(CHANNEL_DIRECTION, LEFT, 0L));
+        coalescer.offer(CHANNEL_DIRECTION, RIGHT, 0L);
+
+        assertEquals(EMPTY, coalescer.poll(CHANNEL_DIRECTION));
+    }
+
+    @Test
+    public void channels_areIndependent() {
+        StateCoalescer coalescer = new StateCoalescer(StateCoalescer.CHANNEL_COUNT);
+        assertTrue(coalescer.offer(CHANNEL_DIRECTION, RIGHT, 0L));
+        assertTrue(coalescer.offer(CHANNEL_ZOOM, 1, 0L));
+
+        assertEquals(RIGHT, coalescer.poll(CHANNEL_DIRECTION));
+        assertEquals(1, coalescer.poll(CHANNEL_ZOOM));
+    }
+
+    @Test
+    public void clearAndReset_allowResendingSameValue() {
+        StateCoalescer coalescer = new StateCoalescer(StateCoalescer.CHANNEL_COUNT);
+        coalescer.offer(CHANNEL_ZOOM, 1, 0L);
+        coalescer.poll(CHANNEL_ZOOM);
+
+        coalescer.clear(CHANNEL_ZOOM);
+        assertTrue(coalescer.offer(CHANNEL_ZOOM, 1, 0L));
+        assertEquals(1, coalescer.poll(CHANNEL_ZOOM));
+
+        coalescer.reset();
+        assertTrue(coalescer.offer(CHANNEL_ZOOM, 1, 0L));
+        assertEquals(1, coalescer.poll(CHANNEL_ZOOM));
+    }
+
+    @Test
+    public void resendCurrent_republishesLastAcceptedValueOnly() {
+        StateCoalescer coalescer = new StateCoalescer(StateCoalescer.CHANNEL_COUNT);
+        coalescer.offer(CHANNEL_DIRECTION, RIGHT, 0L);
+        assertEquals(RIGHT, coalescer.poll(CHANNEL_DIRECTION));
+
+        coalescer.resendCurrent();
+        assertEquals(RIGHT, coalescer.poll(CHANNEL_DIRECTION));
+        // Nada aceptado en el zoom: no hay nada que reenviar.
+        assertEquals(EMPTY, coalescer.poll(CHANNEL_ZOOM));
+
+        // Con un valor más nuevo ya pendiente, se queda ese.
+        coalescer.offer(CHANNEL_DIRECTION, LEFT, 0L);
+        coalescer.resendCurrent();
+        assertEquals(LEFT, coalescer.poll(CHANNEL_DIRECTION));
+        assertEquals(EMPTY, coalescer.poll(CHANNEL_DIRECTION));
+    }
+
+    @Test
+    public void resendCurrent_concurrentOffersAlwaysEndOnTheLatestValue() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            StateCoalescer coalescer = new StateCoalescer(StateCoalescer.CHANNEL_COUNT);
+            coalescer.offer(CHANNEL_DIRECTION, LEFT, 0L);
+            coalescer.poll(CHANNEL_DIRECTION);
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    coalescer.offer(CHANNEL_DIRECTION, i % 2 == 0 ? RIGHT : LEFT, 0L);
+                }
+                coalescer.offer(CHANNEL_DIRECTION, UP, 0L);
+            });
+            producer.start();
+            coalescer.resendCurrent();
+            producer.join();
+
+            int last = EMPTY;
+            for (int value = coalescer.poll(CHANNEL_DIRECTION); value != EMPTY;
+                 value = coalescer.poll(CHANNEL_DIRECTION)) {
+                last = value;
+            }
+            assertEquals(UP, last);
+        }
+    }
+}
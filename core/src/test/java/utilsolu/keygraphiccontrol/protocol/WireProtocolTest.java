@@ -0,0 +1,186 @@
+package utilsolu.keygraphiccontrol.protocol;
+
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class WireProtocolTest {
+
+    @Test
+    public void encodeDecode_roundTrip() throws Exception {
+        FrameEncoder encoder = new FrameEncoder(41);
+        byte[] buffer = new byte[WireProtocol.FRAME_SIZE * 2];
+
+        int first = encoder.encode(WireProtocol.OP_BUTTON, WireProtocol.SIDE_RIGHT, 7, buffer, 0);
+        encoder.encode(WireProtocol.OP_DIRECTION, WireProtocol.DIR_LEFT, 0, buffer, first);
+
+        Frame frame = FrameDecoder.decode(buffer, 0, new Frame());
+        assertEquals(WireProtocol.OP_BUTTON, frame.opcode);
+        assertEquals(41, frame.seq);
+        assertEquals(WireProtocol.SIDE_RIGHT, frame.arg0);
+        assertEquals(7, frame.arg1);
+
+        FrameDecoder.decode(buffer, WireProtocol.FRAME_SIZE, frame);
+        assertEquals(WireProtocol.OP_DIRECTION, frame.opcode);
+        assertEquals(42, frame.seq);
+        assertEquals(WireProtocol.DIR_LEFT, frame.arg0);
+    }
+
+    @Test
+    public void byteBufferDecode_waitsForCompleteFrame() throws Exception {
+        FrameEncoder encoder = new FrameEncoder();
+        ByteBuffer buffer = ByteBuffer.allocate(WireProtocol.FRAME_SIZE);
+        encoder.encode(WireProtocol.OP_ZOOM, WireProtocol.ZOOM_OUT, 0, buffer);
+        buffer.flip();
+
+        ByteBuffer partial = buffer.duplicate();
+        partial.limit(WireProtocol.FRAME_SIZE - 1);
+        Frame frame = new Frame();
+        assertFalse(FrameDecoder.decode(partial, frame));
+        assertEquals(0, partial.position());
+
+        assertTrue(FrameDecoder.decode(buffer, frame));
+        assertEquals(WireProtocol.OP_ZOOM, frame.opcode);
+        assertEquals(WireProtocol.ZOOM_OUT, frame.arg0);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void decode_rejectsBadMagic() throws Exception {
+        byte[] buffer = new byte[WireProtocol.FRAME_SIZE];
+        new FrameEncoder().encode(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 1, buffer, 0);
+        buffer[0] = 'D';
+        FrameDecoder.decode(buffer, 0, new Frame());
+    }
+
+    @Test
+    public void formatText_matchesLegacyLines() {
+        assertEquals("DIRECTION,RIGHT", WireProtocol.formatText(WireProtocol.OP_DIRECTION, WireProtocol.DIR_RIGHT, 0));
+        assertEquals("DIRECTION,STOP", WireProtocol.formatText(WireProtocol.OP_DIRECTION, WireProtocol.DIR_STOP, 0));
+        assertEquals("ZOOM,IN", WireProtocol.formatText(WireProtocol.OP_ZOOM, WireProtocol.ZOOM_IN, 0));
+        assertEquals("BUTTON,BTN_IZQUIERDA_3", WireProtocol.formatText(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 3));
+    }
+
+    @Test
+    public void formatTextBytes_matchesStringFormat() {
+        byte[] line = new byte[WireProtocol.MAX_TEXT_LINE];
+        int[][] commands = {
+                {WireProtocol.OP_DIRECTION, WireProtocol.DIR_DOWN, 0},
+                {WireProtocol.OP_ZOOM, WireProtocol.ZOOM_IN, 0},
+                {WireProtocol.OP_ANALOG, -127, 0},
+                {WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, Integer.MIN_VALUE},
+        };
+        for (int[] c : commands) {
+            int length = WireProtocol.formatText(c[0], c[1], c[2], line, 0);
+            assertEquals(WireProtocol.formatText(c[0], c[1], c[2]) + "\n",
+                    new String(line, 0, length, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void parseText_inverseOfFormat() {
+        Frame frame = new Frame();
+        assertTrue(WireProtocol.parseText("BUTTON,BTN_DERECHA_5", frame));
+        assertEquals(WireProtocol.OP_BUTTON, frame.opcode);
+        assertEquals(WireProtocol.SIDE_RIGHT, frame.arg0);
+        assertEquals(5, frame.arg1);
+
+        assertTrue(WireProtocol.parseText("DIRECTION,UP", frame));
+        assertEquals(WireProtocol.DIR_UP, frame.arg0);
+
+        assertTrue(WireProtocol.parseText(WireProtocol.formatText(WireProtocol.OP_ANALOG, -12, 127), frame));
+        assertEquals(WireProtocol.OP_ANALOG, frame.opcode);
+        assertEquals(-12, frame.arg0);
+        assertEquals(127, frame.arg1);
+
+        assertFalse(WireProtocol.parseText("DIRECTION,SIDEWAYS", frame));
+        assertFalse(WireProtocol.parseText("HELLO,KGC1", frame));
+    }
+
+    @Test
+    public void keyCommand_roundTripsThroughText() {
+        byte[] line = new byte[WireProtocol.MAX_TEXT_LINE];
+        int length = WireProtocol.formatText(WireProtocol.OP_KEY, 87, WireProtocol.KEY_DOWN, line, 0);
+        assertEquals("KEY,87;DOWN\n", new String(line, 0, length, StandardCharsets.US_ASCII));
+        assertEquals("KEY,87;DOWN", WireProtocol.formatText(WireProtocol.OP_KEY, 87, WireProtocol.KEY_DOWN));
+
+        Frame frame = new Frame();
+        assertTrue(WireProtocol.parseText("KEY,32;TAP", frame));
+        assertEquals(WireProtocol.OP_KEY, frame.opcode);
+        assertEquals(32, frame.arg0);
+        assertEquals(WireProtocol.KEY_TAP, frame.arg1);
+        assertFalse(WireProtocol.parseText("KEY,32;HOLD", frame));
+    }
+
+    @Test
+    public void zoomRateAndGesture_roundTripThroughText() {
+        byte[] line = new byte[WireProtocol.MAX_TEXT_LINE];
+        int length = WireProtocol.formatText(WireProtocol.OP_ZOOM_RATE, -350, 0, line, 0);
+        assertEquals("ZOOM_RATE,-350\n", new String(line, 0, length, StandardCharsets.US_ASCII));
+        assertEquals("ZOOM_GESTURE,STOP",
+                WireProtocol.formatText(WireProtocol.OP_ZOOM_GESTURE, WireProtocol.ZOOM_STOP, 0));
+
+        Frame frame = new Frame();
+        assertTrue(WireProtocol.parseText("ZOOM_RATE,1000", frame));
+        assertEquals(WireProtocol.OP_ZOOM_RATE, frame.opcode);
+        assertEquals(WireProtocol.ZOOM_RATE_MAX, frame.arg0);
+        assertTrue(WireProtocol.parseText("ZOOM_GESTURE,START", frame));
+        assertEquals(WireProtocol.OP_ZOOM_GESTURE, frame.opcode);
+        assertEquals(WireProtocol.ZOOM_START, frame.arg0);
+        assertFalse(WireProtocol.parseText("ZOOM_RATE,1001", frame));
+        assertFalse(WireProtocol.parseText("ZOOM_GESTURE,PAUSE", frame));
+    }
+
+    @Test
+    public void helloReply_negotiatesVersion() {
+        assertEquals(1, WireProtocol.parseHelloReply("HELLO_OK,1"));
+        assertEquals(ProtocolNegotiator.TEXT_PROTOCOL, WireProtocol.parseHelloReply(""));
+        assertEquals(ProtocolNegotiator.TEXT_PROTOCOL, WireProtocol.parseHelloReply("HELLO_OK,99"));
+    }
+
+    @Test
+    public void parseHello_acceptsClientGreetingOnly() {
+        assertEquals(WireProtocol.VERSION, WireProtocol.parseHello(WireProtocol.helloLine()));
+        assertEquals(0, WireProtocol.parseHello("HELLO,OTRO1"));
+        assertEquals(0, WireProtocol.parseHello("DIRECTION,UP"));
+        assertEquals(WireProtocol.VERSION,
+                WireProtocol.parseHelloReply(WireProtocol.helloReplyLine(WireProtocol.VERSION)));
+    }
+
+    @Test
+    public void stateDatagram_roundTripAndRejectsNonStateOpcodes() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(StateDatagram.SIZE);
+        StateDatagram.encode(WireProtocol.OP_ANALOG, -3, -120, 64, 0x5EED, 123_456_789_000L, buffer);
+        buffer.flip();
+
+        StateDatagram datagram = new StateDatagram().decode(buffer);
+        assertEquals(WireProtocol.OP_ANALOG, datagram.opcode);
+        assertEquals(-3, datagram.seq);
+        assertEquals(-120, datagram.arg0);
+        assertEquals(64, datagram.arg1);
+        assertEquals(0x5EED, datagram.token);
+        assertEquals(123_456_789_000L, datagram.sentNanos);
+
+        buffer.clear();
+        StateDatagram.encode(WireProtocol.OP_BUTTON, 0, 1, 1, 0x5EED, 0L, buffer);
+        buffer.flip();
+        try {
+            datagram.decode(buffer);
+            fail("Los botones no viajan por UDP");
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    @Test
+    public void stateDatagram_sequenceComparisonSurvivesWraparound() {
+        assertTrue(StateDatagram.isNewer(8, 7));
+        assertFalse(StateDatagram.isNewer(7, 7));
+        assertFalse(StateDatagram.isNewer(6, 7));
+        assertTrue(StateDatagram.isNewer(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertFalse(StateDatagram.isNewer(Integer.MAX_VALUE, Integer.MIN_VALUE));
+    }
+}
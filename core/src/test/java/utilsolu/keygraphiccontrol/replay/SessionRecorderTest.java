@@ -0,0 +1,105 @@
+package utilsolu.keygraphiccontrol.replay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+public class SessionRecorderTest {
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private final SessionRecorder recorder = new SessionRecorder(64);
+
+    @Test
+    public void recordedSession_readsBackWithRelativeMonotonicTimes() throws IOException {
+        File file = tmp.newFile("sesion.kgsr");
+        recorder.start(file);
+        assertTrue(recorder.record(WireProtocol.OP_BUTTON, WireProtocol.SIDE_RIGHT, 4, 5_000_000L));
+        assertTrue(recorder.record(WireProtocol.OP_ANALOG, -127, 90, 5_400_000L));
+        // Un clic estampado con otro reloj unos microsegundos "antes": no debe retroceder.
+        assertTrue(recorder.record(WireProtocol.OP_DIRECTION, WireProtocol.DIR_LEFT, 0, 5_300_000L));
+        assertTrue(recorder.record(WireProtocol.OP_DIRECTION, WireProtocol.DIR_STOP, 0, 3_600_000_005_300_000L));
+        recorder.stop();
+        assertEquals(4, recorder.recordedCount());
+        assertEquals(file.length(), recorder.bytesWritten());
+
+        try (SessionReader reader = new SessionReader(file)) {
+            assertTrue(reader.next());
+            assertEquals(0, reader.offsetNanos());
+            assertEquals(WireProtocol.OP_BUTTON, reader.opcode());
+            assertEquals(WireProtocol.SIDE_RIGHT, reader.arg0());
+            assertEquals(4, reader.arg1());
+
+            assertTrue(reader.next());
+            assertEquals(400_000, reader.offsetNanos());
+            assertEquals(-127, reader.arg0());
+            assertEquals(90, reader.arg1());
+
+            assertTrue(reader.next());
+            assertEquals(400_000, reader.offsetNanos());
+            assertEquals(WireProtocol.DIR_LEFT, reader.arg0());
+
+            assertTrue(reader.next());
+            assertEquals(3_600_000_000_300_000L, reader.offsetNanos());
+
+            assertFalse(reader.next());
+            assertFalse(reader.truncated());
+
+            reader.rewind();
+            assertTrue(reader.next());
+            assertEquals(WireProtocol.OP_BUTTON, reader.opcode());
+        }
+    }
+
+    @Test
+    public void cutRecording_readsUpToLastCompleteRecord() throws IOException {
+        File file = tmp.newFile("cortada.kgsr");
+        recorder.start(file);
+        for (int i = 1; i <= 10; i++) {
+            recorder.record(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 1000 * i, i * 1_000_000L);
+        }
+        recorder.stop();
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.setLength(raw.length() - 1);
+        }
+
+        int count = 0;
+        try (SessionReader reader = new SessionReader(file)) {
+            while (reader.next()) {
+                count++;
+                assertEquals(1000 * count, reader.arg1());
+            }
+            assertTrue(reader.truncated());
+        }
+        assertEquals(9, count);
+    }
+
+    @Test
+    public void record_isIgnoredWhenNotRecording() throws IOException {
+        assertFalse(recorder.record(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 1, 0L));
+
+        recorder.start(tmp.newFile("vacia.kgsr"));
+        recorder.stop();
+        assertFalse(recorder.record(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 1, 0L));
+        assertEquals(SessionFormat.HEADER_SIZE, recorder.file().length());
+    }
+
+    @Test(expected = IOException.class)
+    public void reader_rejectsForeignFiles() throws IOException {
+        File file = tmp.newFile("otra.bin");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("BUTTON,BTN_IZQUIERDA_1\n".getBytes("US-ASCII"));
+        }
+        new SessionReader(file).close();
+    }
+}
@@ -0,0 +1,84 @@
+package utilsolu.keygraphiccontrol.trace;
+
+import org.junit.Test;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+public class TraceRingTest {
+
+    @Test
+    public void dump_decodesEventsOnlyWhenAsked() {
+        TraceRing trace = new TraceRing(16);
+        trace.record(TraceEvent.CONNECT_OK, 2, 0);
+        trace.record(TraceEvent.COMMAND, WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 3);
+        trace.record(TraceEvent.CONNECT_FAILED, trace.note("Connection refused"));
+
+        String[] lines = trace.dump(16).split("\n");
+
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].matches("-\\d+\\.\\d{3} ms  conectado: protocolo 2, puerto UDP 0"));
+        assertTrue(lines[1], lines[1].endsWith("comando BUTTON,BTN_IZQUIERDA_3"));
+        assertTrue(lines[2], lines[2].endsWith("fallo al conectar: Connection refused"));
+    }
+
+    @Test
+    public void fullRing_keepsTheNewestRecords() {
+        TraceRing trace = new TraceRing(4);
+        for (int i = 0; i < 10; i++) {
+            trace.record(TraceEvent.MODE_SELECTED, i);
+        }
+
+        String[] lines = trace.dump(100).split("\n");
+
+        assertEquals(10, trace.recordedCount());
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].endsWith("modo 6"));
+        assertTrue(lines[3].endsWith("modo 9"));
+        assertEquals(2, trace.dump(2).split("\n").length);
+    }
+
+    @Test
+    public void oldNotes_expireInsteadOfGrowing() {
+        TraceRing trace = new TraceRing(4);
+        int first = trace.note("primera");
+        for (int i = 0; i < TraceRing.NOTE_CAPACITY; i++) {
+            trace.note("otra " + i);
+        }
+
+        assertTrue(trace.noteText(first).contains("caducada"));
+        trace.record(TraceEvent.WRITE_FAILED, trace.note("Broken pipe"));
+        assertTrue(trace.dump(1).endsWith("fallo al enviar: Broken pipe\n"));
+    }
+
+    @Test
+    public void concurrentWriters_produceOnlyWholeRecords() throws InterruptedException {
+        TraceRing trace = new TraceRing(256);
+        Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            final int id = w;
+            writers[w] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    trace.record(TraceEvent.WRITER_STATS, id, i, id);
+                }
+            });
+            writers[w].start();
+        }
+        // Volcados mientras se escribe: cada línea debe ser un registro completo y coherente.
+        for (int d = 0; d < 50; d++) {
+            for (String line : trace.dump(256).split("\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.substring(line.indexOf("escritor: ") + 10).split(" ");
+                assertEquals(line, parts[0], parts[5]);
+            }
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(80_000, trace.recordedCount());
+        assertEquals(256, trace.dump(1000).split("\n").length);
+    }
+}
@@ -0,0 +1,418 @@
+package utilsolu.keygraphiccontrol.receiver;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import utilsolu.keygraphiccontrol.metrics.LatencyHistogram;
+import utilsolu.keygraphiccontrol.protocol.Frame;
+import utilsolu.keygraphiccontrol.protocol.FrameDecoder;
+import utilsolu.keygraphiccontrol.protocol.FrameEncoder;
+import utilsolu.keygraphiccontrol.protocol.StateDatagram;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Estado de un cliente conectado al {@link ReceiverServer}. Solo lo toca el hilo del selector.
+ *
+ * <p>Empieza en modo texto (líneas "TIPO,VALOR"). Si la primera línea es un HELLO válido se
+ * responde HELLO_OK y, desde ese momento, el cliente habla tramas binarias. Los buffers de
+ * entrada y salida son de tamaño fijo: un cliente no puede hacer crecer la memoria del servidor.
+ *
+ * <p>Con el canal UDP abierto (DATAGRAM_OPEN), el estado llega también en {@link StateDatagram}s:
+ * por canal de estado se descartan los que traen una secuencia vieja (desordenados) o un retraso
+ * anómalo, y solo se entregan al sink los que cambian el valor (los refrescos no).
+ *
+ * <p>Con RESUME el cliente se engancha a una sesión del {@link ResumeDirectory}: los comandos con
+ * {@link WireProtocol#FLAG_RELIABLE} cuya secuencia ya se entregó (reenvíos tras reconectar) se
+ * descartan, y tras cada lectura se confirma con un ACK la última entregada.
+ *
+ * <p>Cada PONG va seguido de un CLOCK con la hora del receptor, con la que el cliente sincroniza
+ * su reloj; los TIMESTAMP que abren sus lotes permiten medir la latencia de ida de cada comando.
+ *
+ * <p>Una macro llega como su cabecera MACRO seguida de todos sus MACRO_STEP, sin nada en medio:
+ * se acumula entera y solo entonces se entrega, paso a paso como {@code KEY}, aplicando las pausas
+ * con el {@link MacroScheduler} (sin él, todo al momento). La cabecera es la que lleva la
+ * secuencia fiable, así que una macro reenviada y ya entregada se descarta completa. Las macros
+ * de un cliente no se solapan: cada una empieza cuando acaba la anterior.
+ */
+final class ClientSession {
+
+    static final int READ_BUFFER_BYTES = 64 * 1024;
+    static final int WRITE_BUFFER_BYTES = 64 * WireProtocol.FRAME_SIZE;
+    /** Una línea más larga que esto no es del protocolo: se corta la conexión. */
+    static final int MAX_LINE_BYTES = 256;
+    /** Un datagrama que tarda esto más que el más rápido reciente llega tarde: se descarta. */
+    static final long MAX_DATAGRAM_DELAY_NANOS = 100_000_000L;
+    // El retraso mínimo se recalcula por ventanas: los relojes de teléfono y PC derivan.
+    private static final long TRANSIT_WINDOW_NANOS = 10_000_000_000L;
+    private static final long NO_TRANSIT = Long.MAX_VALUE;
+
+    final int id;
+    final SocketChannel channel;
+    final ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+    final ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+
+    private final Frame frame = new Frame();
+    private final FrameEncoder replies = new FrameEncoder();
+    private final byte[] line = new byte[MAX_LINE_BYTES];
+    private boolean binary;
+
+    // --- CANAL UDP (datagramPort 0 = el servidor no lo ofrece) ---
+    final int datagramToken;
+    private final int datagramPort;
+    private boolean datagramOpen;
+    private final int[] lastSeq = new int[StateDatagram.SLOT_COUNT];
+    private final boolean[] seenSeq = new boolean[StateDatagram.SLOT_COUNT];
+    private final int[] lastArg0 = new int[StateDatagram.SLOT_COUNT];
+    private final int[] lastArg1 = new int[StateDatagram.SLOT_COUNT];
+    private final boolean[] delivered = new boolean[StateDatagram.SLOT_COUNT];
+    private long transitWindowStart;
+    private long minTransitPrevious = NO_TRANSIT;
+    private long minTransitCurrent = NO_TRANSIT;
+
+    // --- REANUDACIÓN (resumeDirectory null = el servidor no la ofrece) ---
+    private final ResumeDirectory resumeDirectory;
+    ResumeDirectory.State resumeState;
+    private boolean ackPending;
+
+    // --- LATENCIA DE IDA (oneWayLatency null = no se mide) ---
+    private final LatencyHistogram oneWayLatency;
+    // Último TIMESTAMP del cliente, ya en el reloj del receptor; vale para los comandos siguientes.
+    private boolean stamped;
+    private long stampNanos;
+    private long receivedNanos;
+
+    // --- MACROS (macroScheduler null = los pasos se entregan al momento, sin pausas) ---
+    private final MacroScheduler macroScheduler;
+    private final int[] macroKeys = new int[WireProtocol.MACRO_MAX_STEPS];
+    private final int[] macroArgs = new int[WireProtocol.MACRO_MAX_STEPS];
+    // Pasos que anunció la cabecera en curso (0 = ninguna) y cuántos han llegado.
+    private int macroSteps;
+    private int macroReceived;
+    private int macroSeq;
+    private boolean macroReliable;
+    // Instante del último paso programado de este cliente, si queda alguno en el planificador.
+    private boolean macroQueued;
+    private long macroBusyUntilNanos;
+
+    long commands;
+    long unknownLines;
+    long droppedReplies;
+    long datagrams;
+    long staleDatagrams;
+    long reorderedDatagrams;
+    long duplicateCommands;
+    long macros;
+
+    ClientSession(int id, SocketChannel channel) {
+        this(id, channel, 0, 0);
+    }
+
+    ClientSession(int id, SocketChannel channel, int datagramPort, int datagramToken) {
+        this(id, channel, datagramPort, datagramToken, null, null);
+    }
+
+    ClientSession(int id, SocketChannel channel, int datagramPort, int datagramToken, ResumeDirectory resumeDirectory,
+                  LatencyHistogram oneWayLatency) {
+        this(id, channel, datagramPort, datagramToken, resumeDirectory, oneWayLatency, null);
+    }
+
+    ClientSession(int id, SocketChannel channel, int datagramPort, int datagramToken, ResumeDirectory resumeDirectory,
+                  LatencyHistogram oneWayLatency, MacroScheduler macroScheduler) {
+        this.id = id;
+        this.channel = channel;
+        this.datagramPort = datagramPort;
+        this.datagramToken = datagramToken;
+        this.resumeDirectory = resumeDirectory;
+        this.oneWayLatency = oneWayLatency;
+        this.macroScheduler = macroScheduler;
+    }
+
+    boolean isDatagramOpen() {
+        return datagramOpen;
+    }
+
+    boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Consume todos los mensajes completos de {@link #in} (en modo lectura) y los entrega al
+     * sink. Lo que quede a medias se conserva para la próxima lectura. Si se entregó algún
+     * comando fiable, deja un único ACK para todo el bloque.
+     */
+    void process(CommandSink sink) throws ProtocolException {
+        process(sink, System.nanoTime());
+    }
+
+    /** Igual que {@link #process(CommandSink)}; {@code receivedNanos} es la hora de la lectura. */
+    void process(CommandSink sink, long receivedNanos) throws ProtocolException {
+        this.receivedNanos = receivedNanos;
+        while (in.hasRemaining()) {
+            if (binary) {
+                if (!FrameDecoder.decode(in, frame)) {
+                    break;
+                }
+                onFrame(sink);
+            } else if (!processLine(sink)) {
+                break;
+            }
+        }
+        if (ackPending) {
+            ackPending = false;
+            reply(WireProtocol.OP_ACK, resumeState.lastReliableSeq, 0);
+        }
+    }
+
+    private void onFrame(CommandSink sink) throws ProtocolException {
+        if (macroSteps > 0 || frame.opcode == WireProtocol.OP_MACRO_STEP) {
+            onMacroStep(sink);
+            return;
+        }
+        if (frame.opcode == WireProtocol.OP_MACRO) {
+            onMacroHeader();
+            return;
+        }
+        if (frame.opcode == WireProtocol.OP_PING) {
+            reply(WireProtocol.OP_PONG, frame.arg0, resumeState != null ? resumeState.lastReliableSeq : 0);
+            replyClock(frame.arg0);
+            return;
+        }
+        if (frame.opcode == WireProtocol.OP_TIMESTAMP) {
+            stamped = true;
+            stampNanos = WireProtocol.joinBits(frame.arg0, frame.arg1);
+            return;
+        }
+        if (frame.opcode == WireProtocol.OP_RESUME) {
+            if (resumeDirectory != null) {
+                if (resumeState != null) {
+                    resumeDirectory.detach(resumeState, this, receivedNanos);
+                }
+                resumeState = resumeDirectory.resume(frame.arg0, this, receivedNanos);
+                reply(WireProtocol.OP_RESUMED, resumeState.token, resumeState.lastReliableSeq);
+            }
+            // Sin reanudación no se responde: el cliente sigue como una sesión sin secuencias.
+            return;
+        }
+        if ((frame.flags & WireProtocol.FLAG_RELIABLE) != 0 && resumeState != null) {
+            if (frame.seq - resumeState.lastReliableSeq <= 0) {
+                // Reenvío de algo que ya entregamos antes de que cayera la conexión.
+                duplicateCommands++;
+                ackPending = true;
+                return;
+            }
+            resumeState.lastReliableSeq = frame.seq;
+            ackPending = true;
+        }
+        if (frame.opcode == WireProtocol.OP_DATAGRAM_OPEN) {
+            // Puerto 0 = no ofrecido: el cliente sigue enviando el estado por TCP.
+            datagramOpen = datagramPort > 0;
+            reply(WireProtocol.OP_DATAGRAM_READY, datagramPort, datagramOpen ? datagramToken : 0);
+            return;
+        }
+        commands++;
+        if (stamped && oneWayLatency != null) {
+            oneWayLatency.record(receivedNanos - stampNanos);
+        }
+        sink.onCommand(id, frame.opcode, frame.seq, frame.arg0, frame.arg1);
+    }
+
+    private void onMacroHeader() throws ProtocolException {
+        if (frame.arg0 < 1 || frame.arg0 > WireProtocol.MACRO_MAX_STEPS) {
+            throw new ProtocolException("Macro de " + frame.arg0 + " pasos");
+        }
+        macroSteps = frame.arg0;
+        macroReceived = 0;
+        macroSeq = frame.seq;
+        macroReliable = (frame.flags & WireProtocol.FLAG_RELIABLE) != 0 && resumeState != null;
+    }
+
+    private void onMacroStep(CommandSink sink) throws ProtocolException {
+        if (macroSteps == 0) {
+            throw new ProtocolException("MACRO_STEP fuera de una macro");
+        }
+        if (frame.opcode != WireProtocol.OP_MACRO_STEP) {
+            throw new ProtocolException("Macro incompleta: llegó el opcode 0x" + Integer.toHexString(frame.opcode));
+        }
+        if (frame.seq != macroReceived) {
+            throw new ProtocolException("Paso de macro fuera de orden: " + frame.seq);
+        }
+        macroKeys[macroReceived] = frame.arg0;
+        macroArgs[macroReceived] = frame.arg1;
+        macroReceived++;
+        if (macroReceived < macroSteps) {
+            return;
+        }
+        int steps = macroSteps;
+        macroSteps = 0;
+        if (macroReliable) {
+            ackPending = true;
+            if (macroSeq - resumeState.lastReliableSeq <= 0) {
+                duplicateCommands++;
+                return;
+            }
+            resumeState.lastReliableSeq = macroSeq;
+        }
+        macros++;
+        if (stamped && oneWayLatency != null) {
+            oneWayLatency.record(receivedNanos - stampNanos);
+        }
+        deliverMacro(steps, sink);
+    }
+
+    // Lo que cae dentro de esta lectura se entrega ya; desde la primera pausa, al planificador.
+    private void deliverMacro(int steps, CommandSink sink) throws ProtocolException {
+        boolean immediate = true;
+        long due = receivedNanos;
+        if (macroScheduler != null) {
+            if (macroScheduler.free() < steps) {
+                throw new ProtocolException("Demasiados pasos de macro pendientes");
+            }
+            // Lo ya vencido sale antes; si aún queda algo de la macro anterior, esta va detrás.
+            commands += macroScheduler.runDue(receivedNanos, sink);
+            if (macroQueued && macroBusyUntilNanos - receivedNanos > 0) {
+                immediate = false;
+                due = macroBusyUntilNanos;
+            }
+        }
+        for (int i = 0; i < steps; i++) {
+            int delayMs = WireProtocol.macroStepDelayMs(macroArgs[i]);
+            int action = WireProtocol.macroStepAction(macroArgs[i]);
+            if (macroScheduler != null && delayMs > 0) {
+                immediate = false;
+                due += delayMs * 1_000_000L;
+            }
+            if (immediate) {
+                commands++;
+                sink.onCommand(id, WireProtocol.OP_KEY, macroSeq, macroKeys[i], action);
+            } else {
+                macroScheduler.add(due, id, macroSeq, macroKeys[i], action);
+            }
+        }
+        macroQueued = !immediate;
+        macroBusyUntilNanos = due;
+    }
+
+    private void replyClock(int nonce) {
+        if (out.remaining() >= WireProtocol.FRAME_SIZE) {
+            replies.encodeWithSeq(WireProtocol.OP_CLOCK, 0, nonce,
+                    WireProtocol.highBits(receivedNanos), WireProtocol.lowBits(receivedNanos), out);
+        } else {
+            droppedReplies++;
+        }
+    }
+
+    private void reply(int opcode, int arg0, int arg1) {
+        if (out.remaining() >= WireProtocol.FRAME_SIZE) {
+            replies.encode(opcode, arg0, arg1, out);
+        } else {
+            // El cliente no lee sus respuestas: no acumulamos más.
+            droppedReplies++;
+        }
+    }
+
+    /**
+     * Datagrama de estado de este cliente (el servidor ya comprobó el token). Lo entrega al sink
+     * si es más nuevo que el último del mismo canal, no llega con retraso anómalo y cambia el
+     * valor. {@code receivedNanos} es la hora de llegada en el reloj del receptor.
+     */
+    void onDatagram(StateDatagram datagram, long receivedNanos, CommandSink sink) {
+        if (!datagramOpen) {
+            return;
+        }
+        datagrams++;
+        int slot = StateDatagram.slotOf(datagram.opcode);
+        if (seenSeq[slot] && !StateDatagram.isNewer(datagram.seq, lastSeq[slot])) {
+            reorderedDatagrams++;
+            return;
+        }
+        if (isLate(receivedNanos - datagram.sentNanos, receivedNanos)) {
+            staleDatagrams++;
+            return;
+        }
+        seenSeq[slot] = true;
+        lastSeq[slot] = datagram.seq;
+        if (delivered[slot] && lastArg0[slot] == datagram.arg0 && lastArg1[slot] == datagram.arg1) {
+            return;
+        }
+        delivered[slot] = true;
+        lastArg0[slot] = datagram.arg0;
+        lastArg1[slot] = datagram.arg1;
+        commands++;
+        sink.onCommand(id, datagram.opcode, datagram.seq, datagram.arg0, datagram.arg1);
+    }
+
+    /**
+     * {@code transit} mezcla el desfase entre relojes (constante salvo deriva) con el retraso de
+     * red; restando el mínimo reciente queda solo el retraso extra de este datagrama.
+     */
+    private boolean isLate(long transit, long receivedNanos) {
+        if (receivedNanos - transitWindowStart > TRANSIT_WINDOW_NANOS) {
+            transitWindowStart = receivedNanos;
+            minTransitPrevious = minTransitCurrent;
+            minTransitCurrent = NO_TRANSIT;
+        }
+        minTransitCurrent = Math.min(minTransitCurrent, transit);
+        long baseline = Math.min(minTransitPrevious, minTransitCurrent);
+        return transit - baseline > MAX_DATAGRAM_DELAY_NANOS;
+    }
+
+    /** Procesa una línea de texto si está completa. Devuelve false si falta el '\n'. */
+    private boolean processLine(CommandSink sink) throws ProtocolException {
+        int start = in.position();
+        int end = -1;
+        int scanLimit = Math.min(in.limit(), start + MAX_LINE_BYTES);
+        for (int i = start; i < scanLimit; i++) {
+            if (in.get(i) == '\n') {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (scanLimit - start >= MAX_LINE_BYTES) {
+                throw new ProtocolException("Línea de más de " + MAX_LINE_BYTES + " bytes");
+            }
+            return false;
+        }
+        int length = end - start;
+        in.get(line, 0, length);
+        in.get(); // '\n'
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        String text = new String(line, 0, length, StandardCharsets.ISO_8859_1);
+
+        int helloVersion = WireProtocol.parseHello(text);
+        if (helloVersion > 0) {
+            int accepted = Math.min(helloVersion, WireProtocol.VERSION);
+            out.put((WireProtocol.helloReplyLine(accepted) + "\n").getBytes(StandardCharsets.US_ASCII));
+            binary = true;
+        } else if (WireProtocol.parseText(text, frame)) {
+            commands++;
+            sink.onCommand(id, frame.opcode, 0, frame.arg0, frame.arg1);
+        } else {
+            unknownLines++;
+        }
+        return true;
+    }
+
+    /** La conexión se cerró: su sesión reanudable queda a la espera de que el cliente vuelva. */
+    void detachResume(long nowNanos) {
+        if (resumeState != null) {
+            resumeDirectory.detach(resumeState, this, nowNanos);
+        }
+    }
+
+    /** Intenta vaciar las respuestas pendientes. Devuelve true si queda algo por enviar. */
+    boolean flush() throws IOException {
+        if (out.position() == 0) {
+            return false;
+        }
+        out.flip();
+        channel.write(out);
+        out.compact();
+        return out.position() > 0;
+    }
+}
@@ -0,0 +1,23 @@
+package utilsolu.keygraphiccontrol.receiver;
+
+/**
+ * Destino de los comandos que decodifica el {@link ReceiverServer}: inyección de teclas en el
+ * sistema, registro para tests, contadores para benchmarks...
+ *
+ * <p>Todos los métodos se llaman desde el hilo del selector, así que deben volver rápido. Un
+ * sink lento frena la lectura de todos los clientes.
+ */
+public interface CommandSink {
+
+    /**
+     * Un comando recibido. {@code seq} es el número de secuencia de la trama binaria (0 en
+     * texto); el resto son los campos de {@link utilsolu.keygraphiccontrol.protocol.WireProtocol}.
+     */
+    void onCommand(int clientId, int opcode, int seq, int arg0, int arg1);
+
+    default void onClientConnected(int clientId, String address) {
+    }
+
+    default void onClientDisconnected(int clientId) {
+    }
+}
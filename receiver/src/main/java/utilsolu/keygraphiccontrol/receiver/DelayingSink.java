@@ -0,0 +1,48 @@
+package utilsolu.keygraphiccontrol.receiver;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Envuelve otro sink y tarda {@code delayNanos} en cada comando, en el hilo del selector: simula
+ * un listener lento o un túnel adb/USB saturado. El receptor deja de leer mientras tanto, así que
+ * los latidos se contestan tarde y, si el atasco dura, se llena el buffer del socket del
+ * teléfono. Para probar el control del ritmo de envío contra un enlace degradado.
+ */
+public final class DelayingSink implements CommandSink {
+
+    private final CommandSink delegate;
+    private volatile long delayNanos;
+
+    public DelayingSink(CommandSink delegate, long delayNanos) {
+        this.delegate = delegate;
+        this.delayNanos = delayNanos;
+    }
+
+    /** Cambia el retardo en caliente (0 = sin retardo). */
+    public void setDelayNanos(long delayNanos) {
+        this.delayNanos = delayNanos;
+    }
+
+    @Override
+    public void onCommand(int clientId, int opcode, int seq, int arg0, int arg1) {
+        long delay = delayNanos;
+        if (delay > 0) {
+            long until = System.nanoTime() + delay;
+            long remaining;
+            while ((remaining = until - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+        delegate.onCommand(clientId, opcode, seq, arg0, arg1);
+    }
+
+    @Override
+    public void onClientConnected(int clientId, String address) {
+        delegate.onClientConnected(clientId, address);
+    }
+
+    @Override
+    public void onClientDisconnected(int clientId) {
+        delegate.onClientDisconnected(clientId);
+    }
+}
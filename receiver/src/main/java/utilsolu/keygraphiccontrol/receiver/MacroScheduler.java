@@ -0,0 +1,118 @@
+package utilsolu.keygraphiccontrol.receiver;
+
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Pasos de macro que esperan su pausa, ordenados por instante de entrega (y, a igual instante,
+ * por orden de llegada). Es un montículo sobre arrays fijos: los clientes no pueden hacer crecer
+ * la memoria del receptor, y el que llena la cola se desconecta ({@link ClientSession}).
+ *
+ * <p>Solo lo toca el hilo del selector, que duerme como mucho hasta {@link #nextDueNanos()} y
+ * entrega lo vencido con {@link #runDue}. Los pasos de un cliente que se desconecta se entregan
+ * igualmente: la macro ya se confirmó y sus UP sueltan las teclas que pulsó.
+ */
+final class MacroScheduler {
+
+    static final int DEFAULT_CAPACITY = 64 * WireProtocol.MACRO_MAX_STEPS;
+
+    private final long[] due;
+    private final long[] order;
+    private final int[] clients;
+    private final int[] seqs;
+    private final int[] keys;
+    private final int[] actions;
+    private int size;
+    private long nextOrder;
+
+    MacroScheduler(int capacity) {
+        due = new long[capacity];
+        order = new long[capacity];
+        clients = new int[capacity];
+        seqs = new int[capacity];
+        keys = new int[capacity];
+        actions = new int[capacity];
+    }
+
+    int free() {
+        return due.length - size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Instante del próximo paso; solo con la cola no vacía. */
+    long nextDueNanos() {
+        return due[0];
+    }
+
+    /** Programa un paso como {@code KEY} para {@code dueNanos}. Requiere {@link #free()} &gt; 0. */
+    void add(long dueNanos, int clientId, int seq, int key, int action) {
+        int i = size++;
+        set(i, dueNanos, nextOrder++, clientId, seq, key, action);
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!before(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    /** Entrega al sink los pasos vencidos en {@code nowNanos}. Devuelve cuántos. */
+    int runDue(long nowNanos, CommandSink sink) {
+        int delivered = 0;
+        while (size > 0 && due[0] - nowNanos <= 0) {
+            sink.onCommand(clients[0], WireProtocol.OP_KEY, seqs[0], keys[0], actions[0]);
+            delivered++;
+            size--;
+            if (size > 0) {
+                swap(0, size);
+                siftDown();
+            }
+        }
+        return delivered;
+    }
+
+    private void siftDown() {
+        int i = 0;
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                return;
+            }
+            int child = left + 1 < size && before(left + 1, left) ? left + 1 : left;
+            if (!before(child, i)) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private boolean before(int a, int b) {
+        long diff = due[a] - due[b];
+        return diff < 0 || (diff == 0 && order[a] < order[b]);
+    }
+
+    private void swap(int a, int b) {
+        long dueA = due[a];
+        long orderA = order[a];
+        int clientA = clients[a];
+        int seqA = seqs[a];
+        int keyA = keys[a];
+        int actionA = actions[a];
+        set(a, due[b], order[b], clients[b], seqs[b], keys[b], actions[b]);
+        set(b, dueA, orderA, clientA, seqA, keyA, actionA);
+    }
+
+    private void set(int i, long dueNanos, long stepOrder, int clientId, int seq, int key, int action) {
+        due[i] = dueNanos;
+        order[i] = stepOrder;
+        clients[i] = clientId;
+        seqs[i] = seq;
+        keys[i] = key;
+        actions[i] = action;
+    }
+}
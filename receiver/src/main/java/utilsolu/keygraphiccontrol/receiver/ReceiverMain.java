@@ -0,0 +1,112 @@
+package utilsolu.keygraphiccontrol.receiver;
+
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import utilsolu.keygraphiccontrol.metrics.LatencyHistogram;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+/**
+ * Arranca el receptor de referencia desde la línea de comandos.
+ *
+ * <pre>
+ *   receiver [--port 8090] [--host 127.0.0.1] [--verbose] [--delay-us 0]
+ * </pre>
+ *
+ * Sin {@code --verbose} solo imprime el ritmo de comandos cada segundo (y la latencia de ida si
+ * el teléfono sincronizó su reloj); con él, además, cada comando en el formato de texto
+ * heredado. Con {@code adb reverse tcp:8090 tcp:8090} el teléfono
+ * llega a 127.0.0.1 de la PC; {@code adb reverse} no reenvía UDP, así que el canal de estado por
+ * datagramas solo sirve cuando el teléfono ve la IP de la PC (Wi-Fi, anclaje USB) y se escucha
+ * en ella ({@code --host}).
+ *
+ * <p>{@code --delay-us} retrasa cada comando recibido ({@link DelayingSink}) para ver cómo el
+ * teléfono adapta su ritmo de envío a un listener lento.
+ */
+public final class ReceiverMain {
+
+    private ReceiverMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = ReceiverServer.DEFAULT_PORT;
+        String host = "127.0.0.1";
+        boolean verbose = false;
+        long delayMicros = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--host":
+                    host = args[++i];
+                    break;
+                case "--verbose":
+                    verbose = true;
+                    break;
+                case "--delay-us":
+                    delayMicros = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    System.err.println("Argumento desconocido: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        AtomicLong received = new AtomicLong();
+        boolean printEach = verbose;
+        CommandSink sink = new CommandSink() {
+            @Override
+            public void onCommand(int clientId, int opcode, int seq, int arg0, int arg1) {
+                received.incrementAndGet();
+                if (printEach) {
+                    System.out.println("[" + clientId + "] " + describe(opcode, arg0, arg1));
+                }
+            }
+
+            @Override
+            public void onClientConnected(int clientId, String address) {
+                System.out.println("Cliente " + clientId + " conectado desde " + address);
+            }
+
+            @Override
+            public void onClientDisconnected(int clientId) {
+                System.out.println("Cliente " + clientId + " desconectado");
+            }
+        };
+
+        if (delayMicros > 0) {
+            sink = new DelayingSink(sink, TimeUnit.MICROSECONDS.toNanos(delayMicros));
+        }
+        ReceiverServer server = new ReceiverServer(new InetSocketAddress(host, port),
+                ReceiverServer.DEFAULT_MAX_CLIENTS, sink);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.println("Receptor escuchando en " + host + ":" + server.localPort()
+                + (server.datagramPort() > 0 ? " (TCP y UDP)" : " (solo TCP)")
+                + (delayMicros > 0 ? ", retardo " + delayMicros + " us por comando" : ""));
+
+        long last = 0;
+        while (true) {
+            TimeUnit.SECONDS.sleep(1);
+            long total = received.get();
+            if (total != last) {
+                LatencyHistogram oneWay = server.oneWayLatency();
+                System.out.println((total - last) + " comandos/s (total " + total + ")"
+                        + (oneWay.count() > 0 ? String.format(Locale.US, ", ida p50 %.2f ms, p99 %.2f ms",
+                        oneWay.percentileNanos(50) / 1e6, oneWay.percentileNanos(99) / 1e6) : ""));
+                last = total;
+            }
+        }
+    }
+
+    private static String describe(int opcode, int arg0, int arg1) {
+        try {
+            return WireProtocol.formatText(opcode, arg0, arg1);
+        } catch (IllegalArgumentException e) {
+            return "OP 0x" + Integer.toHexString(opcode) + " " + arg0 + " " + arg1;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package utilsolu.keygraphiccontrol.receiver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import utilsolu.keygraphiccontrol.metrics.LatencyHistogram;
+import utilsolu.keygraphiccontrol.protocol.StateDatagram;
+
+/**
+ * Receptor de referencia del lado de la PC: un único hilo con un {@link Selector} atiende a
+ * varios clientes a la vez, decodifica texto heredado y tramas binarias ({@link ClientSession})
+ * y entrega cada comando al {@link CommandSink}.
+ *
+ * <p>Responde al HELLO de la negociación y a los PING de latido, así que el teléfono habla con
+ * él exactamente igual que con el listener real. La memoria está acotada: buffers fijos por
+ * cliente y como mucho {@code maxClients} clientes (los demás se cierran al aceptarlos).
+ *
+ * <p>En el mismo número de puerto escucha también UDP para el canal de estado opcional: cada
+ * cliente recibe un token aleatorio al pedir DATAGRAM_OPEN y solo se aceptan datagramas con un
+ * token vigente que lleguen desde la misma IP que su conexión TCP.
+ *
+ * <p>Las sesiones son reanudables ({@link ResumeDirectory}): un cliente que reconecta con su token
+ * recupera la última secuencia fiable entregada y sus reenvíos no llegan dos veces al sink.
+ *
+ * <p>Responde a cada latido con su hora ({@code clock}), así que el teléfono estima el desfase
+ * entre relojes y marca sus lotes; {@link #oneWayLatency()} acumula la latencia de ida de los
+ * comandos marcados.
+ *
+ * <p>Las macros se ejecutan aquí con sus pausas ({@link MacroScheduler}): el selector duerme como
+ * mucho hasta el próximo paso pendiente.
+ */
+public final class ReceiverServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 8090;
+    public static final int DEFAULT_MAX_CLIENTS = 8;
+
+    private final InetSocketAddress bindAddress;
+    private final int maxClients;
+    private final CommandSink sink;
+    private final LongSupplier clock;
+
+    private ServerSocketChannel server;
+    private DatagramChannel datagramChannel;
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean running;
+
+    // Solo los toca el hilo del selector.
+    private int nextClientId = 1;
+    private final List<ClientSession> sessions = new ArrayList<>();
+    private final SecureRandom tokens = new SecureRandom();
+    private final ByteBuffer datagramIn = ByteBuffer.allocateDirect(2 * StateDatagram.SIZE);
+    private final StateDatagram datagram = new StateDatagram();
+    private final ResumeDirectory resumeDirectory = new ResumeDirectory();
+    private final MacroScheduler macroScheduler = new MacroScheduler(MacroScheduler.DEFAULT_CAPACITY);
+
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong protocolErrors = new AtomicLong();
+    private final AtomicLong rejectedClients = new AtomicLong();
+    private final AtomicLong datagrams = new AtomicLong();
+    private final AtomicLong droppedDatagrams = new AtomicLong();
+    private final AtomicLong invalidDatagrams = new AtomicLong();
+    private final AtomicLong resumedSessions = new AtomicLong();
+    private final AtomicLong duplicateCommands = new AtomicLong();
+    private final AtomicLong macros = new AtomicLong();
+    private final LatencyHistogram oneWayLatency = new LatencyHistogram();
+
+    public ReceiverServer(InetSocketAddress bindAddress, int maxClients, CommandSink sink) {
+        this(bindAddress, maxClients, sink, System::nanoTime);
+    }
+
+    /** {@code clock} sustituye a {@code System.nanoTime()} (tests con relojes desfasados). */
+    public ReceiverServer(InetSocketAddress bindAddress, int maxClients, CommandSink sink, LongSupplier clock) {
+        this.bindAddress = bindAddress;
+        this.maxClients = maxClients;
+        this.sink = sink;
+        this.clock = clock;
+    }
+
+    /** Abre el puerto y arranca el hilo del selector. */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server.bind(bindAddress);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        openDatagramChannel();
+        running = true;
+        thread = new Thread(this::loop, "receiver-selector");
+        thread.start();
+    }
+
+    // Mismo número de puerto que TCP; si está ocupado, el canal UDP no se ofrece.
+    private void openDatagramChannel() throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.bind(new InetSocketAddress(bindAddress.getAddress(), localPort()));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            datagramChannel = channel;
+        } catch (IOException e) {
+            channel.close();
+            System.err.println("Canal UDP no disponible: " + e.getMessage());
+        }
+    }
+
+    /** Puerto real en el que escucha (útil con el puerto 0 en tests). */
+    public int localPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /** Puerto UDP del canal de estado, o 0 si no se pudo abrir. */
+    public int datagramPort() {
+        return datagramChannel == null ? 0 : datagramChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        selector.wakeup();
+        try {
+            t.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long commands() {
+        return commands.get();
+    }
+
+    public long bytesRead() {
+        return bytesRead.get();
+    }
+
+    /** Clientes desconectados por enviar datos que no son del protocolo. */
+    public long protocolErrors() {
+        return protocolErrors.get();
+    }
+
+    /** Conexiones cerradas al aceptarlas por superar {@code maxClients}. */
+    public long rejectedClients() {
+        return rejectedClients.get();
+    }
+
+    /** Datagramas de estado válidos recibidos (entregados o no). */
+    public long datagrams() {
+        return datagrams.get();
+    }
+
+    /** Datagramas válidos descartados por llegar desordenados o con retraso. */
+    public long droppedDatagrams() {
+        return droppedDatagrams.get();
+    }
+
+    /** Datagramas mal formados o con un token desconocido. */
+    public long invalidDatagrams() {
+        return invalidDatagrams.get();
+    }
+
+    /** Reconexiones que recuperaron una sesión existente. */
+    public long resumedSessions() {
+        return resumedSessions.get();
+    }
+
+    /** Comandos fiables reenviados por un cliente que ya se habían entregado (descartados). */
+    public long duplicateCommands() {
+        return duplicateCommands.get();
+    }
+
+    /** Macros completas recibidas y entregadas (sus pasos cuentan en {@link #commands()}). */
+    public long macros() {
+        return macros.get();
+    }
+
+    /** Latencia de ida (envío en el teléfono → lectura aquí) de los comandos con marca de tiempo. */
+    public LatencyHistogram oneWayLatency() {
+        return oneWayLatency;
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.channel() == datagramChannel) {
+                        receiveDatagrams();
+                    } else {
+                        service(key);
+                    }
+                }
+                if (!macroScheduler.isEmpty()) {
+                    commands.addAndGet(macroScheduler.runDue(clock.getAsLong(), sink));
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("Receptor detenido: " + e);
+        } finally {
+            shutdown();
+        }
+    }
+
+    // Sin pasos de macro pendientes, hasta que haya actividad; si no, como mucho hasta el próximo.
+    private void select() throws IOException {
+        if (macroScheduler.isEmpty()) {
+            selector.select();
+            return;
+        }
+        long waitNanos = macroScheduler.nextDueNanos() - clock.getAsLong();
+        if (waitNanos <= 0) {
+            selector.selectNow();
+        } else {
+            selector.select((waitNanos + 999_999) / 1_000_000);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            if (sessions.size() >= maxClients) {
+                rejectedClients.incrementAndGet();
+                channel.close();
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            int token;
+            do {
+                token = tokens.nextInt();
+            } while (token == 0);
+            ClientSession session = new ClientSession(nextClientId++, channel, datagramPort(), token, resumeDirectory,
+                    oneWayLatency, macroScheduler);
+            channel.register(selector, SelectionKey.OP_READ, session);
+            sessions.add(session);
+            sink.onClientConnected(session.id, String.valueOf(channel.getRemoteAddress()));
+        }
+    }
+
+    private void service(SelectionKey key) {
+        ClientSession session = (ClientSession) key.attachment();
+        try {
+            if (key.isReadable()) {
+                int read = session.channel.read(session.in);
+                long receivedNanos = clock.getAsLong();
+                if (read < 0) {
+                    disconnect(key, session);
+                    return;
+                }
+                bytesRead.addAndGet(read);
+                session.in.flip();
+                long before = session.commands;
+                long duplicatesBefore = session.duplicateCommands;
+                long macrosBefore = session.macros;
+                try {
+                    session.process(sink, receivedNanos);
+                } finally {
+                    session.in.compact();
+                    commands.addAndGet(session.commands - before);
+                    duplicateCommands.addAndGet(session.duplicateCommands - duplicatesBefore);
+                    macros.addAndGet(session.macros - macrosBefore);
+                    resumedSessions.set(resumeDirectory.resumedCount());
+                }
+            }
+            boolean pending = session.flush();
+            key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        } catch (ProtocolException e) {
+            protocolErrors.incrementAndGet();
+            System.err.println("Cliente " + session.id + " desconectado: " + e.getMessage());
+            disconnect(key, session);
+        } catch (IOException e) {
+            disconnect(key, session);
+        }
+    }
+
+    private void disconnect(SelectionKey key, ClientSession session) {
+        key.cancel();
+        try {
+            session.channel.close();
+        } catch (IOException ignore) {
+        }
+        sessions.remove(session);
+        session.detachResume(clock.getAsLong());
+        sink.onClientDisconnected(session.id);
+    }
+
+    private void receiveDatagrams() throws IOException {
+        SocketAddress from;
+        while (true) {
+            datagramIn.clear();
+            from = datagramChannel.receive(datagramIn);
+            if (from == null) {
+                return;
+            }
+            long receivedNanos = clock.getAsLong();
+            datagramIn.flip();
+            ClientSession session;
+            try {
+                datagram.decode(datagramIn);
+                session = sessionFor(datagram.token, from);
+            } catch (ProtocolException e) {
+                session = null;
+            }
+            if (session == null) {
+                invalidDatagrams.incrementAndGet();
+                continue;
+            }
+            long delivered = session.commands;
+            long dropped = session.staleDatagrams + session.reorderedDatagrams;
+            session.onDatagram(datagram, receivedNanos, sink);
+            datagrams.incrementAndGet();
+            commands.addAndGet(session.commands - delivered);
+            droppedDatagrams.addAndGet(session.staleDatagrams + session.reorderedDatagrams - dropped);
+        }
+    }
+
+    private ClientSession sessionFor(int token, SocketAddress from) {
+        for (int i = 0; i < sessions.size(); i++) {
+            ClientSession session = sessions.get(i);
+            if (session.datagramToken == token && session.isDatagramOpen()) {
+                InetAddress expected = session.channel.socket().getInetAddress();
+                return expected.equals(((InetSocketAddress) from).getAddress()) ? session : null;
+            }
+        }
+        return null;
+    }
+
+    private void shutdown() {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException ignore) {
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ignore) {
+        }
+    }
+}
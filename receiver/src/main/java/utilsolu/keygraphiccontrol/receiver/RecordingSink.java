@@ -0,0 +1,129 @@
+package utilsolu.keygraphiccontrol.receiver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sink sin efectos para tests y pruebas de carga: guarda los comandos en arrays de primitivos
+ * de capacidad fija. Lo que no cabe se cuenta en {@link #dropped()}, pero no se guarda.
+ */
+public final class RecordingSink implements CommandSink {
+
+    private final int[] clientIds;
+    private final int[] opcodes;
+    private final int[] seqs;
+    private final int[] args0;
+    private final int[] args1;
+    private int count;
+    private long dropped;
+    private int connected;
+    private int disconnected;
+
+    public RecordingSink(int capacity) {
+        clientIds = new int[capacity];
+        opcodes = new int[capacity];
+        seqs = new int[capacity];
+        args0 = new int[capacity];
+        args1 = new int[capacity];
+    }
+
+    @Override
+    public synchronized void onCommand(int clientId, int opcode, int seq, int arg0, int arg1) {
+        if (count == opcodes.length) {
+            dropped++;
+            return;
+        }
+        clientIds[count] = clientId;
+        opcodes[count] = opcode;
+        seqs[count] = seq;
+        args0[count] = arg0;
+        args1[count] = arg1;
+        count++;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onClientConnected(int clientId, String address) {
+        connected++;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onClientDisconnected(int clientId) {
+        disconnected++;
+        notifyAll();
+    }
+
+    /** Espera a que haya al menos {@code expected} comandos guardados. Devuelve false si vence el timeout. */
+    public synchronized boolean awaitCount(int expected, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (count < expected) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0) {
+                return false;
+            }
+            wait(remainingMs);
+        }
+        return true;
+    }
+
+    /** Espera a que se hayan desconectado al menos {@code expected} clientes. */
+    public synchronized boolean awaitDisconnected(int expected, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (disconnected < expected) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0) {
+                return false;
+            }
+            wait(remainingMs);
+        }
+        return true;
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    public synchronized long dropped() {
+        return dropped;
+    }
+
+    public synchronized int connectedClients() {
+        return connected;
+    }
+
+    public synchronized int disconnectedClients() {
+        return disconnected;
+    }
+
+    public synchronized int clientId(int index) {
+        return clientIds[check(index)];
+    }
+
+    public synchronized int opcode(int index) {
+        return opcodes[check(index)];
+    }
+
+    public synchronized int seq(int index) {
+        return seqs[check(index)];
+    }
+
+    public synchronized int arg0(int index) {
+        return args0[check(index)];
+    }
+
+    public synchronized int arg1(int index) {
+        return args1[check(index)];
+    }
+
+    public synchronized void clear() {
+        count = 0;
+        dropped = 0;
+    }
+
+    private int check(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Comando " + index + " de " + count);
+        }
+        return index;
+    }
+}
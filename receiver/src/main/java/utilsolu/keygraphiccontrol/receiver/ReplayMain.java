@@ -0,0 +1,195 @@
+package utilsolu.keygraphiccontrol.receiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import utilsolu.keygraphiccontrol.metrics.LatencyTracker;
+import utilsolu.keygraphiccontrol.net.CommandRing;
+import utilsolu.keygraphiccontrol.net.CommandWriter;
+import utilsolu.keygraphiccontrol.net.DatagramStateSender;
+import utilsolu.keygraphiccontrol.net.NioSocketTransport;
+import utilsolu.keygraphiccontrol.net.OutboundQueue;
+import utilsolu.keygraphiccontrol.net.StateCoalescer;
+import utilsolu.keygraphiccontrol.protocol.Frame;
+import utilsolu.keygraphiccontrol.protocol.ProtocolNegotiator;
+import utilsolu.keygraphiccontrol.replay.ReplayReport;
+import utilsolu.keygraphiccontrol.replay.SessionReplayer;
+
+/**
+ * Prueba de carga / resistencia sin teléfono: reproduce una grabación de sesión (la que exporta
+ * el overlay de depuración) con la misma pila de envío que la app contra un receptor.
+ *
+ * <pre>
+ *   replay sesion.kgsr [--speed 1|N|max] [--duration-s 0] [--host 127.0.0.1 --port 8090] [--udp]
+ * </pre>
+ *
+ * Sin {@code --port} arranca su propio {@link ReceiverServer} en loopback y comprueba que recibe
+ * todo lo escrito. Con {@code --duration-s} repite la grabación hasta agotar ese tiempo (0 = una
+ * pasada). Imprime el progreso cada {@link #PROGRESS_INTERVAL_S} s y al final el ritmo, las
+ * latencias por etapa y el crecimiento del heap. Con {@code --udp} el estado va por el canal de
+ * datagramas si el receptor lo ofrece. Sale con código 1 si se perdió algún comando por TCP.
+ */
+public final class ReplayMain {
+
+    private static final int PROGRESS_INTERVAL_S = 10;
+    // Mismos parámetros que la app.
+    private static final int COMMAND_RING_CAPACITY = 256;
+    private static final int SEND_BUFFER_BYTES = 8 * 1024;
+    private static final int WRITE_TIMEOUT_MS = 2000;
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final int HANDSHAKE_TIMEOUT_MS = 1000;
+    private static final long DRAIN_TIMEOUT_MS = 5000;
+
+    private ReplayMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        File recording = null;
+        double speed = 1;
+        long durationS = 0;
+        String host = "127.0.0.1";
+        int port = 0;
+        boolean udp = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--speed":
+                    String value = args[++i];
+                    speed = "max".equals(value) ? SessionReplayer.MAX_SPEED : Double.parseDouble(value);
+                    break;
+                case "--duration-s":
+                    durationS = Long.parseLong(args[++i]);
+                    break;
+                case "--host":
+                    host = args[++i];
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--udp":
+                    udp = true;
+                    break;
+                default:
+                    if (args[i].startsWith("--") || recording != null) {
+                        System.err.println("Argumento desconocido: " + args[i]);
+                        System.exit(2);
+                    }
+                    recording = new File(args[i]);
+            }
+        }
+        if (recording == null) {
+            System.err.println("Uso: replay <grabación> [--speed 1|N|max] [--duration-s S] [--host H --port P]");
+            System.exit(2);
+        }
+
+        ReceiverServer server = null;
+        if (port == 0) {
+            server = new ReceiverServer(new InetSocketAddress(host, 0), 1, new CountingSink());
+            server.start();
+            port = server.localPort();
+        }
+
+        LatencyTracker latency = new LatencyTracker();
+        StateCoalescer coalescer = new StateCoalescer(StateCoalescer.CHANNEL_COUNT);
+        OutboundQueue queue = new OutboundQueue(new CommandRing(COMMAND_RING_CAPACITY), coalescer);
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        AtomicReference<SessionReplayer> replayerRef = new AtomicReference<>();
+        CommandWriter writer = new CommandWriter(queue, latency, error -> {
+            failure.set(error);
+            SessionReplayer r = replayerRef.get();
+            if (r != null) {
+                r.cancel();
+            }
+        });
+        SessionReplayer replayer = new SessionReplayer(writer);
+        replayerRef.set(replayer);
+
+        NioSocketTransport transport = new NioSocketTransport(SEND_BUFFER_BYTES, WRITE_TIMEOUT_MS);
+        transport.connect(host, port, CONNECT_TIMEOUT_MS);
+        int version = ProtocolNegotiator.negotiate(transport, HANDSHAKE_TIMEOUT_MS);
+        DatagramStateSender datagrams = null;
+        Frame ready = new Frame();
+        if (udp && version != ProtocolNegotiator.TEXT_PROTOCOL
+                && ProtocolNegotiator.negotiateDatagram(transport, HANDSHAKE_TIMEOUT_MS, ready)) {
+            datagrams = new DatagramStateSender();
+            datagrams.connect(host, ready.arg0, ready.arg1);
+        }
+        writer.attach(transport, version, datagrams);
+        writer.start();
+        System.out.println("Reproduciendo " + recording + " contra " + host + ":" + port + " ("
+                + (version == ProtocolNegotiator.TEXT_PROTOCOL ? "texto" : "binario v" + version)
+                + (datagrams != null ? ", estado por UDP" : "") + ", velocidad "
+                + (speed == SessionReplayer.MAX_SPEED ? "máxima" : speed + "x") + ")");
+
+        Thread progress = new Thread(() -> printProgress(replayer, writer), "replay-progress");
+        progress.setDaemon(true);
+        progress.start();
+
+        ReplayReport report = replayer.replay(recording, speed, TimeUnit.SECONDS.toNanos(durationS));
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MS);
+        while (queue.hasPending() && failure.get() == null && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        writer.stop();
+        transport.close();
+        if (datagrams != null) {
+            datagrams.close();
+            System.out.println("UDP: " + datagrams);
+        }
+
+        boolean lost = failure.get() != null || queue.hasPending();
+        System.out.print(report.formatText());
+        System.out.print(latency.formatText());
+        System.out.println(queue + ", " + coalescer);
+        System.out.println("Escritos: " + writer.commandsWritten() + " comandos en " + writer.writeCalls()
+                + " escrituras, " + transport.bytesWritten() + " bytes");
+        if (server != null && datagrams != null) {
+            // UDP no garantiza la entrega (ni el receptor repite los refrescos): solo se informa.
+            TimeUnit.MILLISECONDS.sleep(100);
+            System.out.println("Recibidos por el receptor: " + server.commands() + ", datagramas "
+                    + server.datagrams() + " (" + server.droppedDatagrams() + " descartados)"
+                    + ", errores de protocolo: " + server.protocolErrors());
+            lost |= server.protocolErrors() > 0;
+            server.close();
+        } else if (server != null) {
+            long written = writer.commandsWritten();
+            while (server.commands() < written && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            System.out.println("Recibidos por el receptor: " + server.commands()
+                    + ", errores de protocolo: " + server.protocolErrors());
+            lost |= server.commands() != written || server.protocolErrors() > 0;
+            server.close();
+        }
+        if (failure.get() != null) {
+            System.out.println("Fallo de escritura: " + failure.get());
+        }
+        System.exit(lost ? 1 : 0);
+    }
+
+    private static void printProgress(SessionReplayer replayer, CommandWriter writer) {
+        Runtime runtime = Runtime.getRuntime();
+        long last = 0;
+        try {
+            while (true) {
+                TimeUnit.SECONDS.sleep(PROGRESS_INTERVAL_S);
+                long total = replayer.replayedCount();
+                System.out.println((total - last) / PROGRESS_INTERVAL_S + " cmd/s (total " + total + ", escritos "
+                        + writer.commandsWritten() + "), heap " + (runtime.totalMemory() - runtime.freeMemory()) / 1024
+                        + " KiB");
+                last = total;
+            }
+        } catch (InterruptedException ignore) {
+        }
+    }
+
+    /** El receptor embebido solo cuenta: {@link ReceiverServer#commands()} ya lleva el total. */
+    private static final class CountingSink implements CommandSink {
+        @Override
+        public void onCommand(int clientId, int opcode, int seq, int arg0, int arg1) {
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package utilsolu.keygraphiccontrol.receiver;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Sesiones reanudables del {@link ReceiverServer}: por token, la última secuencia fiable entregada
+ * al sink. Sobreviven a la conexión TCP durante {@link #DEFAULT_TTL_NANOS} para que el cliente que
+ * reconecta solo reciba (y el sink solo vea) lo que faltaba. Solo la toca el hilo del selector.
+ */
+final class ResumeDirectory {
+
+    static final long DEFAULT_TTL_NANOS = 60_000_000_000L;
+    static final int DEFAULT_MAX_SESSIONS = 256;
+
+    /** Estado compartido por las conexiones sucesivas de un mismo cliente. */
+    static final class State {
+        final int token;
+        int lastReliableSeq;
+        // Conexión que la usa ahora; null si está esperando a que el cliente vuelva.
+        ClientSession owner;
+        long detachedAtNanos;
+
+        State(int token) {
+            this.token = token;
+        }
+    }
+
+    private final long ttlNanos;
+    private final int maxSessions;
+    private final Map<Integer, State> states = new HashMap<>();
+    private final SecureRandom tokens = new SecureRandom();
+
+    private long resumed;
+
+    ResumeDirectory() {
+        this(DEFAULT_TTL_NANOS, DEFAULT_MAX_SESSIONS);
+    }
+
+    ResumeDirectory(long ttlNanos, int maxSessions) {
+        this.ttlNanos = ttlNanos;
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Sesión del token para {@code owner}, o una nueva (con token nuevo) si el token es 0, no
+     * existe o caducó. Si otra conexión la tenía (el servidor aún no ha visto morir la vieja),
+     * pasa a la nueva.
+     */
+    State resume(int token, ClientSession owner, long nowNanos) {
+        expire(nowNanos);
+        State state = token != 0 ? states.get(token) : null;
+        if (state != null) {
+            resumed++;
+        } else {
+            if (states.size() >= maxSessions) {
+                evictOldestDetached();
+            }
+            int fresh;
+            do {
+                fresh = tokens.nextInt();
+            } while (fresh == 0 || states.containsKey(fresh));
+            state = new State(fresh);
+            states.put(fresh, state);
+        }
+        state.owner = owner;
+        return state;
+    }
+
+    /** La conexión {@code owner} se cerró: su sesión queda a la espera hasta caducar. */
+    void detach(State state, ClientSession owner, long nowNanos) {
+        if (state.owner == owner) {
+            state.owner = null;
+            state.detachedAtNanos = nowNanos;
+        }
+    }
+
+    /** Reanudaciones de sesiones existentes. */
+    long resumedCount() {
+        return resumed;
+    }
+
+    int size() {
+        return states.size();
+    }
+
+    private void expire(long nowNanos) {
+        Iterator<State> it = states.values().iterator();
+        while (it.hasNext()) {
+            State state = it.next();
+            if (state.owner == null && nowNanos - state.detachedAtNanos > ttlNanos) {
+                it.remove();
+            }
+        }
+    }
+
+    private void evictOldestDetached() {
+        State oldest = null;
+        for (State state : states.values()) {
+            if (state.owner == null && (oldest == null || state.detachedAtNanos - oldest.detachedAtNanos < 0)) {
+                oldest = state;
+            }
+        }
+        if (oldest != null) {
+            states.remove(oldest.token);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package utilsolu.keygraphiccontrol.receiver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import utilsolu.keygraphiccontrol.metrics.LatencyTracker;
+import utilsolu.keygraphiccontrol.net.CommandRing;
+import utilsolu.keygraphiccontrol.net.CommandWriter;
+import utilsolu.keygraphiccontrol.net.DatagramStateSender;
+import utilsolu.keygraphiccontrol.net.NioSocketTransport;
+import utilsolu.keygraphiccontrol.net.OutboundQueue;
+import utilsolu.keygraphiccontrol.net.StateCoalescer;
+import utilsolu.keygraphiccontrol.protocol.Frame;
+import utilsolu.keygraphiccontrol.protocol.ProtocolNegotiator;
+import utilsolu.keygraphiccontrol.protocol.StateDatagram;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+/** Canal UDP de estado contra el receptor en loopback: botones por TCP, estado por datagramas. */
+public class DatagramStateTest {
+
+    private static final String LOOPBACK = "127.0.0.1";
+
+    private final RecordingSink sink = new RecordingSink(1000);
+    private ReceiverServer server;
+    private NioSocketTransport transport;
+    private final Frame ready = new Frame();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ReceiverServer(new InetSocketAddress(LOOPBACK, 0), 2, sink);
+        server.start();
+        transport = new NioSocketTransport(NioSocketTransport.DEFAULT_SEND_BUFFER, 1000);
+        transport.connect(LOOPBACK, server.localPort(), 1000);
+        assertEquals(WireProtocol.VERSION, ProtocolNegotiator.negotiate(transport, 1000));
+        assertTrue(ProtocolNegotiator.negotiateDatagram(transport, 1000, ready));
+        assertEquals(server.datagramPort(), ready.arg0);
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+        server.close();
+    }
+
+    @Test
+    public void phoneStack_sendsButtonsOverTcpAndStateOverUdp() throws Exception {
+        DatagramStateSender udp = new DatagramStateSender();
+        udp.connect(LOOPBACK, ready.arg0, ready.arg1);
+        CommandRing ring = new CommandRing(16);
+        CommandWriter writer = new CommandWriter(new OutboundQueue(ring, new StateCoalescer(StateCoalescer.CHANNEL_COUNT)),
+                new LatencyTracker(), error -> { });
+        writer.attach(transport, WireProtocol.VERSION, udp);
+        writer.start();
+        try {
+            writer.submit(WireProtocol.OP_BUTTON, WireProtocol.SIDE_RIGHT, 3, System.nanoTime());
+            assertTrue(sink.awaitCount(1, 2000));
+            writer.submit(WireProtocol.OP_DIRECTION, WireProtocol.DIR_LEFT, 0, System.nanoTime());
+            assertTrue(sink.awaitCount(2, 2000));
+            // Un latido refresca el estado: el receptor lo recibe pero no lo repite al sink.
+            writer.publishPing(1);
+            long deadline = System.currentTimeMillis() + 2000;
+            while (server.datagrams() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+        } finally {
+            writer.stop();
+            udp.close();
+        }
+
+        assertEquals(2, server.datagrams());
+        assertEquals(2, sink.count());
+        assertEquals(WireProtocol.OP_BUTTON, sink.opcode(0));
+        assertEquals(WireProtocol.OP_DIRECTION, sink.opcode(1));
+        assertEquals(WireProtocol.DIR_LEFT, sink.arg0(1));
+        assertEquals(0, server.invalidDatagrams());
+    }
+
+    @Test
+    public void reorderedAndLateDatagrams_areDropped() throws Exception {
+        try (DatagramChannel phone = DatagramChannel.open()) {
+            phone.connect(new InetSocketAddress(LOOPBACK, ready.arg0));
+            long now = System.nanoTime();
+            send(phone, WireProtocol.OP_DIRECTION, 10, WireProtocol.DIR_UP, ready.arg1, now);
+            // Más viejo que el anterior: llega desordenado.
+            send(phone, WireProtocol.OP_DIRECTION, 9, WireProtocol.DIR_DOWN, ready.arg1, now);
+            // Otro canal de estado lleva su propia secuencia.
+            send(phone, WireProtocol.OP_ZOOM, 5, WireProtocol.ZOOM_IN, ready.arg1, now);
+            // Enviado "hace" 500 ms: retraso muy por encima del de los demás.
+            send(phone, WireProtocol.OP_DIRECTION, 11, WireProtocol.DIR_RIGHT, ready.arg1,
+                    System.nanoTime() - 500_000_000L);
+            send(phone, WireProtocol.OP_DIRECTION, 12, WireProtocol.DIR_STOP, ready.arg1, System.nanoTime());
+            // Token ajeno.
+            send(phone, WireProtocol.OP_DIRECTION, 13, WireProtocol.DIR_UP, ready.arg1 + 1, System.nanoTime());
+
+            assertTrue(sink.awaitCount(3, 2000));
+            long deadline = System.currentTimeMillis() + 2000;
+            while (server.invalidDatagrams() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+        assertEquals(3, sink.count());
+        assertEquals(WireProtocol.DIR_UP, sink.arg0(0));
+        assertEquals(WireProtocol.OP_ZOOM, sink.opcode(1));
+        assertEquals(WireProtocol.DIR_STOP, sink.arg0(2));
+        assertEquals(12, sink.seq(2));
+        assertEquals(2, server.droppedDatagrams());
+        assertEquals(1, server.invalidDatagrams());
+    }
+
+    private static void send(DatagramChannel channel, int opcode, int seq, int arg0, int token, long sentNanos)
+            throws IOException {
+        ByteBuffer packet = ByteBuffer.allocate(StateDatagram.SIZE);
+        StateDatagram.encode(opcode, seq, arg0, 0, token, sentNanos, packet);
+        packet.flip();
+        channel.write(packet);
+    }
+}
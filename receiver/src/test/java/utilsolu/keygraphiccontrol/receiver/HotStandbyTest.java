@@ -0,0 +1,365 @@
+package utilsolu.keygraphiccontrol.receiver;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import utilsolu.keygraphiccontrol.metrics.ConnectionMetrics;
+import utilsolu.keygraphiccontrol.net.ConnectionManager;
+import utilsolu.keygraphiccontrol.protocol.Frame;
+import utilsolu.keygraphiccontrol.protocol.FrameDecoder;
+import utilsolu.keygraphiccontrol.protocol.FrameEncoder;
+import utilsolu.keygraphiccontrol.protocol.ProtocolNegotiator;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+/** Conexión de reserva contra receptores reales en loopback que se matan y se vuelven a arrancar. */
+public class HotStandbyTest {
+
+    private static final String LOOPBACK = "127.0.0.1";
+    private static final long SWITCH_BUDGET_NANOS = 100_000_000L;
+
+    private final ConnectionMetrics metrics = new ConnectionMetrics();
+    private final AtomicInteger standbyReady = new AtomicInteger();
+    private final List<ReceiverServer> servers = new ArrayList<>();
+    private final List<ConnectionManager.Link> links = new ArrayList<>();
+    private ConnectionManager manager;
+    private SlowPongListener slow;
+    private LegacyTextListener legacy;
+
+    @After
+    public void tearDown() {
+        if (manager != null) {
+            manager.stop();
+        }
+        if (slow != null) {
+            slow.close();
+        }
+        if (legacy != null) {
+            legacy.close();
+        }
+        for (ConnectionManager.Link link : links) {
+            link.transport.close();
+        }
+        for (ReceiverServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void standbyOnSecondListener_takesOverWithinMilliseconds() throws Exception {
+        RecordingSink sinkA = new RecordingSink(16);
+        RecordingSink sinkB = new RecordingSink(16);
+        ReceiverServer a = startServer(0, sinkA);
+        ReceiverServer b = startServer(0, sinkB);
+        manager = newManager(true, a.localPort(), b.localPort());
+        manager.start();
+        Frame resumed = new Frame();
+
+        await(manager::hasStandby);
+        ConnectionManager.Link first = acquire(0, resumed);
+        assertEquals(a.localPort(), first.endpoint.port);
+        assertEquals(WireProtocol.OP_RESUMED, resumed.opcode);
+
+        // La reserva se repone en el otro listener; al matar el activo, se pasa a ella.
+        await(() -> manager.standbysOpened() == 2 && manager.hasStandby());
+        a.close();
+        ConnectionManager.Link second = acquire(resumed.arg0, resumed);
+
+        assertTrue(second.fromStandby);
+        assertEquals(b.localPort(), second.endpoint.port);
+        assertEquals(WireProtocol.OP_RESUMED, resumed.opcode);
+        assertEquals(2, metrics.standbySwitch().count());
+        assertTrue("cambio: " + metrics.standbySwitch().maxNanos() + " ns",
+                metrics.standbySwitch().maxNanos() < SWITCH_BUDGET_NANOS);
+
+        sendButton(second, 7);
+        assertTrue(sinkB.awaitCount(1, 2000));
+        assertEquals(7, sinkB.arg1(0));
+    }
+
+    @Test
+    public void listenerRestart_rebuildsStandbyOnTheSamePort() throws Exception {
+        RecordingSink sink = new RecordingSink(16);
+        ReceiverServer server = startServer(0, sink);
+        int port = server.localPort();
+        manager = newManager(true, port);
+        manager.start();
+        Frame resumed = new Frame();
+
+        await(manager::hasStandby);
+        acquire(0, resumed);
+        await(() -> manager.standbysOpened() == 2);
+
+        // El listener se reinicia: la comprobación ve la reserva muerta y la repone al volver.
+        server.close();
+        await(() -> metrics.standbysLost() > 0);
+        int notified = standbyReady.get();
+        ReceiverServer restarted = startServer(port, sink);
+        await(() -> standbyReady.get() > notified);
+
+        ConnectionManager.Link link = acquire(resumed.arg0, resumed);
+        assertTrue(link.fromStandby);
+        assertEquals(WireProtocol.OP_RESUMED, resumed.opcode);
+        sendButton(link, 3);
+        await(() -> restarted.commands() == 1);
+        assertEquals(3, sink.arg1(0));
+    }
+
+    @Test
+    public void withoutStandby_triesEachEndpointInTurn() throws Exception {
+        int deadPort;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            deadPort = probe.getLocalPort();
+        }
+        ReceiverServer alive = startServer(0, new RecordingSink(16));
+        manager = newManager(false, deadPort, alive.localPort());
+        manager.start();
+
+        ConnectionManager.Link link = acquire(0, new Frame());
+
+        assertFalse(link.fromStandby);
+        assertEquals(alive.localPort(), link.endpoint.port);
+        assertFalse(manager.hasStandby());
+        assertEquals(1, metrics.coldSwitch().count());
+        assertEquals(0, metrics.standbySwitch().count());
+    }
+
+    @Test
+    public void acquireDuringSlowProbe_doesNotWaitForIt() throws Exception {
+        int handshakeTimeoutMs = 1000;
+        slow = new SlowPongListener(800);
+        manager = new ConnectionManager(Arrays.asList(new ConnectionManager.Endpoint(LOOPBACK, slow.port())), true,
+                1000, handshakeTimeoutMs, 0, 1000, metrics, standbyReady::incrementAndGet);
+        manager.start();
+        Frame resumed = new Frame();
+
+        await(manager::hasStandby);
+        // La comprobación de la reserva está esperando su PONG.
+        assertTrue(slow.pingReceived.await(2, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        ConnectionManager.Link link = acquire(0, resumed);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("acquire tardó " + elapsedMs + " ms", elapsedMs < handshakeTimeoutMs / 4);
+        assertFalse(link.fromStandby);
+        assertEquals(WireProtocol.OP_RESUMED, resumed.opcode);
+    }
+
+    @Test
+    public void textListener_isRememberedAndReconnectsSkipTheHandshakeWait() throws Exception {
+        int handshakeTimeoutMs = 300;
+        legacy = new LegacyTextListener();
+        manager = new ConnectionManager(Arrays.asList(new ConnectionManager.Endpoint(LOOPBACK, legacy.port())), false,
+                1000, handshakeTimeoutMs, 0, 1000, metrics, null);
+
+        ConnectionManager.Link first = acquire(0, new Frame());
+        assertEquals(ProtocolNegotiator.TEXT_PROTOCOL, first.protocolVersion);
+        assertTrue(manager.isTextOnly(0));
+
+        long start = System.nanoTime();
+        ConnectionManager.Link second = acquire(0, new Frame());
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(ProtocolNegotiator.TEXT_PROTOCOL, second.protocolVersion);
+        assertTrue("reconexión en " + elapsedMs + " ms", elapsedMs < handshakeTimeoutMs / 2);
+        Thread.sleep(50);
+        assertEquals(1, legacy.hellos.get());
+    }
+
+    private ReceiverServer startServer(int port, RecordingSink sink) throws IOException {
+        ReceiverServer server = new ReceiverServer(new InetSocketAddress(LOOPBACK, port), 4, sink);
+        server.start();
+        servers.add(server);
+        return server;
+    }
+
+    private ConnectionManager newManager(boolean standby, int... ports) {
+        ConnectionManager.Endpoint[] endpoints = new ConnectionManager.Endpoint[ports.length];
+        for (int i = 0; i < ports.length; i++) {
+            endpoints[i] = new ConnectionManager.Endpoint(LOOPBACK, ports[i]);
+        }
+        return new ConnectionManager(Arrays.asList(endpoints), standby, 1000, 300, 0, 1000, metrics,
+                standbyReady::incrementAndGet);
+    }
+
+    private ConnectionManager.Link acquire(int token, Frame resumed) throws IOException {
+        ConnectionManager.Link link = manager.acquire(token, resumed);
+        links.add(link);
+        return link;
+    }
+
+    private static void sendButton(ConnectionManager.Link link, int index) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(WireProtocol.FRAME_SIZE);
+        new FrameEncoder().encode(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, index, frame);
+        frame.flip();
+        link.transport.write(new ByteBuffer[]{frame}, 0, 1);
+    }
+
+    /**
+     * Listener mínimo que negocia y reanuda al momento pero tarda {@code pongDelayMs} en contestar
+     * cada PING, como uno saturado o tras una red con pérdidas.
+     */
+    private static final class SlowPongListener {
+        final CountDownLatch pingReceived = new CountDownLatch(1);
+        private final ServerSocket server = new ServerSocket(0);
+        private final List<Socket> clients = new ArrayList<>();
+        private final int pongDelayMs;
+
+        SlowPongListener(int pongDelayMs) throws IOException {
+            this.pongDelayMs = pongDelayMs;
+            Thread acceptor = new Thread(this::accept, "slow-listener");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    Socket client = server.accept();
+                    synchronized (clients) {
+                        clients.add(client);
+                    }
+                    Thread t = new Thread(() -> serve(client), "slow-listener-client");
+                    t.setDaemon(true);
+                    t.start();
+                }
+            } catch (IOException e) {
+                // Cerrado al acabar el test.
+            }
+        }
+
+        private void serve(Socket client) {
+            try {
+                DataInputStream in = new DataInputStream(client.getInputStream());
+                OutputStream out = client.getOutputStream();
+                while (in.read() != '\n') {
+                    // La línea HELLO.
+                }
+                out.write((WireProtocol.helloReplyLine(WireProtocol.VERSION) + "\n").getBytes(StandardCharsets.US_ASCII));
+                byte[] bytes = new byte[WireProtocol.FRAME_SIZE];
+                byte[] reply = new byte[WireProtocol.FRAME_SIZE];
+                Frame frame = new Frame();
+                FrameEncoder encoder = new FrameEncoder();
+                while (true) {
+                    in.readFully(bytes);
+                    FrameDecoder.decode(bytes, 0, frame);
+                    if (frame.opcode == WireProtocol.OP_RESUME) {
+                        encoder.encode(WireProtocol.OP_RESUMED, 1, 0, reply, 0);
+                    } else if (frame.opcode == WireProtocol.OP_PING) {
+                        pingReceived.countDown();
+                        Thread.sleep(pongDelayMs);
+                        encoder.encode(WireProtocol.OP_PONG, frame.arg0, 0, reply, 0);
+                    } else {
+                        continue;
+                    }
+                    out.write(reply);
+                }
+            } catch (IOException | InterruptedException e) {
+                // El cliente o el test cerraron la conexión.
+            }
+        }
+
+        void close() {
+            try {
+                server.close();
+                synchronized (clients) {
+                    for (Socket client : clients) {
+                        client.close();
+                    }
+                }
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /** Listener de texto de los de antes: lee líneas y no contesta nunca al HELLO. */
+    private static final class LegacyTextListener {
+        final AtomicInteger hellos = new AtomicInteger();
+        private final ServerSocket server = new ServerSocket(0);
+        private final List<Socket> clients = new ArrayList<>();
+
+        LegacyTextListener() throws IOException {
+            Thread acceptor = new Thread(this::accept, "legacy-listener");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    Socket client = server.accept();
+                    synchronized (clients) {
+                        clients.add(client);
+                    }
+                    Thread t = new Thread(() -> serve(client), "legacy-listener-client");
+                    t.setDaemon(true);
+                    t.start();
+                }
+            } catch (IOException e) {
+                // Cerrado al acabar el test.
+            }
+        }
+
+        private void serve(Socket client) {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(),
+                        StandardCharsets.US_ASCII));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith(WireProtocol.HELLO)) {
+                        hellos.incrementAndGet();
+                    }
+                }
+            } catch (IOException e) {
+                // El cliente o el test cerraron la conexión.
+            }
+        }
+
+        void close() {
+            try {
+                server.close();
+                synchronized (clients) {
+                    for (Socket client : clients) {
+                        client.close();
+                    }
+                }
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 3_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue("condición no alcanzada a tiempo", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
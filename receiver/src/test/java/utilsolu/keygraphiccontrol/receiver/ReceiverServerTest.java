@@ -0,0 +1,434 @@
+package utilsolu.keygraphiccontrol.receiver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import utilsolu.keygraphiccontrol.keymap.Keymap;
+import utilsolu.keygraphiccontrol.keymap.KeymapProfile;
+import utilsolu.keygraphiccontrol.metrics.ConnectionMetrics;
+import utilsolu.keygraphiccontrol.metrics.LatencyHistogram;
+import utilsolu.keygraphiccontrol.metrics.LatencyTracker;
+import utilsolu.keygraphiccontrol.net.ClockEstimator;
+import utilsolu.keygraphiccontrol.net.CommandRing;
+import utilsolu.keygraphiccontrol.net.CommandWriter;
+import utilsolu.keygraphiccontrol.net.HeartbeatMonitor;
+import utilsolu.keygraphiccontrol.net.MacroTable;
+import utilsolu.keygraphiccontrol.net.NioSocketTransport;
+import utilsolu.keygraphiccontrol.net.OutboundQueue;
+import utilsolu.keygraphiccontrol.net.ReliableWindow;
+import utilsolu.keygraphiccontrol.net.SendRateController;
+import utilsolu.keygraphiccontrol.net.StateCoalescer;
+import utilsolu.keygraphiccontrol.protocol.Frame;
+import utilsolu.keygraphiccontrol.protocol.FrameEncoder;
+import utilsolu.keygraphiccontrol.protocol.ProtocolNegotiator;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+
+import static org.junit.Assert.*;
+
+/** El receptor contra clientes reales en loopback: texto heredado, pila del teléfono y carga. */
+public class ReceiverServerTest {
+
+    private static final String LOOPBACK = "127.0.0.1";
+
+    private final RecordingSink sink = new RecordingSink(200_000);
+    private ReceiverServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ReceiverServer(new InetSocketAddress(LOOPBACK, 0), 2, sink);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void legacyTextLines_reachSink() throws Exception {
+        try (Socket client = connect()) {
+            send(client, "BUTTON,BTN_IZQUIERDA_3\nDIRECTION,UP\r\nNO_EXISTE,1\nANALOG,-5;7\n");
+
+            assertTrue(sink.awaitCount(3, 2000));
+        }
+        assertEquals(WireProtocol.OP_BUTTON, sink.opcode(0));
+        assertEquals(WireProtocol.SIDE_LEFT, sink.arg0(0));
+        assertEquals(3, sink.arg1(0));
+        assertEquals(WireProtocol.DIR_UP, sink.arg0(1));
+        assertEquals(WireProtocol.OP_ANALOG, sink.opcode(2));
+        assertEquals(-5, sink.arg0(2));
+        assertEquals(0, sink.seq(0));
+    }
+
+    @Test
+    public void phoneStack_negotiatesBinaryAndHeartbeatStaysAlive() throws Exception {
+        NioSocketTransport transport = new NioSocketTransport(NioSocketTransport.DEFAULT_SEND_BUFFER, 1000);
+        CommandRing ring = new CommandRing(16);
+        CommandWriter writer = new CommandWriter(new OutboundQueue(ring, new StateCoalescer(StateCoalescer.CHANNEL_COUNT)),
+                new LatencyTracker(), error -> { });
+        CountDownLatch dead = new CountDownLatch(1);
+        ConnectionMetrics metrics = new ConnectionMetrics();
+        HeartbeatMonitor monitor = new HeartbeatMonitor(20, 3, writer::publishPing, metrics, reason -> dead.countDown());
+        try {
+            transport.connect(LOOPBACK, server.localPort(), 1000);
+            int version = ProtocolNegotiator.negotiate(transport, 1000);
+            assertEquals(WireProtocol.VERSION, version);
+
+            writer.attach(transport, version);
+            writer.start();
+            monitor.start(transport, version);
+            ring.offer(WireProtocol.OP_BUTTON, WireProtocol.SIDE_RIGHT, 4, System.nanoTime());
+            ring.offer(WireProtocol.OP_ZOOM, WireProtocol.ZOOM_IN, 0, System.nanoTime());
+            writer.signal();
+
+            assertTrue(sink.awaitCount(2, 2000));
+            assertEquals(WireProtocol.OP_BUTTON, sink.opcode(0));
+            assertTrue(sink.seq(1) > sink.seq(0));
+            assertFalse(dead.await(200, TimeUnit.MILLISECONDS));
+            assertTrue(metrics.heartbeatRtt().count() > 0);
+            // Los PING los contesta el receptor; no llegan al sink.
+            assertEquals(2, sink.count());
+        } finally {
+            monitor.stop();
+            writer.stop();
+            transport.close();
+        }
+    }
+
+    @Test
+    public void resumedSession_resendsWithoutDuplicatesOrLoss() throws Exception {
+        CommandRing ring = new CommandRing(16);
+        CommandWriter writer = new CommandWriter(new OutboundQueue(ring, new StateCoalescer(StateCoalescer.CHANNEL_COUNT)),
+                new LatencyTracker(), error -> { });
+        NioSocketTransport first = new NioSocketTransport(NioSocketTransport.DEFAULT_SEND_BUFFER, 1000);
+        NioSocketTransport second = new NioSocketTransport(NioSocketTransport.DEFAULT_SEND_BUFFER, 1000);
+        Frame resumed = new Frame();
+        try {
+            writer.start();
+            first.connect(LOOPBACK, server.localPort(), 1000);
+            int version = ProtocolNegotiator.negotiate(first, 1000, 0, resumed);
+            assertEquals(WireProtocol.OP_RESUMED, resumed.opcode);
+            int token = resumed.arg0;
+            assertNotEquals(0, token);
+            writer.attachResumed(first, version, null, resumed.arg1);
+            for (int i = 1; i <= 3; i++) {
+                writer.submit(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, i, System.nanoTime());
+            }
+            assertTrue(sink.awaitCount(3, 2000));
+
+            // Se cae la conexión; sin latidos, los ACK no se han leído y la ventana guarda los 3.
+            writer.detach();
+            first.close();
+            writer.submit(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 4, System.nanoTime());
+            assertEquals(3, writer.reliableWindow().unacknowledged());
+
+            second.connect(LOOPBACK, server.localPort(), 1000);
+            ProtocolNegotiator.negotiate(second, 1000, token, resumed);
+            assertEquals(WireProtocol.OP_RESUMED, resumed.opcode);
+            assertEquals(token, resumed.arg0);
+            assertEquals(3, resumed.arg1);
+            // Como si el RESUMED no confirmara nada: se reenvía toda la ventana y el receptor deduplica.
+            writer.attachResumed(second, version, null, 0);
+
+            assertTrue(sink.awaitCount(4, 2000));
+            Thread.sleep(100);
+            assertEquals(4, sink.count());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i + 1, sink.arg1(i));
+                assertEquals(i + 1, sink.seq(i));
+            }
+            assertEquals(1, server.resumedSessions());
+            assertEquals(3, server.duplicateCommands());
+            assertEquals(3, writer.resentCount());
+        } finally {
+            writer.stop();
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void skewedReceiverClock_isEstimatedAndOneWayLatencyMeasured() throws Exception {
+        long skew = 3_000_000_000L;
+        ReceiverServer skewed = new ReceiverServer(new InetSocketAddress(LOOPBACK, 0), 1, sink,
+                () -> System.nanoTime() + skew);
+        skewed.start();
+        ClockEstimator clock = new ClockEstimator();
+        CommandRing ring = new CommandRing(16);
+        CommandWriter writer = new CommandWriter(new OutboundQueue(ring, new StateCoalescer(StateCoalescer.CHANNEL_COUNT)),
+                new ReliableWindow(ReliableWindow.DEFAULT_CAPACITY), clock, new LatencyTracker(), error -> { });
+        HeartbeatMonitor monitor = new HeartbeatMonitor(10, 5, writer::publishPing, new ConnectionMetrics(), clock,
+                reason -> { });
+        NioSocketTransport transport = new NioSocketTransport(NioSocketTransport.DEFAULT_SEND_BUFFER, 1000);
+        try {
+            transport.connect(LOOPBACK, skewed.localPort(), 1000);
+            int version = ProtocolNegotiator.negotiate(transport, 1000);
+            writer.attach(transport, version);
+            writer.start();
+            monitor.start(transport, version);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+            while (clock.samples() < 20 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(clock.samples() >= 20);
+            // En loopback el RTT mínimo es de décimas de milisegundo.
+            assertEquals(skew, clock.offsetNanos(), 5_000_000);
+
+            for (int i = 0; i < 10; i++) {
+                writer.submit(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, i, System.nanoTime());
+            }
+            assertTrue(sink.awaitCount(10, 2000));
+            LatencyHistogram oneWay = skewed.oneWayLatency();
+            assertEquals(10, oneWay.count());
+            // Sin corregir el desfase la "latencia" sería de 3 s.
+            assertTrue(oneWay.maxNanos() < 50_000_000L);
+        } finally {
+            monitor.stop();
+            writer.stop();
+            transport.close();
+            skewed.close();
+        }
+    }
+
+    @Test
+    public void slowListener_lowersStateRateButDeliversEveryButton() throws Exception {
+        RecordingSink slowSink = new RecordingSink(200_000);
+        ReceiverServer slow = new ReceiverServer(new InetSocketAddress(LOOPBACK, 0), 1,
+                new DelayingSink(slowSink, TimeUnit.MILLISECONDS.toNanos(5)));
+        slow.start();
+        SendRateController rate = new SendRateController();
+        CommandRing ring = new CommandRing(64);
+        CommandWriter writer = new CommandWriter(new OutboundQueue(ring, new StateCoalescer(StateCoalescer.CHANNEL_COUNT)),
+                new ReliableWindow(ReliableWindow.DEFAULT_CAPACITY), null, rate, new LatencyTracker(), error -> { });
+        // Con el listener atascado los PONG llegan tarde; no debe darse por muerto.
+        HeartbeatMonitor monitor = new HeartbeatMonitor(20, 200, writer::publishPing, new ConnectionMetrics(), null,
+                rate, reason -> { });
+        NioSocketTransport transport = new NioSocketTransport(NioSocketTransport.DEFAULT_SEND_BUFFER, 1000);
+        int buttons = 0;
+        int states = 0;
+        try {
+            transport.connect(LOOPBACK, slow.localPort(), 1000);
+            int version = ProtocolNegotiator.negotiate(transport, 1000);
+            writer.attach(transport, version);
+            writer.start();
+            monitor.start(transport, version);
+
+            // 1.5 s de joystick a 1 kHz (dirección y vector) y un botón cada 50 ms, contra un
+            // listener que solo procesa 200 comandos/s.
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1500);
+            for (int i = 0; System.nanoTime() < end; i++) {
+                writer.submit(WireProtocol.OP_DIRECTION, i % 2 == 0 ? WireProtocol.DIR_LEFT : WireProtocol.DIR_RIGHT,
+                        0, System.nanoTime());
+                writer.publishAnalog(i % WireProtocol.ANALOG_MAX, 0);
+                states += 2;
+                if (i % 50 == 0) {
+                    assertTrue(writer.submit(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, ++buttons,
+                            System.nanoTime()));
+                }
+                Thread.sleep(1);
+            }
+
+            assertTrue(rate.decreases() > 0);
+            assertTrue(rate.rateHz() < SendRateController.MAX_RATE_HZ);
+            assertTrue(rate.signals(SendRateController.CAUSE_RTT) > 0);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (countOpcode(slowSink, WireProtocol.OP_BUTTON) < buttons && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+        } finally {
+            monitor.stop();
+            writer.stop();
+            transport.close();
+            slow.close();
+        }
+        assertEquals(buttons, countOpcode(slowSink, WireProtocol.OP_BUTTON));
+        int next = 1;
+        for (int i = 0; i < slowSink.count(); i++) {
+            if (slowSink.opcode(i) == WireProtocol.OP_BUTTON) {
+                assertEquals(next++, slowSink.arg1(i));
+            }
+        }
+        // El estado se agrupó en la ventana del control de ritmo en lugar de encolarse.
+        assertTrue(slowSink.count() - buttons < states / 4);
+    }
+
+    private static int countOpcode(RecordingSink sink, int opcode) {
+        int count = 0;
+        for (int i = 0; i < sink.count(); i++) {
+            if (sink.opcode(i) == opcode) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void macro_runsWithReceiverTimingAndIsNotRepeatedOnResume() throws Exception {
+        long[] deliveredNanos = new long[8];
+        CommandSink timed = (clientId, opcode, seq, arg0, arg1) -> {
+            if (sink.count() < deliveredNanos.length) {
+                deliveredNanos[sink.count()] = System.nanoTime();
+            }
+            sink.onCommand(clientId, opcode, seq, arg0, arg1);
+        };
+        ReceiverServer macroServer = new ReceiverServer(new InetSocketAddress(LOOPBACK, 0), 2, timed);
+        macroServer.start();
+        Keymap keymap = Keymap.compile(new KeymapProfile[]{KeymapProfile.parse(new StringReader(
+                "DERECHA_1 = MACRO DOWN:17 TAP:67 WAIT:80 UP:17\n"))});
+        CommandRing ring = new CommandRing(16);
+        CommandWriter writer = new CommandWriter(new OutboundQueue(ring, new StateCoalescer(StateCoalescer.CHANNEL_COUNT)),
+                new LatencyTracker(), error -> { });
+        writer.setMacros(MacroTable.compile(keymap));
+        NioSocketTransport first = new NioSocketTransport(NioSocketTransport.DEFAULT_SEND_BUFFER, 1000);
+        NioSocketTransport second = new NioSocketTransport(NioSocketTransport.DEFAULT_SEND_BUFFER, 1000);
+        Frame resumed = new Frame();
+        try {
+            writer.start();
+            first.connect(LOOPBACK, macroServer.localPort(), 1000);
+            int version = ProtocolNegotiator.negotiate(first, 1000, 0, resumed);
+            writer.attachResumed(first, version, null, resumed.arg1);
+            int control = Keymap.buttonControl(WireProtocol.SIDE_RIGHT, 1);
+            writer.submit(keymap.opcode(0, control), keymap.arg0(0, control), keymap.arg1(0, control), System.nanoTime());
+            writer.publishAnalog(3, 4);
+
+            assertTrue(sink.awaitCount(4, 2000));
+            // El estado no se cuela entre los pasos; la pausa la aplica el receptor.
+            assertEquals(WireProtocol.OP_KEY, sink.opcode(0));
+            assertEquals(WireProtocol.OP_ANALOG, sink.opcode(2));
+            assertEquals(WireProtocol.OP_KEY, sink.opcode(3));
+            assertEquals(17, sink.arg0(3));
+            assertEquals(WireProtocol.KEY_UP, sink.arg1(3));
+            // La pausa cuenta desde la lectura, un poco antes de entregar el primer paso.
+            assertTrue(deliveredNanos[3] - deliveredNanos[1] >= 75_000_000L);
+            assertEquals(sink.seq(0), sink.seq(3));
+
+            // Reenvío tras reconectar: la macro ya entregada se descarta entera.
+            writer.detach();
+            first.close();
+            second.connect(LOOPBACK, macroServer.localPort(), 1000);
+            ProtocolNegotiator.negotiate(second, 1000, resumed.arg0, resumed);
+            writer.attachResumed(second, version, null, 0);
+            writer.submit(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 5, System.nanoTime());
+
+            assertTrue(sink.awaitCount(5, 2000));
+            assertEquals(WireProtocol.OP_BUTTON, sink.opcode(4));
+            // Los contadores del receptor se actualizan justo después de entregar.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (macroServer.commands() < 5 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, macroServer.macros());
+            assertEquals(1, macroServer.duplicateCommands());
+            assertEquals(5, macroServer.commands());
+        } finally {
+            writer.stop();
+            first.close();
+            second.close();
+            macroServer.close();
+        }
+    }
+
+    @Test
+    public void interruptedMacro_disconnects() throws Exception {
+        // Cabecera de dos pasos, el primero y, en lugar del segundo, un botón.
+        ByteBuffer frames = ByteBuffer.allocate(3 * WireProtocol.FRAME_SIZE);
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.encode(WireProtocol.OP_MACRO, 2, 0, frames);
+        encoder.encodeWithSeq(WireProtocol.OP_MACRO_STEP, 0, 0, 65, WireProtocol.KEY_TAP, frames);
+        encoder.encode(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, 1, frames);
+        try (Socket client = handshake(connect())) {
+            client.getOutputStream().write(frames.array());
+            assertTrue(sink.awaitDisconnected(1, 2000));
+        }
+        assertEquals(1, server.protocolErrors());
+        assertEquals(0, sink.count());
+    }
+
+    @Test
+    public void binaryBurst_isReceivedCompletely() throws Exception {
+        int frames = 100_000;
+        byte[] burst = new byte[frames * WireProtocol.FRAME_SIZE];
+        FrameEncoder encoder = new FrameEncoder();
+        for (int i = 0; i < frames; i++) {
+            encoder.encode(WireProtocol.OP_ANALOG, i % 127, -(i % 127), burst, i * WireProtocol.FRAME_SIZE);
+        }
+        try (Socket client = handshake(connect())) {
+            client.getOutputStream().write(burst);
+
+            assertTrue(sink.awaitCount(frames, 10_000));
+        }
+        assertEquals(frames, server.commands());
+        // En orden y sin perder ninguno.
+        for (int i = 0; i < frames; i++) {
+            assertEquals(i % 127, sink.arg0(i));
+        }
+    }
+
+    @Test
+    public void badFrame_disconnectsOnlyThatClient() throws Exception {
+        try (Socket good = connect(); Socket bad = handshake(connect())) {
+            bad.getOutputStream().write(new byte[WireProtocol.FRAME_SIZE]);
+            assertTrue(sink.awaitDisconnected(1, 2000));
+            assertEquals(1, server.protocolErrors());
+
+            send(good, "ZOOM,OUT\n");
+            assertTrue(sink.awaitCount(1, 2000));
+        }
+    }
+
+    @Test
+    public void overlongLine_disconnects() throws Exception {
+        try (Socket client = connect()) {
+            send(client, new String(new char[ClientSession.MAX_LINE_BYTES + 1]).replace('\0', 'A'));
+            assertTrue(sink.awaitDisconnected(1, 2000));
+        }
+        assertEquals(1, server.protocolErrors());
+    }
+
+    @Test
+    public void clientsBeyondLimit_areRejected() throws Exception {
+        try (Socket first = connect(); Socket second = connect(); Socket third = connect()) {
+            assertEquals(-1, third.getInputStream().read());
+            send(first, "DIRECTION,LEFT\n");
+            send(second, "DIRECTION,RIGHT\n");
+            assertTrue(sink.awaitCount(2, 2000));
+        }
+        assertEquals(1, server.rejectedClients());
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(LOOPBACK, server.localPort());
+        socket.setSoTimeout(2000);
+        return socket;
+    }
+
+    private static Socket handshake(Socket socket) throws IOException {
+        send(socket, WireProtocol.helloLine() + "\n");
+        InputStream in = socket.getInputStream();
+        StringBuilder reply = new StringBuilder();
+        for (int c = in.read(); c != '\n' && c >= 0; c = in.read()) {
+            reply.append((char) c);
+        }
+        assertEquals(WireProtocol.helloReplyLine(WireProtocol.VERSION), reply.toString());
+        return socket;
+    }
+
+    private static void send(Socket socket, String text) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+}
@@ -0,0 +1,118 @@
+package utilsolu.keygraphiccontrol.receiver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import utilsolu.keygraphiccontrol.metrics.LatencyTracker;
+import utilsolu.keygraphiccontrol.net.CommandRing;
+import utilsolu.keygraphiccontrol.net.CommandWriter;
+import utilsolu.keygraphiccontrol.net.NioSocketTransport;
+import utilsolu.keygraphiccontrol.net.OutboundQueue;
+import utilsolu.keygraphiccontrol.net.StateCoalescer;
+import utilsolu.keygraphiccontrol.protocol.ProtocolNegotiator;
+import utilsolu.keygraphiccontrol.protocol.WireProtocol;
+import utilsolu.keygraphiccontrol.replay.ReplayReport;
+import utilsolu.keygraphiccontrol.replay.SessionRecorder;
+import utilsolu.keygraphiccontrol.replay.SessionReplayer;
+
+import static org.junit.Assert.*;
+
+/** Grabación reproducida con la pila de envío real contra el receptor de loopback. */
+public class SessionReplayTest {
+
+    private static final String LOOPBACK = "127.0.0.1";
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private final RecordingSink sink = new RecordingSink(100_000);
+    private ReceiverServer server;
+    private NioSocketTransport transport;
+    private CommandWriter writer;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ReceiverServer(new InetSocketAddress(LOOPBACK, 0), 1, sink);
+        server.start();
+        transport = new NioSocketTransport(NioSocketTransport.DEFAULT_SEND_BUFFER, 1000);
+        transport.connect(LOOPBACK, server.localPort(), 1000);
+        // Cola pequeña: a velocidad máxima el reproductor tiene que esperar al escritor.
+        writer = new CommandWriter(new OutboundQueue(new CommandRing(16), new StateCoalescer(StateCoalescer.CHANNEL_COUNT)),
+                new LatencyTracker(), error -> { });
+        writer.attach(transport, ProtocolNegotiator.negotiate(transport, 1000));
+        writer.start();
+    }
+
+    @After
+    public void tearDown() {
+        writer.stop();
+        transport.close();
+        server.close();
+    }
+
+    @Test
+    public void maxSpeedReplay_deliversEveryButtonInOrder() throws Exception {
+        File recording = record(2_000, 1_000_000L);
+
+        ReplayReport report = new SessionReplayer(writer).replay(recording, SessionReplayer.MAX_SPEED, 0);
+
+        assertEquals(2_000, report.commands);
+        assertEquals(1, report.passes);
+        assertTrue(sink.awaitCount(1_000, 2000));
+        int buttons = 0;
+        for (int i = 0; i < sink.count(); i++) {
+            if (sink.opcode(i) == WireProtocol.OP_BUTTON) {
+                assertEquals(++buttons, sink.arg1(i));
+            }
+        }
+        assertEquals(1_000, buttons);
+    }
+
+    @Test
+    public void pacedReplay_followsRecordedTimingScaledBySpeed() throws Exception {
+        // 20 comandos cada 10 ms = 190 ms grabados; a 2x, ~95 ms.
+        File recording = record(20, 10_000_000L);
+
+        ReplayReport report = new SessionReplayer(writer).replay(recording, 2, 0);
+
+        assertEquals(20, report.commands);
+        assertTrue("demasiado rápido: " + report.elapsedNanos, report.elapsedNanos >= TimeUnit.MILLISECONDS.toNanos(90));
+        assertTrue("demasiado lento: " + report.elapsedNanos, report.elapsedNanos < TimeUnit.MILLISECONDS.toNanos(1000));
+    }
+
+    @Test
+    public void timedReplay_loopsRecording() throws Exception {
+        File recording = record(10, 1_000_000L);
+
+        ReplayReport report = new SessionReplayer(writer).replay(recording, 1, TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertTrue("pasadas: " + report.passes, report.passes >= 3);
+        assertTrue(sink.awaitCount((int) report.passes * 5, 2000));
+    }
+
+    /** Alterna botones (índice creciente) y direcciones, separados {@code stepNanos}. */
+    private File record(int commands, long stepNanos) throws IOException {
+        File file = tmp.newFile();
+        SessionRecorder recorder = new SessionRecorder(SessionRecorder.DEFAULT_RING_CAPACITY);
+        recorder.start(file);
+        for (int i = 0; i < commands; i++) {
+            long at = i * stepNanos;
+            if ((i & 1) == 0) {
+                assertTrue(recorder.record(WireProtocol.OP_BUTTON, WireProtocol.SIDE_LEFT, i / 2 + 1, at));
+            } else {
+                assertTrue(recorder.record(WireProtocol.OP_DIRECTION, 1 + (i / 2) % 4, 0, at));
+            }
+        }
+        recorder.stop();
+        assertEquals(commands, recorder.recordedCount());
+        return file;
+    }
+}